@@ -100,6 +100,7 @@ public class AndroidRelayClientConfig extends RelayClientConfig {
 		// if GCM servers changed, send them again to the relay
 		if(gcmServersChanged.get()) {
 			LOG.debug("Sending updated GCM server list as well");
+			// follows the neighbor sets of the peer map, see PeerMapDelta
 			message.neighborsSet(new NeighborSet(-1, gcmServers));
 			gcmServersChanged.set(false);
 		}
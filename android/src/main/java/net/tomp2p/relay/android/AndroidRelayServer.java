@@ -3,8 +3,10 @@ package net.tomp2p.relay.android;
 import java.util.concurrent.atomic.AtomicLong;
 
 import net.tomp2p.message.Message;
+import net.tomp2p.message.NeighborSet;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.relay.PeerMapDelta;
 import net.tomp2p.relay.RelayType;
 import net.tomp2p.relay.android.gcm.FutureGCM;
 import net.tomp2p.relay.android.gcm.IGCMSender;
@@ -59,10 +61,12 @@ public class AndroidRelayServer extends BufferedRelayServer {
 		lastUpdate.set(System.currentTimeMillis());
 		LOG.trace("Timeout for {} refreshed", registrationId);
 
-		if (requestMessage.neighborsSet(1) != null && sender instanceof RemoteGCMSender) {
+		// the GCM servers follow the neighbor sets of the peer map
+		final NeighborSet gcmServers = requestMessage.neighborsSet(PeerMapDelta.nrOfNeighborSets(requestMessage));
+		if (gcmServers != null && sender instanceof RemoteGCMSender) {
 			// update the GCM servers
 			RemoteGCMSender remoteGCMSender = (RemoteGCMSender) sender;
-			remoteGCMSender.gcmServers(requestMessage.neighborsSet(1).neighbors());
+			remoteGCMSender.gcmServers(gcmServers.neighbors());
 			LOG.debug("Received update of the GCM servers");
 		}
 
@@ -0,0 +1,158 @@
+package net.tomp2p.relay.android;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.message.Buffer;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.relay.PeerMapDelta;
+import net.tomp2p.relay.RelayUtils;
+import net.tomp2p.relay.android.gcm.RemoteGCMSender;
+import net.tomp2p.relay.buffer.MessageBufferConfiguration;
+import net.tomp2p.rpc.RPC;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the GCM servers that an Android device sends with its map updates do not disturb the peer map
+ * deltas.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class TestAndroidPeerMapUpdate {
+
+	private static final int NR_OF_PEERS = 50;
+	private static final int CHURN = 5;
+
+	private final SignatureFactory signature = new DSASignatureFactory();
+	private final Random rnd = new Random(42);
+	private Peer relay;
+
+	@Before
+	public void setup() throws Exception {
+		relay = new PeerBuilder(new Number160(1)).ports(5121).start();
+	}
+
+	@After
+	public void shutdown() {
+		relay.shutdown().awaitUninterruptibly();
+	}
+
+	@Test
+	public void testDeltaWithGCMServers() throws Exception {
+		MockedAndroidRelayClientConfig clientConfig = new MockedAndroidRelayClientConfig(10);
+		RecordingGCMSender sender = new RecordingGCMSender(relay);
+		AndroidRelayServer server = new AndroidRelayServer(relay, UtilsNAT.createRandomAddress(),
+				new MessageBufferConfiguration(), "registration-id", sender, 10);
+		PeerMapDelta peerMapDelta = new PeerMapDelta();
+		List<PeerAddress> peerMap = createPeers(NR_OF_PEERS);
+
+		// the full peer map together with the GCM servers
+		Set<PeerAddress> gcmServers = new HashSet<PeerAddress>(createPeers(2));
+		clientConfig.gcmServers(gcmServers);
+		Message full = createMessage();
+		Assert.assertFalse(peerMapDelta.prepare(full, peerMap, false));
+		clientConfig.prepareMapUpdateMessage(full);
+		update(server, full);
+		Assert.assertEquals(new HashSet<PeerAddress>(peerMap), new HashSet<PeerAddress>(server.getPeerMap()));
+		Assert.assertEquals(gcmServers, new HashSet<PeerAddress>(sender.gcmServers));
+
+		// acknowledged by a relay that does not announce compact sets, the delta uses neighbor sets
+		Message reply = UtilsNAT.createRandomMessage().type(Type.OK);
+		reply.intValue(PeerMapDelta.version(full));
+		Assert.assertTrue(peerMapDelta.acknowledged(full, reply));
+		churn(peerMap);
+		gcmServers = new HashSet<PeerAddress>(createPeers(1));
+		clientConfig.gcmServers(gcmServers);
+		Message delta = createMessage();
+		Assert.assertTrue(peerMapDelta.prepare(delta, peerMap, false));
+		clientConfig.prepareMapUpdateMessage(delta);
+		Assert.assertTrue(peerMapDelta.acknowledged(delta, update(server, delta)));
+		Assert.assertEquals(new HashSet<PeerAddress>(peerMap), new HashSet<PeerAddress>(server.getPeerMap()));
+		Assert.assertEquals(gcmServers, new HashSet<PeerAddress>(sender.gcmServers));
+
+		// the relay announced compact sets
+		Assert.assertTrue(peerMapDelta.isCompact());
+		churn(peerMap);
+		gcmServers = new HashSet<PeerAddress>(createPeers(3));
+		clientConfig.gcmServers(gcmServers);
+		delta = createMessage();
+		Assert.assertTrue(peerMapDelta.prepare(delta, peerMap, false));
+		clientConfig.prepareMapUpdateMessage(delta);
+		Assert.assertTrue(peerMapDelta.acknowledged(delta, update(server, delta)));
+		Assert.assertEquals(new HashSet<PeerAddress>(peerMap), new HashSet<PeerAddress>(server.getPeerMap()));
+		Assert.assertEquals(gcmServers, new HashSet<PeerAddress>(sender.gcmServers));
+
+		// without changed GCM servers, they are not sent again
+		churn(peerMap);
+		delta = createMessage();
+		Assert.assertTrue(peerMapDelta.prepare(delta, peerMap, false));
+		clientConfig.prepareMapUpdateMessage(delta);
+		Assert.assertTrue(peerMapDelta.acknowledged(delta, update(server, delta)));
+		Assert.assertEquals(new HashSet<PeerAddress>(peerMap), new HashSet<PeerAddress>(server.getPeerMap()));
+		Assert.assertEquals(gcmServers, new HashSet<PeerAddress>(sender.gcmServers));
+	}
+
+	private Message update(AndroidRelayServer server, Message request) throws Exception {
+		// the relay receives the decoded message
+		Buffer encoded = RelayUtils.encodeMessage(request, signature);
+		Message decoded = RelayUtils.decodeMessage(encoded.buffer(), request.recipientSocket(),
+				request.senderSocket(), signature);
+		Message response = UtilsNAT.createRandomMessage().type(Type.OK);
+		server.updatePeerMap(decoded, response);
+		return response;
+	}
+
+	private void churn(List<PeerAddress> peerMap) throws Exception {
+		for (int i = 0; i < CHURN; i++) {
+			peerMap.remove(rnd.nextInt(peerMap.size()));
+		}
+		peerMap.addAll(createPeers(CHURN));
+	}
+
+	private Message createMessage() {
+		Message message = UtilsNAT.createRandomMessage();
+		message.command(RPC.Commands.RELAY.getNr());
+		message.type(Type.REQUEST_3);
+		return message;
+	}
+
+	private List<PeerAddress> createPeers(int nrOfPeers) throws Exception {
+		List<PeerAddress> peers = new ArrayList<PeerAddress>(nrOfPeers);
+		for (int i = 0; i < nrOfPeers; i++) {
+			peers.add(UtilsNAT.createRandomAddress());
+		}
+		return peers;
+	}
+
+	private static class RecordingGCMSender extends RemoteGCMSender {
+
+		private Collection<PeerAddress> gcmServers = Collections.emptyList();
+
+		public RecordingGCMSender(Peer peer) {
+			super(peer, new ArrayList<PeerAddress>());
+		}
+
+		@Override
+		public void gcmServers(Collection<PeerAddress> gcmServers) {
+			super.gcmServers(gcmServers);
+			this.gcmServers = gcmServers;
+		}
+	}
+}
@@ -11,7 +11,6 @@ import net.tomp2p.p2p.PeerBuilder;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerMap;
 import net.tomp2p.peers.PeerMapConfiguration;
-import net.tomp2p.utils.InteropRandom;
 
 public class BenchmarkUtil {
 
@@ -34,7 +33,7 @@ public class BenchmarkUtil {
 		Number160 masterId = createRandomId(rnd);
 		PeerMap masterMap = new PeerMap(new PeerMapConfiguration(masterId));
 		PeerBuilder pb = new PeerBuilder(masterId).ports(port).enableMaintenance(maintenance)
-				.externalBindings(new Bindings()).peerMap(masterMap);
+				.bindings(new Bindings()).peerMap(masterMap);
 		if (!timeout) {
 			pb.channelServerConfiguration(createInfiniteTimeoutChannelServerConfiguration(port));
 		}
@@ -52,7 +51,7 @@ public class BenchmarkUtil {
 		Number160 slaveId = createRandomId(rnd);
 		PeerMap slaveMap = new PeerMap(new PeerMapConfiguration(slaveId).peerNoVerification());
 		PeerBuilder pb = new PeerBuilder(slaveId).masterPeer(master).enableMaintenance(maintenance)
-				.externalBindings(new Bindings()).peerMap(slaveMap);
+				.bindings(new Bindings()).peerMap(slaveMap);
 		if (!timeout) {
 			pb.channelServerConfiguration(createInfiniteTimeoutChannelServerConfiguration(Ports.DEFAULT_PORT));
 		}
@@ -68,7 +67,7 @@ public class BenchmarkUtil {
 	 * @return
 	 */
 	public static ChannelServerConfiguration createInfiniteTimeoutChannelServerConfiguration(int port) {
-		return PeerBuilder.createDefaultChannelServerConfiguration().idleTCPSeconds(0).idleUDPSeconds(0)
+		return PeerBuilder.createDefaultChannelServerConfiguration().idleTCPMillis(0).idleUDPMillis(0)
 				.connectionTimeoutTCPMillis(0).ports(new Ports(port, port));
 	}
 
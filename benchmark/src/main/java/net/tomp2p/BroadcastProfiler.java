@@ -0,0 +1,79 @@
+package net.tomp2p;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.StructuredBroadcastHandler;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+/**
+ * Broadcasts a data map in an overlay of several hundred peers in the same JVM and waits until every peer received it.
+ * All peers know each other, so with TCP the broadcast reaches all peers. With UDP, some of the packets sent at once
+ * to the same host get dropped, a round then ends after waiting {@link #MAX_WAIT_MILLIS} and prints how many peers it
+ * reached.
+ */
+public class BroadcastProfiler extends Profiler {
+
+	private static final int NETWORK_SIZE = 300;
+	private static final int NR_DATA = 4;
+	// small enough to fit into one UDP packet
+	private static final int DATA_SIZE = 128;
+	private static final int MAX_WAIT_MILLIS = 5000;
+
+	private final boolean isUDP;
+	private final NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+	private StructuredBroadcastHandler handler;
+	private int round = 0;
+
+	public BroadcastProfiler(boolean isUDP) {
+		this.isUDP = isUDP;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("Broadcast with %s to %s peers\n", isUDP ? "UDP" : "TCP", NETWORK_SIZE);
+		Network = BenchmarkUtil.createNodes(NETWORK_SIZE, Rnd, 9099, false, false);
+		for (Peer peer : Network) {
+			for (Peer other : Network) {
+				if (peer != other) {
+					peer.peerBean().peerMap().peerFound(other.peerAddress(), null, null, null);
+				}
+			}
+		}
+		for (int i = 0; i < NR_DATA; i++) {
+			byte[] value = new byte[DATA_SIZE];
+			for (int j = 0; j < DATA_SIZE; j++) {
+				value[j] = (byte) Rnd.nextInt(256);
+			}
+			dataMap.put(new Number640(new Number160(Rnd.nextInt(Integer.MAX_VALUE)), Number160.ZERO, Number160.ZERO,
+					Number160.ZERO), new Data(value));
+		}
+		handler = (StructuredBroadcastHandler) Network[0].broadcastRPC().broadcastHandler();
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (Network != null && Network[0] != null) {
+			Network[0].shutdown().awaitUninterruptibly();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		// the counter is shared by all peers in this JVM
+		final int expected = handler.broadcastCounter() + NETWORK_SIZE;
+		Network[0].broadcast(Number160.createHash("broadcast-" + round++)).dataMap(dataMap).udp(isUDP).start();
+		final long start = System.currentTimeMillis();
+		while (handler.broadcastCounter() < expected) {
+			if (System.currentTimeMillis() - start > MAX_WAIT_MILLIS) {
+				System.out.printf("Broadcast reached only %s of %s peers\n",
+						NETWORK_SIZE - (expected - handler.broadcastCounter()), NETWORK_SIZE);
+				return;
+			}
+			Thread.sleep(1);
+		}
+	}
+}
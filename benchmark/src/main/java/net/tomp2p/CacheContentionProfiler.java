@@ -0,0 +1,63 @@
+package net.tomp2p;
+
+import java.util.concurrent.CountDownLatch;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+/**
+ * Reads and writes a {@link ConcurrentCacheMap} from several threads. 90% of the operations are reads, the key space
+ * is twice the capacity of the map, so the eviction is exercised as well.
+ */
+public class CacheContentionProfiler extends Profiler {
+
+	private static final int NR_KEYS = 2 * ConcurrentCacheMap.MAX_ENTRIES;
+	private static final int OPERATIONS_PER_THREAD = 1000000;
+
+	private final int nrThreads;
+	private final Number160[] keys = new Number160[NR_KEYS];
+	private ConcurrentCacheMap<Number160, Boolean> cache;
+
+	public CacheContentionProfiler(int nrThreads) {
+		this.nrThreads = nrThreads;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("Threads: %s\n", nrThreads);
+		for (int i = 0; i < NR_KEYS; i++) {
+			keys[i] = new Number160(Rnd.nextInt(Integer.MAX_VALUE));
+		}
+		cache = new ConcurrentCacheMap<Number160, Boolean>();
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		// nothing to do
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(nrThreads);
+		for (int t = 0; t < nrThreads; t++) {
+			final int seed = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int index = seed * 7919;
+					for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+						index = (index * 1103515245 + 12345) & Integer.MAX_VALUE;
+						final Number160 key = keys[index % NR_KEYS];
+						if (i % 10 == 0) {
+							cache.put(key, Boolean.TRUE);
+						} else {
+							cache.get(key);
+						}
+					}
+					latch.countDown();
+				}
+			}).start();
+		}
+		latch.await();
+	}
+}
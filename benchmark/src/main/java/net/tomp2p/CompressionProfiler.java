@@ -0,0 +1,82 @@
+package net.tomp2p;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.storage.AlternativeCompositeByteBuf;
+import net.tomp2p.storage.Data;
+
+/**
+ * Encodes and decodes data objects with and without compression. The payload is either JSON-like text, which
+ * compresses well, or random bytes, where {@link Data#compress()} keeps the raw payload.
+ */
+public class CompressionProfiler extends Profiler {
+
+	private static final int NR_VALUES = 100;
+	private static final int VALUE_SIZE = 64 * 1024;
+
+	private final boolean compressible;
+	private final boolean compress;
+	private final DSASignatureFactory factory = new DSASignatureFactory();
+	private final Data[] values = new Data[NR_VALUES];
+
+	public CompressionProfiler(boolean compressible, boolean compress) {
+		this.compressible = compressible;
+		this.compress = compress;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("Compressible payload: %s, compress: %s\n", compressible, compress);
+		for (int i = 0; i < NR_VALUES; i++) {
+			values[i] = new Data(createPayload());
+		}
+	}
+
+	private byte[] createPayload() {
+		byte[] payload = new byte[VALUE_SIZE];
+		if (compressible) {
+			StringBuilder sb = new StringBuilder(VALUE_SIZE);
+			while (sb.length() < VALUE_SIZE) {
+				sb.append("{\"id\":").append(Rnd.nextInt(1000)).append(",\"name\":\"peer\",\"online\":true}");
+			}
+			System.arraycopy(sb.toString().getBytes(), 0, payload, 0, VALUE_SIZE);
+		} else {
+			for (int i = 0; i < VALUE_SIZE; i++) {
+				payload[i] = (byte) Rnd.nextInt(256);
+			}
+		}
+		return payload;
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		// nothing to do
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		long wireBytes = 0;
+		for (Data value : values) {
+			Data data = compress ? value.compress() : value;
+			AlternativeCompositeByteBuf transfer = AlternativeCompositeByteBuf
+					.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
+			data.encodeHeader(transfer, factory);
+			data.encodeBuffer(transfer);
+			data.encodeDone(transfer, factory);
+			wireBytes += transfer.readableBytes();
+
+			ByteBuf flat = Unpooled.buffer(transfer.readableBytes());
+			flat.writeBytes(transfer);
+			Data decoded = Data.decodeHeader(flat, factory);
+			decoded.decodeBuffer(flat);
+			decoded.decodeDone(flat, factory);
+			// the receiver needs the raw payload
+			decoded.toBytes();
+			transfer.release();
+			flat.release();
+		}
+		System.out.printf("%s bytes on the wire\n", wireBytes);
+	}
+}
@@ -105,6 +105,246 @@ public class Inbox {
 						break;
 				}
 				break;
+			case "udp-load-single":
+				switch (args.getType()) {
+					case "cpu":
+						results = new UdpLoadProfiler(1).profileCpu(args);
+						break;
+					case "memory":
+						results = new UdpLoadProfiler(1).profileMemory(args);
+						break;
+				}
+				break;
+			case "udp-load-multi":
+				switch (args.getType()) {
+					case "cpu":
+						results = new UdpLoadProfiler(Runtime.getRuntime().availableProcessors()).profileCpu(args);
+						break;
+					case "memory":
+						results = new UdpLoadProfiler(Runtime.getRuntime().availableProcessors()).profileMemory(args);
+						break;
+				}
+				break;
+			case "compression-text-raw":
+				switch (args.getType()) {
+					case "cpu":
+						results = new CompressionProfiler(true, false).profileCpu(args);
+						break;
+					case "memory":
+						results = new CompressionProfiler(true, false).profileMemory(args);
+						break;
+				}
+				break;
+			case "compression-text":
+				switch (args.getType()) {
+					case "cpu":
+						results = new CompressionProfiler(true, true).profileCpu(args);
+						break;
+					case "memory":
+						results = new CompressionProfiler(true, true).profileMemory(args);
+						break;
+				}
+				break;
+			case "compression-random-raw":
+				switch (args.getType()) {
+					case "cpu":
+						results = new CompressionProfiler(false, false).profileCpu(args);
+						break;
+					case "memory":
+						results = new CompressionProfiler(false, false).profileMemory(args);
+						break;
+				}
+				break;
+			case "compression-random":
+				switch (args.getType()) {
+					case "cpu":
+						results = new CompressionProfiler(false, true).profileCpu(args);
+						break;
+					case "memory":
+						results = new CompressionProfiler(false, true).profileMemory(args);
+						break;
+				}
+				break;
+			case "object-codec-java":
+				switch (args.getType()) {
+					case "cpu":
+						results = new ObjectCodecProfiler(false).profileCpu(args);
+						break;
+					case "memory":
+						results = new ObjectCodecProfiler(false).profileMemory(args);
+						break;
+				}
+				break;
+			case "object-codec-compact":
+				switch (args.getType()) {
+					case "cpu":
+						results = new ObjectCodecProfiler(true).profileCpu(args);
+						break;
+					case "memory":
+						results = new ObjectCodecProfiler(true).profileMemory(args);
+						break;
+				}
+				break;
+			case "cache-contention-single":
+				switch (args.getType()) {
+					case "cpu":
+						results = new CacheContentionProfiler(1).profileCpu(args);
+						break;
+					case "memory":
+						results = new CacheContentionProfiler(1).profileMemory(args);
+						break;
+				}
+				break;
+			case "cache-contention-multi":
+				switch (args.getType()) {
+					case "cpu":
+						results = new CacheContentionProfiler(Runtime.getRuntime().availableProcessors()).profileCpu(args);
+						break;
+					case "memory":
+						results = new CacheContentionProfiler(Runtime.getRuntime().availableProcessors()).profileMemory(args);
+						break;
+				}
+				break;
+			case "peer-map-contention-single":
+				switch (args.getType()) {
+					case "cpu":
+						results = new PeerMapContentionProfiler(1).profileCpu(args);
+						break;
+					case "memory":
+						results = new PeerMapContentionProfiler(1).profileMemory(args);
+						break;
+				}
+				break;
+			case "peer-map-contention-multi":
+				switch (args.getType()) {
+					case "cpu":
+						results = new PeerMapContentionProfiler(Runtime.getRuntime().availableProcessors()).profileCpu(args);
+						break;
+					case "memory":
+						results = new PeerMapContentionProfiler(Runtime.getRuntime().availableProcessors()).profileMemory(args);
+						break;
+				}
+				break;
+			case "broadcast-udp":
+				switch (args.getType()) {
+					case "cpu":
+						results = new BroadcastProfiler(true).profileCpu(args);
+						break;
+					case "memory":
+						results = new BroadcastProfiler(true).profileMemory(args);
+						break;
+				}
+				break;
+			case "broadcast-tcp":
+				switch (args.getType()) {
+					case "cpu":
+						results = new BroadcastProfiler(false).profileCpu(args);
+						break;
+					case "memory":
+						results = new BroadcastProfiler(false).profileMemory(args);
+						break;
+				}
+				break;
+			case "routed-get-allocation":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RoutedGetAllocationProfiler().profileCpu(args);
+						break;
+					case "memory":
+						results = new RoutedGetAllocationProfiler().profileMemory(args);
+						break;
+				}
+				break;
+			case "relay-throughput-direct":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RelayThroughputProfiler(false).profileCpu(args);
+						break;
+					case "memory":
+						results = new RelayThroughputProfiler(false).profileMemory(args);
+						break;
+				}
+				break;
+			case "relay-throughput-relayed":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RelayThroughputProfiler(true).profileCpu(args);
+						break;
+					case "memory":
+						results = new RelayThroughputProfiler(true).profileMemory(args);
+						break;
+				}
+				break;
+			case "peer-map-update-full":
+				switch (args.getType()) {
+					case "cpu":
+						results = new PeerMapUpdateProfiler(false).profileCpu(args);
+						break;
+					case "memory":
+						results = new PeerMapUpdateProfiler(false).profileMemory(args);
+						break;
+				}
+				break;
+			case "peer-map-update-delta":
+				switch (args.getType()) {
+					case "cpu":
+						results = new PeerMapUpdateProfiler(true).profileCpu(args);
+						break;
+					case "memory":
+						results = new PeerMapUpdateProfiler(true).profileMemory(args);
+						break;
+				}
+				break;
+			case "routing-table-seed":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RoutingTableProfiler(false).profileCpu(args);
+						break;
+					case "memory":
+						results = new RoutingTableProfiler(false).profileMemory(args);
+						break;
+				}
+				break;
+			case "routing-table-snapshot":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RoutingTableProfiler(true).profileCpu(args);
+						break;
+					case "memory":
+						results = new RoutingTableProfiler(true).profileMemory(args);
+						break;
+				}
+				break;
+			case "rsync-1kb":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RSyncProfiler(1024).profileCpu(args);
+						break;
+					case "memory":
+						results = new RSyncProfiler(1024).profileMemory(args);
+						break;
+				}
+				break;
+			case "rsync-1mb":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RSyncProfiler(1024 * 1024).profileCpu(args);
+						break;
+					case "memory":
+						results = new RSyncProfiler(1024 * 1024).profileMemory(args);
+						break;
+				}
+				break;
+			case "rsync-100mb":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RSyncProfiler(100 * 1024 * 1024).profileCpu(args);
+						break;
+					case "memory":
+						results = new RSyncProfiler(100 * 1024 * 1024).profileMemory(args);
+						break;
+				}
+				break;
 			default:
 				throw new IllegalArgumentException("No valid benchmark argument.");
 		}
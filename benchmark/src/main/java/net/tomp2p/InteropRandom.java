@@ -0,0 +1,47 @@
+package net.tomp2p;
+
+/**
+ * A pseudo random generator with the linear congruential algorithm of {@link java.util.Random}, written out so that
+ * the .NET port of the benchmarks can create the same sequence of peer IDs and payloads from the same seed.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public class InteropRandom {
+
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+
+	private long seed;
+
+	public InteropRandom(long seed) {
+		this.seed = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	/**
+	 * @param n
+	 *            The bound, must be positive
+	 * @return A pseudo random value between 0 (inclusive) and n (exclusive)
+	 */
+	public int nextInt(int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n must be positive");
+		}
+		if ((n & -n) == n) {
+			// n is a power of 2
+			return (int) ((n * (long) next(31)) >> 31);
+		}
+		int bits, val;
+		do {
+			bits = next(31);
+			val = bits % n;
+		} while (bits - val + (n - 1) < 0);
+		return val;
+	}
+
+	private int next(int bits) {
+		seed = (seed * MULTIPLIER + ADDEND) & MASK;
+		return (int) (seed >>> (48 - bits));
+	}
+}
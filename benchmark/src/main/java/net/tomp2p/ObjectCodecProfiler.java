@@ -0,0 +1,98 @@
+package net.tomp2p;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.CompactObjectCodec;
+import net.tomp2p.storage.Data;
+import net.tomp2p.storage.JavaObjectCodec;
+import net.tomp2p.storage.ObjectCodec;
+
+/**
+ * Encodes and decodes typical POJOs with an {@link ObjectCodec} from several threads.
+ */
+public class ObjectCodecProfiler extends Profiler {
+
+	private static final int NR_OBJECTS = 10000;
+	private static final int NR_THREADS = 4;
+
+	private final ObjectCodec codec;
+	private final List<Object> objects = new ArrayList<Object>(NR_OBJECTS);
+
+	public ObjectCodecProfiler(boolean compact) {
+		if (compact) {
+			this.codec = new CompactObjectCodec().register(User.class, Message.class);
+		} else {
+			this.codec = new JavaObjectCodec();
+		}
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("Codec: %s\n", codec.getClass().getSimpleName());
+		for (int i = 0; i < NR_OBJECTS; i++) {
+			User user = new User(new Number160(Rnd.nextInt(Integer.MAX_VALUE)), "user" + i, Rnd.nextInt(100));
+			objects.add(new Message(user, "message " + i, System.currentTimeMillis()));
+		}
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		// nothing to do
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final Exception[] error = new Exception[1];
+		Thread[] threads = new Thread[NR_THREADS];
+		for (int t = 0; t < NR_THREADS; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (Object object : objects) {
+							new Data(object, codec).object(codec);
+						}
+					} catch (Exception e) {
+						error[0] = e;
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (error[0] != null) {
+			throw error[0];
+		}
+	}
+
+	private static class User implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final Number160 id;
+		private final String name;
+		private final int age;
+
+		User(Number160 id, String name, int age) {
+			this.id = id;
+			this.name = name;
+			this.age = age;
+		}
+	}
+
+	private static class Message implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final User from;
+		private final String text;
+		private final long timestamp;
+
+		Message(User from, String text, long timestamp) {
+			this.from = from;
+			this.text = text;
+			this.timestamp = timestamp;
+		}
+	}
+}
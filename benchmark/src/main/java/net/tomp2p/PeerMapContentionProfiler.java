@@ -0,0 +1,83 @@
+package net.tomp2p;
+
+import java.util.concurrent.CountDownLatch;
+
+import net.tomp2p.connection.PeerException;
+import net.tomp2p.connection.PeerException.AbortCause;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapConfiguration;
+
+/**
+ * Looks up close peers in a {@link PeerMap} from several threads while one thread churns the map, i.e., lets peers
+ * fail and finds new ones. This resembles routing requests that are served while the maintenance and incoming
+ * messages change the map.
+ */
+public class PeerMapContentionProfiler extends Profiler {
+
+	private static final int NR_PEERS = 2000;
+	private static final int LOOKUPS_PER_THREAD = 100000;
+	private static final int CLOSE_PEERS = 20;
+
+	private final int nrReaders;
+	private final PeerAddress[] peers = new PeerAddress[NR_PEERS];
+	private final Number160[] keys = new Number160[NR_PEERS];
+	private PeerMap peerMap;
+
+	public PeerMapContentionProfiler(int nrReaders) {
+		this.nrReaders = nrReaders;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("Readers: %s, churn: 1 thread\n", nrReaders);
+		for (int i = 0; i < NR_PEERS; i++) {
+			peers[i] = new PeerAddress(new Number160(Rnd.nextInt(Integer.MAX_VALUE)));
+			keys[i] = new Number160(Rnd.nextInt(Integer.MAX_VALUE));
+		}
+		peerMap = new PeerMap(new PeerMapConfiguration(new Number160(Rnd.nextInt(Integer.MAX_VALUE))));
+		for (PeerAddress peer : peers) {
+			peerMap.peerFound(peer, null, null, null);
+		}
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		// nothing to do
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(nrReaders);
+		final Thread churn = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				int index = 0;
+				while (latch.getCount() > 0) {
+					final PeerAddress peer = peers[index++ % NR_PEERS];
+					// first hand information removes the peer from the shutdown cache again
+					peerMap.peerFailed(peer, new PeerException(AbortCause.SHUTDOWN, "churn"));
+					peerMap.peerFound(peer, null, null, null);
+				}
+			}
+		});
+		churn.start();
+		for (int t = 0; t < nrReaders; t++) {
+			final int seed = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int index = seed * 7919;
+					for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+						index = (index * 1103515245 + 12345) & Integer.MAX_VALUE;
+						peerMap.closePeers(keys[index % NR_PEERS], CLOSE_PEERS);
+					}
+					latch.countDown();
+				}
+			}).start();
+		}
+		latch.await();
+		churn.join();
+	}
+}
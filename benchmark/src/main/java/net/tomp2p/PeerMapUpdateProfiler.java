@@ -0,0 +1,87 @@
+package net.tomp2p;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.message.Message;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.relay.PeerMapDelta;
+import net.tomp2p.relay.RelayUtils;
+import net.tomp2p.rpc.RPC;
+
+/**
+ * Encodes the periodic peer map updates of an unreachable peer to its relay while a few peers of its peer map
+ * change between the updates, either as full peer maps or as deltas. The bytes per update are printed.
+ */
+public class PeerMapUpdateProfiler extends Profiler {
+
+	private static final int NR_PEERS = 300;
+	private static final int NR_CHANGES = 5;
+	private static final int NR_UPDATES = 100;
+
+	private final boolean isDelta;
+	private final SignatureFactory signatureFactory = new DSASignatureFactory();
+	private final List<PeerAddress> peerMap = new ArrayList<PeerAddress>(NR_PEERS);
+	private PeerAddress unreachable;
+	private PeerAddress relay;
+
+	public PeerMapUpdateProfiler(boolean isDelta) {
+		this.isDelta = isDelta;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		unreachable = new PeerAddress(new Number160(Rnd.nextInt(Integer.MAX_VALUE)), InetAddress.getLocalHost(), 7088,
+				7088);
+		relay = new PeerAddress(new Number160(Rnd.nextInt(Integer.MAX_VALUE)), InetAddress.getLocalHost(), 7089, 7089);
+		for (int i = 0; i < NR_PEERS; i++) {
+			peerMap.add(createPeer());
+		}
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		// nothing to do
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final PeerMapDelta peerMapDelta = new PeerMapDelta();
+		long bytes = 0;
+		for (int i = 0; i < NR_UPDATES; i++) {
+			for (int j = 0; j < NR_CHANGES; j++) {
+				peerMap.set(Rnd.nextInt(peerMap.size()), createPeer());
+			}
+			final Message message = createMessage();
+			peerMapDelta.prepare(message, peerMap, !isDelta);
+			bytes += RelayUtils.encodeMessage(message, signatureFactory).length();
+
+			// the relay acknowledges the version and reads compact sets
+			final Message reply = createMessage().type(Message.Type.OK);
+			reply.intValue(PeerMapDelta.version(message));
+			PeerMapDelta.announceCapabilities(reply);
+			peerMapDelta.acknowledged(message, reply);
+		}
+		System.out.printf("%s: %d bytes per update\n", isDelta ? "delta" : "full", bytes / NR_UPDATES);
+	}
+
+	private Message createMessage() {
+		final Message message = new Message();
+		message.command(RPC.Commands.RELAY.getNr());
+		message.type(Message.Type.REQUEST_3);
+		message.sender(unreachable);
+		message.senderSocket(unreachable.createSocketTCP());
+		message.recipient(relay);
+		message.recipientSocket(relay.createSocketTCP());
+		return message;
+	}
+
+	private PeerAddress createPeer() throws Exception {
+		final byte[] ip = new byte[] { 10, (byte) Rnd.nextInt(256), (byte) Rnd.nextInt(256), (byte) Rnd.nextInt(256) };
+		return new PeerAddress(new Number160(Rnd.nextInt(Integer.MAX_VALUE)), InetAddress.getByAddress(ip), 4001, 4001);
+	}
+}
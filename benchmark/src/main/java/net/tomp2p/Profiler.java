@@ -1,7 +1,6 @@
 package net.tomp2p;
 
 import net.tomp2p.p2p.Peer;
-import net.tomp2p.utils.InteropRandom;
 
 public abstract class Profiler {
 
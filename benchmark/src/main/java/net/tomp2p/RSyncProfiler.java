@@ -0,0 +1,75 @@
+package net.tomp2p;
+
+import java.util.List;
+import java.util.Random;
+
+import net.tomp2p.storage.DataBuffer;
+import net.tomp2p.synchronization.Checksum;
+import net.tomp2p.synchronization.Instruction;
+import net.tomp2p.synchronization.RSync;
+
+/**
+ * Calculates the checksums of a value, the instructions for a changed value and reconstructs the changed value, with
+ * the block size chosen from the length of the value. The changed values cover the typical edit patterns: identical,
+ * a few sparse edits, an insert at the front, an append and a completely different value. Inserts and appends are
+ * composed of several buffers, as they are on a peer, and are not flattened.
+ */
+public class RSyncProfiler extends Profiler {
+
+	private static final int NR_EDITS = 10;
+	private static final int EDIT_SIZE = 100;
+
+	private final int valueSize;
+	private DataBuffer oldValue;
+	private DataBuffer[] newValues;
+
+	public RSyncProfiler(int valueSize) {
+		this.valueSize = valueSize;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("RSync with %s bytes, block size %s\n", valueSize, RSync.blockSize(valueSize));
+		Random rnd = new Random(Rnd.nextInt(Integer.MAX_VALUE));
+		byte[] old = new byte[valueSize];
+		rnd.nextBytes(old);
+		oldValue = new DataBuffer(old);
+
+		byte[] sparse = old.clone();
+		for (int i = 0; i < NR_EDITS; i++) {
+			sparse[rnd.nextInt(valueSize)] = (byte) rnd.nextInt(256);
+		}
+		byte[] edit = new byte[EDIT_SIZE];
+		rnd.nextBytes(edit);
+		byte[] different = new byte[valueSize];
+		rnd.nextBytes(different);
+
+		newValues = new DataBuffer[] {
+				new DataBuffer(old),
+				new DataBuffer(sparse),
+				new DataBuffer().append(edit, 0, edit.length).append(old, 0, old.length),
+				new DataBuffer().append(old, 0, old.length).append(edit, 0, edit.length),
+				new DataBuffer(different) };
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		oldValue = null;
+		newValues = null;
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		int blockSize = RSync.blockSize(valueSize);
+		List<Checksum> checksums = RSync.checksums(oldValue, blockSize);
+		long literals = 0;
+		for (DataBuffer newValue : newValues) {
+			List<Instruction> instructions = RSync.instructions(newValue, checksums, blockSize);
+			for (Instruction instruction : instructions) {
+				literals += instruction.length();
+			}
+			RSync.reconstruct(oldValue, instructions, blockSize);
+		}
+		System.out.printf("%s checksums, %s bytes of literals\n", checksums.size(), literals);
+	}
+}
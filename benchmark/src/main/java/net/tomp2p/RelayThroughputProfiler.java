@@ -0,0 +1,86 @@
+package net.tomp2p;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.futures.FutureForkJoin;
+import net.tomp2p.nat.FutureRelayNAT;
+import net.tomp2p.nat.PeerBuilderNAT;
+import net.tomp2p.nat.PeerNAT;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.ObjectDataReply;
+import net.tomp2p.relay.tcp.TCPRelayClientConfig;
+
+/**
+ * Sends many small direct messages at the same time to a receiver, either directly or to an unreachable receiver
+ * over its TCP relay. The relayed messages share the one connection between the relay and the receiver, thus the
+ * difference to the direct case shows the cost of the relay path. The messages per second are printed.
+ */
+public class RelayThroughputProfiler extends Profiler {
+
+	private static final int NR_MESSAGES = 200;
+
+	private final boolean isRelayed;
+	private Peer relay;
+	private Peer receiver;
+	private Peer sender;
+	private PeerAddress receiverAddress;
+
+	public RelayThroughputProfiler(boolean isRelayed) {
+		this.isRelayed = isRelayed;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		relay = new PeerBuilder(new Number160(Rnd.nextInt(Integer.MAX_VALUE))).ports(7088).start();
+		new PeerBuilderNAT(relay).start();
+		receiver = new PeerBuilder(new Number160(Rnd.nextInt(Integer.MAX_VALUE))).ports(7089).start();
+		sender = new PeerBuilder(new Number160(Rnd.nextInt(Integer.MAX_VALUE))).ports(7090).start();
+		receiver.objectDataReply(new ObjectDataReply() {
+			@Override
+			public Object reply(PeerAddress sender, Object request) throws Exception {
+				return request;
+			}
+		});
+
+		if (isRelayed) {
+			PeerNAT peerNAT = new PeerBuilderNAT(receiver).start();
+			FutureRelayNAT futureRelayNAT = peerNAT.startRelay(new TCPRelayClientConfig(), relay.peerAddress());
+			futureRelayNAT.awaitUninterruptibly();
+			if (!futureRelayNAT.isSuccess()) {
+				throw new IllegalStateException("Could not set up the relay: " + futureRelayNAT.failedReason());
+			}
+		}
+		receiverAddress = receiver.peerAddress();
+		Network = new Peer[] { relay, receiver, sender };
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (sender != null) {
+			sender.shutdown().awaitUninterruptibly();
+		}
+		if (receiver != null) {
+			receiver.shutdown().awaitUninterruptibly();
+		}
+		if (relay != null) {
+			relay.shutdown().awaitUninterruptibly();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final long start = System.nanoTime();
+		final FutureDirect[] futures = new FutureDirect[NR_MESSAGES];
+		for (int i = 0; i < NR_MESSAGES; i++) {
+			futures[i] = sender.sendDirect(receiverAddress).object(Integer.valueOf(i)).start();
+		}
+		new FutureForkJoin<FutureDirect>(new AtomicReferenceArray<FutureDirect>(futures))
+				.awaitUninterruptibly();
+		final long nanos = System.nanoTime() - start;
+		System.out.printf("%s: %.0f messages/s\n", isRelayed ? "relayed" : "direct", NR_MESSAGES * 1e9 / nanos);
+	}
+}
@@ -0,0 +1,103 @@
+package net.tomp2p;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureForkJoin;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.RoutingConfiguration;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+/**
+ * Runs the future chain of a routed get: the reservation, the routing with its neighbor requests, and a fork join over
+ * one request per responsible peer. As the benchmark only depends on the core, a ping stands in for the storage RPC.
+ * Besides the time, the bytes allocated per get by all threads are printed, which shows the cost of the futures.
+ */
+public class RoutedGetAllocationProfiler extends Profiler {
+
+	private static final int NETWORK_SIZE = 100;
+	private static final int NR_GETS = 500;
+	private static final int NR_REQUESTS = 3;
+
+	private final RoutingConfiguration routingConfiguration = new RoutingConfiguration(5, 10, 2);
+	private final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		Network = BenchmarkUtil.createNodes(NETWORK_SIZE, Rnd, 7077, false, false);
+		// perfect routing
+		for (int i = 0; i < Network.length; i++) {
+			for (int j = 0; j < Network.length; j++) {
+				Network[i].peerBean().peerMap().peerFound(Network[j].peerAddress(), null, null, null);
+			}
+		}
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (Network != null && Network[0] != null) {
+			Network[0].shutdown().awaitUninterruptibly();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final long start = allocatedBytes();
+		for (int i = 0; i < NR_GETS; i++) {
+			get(i);
+		}
+		final long allocated = allocatedBytes() - start;
+		System.out.printf("Allocated per get: %s bytes\n", allocated / NR_GETS);
+	}
+
+	private void get(int nr) {
+		final Number160 locationKey = new Number160(Rnd.nextInt(Integer.MAX_VALUE));
+		final FutureChannelCreator futureChannelCreator = Network[nr % NETWORK_SIZE].connectionBean().reservation()
+				.create(routingConfiguration.parallel(), NR_REQUESTS);
+		futureChannelCreator.awaitUninterruptibly();
+		try {
+			RoutingBuilder routingBuilder = new RoutingBuilder();
+			routingBuilder.parallel(routingConfiguration.parallel());
+			routingBuilder.setMaxNoNewInfo(routingConfiguration.maxNoNewInfo(NR_REQUESTS));
+			routingBuilder.maxDirectHits(routingConfiguration.maxDirectHits());
+			routingBuilder.maxFailures(routingConfiguration.maxFailures());
+			routingBuilder.maxSuccess(routingConfiguration.maxSuccess());
+			routingBuilder.locationKey(locationKey);
+			routingBuilder.domainKey(Number160.ZERO);
+			FutureRouting futureRouting = Network[nr % NETWORK_SIZE].distributedRouting().route(routingBuilder,
+					Type.REQUEST_2, futureChannelCreator.channelCreator());
+			futureRouting.awaitUninterruptibly();
+
+			final FutureResponse[] futureResponses = new FutureResponse[NR_REQUESTS];
+			final Iterator<PeerAddress> iterator = futureRouting.potentialHits().iterator();
+			for (int i = 0; i < NR_REQUESTS && iterator.hasNext(); i++) {
+				futureResponses[i] = Network[nr % NETWORK_SIZE].pingRPC().pingTCP(iterator.next(),
+						futureChannelCreator.channelCreator(), new DefaultConnectionConfiguration());
+			}
+			new FutureForkJoin<FutureResponse>(new AtomicReferenceArray<FutureResponse>(futureResponses))
+					.awaitUninterruptibly();
+		} finally {
+			futureChannelCreator.channelCreator().shutdown().awaitUninterruptibly();
+		}
+	}
+
+	private long allocatedBytes() {
+		long sum = 0;
+		for (long allocated : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+			// -1 if the thread has ended
+			if (allocated > 0) {
+				sum += allocated;
+			}
+		}
+		return sum;
+	}
+}
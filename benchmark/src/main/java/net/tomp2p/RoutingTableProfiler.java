@@ -0,0 +1,81 @@
+package net.tomp2p;
+
+import java.io.File;
+
+import net.tomp2p.futures.FutureBootstrap;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerMapSnapshot;
+
+/**
+ * Restarts a peer in an overlay of several hundred peers and measures the time until its routing table is usable,
+ * i.e., until its peer map has a number of filled bags. The peer either bootstraps to a seed or verifies the peer map
+ * snapshot it stored on shutdown.
+ */
+public class RoutingTableProfiler extends Profiler {
+
+	private static final int NETWORK_SIZE = 300;
+	private static final int MIN_FILLED_BAGS = 6;
+	private static final int PORT = 9199;
+
+	private final boolean isSnapshot;
+	private Number160 peerId;
+	private PeerMapSnapshot snapshot;
+	private File file;
+
+	public RoutingTableProfiler(boolean isSnapshot) {
+		this.isSnapshot = isSnapshot;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("Restart with %s in %s peers\n", isSnapshot ? "snapshot" : "seed", NETWORK_SIZE);
+		Network = BenchmarkUtil.createNodes(NETWORK_SIZE, Rnd, 9099, false, false);
+		for (Peer peer : Network) {
+			for (Peer other : Network) {
+				if (peer != other) {
+					peer.peerBean().peerMap().peerFound(other.peerAddress(), null, null, null);
+				}
+			}
+		}
+		peerId = new Number160(Rnd.nextInt(Integer.MAX_VALUE));
+		file = File.createTempFile("routing-table", ".snapshot");
+		file.delete();
+		snapshot = new PeerMapSnapshot(file);
+
+		// the first start fills the snapshot
+		Peer peer = new PeerBuilder(peerId).ports(PORT).peerMapSnapshot(snapshot).start();
+		peer.bootstrap().peerAddress(Network[0].peerAddress()).start().awaitUninterruptibly();
+		peer.shutdown().awaitUninterruptibly();
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (Network != null && Network[0] != null) {
+			Network[0].shutdown().awaitUninterruptibly();
+		}
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final Peer peer;
+		final FutureBootstrap futureBootstrap;
+		if (isSnapshot) {
+			peer = new PeerBuilder(peerId).ports(PORT).peerMapSnapshot(snapshot).snapshotIntervalMillis(0).start();
+			futureBootstrap = peer.bootstrap().minFilledBags(MIN_FILLED_BAGS).start();
+		} else {
+			peer = new PeerBuilder(peerId).ports(PORT).start();
+			futureBootstrap = peer.bootstrap().peerAddress(Network[0].peerAddress()).minFilledBags(MIN_FILLED_BAGS)
+					.start();
+		}
+		futureBootstrap.awaitUninterruptibly();
+		if (futureBootstrap.isFailed()) {
+			System.err.println(futureBootstrap.failedReason());
+		}
+		peer.shutdown().awaitUninterruptibly();
+	}
+}
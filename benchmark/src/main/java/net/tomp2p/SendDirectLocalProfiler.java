@@ -25,9 +25,9 @@ public class SendDirectLocalProfiler extends SendDirectProfiler {
 		cc = fcc.channelCreator();
 		
 		sendDirectBuilder = new SendDirectBuilder(sender, (PeerAddress) null)
-			.idleUDPSeconds(0)
-			.idleTCPSeconds(0)
-			.buffer(createSampleBuffer())
+			.idleUDPMillis(0)
+			.idleTCPMillis(0)
+			.dataBuffer(createSampleBuffer())
 			.forceUDP(isForceUdp);
 	}
 	
@@ -36,9 +36,5 @@ public class SendDirectLocalProfiler extends SendDirectProfiler {
 		
 		FutureResponse fr = sender.directDataRPC().send(receiver.peerAddress(), sendDirectBuilder, cc);
 		fr.awaitUninterruptibly();
-		
-		// make buffer reusable
-		sendDirectBuilder.buffer().reset();
-		sendDirectBuilder.buffer().buffer().readerIndex(0);
 	}
 }
@@ -6,7 +6,7 @@ import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.builder.SendDirectBuilder;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.rpc.RawDataReply;
-import net.tomp2p.storage.AlternativeCompositeByteBuf;
+import net.tomp2p.storage.DataBuffer;
 
 public abstract class SendDirectProfiler extends Profiler {
 
@@ -34,12 +34,13 @@ public abstract class SendDirectProfiler extends Profiler {
 		}
 	}
 	
-	protected static Buffer createSampleBuffer() {
-		AlternativeCompositeByteBuf acbb = AlternativeCompositeByteBuf.compBuffer();
+	protected static DataBuffer createSampleBuffer() {
+		byte[] buffer = new byte[BUFFER_SIZE_BYTES];
 		for (int i = 0; i < BUFFER_SIZE_BYTES; i++) {
-			acbb.writeByte(i % 256);
+			buffer[i] = (byte) (i % 256);
 		}
-		return new Buffer(acbb);
+		// the data buffer is not consumed by sending, it can be reused
+		return new DataBuffer(buffer);
 	}
 	
 	protected class SampleRawDataReply implements RawDataReply {
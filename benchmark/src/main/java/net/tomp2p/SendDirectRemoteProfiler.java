@@ -26,9 +26,9 @@ public class SendDirectRemoteProfiler extends SendDirectProfiler {
 		cc = fcc.channelCreator();
 		
 		sendDirectBuilder = new SendDirectBuilder(sender, (PeerAddress) null)
-			.idleUDPSeconds(0)
-			.idleTCPSeconds(0)
-			.buffer(createSampleBuffer())
+			.idleUDPMillis(0)
+			.idleTCPMillis(0)
+			.dataBuffer(createSampleBuffer())
 			.forceUDP(isForceUdp);
 	}
 	
@@ -37,9 +37,5 @@ public class SendDirectRemoteProfiler extends SendDirectProfiler {
 		
 		FutureResponse fr = sender.directDataRPC().send(remoteAddress, sendDirectBuilder, cc);
 		fr.awaitUninterruptibly();
-		
-		// make buffer reusable
-		sendDirectBuilder.buffer().reset();
-		sendDirectBuilder.buffer().buffer().readerIndex(0);
 	}
 }
@@ -5,7 +5,6 @@ import java.util.Scanner;
 
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.peers.PeerAddress;
-import net.tomp2p.utils.InteropRandom;
 
 public class Server {
 
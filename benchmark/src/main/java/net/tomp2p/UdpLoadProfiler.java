@@ -0,0 +1,89 @@
+package net.tomp2p;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+
+/**
+ * Sends a burst of UDP pings from several client peers to one server peer. The server binds either one UDP channel or
+ * one per core (SO_REUSEPORT), so the request rate can be compared.
+ */
+public class UdpLoadProfiler extends Profiler {
+
+	private static final int NETWORK_SIZE = 8;
+	// must not exceed the maximum UDP permits of a peer
+	private static final int REQUESTS_PER_CLIENT = 200;
+
+	private final int udpReceivers;
+	private final List<FutureResponse> futures = new ArrayList<FutureResponse>(NETWORK_SIZE * REQUESTS_PER_CLIENT);
+	private final ChannelCreator[] channelCreators = new ChannelCreator[NETWORK_SIZE];
+	private Peer server;
+
+	public UdpLoadProfiler(int udpReceivers) {
+		this.udpReceivers = udpReceivers;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		System.out.printf("UDP receivers on server: %s\n", udpReceivers);
+		server = new PeerBuilder(new Number160(Rnd.nextInt(Integer.MAX_VALUE))).ports(9098)
+				.channelServerConfiguration(
+						PeerBuilder.createDefaultChannelServerConfiguration().udpReceivers(udpReceivers)).start();
+		// each client is a master peer, so the clients do not share the event loops
+		Network = new Peer[NETWORK_SIZE];
+		for (int i = 0; i < NETWORK_SIZE; i++) {
+			Network[i] = new PeerBuilder(new Number160(Rnd.nextInt(Integer.MAX_VALUE))).ports(9099 + i)
+					.enableMaintenance(false).start();
+		}
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (Network != null) {
+			for (Peer peer : Network) {
+				if (peer != null) {
+					peer.shutdown().awaitUninterruptibly();
+				}
+			}
+		}
+		if (server != null) {
+			server.shutdown().awaitUninterruptibly();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		futures.clear();
+		for (int i = 0; i < NETWORK_SIZE; i++) {
+			FutureChannelCreator fcc = Network[i].connectionBean().reservation().create(REQUESTS_PER_CLIENT, 0);
+			fcc.awaitUninterruptibly();
+			channelCreators[i] = fcc.channelCreator();
+		}
+		for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+			for (int i = 0; i < NETWORK_SIZE; i++) {
+				futures.add(Network[i].pingRPC().pingUDP(server.peerAddress(), channelCreators[i],
+						new DefaultConnectionConfiguration()));
+			}
+		}
+		int failed = 0;
+		for (FutureResponse future : futures) {
+			future.awaitUninterruptibly();
+			if (future.isFailed()) {
+				failed++;
+			}
+		}
+		for (ChannelCreator cc : channelCreators) {
+			cc.shutdown().awaitUninterruptibly();
+		}
+		if (failed > 0) {
+			System.out.printf("%s of %s requests failed\n", failed, futures.size());
+		}
+	}
+}
@@ -28,18 +28,21 @@ import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.futures.FutureDone;
@@ -65,9 +68,11 @@ public final class ChannelServer implements DiscoverNetworkListener{
 
 	private final EventLoopGroup bossGroup;
 	private final EventLoopGroup workerGroup;
+	//only set if more than one UDP receiver is configured and SO_REUSEPORT is supported
+	private final EventLoopGroup udpGroup;
 	
 	private final Map<InetAddress, Channel> channelsTCP = Collections.synchronizedMap(new HashMap<InetAddress, Channel>());
-	private final Map<InetAddress, Channel> channelsUDP = Collections.synchronizedMap(new HashMap<InetAddress, Channel>());
+	private final Map<InetAddress, List<Channel>> channelsUDP = Collections.synchronizedMap(new HashMap<InetAddress, List<Channel>>());
 
 	private final FutureDone<Void> futureServerDone = new FutureDone<Void>();
 
@@ -79,6 +84,7 @@ public final class ChannelServer implements DiscoverNetworkListener{
 	private final DropConnectionInboundHandler udpDropConnectionInboundHandler;
 	private final ChannelHandler udpDecoderHandler;
 	private final DiscoverNetworks discoverNetworks;
+	private final Metrics metrics;
 	
 	private boolean shutdown = false;
 	private boolean broadcastAddressSupported = false;
@@ -102,17 +108,53 @@ public final class ChannelServer implements DiscoverNetworkListener{
      */
 	public ChannelServer(final EventLoopGroup bossGroup, final EventLoopGroup workerGroup, final ChannelServerConfiguration channelServerConfiguration, final Dispatcher dispatcher,
 	        final List<PeerStatusListener> peerStatusListeners, final ScheduledExecutorService timer) throws IOException {
+		this(bossGroup, workerGroup, channelServerConfiguration, dispatcher, peerStatusListeners, timer, null);
+	}
+
+    /**
+     * Sets parameters and starts network device discovery.
+     * 
+     * @param bossGroup
+     * 
+     * @param workerGroup
+     * 
+     * @param channelServerConfiguration
+	 *            The server configuration that contains e.g. the handlers
+     * @param dispatcher
+     *              The shared dispatcher
+     * @param peerStatusListeners
+	 *            The status listeners for offline peers
+     * @param metrics
+     *            The metrics for the received and sent bytes, or null
+     * @throws IOException
+     *               If device discovery failed.
+     */
+	public ChannelServer(final EventLoopGroup bossGroup, final EventLoopGroup workerGroup, final ChannelServerConfiguration channelServerConfiguration, final Dispatcher dispatcher,
+	        final List<PeerStatusListener> peerStatusListeners, final ScheduledExecutorService timer, final Metrics metrics) throws IOException {
 		this.bossGroup = bossGroup;
 		this.workerGroup = workerGroup;
 		this.channelServerConfiguration = channelServerConfiguration;
 		this.dispatcher = dispatcher;
 		this.peerStatusListeners = peerStatusListeners;
+		this.metrics = metrics;
 		
 		this.discoverNetworks = new DiscoverNetworks(5000, channelServerConfiguration.bindings(), timer);
 		
 		this.tcpDropConnectionInboundHandler = new DropConnectionInboundHandler(channelServerConfiguration.maxTCPIncomingConnections());
 		this.udpDropConnectionInboundHandler = new DropConnectionInboundHandler(channelServerConfiguration.maxUDPIncomingConnections());
-		this.udpDecoderHandler = new TomP2PSinglePacketUDP(channelServerConfiguration.signatureFactory());
+		this.udpDecoderHandler = new TomP2PSinglePacketUDP(channelServerConfiguration.signatureFactory(), metrics,
+				dispatcher);
+		
+		final int udpReceivers = channelServerConfiguration.udpReceivers();
+		if (udpReceivers > 1 && ReusePortSupport.isAvailable()) {
+			this.udpGroup = ReusePortSupport.createEventLoopGroup(udpReceivers, new DefaultThreadFactory(
+			        ConnectionBean.THREAD_NAME + "udp-server - "));
+		} else {
+			if (udpReceivers > 1) {
+				LOG.warn("SO_REUSEPORT not available (requires netty-transport-native-epoll on Linux), bind only one UDP channel");
+			}
+			this.udpGroup = null;
+		}
 		
 		discoverNetworks.addDiscoverNetworkListener(this);
 		if(timer!=null) {
@@ -187,10 +229,7 @@ public final class ChannelServer implements DiscoverNetworkListener{
 	    }
 	    
 	    for (InetAddress inetAddress : discoverResults.removedFoundBroadcastAddresses()) {
-	    	Channel channelUDP = channelsUDP.remove(inetAddress);
-	    	if (channelUDP != null) {
-	    		channelUDP.close().awaitUninterruptibly();
-	    	}
+	    	closeUDP(inetAddress);
 	    }
 	    
 	    boolean udpStartBroadcast = false;
@@ -234,12 +273,18 @@ public final class ChannelServer implements DiscoverNetworkListener{
 	    	if (channelTCP != null) {
 	    		channelTCP.close().awaitUninterruptibly();
 	    	}
-	    	Channel channelUDP = channelsUDP.remove(inetAddress);
-	    	if (channelUDP != null) {
-	    		channelUDP.close().awaitUninterruptibly();
-	    	}
+	    	closeUDP(inetAddress);
 	    }
 	}
+	
+	private void closeUDP(final InetAddress inetAddress) {
+		final List<Channel> channels = channelsUDP.remove(inetAddress);
+		if (channels != null) {
+			for (Channel channelUDP : channels) {
+				channelUDP.close().awaitUninterruptibly();
+			}
+		}
+	}
 
 	@Override
     public void exception(Throwable throwable) {
@@ -247,7 +292,8 @@ public final class ChannelServer implements DiscoverNetworkListener{
     }
 
 	/**
-	 * Start to listen on a UPD port.
+	 * Start to listen on a UPD port. If more than one UDP receiver is configured and SO_REUSEPORT is available, one
+	 * channel per receiver is bound to the same port, each with its own event loop.
 	 * 
 	 * @param listenAddresses
 	 *            The address to listen to
@@ -258,8 +304,16 @@ public final class ChannelServer implements DiscoverNetworkListener{
 	 */
 	boolean startupUDP(final InetSocketAddress listenAddresses, final ChannelServerConfiguration config, boolean broadcastFlag) {
 		Bootstrap b = new Bootstrap();
-		b.group(workerGroup);
-		b.channel(NioDatagramChannel.class);
+		final int nrChannels;
+		if (udpGroup != null) {
+			b.group(udpGroup);
+			ReusePortSupport.bootstrap(b);
+			nrChannels = config.udpReceivers();
+		} else {
+			b.group(workerGroup);
+			b.channel(NioDatagramChannel.class);
+			nrChannels = 1;
+		}
 		//option broadcast only required as we not listen to the broadcast address directly
 		if(broadcastFlag) {
 			b.option(ChannelOption.SO_BROADCAST, true);
@@ -280,9 +334,31 @@ public final class ChannelServer implements DiscoverNetworkListener{
 			}
 		});
 
-		ChannelFuture future = b.bind(listenAddresses);
-		channelsUDP.put(listenAddresses.getAddress(), future.channel());
-		return handleFuture(future);
+		final List<Channel> channels = new ArrayList<Channel>(nrChannels);
+		for (int i = 0; i < nrChannels; i++) {
+			ChannelFuture future = b.bind(listenAddresses);
+			if (!handleFuture(future)) {
+				future.channel().close();
+				break;
+			}
+			channels.add(future.channel());
+		}
+		if (channels.isEmpty()) {
+			return false;
+		}
+		channelsUDP.put(listenAddresses.getAddress(), channels);
+		LOG.info("bound {} of {} UDP receivers to {}", channels.size(), nrChannels, listenAddresses);
+		return true;
+	}
+
+	/**
+	 * @param inetAddress
+	 *            The address the UDP channels listen to
+	 * @return The number of UDP channels that are bound to this address, more than one if SO_REUSEPORT is used
+	 */
+	public int nrUDPChannels(final InetAddress inetAddress) {
+		final List<Channel> channels = channelsUDP.get(inetAddress);
+		return channels == null ? 0 : channels.size();
 	}
 
 	/**
@@ -348,7 +424,8 @@ public final class ChannelServer implements DiscoverNetworkListener{
 			        new Pair<EventExecutorGroup, ChannelHandler>(null, timeoutFactory.idleStateHandlerTomP2P()));
 			handlers.put("timeout1", new Pair<EventExecutorGroup, ChannelHandler>(null, timeoutFactory.timeHandler()));
 			handlers.put("decoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PCumulationTCP(
-			        channelServerConfiguration.signatureFactory(), channelServerConfiguration.byteBufAllocator())));
+			        channelServerConfiguration.signatureFactory(), channelServerConfiguration.byteBufAllocator(), metrics,
+			        dispatcher)));
 		} else {
 			// we don't need here a timeout since we receive a packet or
 			// nothing. It is different than with TCP where we
@@ -360,7 +437,7 @@ public final class ChannelServer implements DiscoverNetworkListener{
 			handlers.put("decoder", new Pair<EventExecutorGroup, ChannelHandler>(null, udpDecoderHandler));
 		}
 		handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(
-		        channelServerConfiguration.signatureFactory(), channelServerConfiguration.byteBufAllocator())));
+		        channelServerConfiguration.signatureFactory(), channelServerConfiguration.byteBufAllocator(), metrics)));
 		handlers.put("dispatcher", new Pair<EventExecutorGroup, ChannelHandler>(null, dispatcher));
 		return channelServerConfiguration.pipelineFilter().filter(handlers, tcp, false);
 	}
@@ -402,25 +479,29 @@ public final class ChannelServer implements DiscoverNetworkListener{
 	        shutdown = true;
         }
 		discoverNetworks.stop();
-		final int maxListeners = channelsTCP.size() + channelsUDP.size();
+		final List<Channel> allChannelsUDP = new ArrayList<Channel>();
+		synchronized (channelsUDP) {
+			for (List<Channel> channels : channelsUDP.values()) {
+				allChannelsUDP.addAll(channels);
+			}
+		}
+		final int maxListeners = channelsTCP.size() + allChannelsUDP.size();
 		if(maxListeners == 0) {
-			shutdownFuture().done();
+			shutdownUDPGroup();
 		}
 		// we have two things to shut down: UDP and TCP
 		final AtomicInteger listenerCounter = new AtomicInteger(0);
 		LOG.debug("shutdown servers");
-		synchronized (channelsUDP) {
-			for (Channel channelUDP : channelsUDP.values()) {
-				channelUDP.close().addListener(new GenericFutureListener<ChannelFuture>() {
-					@Override
-					public void operationComplete(final ChannelFuture future) throws Exception {
-						LOG.debug("shutdown TCP server");
-						if (listenerCounter.incrementAndGet() == maxListeners) {
-							futureServerDone.done();
-						}
+		for (Channel channelUDP : allChannelsUDP) {
+			channelUDP.close().addListener(new GenericFutureListener<ChannelFuture>() {
+				@Override
+				public void operationComplete(final ChannelFuture future) throws Exception {
+					LOG.debug("shutdown UDP server");
+					if (listenerCounter.incrementAndGet() == maxListeners) {
+						shutdownUDPGroup();
 					}
-				});
-			}
+				}
+			});
 		}
 		synchronized (channelsTCP) {
 			for (Channel channelTCP : channelsTCP.values()) {
@@ -429,7 +510,7 @@ public final class ChannelServer implements DiscoverNetworkListener{
 					public void operationComplete(final ChannelFuture future) throws Exception {
 						LOG.debug("shutdown TCP channels");
 						if (listenerCounter.incrementAndGet() == maxListeners) {
-							futureServerDone.done();
+							shutdownUDPGroup();
 						}
 					}
 				});
@@ -437,6 +518,24 @@ public final class ChannelServer implements DiscoverNetworkListener{
 		}
 		return shutdownFuture();
 	}
+	
+	/**
+	 * The UDP event loops are owned by this class, the boss and worker groups are shut down by the {@link PeerCreator}.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void shutdownUDPGroup() {
+		if (udpGroup == null) {
+			futureServerDone.done();
+			return;
+		}
+		udpGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).addListener(new GenericFutureListener() {
+			@Override
+			public void operationComplete(final io.netty.util.concurrent.Future future) throws Exception {
+				LOG.debug("UDP server group shut down.");
+				futureServerDone.done();
+			}
+		});
+	}
 
 	/**
 	 * @return The shutdown future that is used when calling {@link #shutdown()}
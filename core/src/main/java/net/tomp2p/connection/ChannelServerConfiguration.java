@@ -56,6 +56,7 @@ public class ChannelServerConfiguration implements ConnectionConfiguration {
     
     private boolean enablePool = false;
     private boolean enableHeap = false;
+    private int udpReceivers = 1;
 
     /**
      * @return True if this peer is behind a firewall and cannot be accessed directly
@@ -325,4 +326,38 @@ public class ChannelServerConfiguration implements ConnectionConfiguration {
 			return AlternativeCompositeByteBuf.UNPOOLED_DIRECT;
 		}
 	}
+
+	/**
+	 * @return The number of UDP channels that are bound to the same port, each served by its own event loop
+	 */
+	public int udpReceivers() {
+		return udpReceivers;
+	}
+
+	/**
+	 * Sets the number of UDP channels that are bound to the same port with SO_REUSEPORT. The kernel distributes
+	 * incoming packets among them, so decoding and dispatching of UDP messages scales with the number of cores. This
+	 * requires the native epoll transport of Netty (Linux only). If it is not available, only one UDP channel is
+	 * bound.
+	 * 
+	 * @param udpReceivers
+	 *            The number of UDP channels per port, 1 disables SO_REUSEPORT
+	 * @return This class
+	 */
+	public ChannelServerConfiguration udpReceivers(final int udpReceivers) {
+		if (udpReceivers < 1) {
+			throw new IllegalArgumentException("At least one UDP receiver is required");
+		}
+		this.udpReceivers = udpReceivers;
+		return this;
+	}
+
+	/**
+	 * Binds one UDP channel per available processor.
+	 * 
+	 * @return This class
+	 */
+	public ChannelServerConfiguration udpReceiversPerCore() {
+		return udpReceivers(Runtime.getRuntime().availableProcessors());
+	}
 }
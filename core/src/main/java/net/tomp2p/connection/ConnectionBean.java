@@ -45,6 +45,7 @@ public class ConnectionBean {
     private final Reservation reservation;
     private final ChannelClientConfiguration resourceConfiguration;
     private final ScheduledExecutorService timer;
+    private final Metrics metrics;
     
     /**
 	 * The connection bean with unmodifiable objects. Once it is set, it cannot be changed. If it is required
@@ -68,6 +69,35 @@ public class ConnectionBean {
     public ConnectionBean(final int p2pId, final Dispatcher dispatcher, final Sender sender,
             final ChannelServer channelServer, final Reservation reservation,
             final ChannelClientConfiguration resourceConfiguration, final ScheduledExecutorService timer) {
+        this(p2pId, dispatcher, sender, channelServer, reservation, resourceConfiguration, timer,
+                dispatcher.metrics() != null ? dispatcher.metrics() : new Metrics());
+    }
+
+    /**
+	 * The connection bean with unmodifiable objects. Once it is set, it cannot be changed. If it is required
+	 * to change, then the peer must be shut down and a new one created.
+     * 
+     * @param p2pId
+	 *            The P2P ID
+     * @param dispatcher
+     *            The dispatcher object that receives all messages
+     * @param sender
+     *            The sender object that sends out messages
+     * @param channelServer
+     *            The channel server that listens on incoming connections
+     * @param reservation
+     *            The connection reservation that is responsible for resource management
+     * @param resourceConfiguration
+     *            The configuration that is responsible for the resource numbers
+     * @param timer
+     *            The timer for the discovery process
+     * @param metrics
+     *            The metrics of this node
+     */
+    public ConnectionBean(final int p2pId, final Dispatcher dispatcher, final Sender sender,
+            final ChannelServer channelServer, final Reservation reservation,
+            final ChannelClientConfiguration resourceConfiguration, final ScheduledExecutorService timer,
+            final Metrics metrics) {
         this.p2pId = p2pId;
         this.dispatcher = dispatcher;
         this.sender = sender;
@@ -75,6 +105,7 @@ public class ConnectionBean {
         this.reservation = reservation;
         this.resourceConfiguration = resourceConfiguration;
         this.timer = timer;
+        this.metrics = metrics;
     }
 
     /**
@@ -125,4 +156,11 @@ public class ConnectionBean {
     public ScheduledExecutorService timer() {
         return timer;
     }
+
+    /**
+     * @return The metrics of this node, shared by all peers that use this connection bean
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
 }
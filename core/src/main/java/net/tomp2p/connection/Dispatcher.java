@@ -24,18 +24,20 @@ import io.netty.channel.socket.DatagramChannel;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentMap;
 
 import net.tomp2p.connection.PeerException.AbortCause;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Decoder;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.peers.Number160;
@@ -60,19 +62,22 @@ import org.slf4j.LoggerFactory;
  * @author Thomas Bocek
  */
 @Sharable
-public class Dispatcher extends SimpleChannelInboundHandler<Message> {
+public class Dispatcher extends SimpleChannelInboundHandler<Message> implements Decoder.FrameFilter {
 
     private static final Logger LOG = LoggerFactory.getLogger(Dispatcher.class);
 
     private final int p2pID;
     private final PeerBean peerBeanMaster;
     private final int heartBeatMillis;
+    private final Metrics metrics;
 
-    //use locks instead copy on write as testcases became really slow
-    final private ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
-    final private Lock readLock = reentrantReadWriteLock.readLock();
-    final private Lock writeLock = reentrantReadWriteLock.writeLock();
-    final private Map<Number320, Map<Integer, DispatchHandler>> ioHandlers = new HashMap<Number320, Map<Integer, DispatchHandler>>();
+    // The dispatcher is called from every UDP receiver and TCP event loop, so lookups must not block. A copy on write
+    // of the whole map made testcases really slow, thus only the small per-peer command map is copied on write. Writers
+    // are serialized with the write lock.
+    final private Object writeLock = new Object();
+    final private ConcurrentMap<Number320, Map<Integer, DispatchHandler>> ioHandlers = new ConcurrentHashMap<Number320, Map<Integer, DispatchHandler>>();
+    // the peers on whose behalf another peer handles the messages, e.g., unreachable peers served by a relay
+    final private Set<Number160> onBehalfOfPeers = Collections.newSetFromMap(new ConcurrentHashMap<Number160, Boolean>());
     
 	/**
 	 * Map that stores requests that are not answered yet. Normally, the {@link RequestHandler} handles
@@ -83,7 +88,7 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
 
     
     /**
-     * Creates a dispatcher.
+     * Creates a dispatcher without metrics.
      *
      * @param p2pID
      *            The P2P ID the dispatcher is looking for incoming messages
@@ -91,15 +96,34 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      *            .
      */
     public Dispatcher(final int p2pID, final PeerBean peerBeanMaster, final int heartBeatMillis) {
+        this(p2pID, peerBeanMaster, heartBeatMillis, null);
+    }
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param p2pID
+     *            The P2P ID the dispatcher is looking for incoming messages
+     * @param peerBeanMaster
+     *            .
+     * @param metrics
+     *            The metrics for the received requests, or null
+     */
+    public Dispatcher(final int p2pID, final PeerBean peerBeanMaster, final int heartBeatMillis, final Metrics metrics) {
         this.p2pID = p2pID;
         this.peerBeanMaster = peerBeanMaster;
         this.heartBeatMillis = heartBeatMillis;
+        this.metrics = metrics;
     }
     
     public PeerBean peerBean() {
     	return peerBeanMaster;
     }
 
+    public Metrics metrics() {
+    	return metrics;
+    }
+
     /**
      * Registers a handler with this dispatcher. Future received messages adhering to the given parameters will be
      * forwarded to that handler. Note that the dispatcher only handles REQUEST messages. This method is thread-safe,
@@ -119,20 +143,20 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      *            will receive these messages!
      */
     public void registerIoHandler(final Number160 peerId, final Number160 onBehalfOf, final DispatchHandler ioHandler, final int... names) {
-    	writeLock.lock();
-    	try {
-    		Map<Integer, DispatchHandler> types = ioHandlers.get(new Number320(peerId, onBehalfOf));
-    		if (types == null) {
-    			types = new HashMap<Integer, DispatchHandler>();
-    			ioHandlers.put(new Number320(peerId, onBehalfOf), types);
-    		}
+    	final Number320 key = new Number320(peerId, onBehalfOf);
+    	synchronized (writeLock) {
+    		final Map<Integer, DispatchHandler> old = ioHandlers.get(key);
+    		final Map<Integer, DispatchHandler> types = old == null ? new HashMap<Integer, DispatchHandler>()
+    		        : new HashMap<Integer, DispatchHandler>(old);
     		for (Integer name : names) {
     			types.put(name, ioHandler);
     		}
-    	} finally {
-    		writeLock.unlock();
+    		// the published map is never modified afterwards
+    		ioHandlers.put(key, types);
+    		if (!peerId.equals(onBehalfOf)) {
+    			onBehalfOfPeers.add(onBehalfOf);
+    		}
     	}
-        
     }
 
     /**
@@ -144,14 +168,32 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      * 			  The ioHandler can be registered for the own use in behalf of another peer (e.g. in case of relay node).
      */
     public void removeIoHandler(final Number160 peerId, final Number160 onBehalfOf) {
-        writeLock.lock();
-    	try {
+    	synchronized (writeLock) {
     		ioHandlers.remove(new Number320(peerId, onBehalfOf));
-    	}  finally {
-    		writeLock.unlock();
+    		if (!peerId.equals(onBehalfOf)) {
+    			boolean stillHandled = false;
+    			for (Number320 key : ioHandlers.keySet()) {
+    				if (key.domainKey().equals(onBehalfOf) && !key.locationKey().equals(onBehalfOf)) {
+    					stillHandled = true;
+    					break;
+    				}
+    			}
+    			if (!stillHandled) {
+    				onBehalfOfPeers.remove(onBehalfOf);
+    			}
+    		}
     	}
     }
 
+    /**
+     * Requests to peers that are handled on their behalf (e.g., by a relay) keep their encoded frame, such that they
+     * can be forwarded without encoding them again.
+     */
+    @Override
+    public boolean keepEncodedFrame(final Message message) {
+    	return message.isRequest() && onBehalfOfPeers.contains(message.recipient().peerId());
+    }
+
     @Override
     protected void channelRead0(final ChannelHandlerContext ctx, final Message message) throws Exception {
         LOG.debug("Received request message {} from channel {}", message, ctx.channel());
@@ -174,13 +216,18 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
         	return;
         }
         
-        Responder responder = new DirectResponder(ctx, message);
+        final Metrics.RpcMetrics rpcMetrics = metrics == null ? null : metrics.rpc(message.command());
+        if (rpcMetrics != null) {
+        	rpcMetrics.received();
+        }
+        Responder responder = new DirectResponder(ctx, message, rpcMetrics);
         final DispatchHandler myHandler = associatedHandler(message);
         if (myHandler != null) {
             boolean isUdp = ctx.channel() instanceof DatagramChannel;
 			LOG.debug("About to respond to request message {}.", message);
-            PeerConnection peerConnection = new PeerConnection(message.sender(), new DefaultChannelPromise(ctx.channel()).setSuccess(), heartBeatMillis);
-            myHandler.forwardMessage(message, isUdp ? null : peerConnection, responder);
+            // the UDP channel of the server is shared by all peers, it is not a peer connection
+            PeerConnection peerConnection = isUdp ? null : new PeerConnection(message.sender(), new DefaultChannelPromise(ctx.channel()).setSuccess(), heartBeatMillis);
+            myHandler.forwardMessage(message, peerConnection, responder);
         } else {
         	message.release();
         	if (LOG.isWarnEnabled()) {
@@ -198,13 +245,8 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
     private void printWarnMessage(Message message) {
     	final Collection<Integer> knownCommands = new HashSet<Integer>();
     	
-    	readLock.lock();
-    	try {
-    		for(final Map.Entry<Number320, Map<Integer, DispatchHandler>> entry:ioHandlers.entrySet()) {
-    			knownCommands.addAll(entry.getValue().keySet());
-    		}
-    	} finally {
-    		readLock.unlock();
+    	for(final Map.Entry<Number320, Map<Integer, DispatchHandler>> entry:ioHandlers.entrySet()) {
+    		knownCommands.addAll(entry.getValue().keySet());
     	}
     	
     	if(!knownCommands.contains(Integer.valueOf(message.command()))) {
@@ -225,24 +267,30 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
     private class DirectResponder implements Responder {
         final ChannelHandlerContext ctx;
         final Message requestMessage;
-        DirectResponder(final ChannelHandlerContext ctx, final Message requestMessage) {
+        final Metrics.RpcMetrics rpcMetrics;
+        final long start = System.nanoTime();
+        DirectResponder(final ChannelHandlerContext ctx, final Message requestMessage, final Metrics.RpcMetrics rpcMetrics) {
             this.ctx = ctx;
             this.requestMessage = requestMessage;
+            this.rpcMetrics = rpcMetrics;
         }
         
         @Override
         public FutureDone<Void> response(Message responseMessage) {
+            handled();
             return Dispatcher.this.response(ctx, responseMessage);
         }
         
         @Override
         public void failed(Message.Type type, String reason) {
+            handled();
             Message responseMessage = DispatchHandler.createResponseMessage(requestMessage, type, peerBeanMaster.serverPeerAddress());
             Dispatcher.this.response(ctx, responseMessage);
         }
         
         @Override
 		public void responseFireAndForget() {
+            handled();
             LOG.debug("The reply handler was a fire-and-forget handler. No message is sent back for {}.", requestMessage);
            if (!(ctx.channel() instanceof DatagramChannel)) {
                String msg = "There is no TCP fire-and-forget. Use UDP in that case. ";
@@ -252,6 +300,12 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
                TimeoutFactory.removeTimeout(ctx);
            }
         }
+
+        private void handled() {
+            if (rpcMetrics != null) {
+                rpcMetrics.handled(start);
+            }
+        }
     }
 
     /**
@@ -346,21 +400,15 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      */
     public DispatchHandler searchHandler(final Number160 recipientID, final Number160 onBehalfOf, final int cmd) {
 		final Integer command = Integer.valueOf(cmd);
-		readLock.lock();
-		try {
-			final Map<Integer, DispatchHandler> types = search(recipientID, onBehalfOf);
-			if (types != null && types.containsKey(command)) {
-				return types.get(command);
-			} else {
-				// not registered
-				LOG.debug(
-						"Handler not found for type {} we are looking for the server with ID {} on behalf of {}",
-						command, recipientID, onBehalfOf);
-				return null;
-			}
-		} finally {
-			readLock.unlock();
+		final Map<Integer, DispatchHandler> types = search(recipientID, onBehalfOf);
+		final DispatchHandler handler = types == null ? null : types.get(command);
+		if (handler == null) {
+			// not registered
+			LOG.debug(
+					"Handler not found for type {} we are looking for the server with ID {} on behalf of {}",
+					command, recipientID, onBehalfOf);
 		}
+		return handler;
     }
     
     /**
@@ -369,46 +417,29 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      * @return
      */
     public Map<Number320, DispatchHandler> searchHandler(final Integer command) {
-		readLock.lock();
-		try {
-			Map<Number320, DispatchHandler> result = new HashMap<Number320, DispatchHandler>();
-			for (Map.Entry<Number320, Map<Integer, DispatchHandler>> entry : ioHandlers.entrySet()) {
-				for (Map.Entry<Integer, DispatchHandler> entry2 : entry.getValue().entrySet()) {
-					DispatchHandler handler = entry.getValue().get(command);
-					if (handler != null && entry2.getKey().equals(command)) {
-						result.put(entry.getKey(), handler);
-					}
-				}
+		Map<Number320, DispatchHandler> result = new HashMap<Number320, DispatchHandler>();
+		for (Map.Entry<Number320, Map<Integer, DispatchHandler>> entry : ioHandlers.entrySet()) {
+			DispatchHandler handler = entry.getValue().get(command);
+			if (handler != null) {
+				result.put(entry.getKey(), handler);
 			}
-			return result;
-		} finally {
-			readLock.unlock();
 		}
+		return result;
     }
     
 	@SuppressWarnings("unchecked")
 	public <T> T searchHandler(Class<T> clazz, Number160 peerID, Number160 peerId2) {
-		readLock.lock();
-		try {
-			final Map<Integer, DispatchHandler> ioHandlers = search(peerID, peerId2);
-			for (DispatchHandler handler : ioHandlers.values()) {
-				if (clazz.isInstance(handler)) {
-					return (T) handler;
-				}
+		final Map<Integer, DispatchHandler> ioHandlers = search(peerID, peerId2);
+		for (DispatchHandler handler : ioHandlers.values()) {
+			if (clazz.isInstance(handler)) {
+				return (T) handler;
 			}
-			return null;
-		} finally {
-			readLock.unlock();
 		}
+		return null;
 	}
 	
 	public Map<Integer, DispatchHandler> searchHandler(Number160 peerId, Number160 onBehalfOf) {
-		readLock.lock();
-		try {
-			return new HashMap<Integer, DispatchHandler>(ioHandlers.get(new Number320(peerId, onBehalfOf)));
-		} finally {
-			readLock.unlock();
-		}
+		return new HashMap<Integer, DispatchHandler>(ioHandlers.get(new Number320(peerId, onBehalfOf)));
 	}
 
     /**
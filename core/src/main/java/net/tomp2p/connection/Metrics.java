@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.connection;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.rpc.RPC.Commands;
+import net.tomp2p.utils.LatencyHistogram;
+
+/**
+ * The metrics of a node, shared by the master peer and all its slave peers. Metrics are counters, histograms and
+ * gauges identified by a name. Counters and histograms are lock-free and are created on first use, gauges are
+ * evaluated when a snapshot is taken. All latencies are in microseconds.
+ * <p>
+ * Per RPC command, the {@link Sender} counts the sent requests and the responses, and records the time until the
+ * response arrived. The {@link Dispatcher} counts the incoming requests and records the time until they were answered.
+ * The names are rpc.[command].[sent|ok|failed|latency|received|handled]. Further metrics are the bytes per transport
+ * (transport.[udp|tcp].[in|out]) and the time to wait for permits in the {@link Reservation} (reservation.wait).
+ *
+ * @author Thomas Bocek
+ */
+public class Metrics {
+
+	public static final String SEPARATOR = ".";
+
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	// the metrics on the hot path are looked up once
+	private final RpcMetrics[] rpcMetrics;
+	private final AtomicLong udpIn;
+	private final AtomicLong udpOut;
+	private final AtomicLong tcpIn;
+	private final AtomicLong tcpOut;
+	private final LatencyHistogram reservationWait;
+
+	/**
+	 * A value that is read when a snapshot is taken, e.g., the size of a queue.
+	 */
+	public interface Gauge {
+		long value();
+	}
+
+	public Metrics() {
+		final Commands[] commands = Commands.values();
+		rpcMetrics = new RpcMetrics[commands.length];
+		for (int i = 0; i < commands.length; i++) {
+			rpcMetrics[i] = new RpcMetrics(this, "rpc" + SEPARATOR + commands[i].name());
+		}
+		udpIn = counter("transport.udp.in");
+		udpOut = counter("transport.udp.out");
+		tcpIn = counter("transport.tcp.in");
+		tcpOut = counter("transport.tcp.out");
+		reservationWait = histogram("reservation.wait");
+	}
+
+	/**
+	 * @param name
+	 *            The name of the counter
+	 * @return The counter, which is created if it does not exist yet
+	 */
+	public AtomicLong counter(final String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			counter = new AtomicLong();
+			final AtomicLong old = counters.putIfAbsent(name, counter);
+			if (old != null) {
+				counter = old;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * @param name
+	 *            The name of the histogram
+	 * @return The histogram, which is created if it does not exist yet
+	 */
+	public LatencyHistogram histogram(final String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			final LatencyHistogram old = histograms.putIfAbsent(name, histogram);
+			if (old != null) {
+				histogram = old;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Registers a gauge. An existing gauge with the same name is replaced.
+	 *
+	 * @param name
+	 *            The name of the gauge
+	 * @param gauge
+	 *            The gauge that is read when a snapshot is taken
+	 * @return This class
+	 */
+	public Metrics gauge(final String name, final Gauge gauge) {
+		gauges.put(name, gauge);
+		return this;
+	}
+
+	/**
+	 * @param command
+	 *            The RPC command, see {@link Commands#getNr()}
+	 * @return The metrics of this command, or null if the command is unknown
+	 */
+	public RpcMetrics rpc(final int command) {
+		if (command < 0 || command >= rpcMetrics.length) {
+			return null;
+		}
+		return rpcMetrics[command];
+	}
+
+	/**
+	 * Counts the bytes that were received.
+	 *
+	 * @param isUDP
+	 *            True if received over UDP
+	 * @param bytes
+	 *            The number of bytes
+	 */
+	public void bytesIn(final boolean isUDP, final int bytes) {
+		(isUDP ? udpIn : tcpIn).addAndGet(bytes);
+	}
+
+	/**
+	 * Counts the bytes that were sent.
+	 *
+	 * @param isUDP
+	 *            True if sent over UDP
+	 * @param bytes
+	 *            The number of bytes
+	 */
+	public void bytesOut(final boolean isUDP, final int bytes) {
+		(isUDP ? udpOut : tcpOut).addAndGet(bytes);
+	}
+
+	/**
+	 * @return The time waited for permits in the reservation
+	 */
+	public LatencyHistogram reservationWait() {
+		return reservationWait;
+	}
+
+	/**
+	 * Takes a snapshot of all metrics. A histogram is reported as name.count, name.mean, name.p50, name.p90,
+	 * name.p99 and name.max. As the metrics are updated concurrently, the values are not consistent with each other.
+	 *
+	 * @return The current values sorted by name
+	 */
+	public SortedMap<String, Long> snapshot() {
+		final SortedMap<String, Long> snapshot = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			final LatencyHistogram histogram = entry.getValue();
+			final String prefix = entry.getKey() + SEPARATOR;
+			snapshot.put(prefix + "count", histogram.count());
+			snapshot.put(prefix + "mean", Math.round(histogram.mean()));
+			snapshot.put(prefix + "p50", histogram.percentile(50));
+			snapshot.put(prefix + "p90", histogram.percentile(90));
+			snapshot.put(prefix + "p99", histogram.percentile(99));
+			snapshot.put(prefix + "max", histogram.max());
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().value());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Writes a snapshot as text, one "name value" pair per line. Metrics that are 0 are skipped, as most RPC
+	 * commands are never used.
+	 *
+	 * @param appendable
+	 *            Where to write the snapshot to
+	 * @return The appendable
+	 * @throws IOException
+	 *             If the appendable throws an exception
+	 */
+	public <T extends Appendable> T writeText(final T appendable) throws IOException {
+		for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+			if (entry.getValue() != 0) {
+				appendable.append(entry.getKey()).append(' ').append(entry.getValue().toString()).append('\n');
+			}
+		}
+		return appendable;
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return writeText(new StringBuilder()).toString();
+		} catch (IOException e) {
+			// a StringBuilder does not throw an IOException
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The metrics of one RPC command.
+	 */
+	public static class RpcMetrics {
+		private final AtomicLong sent;
+		private final AtomicLong ok;
+		private final AtomicLong failed;
+		private final AtomicLong received;
+		private final LatencyHistogram latency;
+		private final LatencyHistogram handled;
+
+		private RpcMetrics(final Metrics metrics, final String prefix) {
+			this.sent = metrics.counter(prefix + SEPARATOR + "sent");
+			this.ok = metrics.counter(prefix + SEPARATOR + "ok");
+			this.failed = metrics.counter(prefix + SEPARATOR + "failed");
+			this.received = metrics.counter(prefix + SEPARATOR + "received");
+			this.latency = metrics.histogram(prefix + SEPARATOR + "latency");
+			this.handled = metrics.histogram(prefix + SEPARATOR + "handled");
+		}
+
+		/**
+		 * Called when a request is sent.
+		 */
+		public void sent() {
+			sent.incrementAndGet();
+		}
+
+		/**
+		 * Called when a request is finished.
+		 *
+		 * @param startNanos
+		 *            The time the request was sent, from {@link System#nanoTime()}
+		 * @param success
+		 *            True if the request was successful
+		 */
+		public void completed(final long startNanos, final boolean success) {
+			(success ? ok : failed).incrementAndGet();
+			latency.record((System.nanoTime() - startNanos) / 1000);
+		}
+
+		/**
+		 * Called when a request was received.
+		 */
+		public void received() {
+			received.incrementAndGet();
+		}
+
+		/**
+		 * Called when a received request was answered.
+		 *
+		 * @param startNanos
+		 *            The time the request was received, from {@link System#nanoTime()}
+		 */
+		public void handled(final long startNanos) {
+			handled.record((System.nanoTime() - startNanos) / 1000);
+		}
+
+		public long sentCounter() {
+			return sent.get();
+		}
+
+		public long okCounter() {
+			return ok.get();
+		}
+
+		public long failedCounter() {
+			return failed.get();
+		}
+
+		public long receivedCounter() {
+			return received.get();
+		}
+
+		public LatencyHistogram latency() {
+			return latency;
+		}
+
+		public LatencyHistogram handled() {
+			return handled;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal HTTP server that answers every request with a text snapshot of the {@link Metrics}, see
+ * {@link Metrics#writeText(Appendable)}. It listens on the loopback address only and serves one request at a time in
+ * a daemon thread, which is enough for a monitoring agent that polls every few seconds. Example:
+ *
+ * <pre>
+ * MetricsExporter exporter = new MetricsExporter(peer.connectionBean().metrics(), 9100).start();
+ * // curl http://localhost:9100/
+ * exporter.shutdown();
+ * </pre>
+ *
+ * @author Thomas Bocek
+ */
+public class MetricsExporter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MetricsExporter.class);
+	private static final int READ_TIMEOUT_MILLIS = 1000;
+
+	private final Metrics metrics;
+	private final InetSocketAddress bindAddress;
+	private volatile ServerSocket serverSocket;
+
+	/**
+	 * @param metrics
+	 *            The metrics to export
+	 * @param port
+	 *            The port on the loopback address, 0 to choose a free port
+	 */
+	public MetricsExporter(final Metrics metrics, final int port) {
+		this(metrics, new InetSocketAddress("localhost", port));
+	}
+
+	/**
+	 * @param metrics
+	 *            The metrics to export
+	 * @param bindAddress
+	 *            The address to listen on
+	 */
+	public MetricsExporter(final Metrics metrics, final InetSocketAddress bindAddress) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("Metrics must be set");
+		}
+		this.metrics = metrics;
+		this.bindAddress = bindAddress;
+	}
+
+	/**
+	 * Binds the server socket and starts answering requests.
+	 *
+	 * @return This class
+	 * @throws IOException
+	 *             If the address cannot be bound
+	 */
+	public MetricsExporter start() throws IOException {
+		if (serverSocket != null) {
+			throw new IllegalStateException("Already started");
+		}
+		final ServerSocket socket = new ServerSocket();
+		socket.setReuseAddress(true);
+		socket.bind(bindAddress);
+		serverSocket = socket;
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve(socket);
+			}
+		}, ConnectionBean.THREAD_NAME + "metrics - " + socket.getLocalPort());
+		thread.setDaemon(true);
+		thread.start();
+		LOG.info("Exporting metrics on {}", socket.getLocalSocketAddress());
+		return this;
+	}
+
+	/**
+	 * @return The port the exporter listens on, or -1 if not started
+	 */
+	public int port() {
+		final ServerSocket socket = serverSocket;
+		return socket == null ? -1 : socket.getLocalPort();
+	}
+
+	/**
+	 * Closes the server socket, the serving thread ends.
+	 */
+	public void shutdown() {
+		final ServerSocket socket = serverSocket;
+		serverSocket = null;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				LOG.debug("Could not close the metrics server socket", e);
+			}
+		}
+	}
+
+	private void serve(final ServerSocket socket) {
+		while (!socket.isClosed()) {
+			Socket client = null;
+			try {
+				client = socket.accept();
+				client.setSoTimeout(READ_TIMEOUT_MILLIS);
+				skipRequest(client.getInputStream());
+				final byte[] body = metrics.toString().getBytes("UTF-8");
+				final OutputStream out = client.getOutputStream();
+				out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: " + body.length
+				        + "\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+				out.write(body);
+				out.flush();
+			} catch (SocketException e) {
+				// closed by shutdown
+				LOG.debug("Metrics server socket closed", e);
+			} catch (IOException e) {
+				LOG.warn("Could not export metrics", e);
+			} finally {
+				if (client != null) {
+					try {
+						client.close();
+					} catch (IOException e) {
+						LOG.debug("Could not close the metrics client socket", e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the request until the empty line that ends the header. The request itself is not interpreted, as there
+	 * is only one resource.
+	 */
+	private static void skipRequest(final InputStream in) throws IOException {
+		int lineLength = 0;
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b == '\n') {
+				if (lineLength == 0) {
+					return;
+				}
+				lineLength = 0;
+			} else if (b != '\r') {
+				lineLength++;
+			}
+		}
+	}
+}
@@ -21,15 +21,18 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.tomp2p.p2p.MaintenanceTask;
+import net.tomp2p.p2p.NetworkEstimator;
 import net.tomp2p.peers.LocalMap;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapSnapshot;
 import net.tomp2p.peers.PeerStatusListener;
 import net.tomp2p.peers.RTT;
 import net.tomp2p.rpc.BloomfilterFactory;
 import net.tomp2p.storage.DigestStorage;
 import net.tomp2p.storage.DigestTracker;
+import net.tomp2p.storage.ObjectCodec;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,7 +52,10 @@ public class PeerBean {
     private PeerMap peerMap;
     private List<PeerStatusListener> peerStatusListeners = new ArrayList<PeerStatusListener>(1);
     private BloomfilterFactory bloomfilterFactory;
+    private ObjectCodec objectCodec;
     private MaintenanceTask maintenanceTask;
+    private PeerMapSnapshot peerMapSnapshot;
+    private NetworkEstimator networkEstimator;
     private DigestStorage digestStorage;
     private DigestTracker digestTracker;
     private HolePInitiator holePunchInitiator;
@@ -184,6 +190,18 @@ public class PeerBean {
         return bloomfilterFactory;
     }
 
+    public PeerBean objectCodec(final ObjectCodec objectCodec) {
+        this.objectCodec = objectCodec;
+        return this;
+    }
+
+    /**
+     * @return The codec for objects stored in {@link net.tomp2p.storage.Data}
+     */
+    public ObjectCodec objectCodec() {
+        return objectCodec;
+    }
+
     public PeerBean maintenanceTask(MaintenanceTask maintenanceTask) {
         this.maintenanceTask = maintenanceTask;
         return this;
@@ -192,6 +210,30 @@ public class PeerBean {
     public MaintenanceTask maintenanceTask() {
         return maintenanceTask;
     }
+
+    public PeerBean peerMapSnapshot(PeerMapSnapshot peerMapSnapshot) {
+        this.peerMapSnapshot = peerMapSnapshot;
+        return this;
+    }
+
+    /**
+     * @return The snapshot of the peer map that is stored periodically and on shutdown, or null
+     */
+    public PeerMapSnapshot peerMapSnapshot() {
+        return peerMapSnapshot;
+    }
+
+    public PeerBean networkEstimator(NetworkEstimator networkEstimator) {
+        this.networkEstimator = networkEstimator;
+        return this;
+    }
+
+    /**
+     * @return The estimator of the network size and churn, or null if it is disabled
+     */
+    public NetworkEstimator networkEstimator() {
+        return networkEstimator;
+    }
     
     public PeerBean digestStorage(DigestStorage digestStorage) {
         this.digestStorage = digestStorage;
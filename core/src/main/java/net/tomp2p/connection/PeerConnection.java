@@ -2,6 +2,7 @@ package net.tomp2p.connection;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
@@ -15,6 +16,7 @@ import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.utils.Pair;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,13 +24,15 @@ import org.slf4j.LoggerFactory;
 public class PeerConnection {
 	final private static Logger LOG = LoggerFactory.getLogger(PeerConnection.class);
 	final public static int HEART_BEAT_MILLIS = 2000;
+	// the first connection object of a channel, the others share its semaphore and queue
+	final private static AttributeKey<PeerConnection> PEER_CONNECTION_KEY = AttributeKey.valueOf("peer-connection");
     
 	final private Semaphore oneConnection;
     final private PeerAddress remotePeer;
     final private ChannelCreator cc;
     final private boolean initiator;
 
-    final private Map<FutureChannelCreator, FutureResponse> map;
+    final private Map<FutureChannelCreator, Pair<PeerConnection, FutureResponse>> map;
     final private FutureDone<Void> closeFuture;
     final private int heartBeatMillis;
 
@@ -36,7 +40,7 @@ public class PeerConnection {
     private volatile ChannelFuture channelFuture;
     
     private PeerConnection(Semaphore oneConnection, PeerAddress remotePeer, ChannelCreator cc, 
-    		boolean initiator, Map<FutureChannelCreator, FutureResponse> map, FutureDone<Void> closeFuture, 
+    		boolean initiator, Map<FutureChannelCreator, Pair<PeerConnection, FutureResponse>> map, FutureDone<Void> closeFuture, 
     		int heartBeatMillis, ChannelFuture channelFuture) {
     	this.oneConnection = oneConnection;
     	this.remotePeer = remotePeer;
@@ -65,7 +69,7 @@ public class PeerConnection {
         this.heartBeatMillis = heartBeatMillis;
         this.initiator = true;
         this.oneConnection = new Semaphore(1);
-        this.map = new LinkedHashMap<FutureChannelCreator, FutureResponse>();
+        this.map = new LinkedHashMap<FutureChannelCreator, Pair<PeerConnection, FutureResponse>>();
         this.closeFuture = new FutureDone<Void>();
     }
 
@@ -86,13 +90,31 @@ public class PeerConnection {
         this.cc = null;
         this.heartBeatMillis = heartBeatMillis;
         this.initiator = false;
-        this.oneConnection = new Semaphore(1);
-        this.map = new LinkedHashMap<FutureChannelCreator, FutureResponse>();
+        // the dispatcher creates a connection object for every request, they all need to use the same semaphore
+        final PeerConnection first = channelFuture.channel().attr(PEER_CONNECTION_KEY).get();
+        if (first != null) {
+            this.oneConnection = first.oneConnection;
+            this.map = first.map;
+        } else {
+            this.oneConnection = new Semaphore(1);
+            this.map = new LinkedHashMap<FutureChannelCreator, Pair<PeerConnection, FutureResponse>>();
+            channelFuture.channel().attr(PEER_CONNECTION_KEY).setIfAbsent(this);
+        }
         this.closeFuture = new FutureDone<Void>();
     }
 
+    /**
+     * Sets the channel of this connection. The connection objects that are created later for the same channel, e.g.,
+     * by the dispatcher for incoming requests, share the semaphore of this connection. Thus, only one request at a
+     * time uses the channel, no matter over which object.
+     * 
+     * @param channelFuture
+     *            The channel future of the open TCP connection
+     * @return This class
+     */
     public PeerConnection channelFuture(ChannelFuture channelFuture) {
         this.channelFuture = channelFuture;
+        channelFuture.channel().attr(PEER_CONNECTION_KEY).setIfAbsent(this);
         addCloseListener(channelFuture);
         return this;
     }
@@ -149,34 +171,50 @@ public class PeerConnection {
     private FutureChannelCreator acquire(final FutureChannelCreator futureChannelCreator,
             final FutureResponse futureResponse) {
     	LOG.debug("About to acquire a peer connection for {}.", remotePeer);
-        if (oneConnection.tryAcquire()) {
-        	LOG.debug("Acquired a peer connection for {}.", remotePeer);
-            futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
-                @Override
-                public void operationComplete(FutureResponse future) throws Exception {
-                    oneConnection.release();
-                    LOG.debug("released peer connection for {}", remotePeer);
-                    synchronized (map) {
-                        Iterator<Map.Entry<FutureChannelCreator, FutureResponse>> iterator = map.entrySet()
-                                .iterator();
-                        if (iterator.hasNext()) {
-                            Map.Entry<FutureChannelCreator, FutureResponse> entry = iterator.next();
-                            iterator.remove();
-                            acquire(entry.getKey(), entry.getValue());
-                        }
-                    }
-                }
-            });
+        if (tryAcquire(futureResponse)) {
             futureChannelCreator.reserved(cc);
             return futureChannelCreator;
         } else {
             synchronized (map) {
-                map.put(futureChannelCreator, futureResponse);
+                map.put(futureChannelCreator, Pair.create(this, futureResponse));
             }
         }
         return futureChannelCreator;
     }
 
+    /**
+     * Acquires this connection only if no other request uses it. Other than {@link #acquire(FutureResponse)}, the
+     * request is not queued.
+     * 
+     * @param futureResponse
+     *            The response of the request, the connection is released when it completes
+     * @return True if the connection has been acquired
+     */
+    public boolean tryAcquire(final FutureResponse futureResponse) {
+        if (!oneConnection.tryAcquire()) {
+            return false;
+        }
+        LOG.debug("Acquired a peer connection for {}.", remotePeer);
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(FutureResponse future) throws Exception {
+                oneConnection.release();
+                LOG.debug("released peer connection for {}", remotePeer);
+                synchronized (map) {
+                    Iterator<Map.Entry<FutureChannelCreator, Pair<PeerConnection, FutureResponse>>> iterator = map
+                            .entrySet().iterator();
+                    if (iterator.hasNext()) {
+                        Map.Entry<FutureChannelCreator, Pair<PeerConnection, FutureResponse>> entry = iterator.next();
+                        iterator.remove();
+                        // the queue is shared, resume the request with the connection object it was queued with
+                        entry.getValue().element0().acquire(entry.getKey(), entry.getValue().element1());
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
     public ChannelCreator channelCreator() {
         return cc;
     }
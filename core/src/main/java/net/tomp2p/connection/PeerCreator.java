@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.security.KeyPair;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import net.tomp2p.futures.BaseFutureAdapter;
@@ -33,6 +34,7 @@ import net.tomp2p.futures.FutureDone;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerSocketAddress;
+import net.tomp2p.utils.CoarseClock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +58,8 @@ public class PeerCreator {
 	private final EventLoopGroup bossGroup;
 
 	private final boolean master;
+	// the ticker of the coarse clock, only set for the master peer
+	private final ScheduledFuture<?> clockTicker;
 
 	private final FutureDone<Void> futureServerDone = new FutureDone<Void>();
 
@@ -94,15 +98,17 @@ public class PeerCreator {
 		workerGroup = new NioEventLoopGroup(0, new DefaultThreadFactory(ConnectionBean.THREAD_NAME
 		        + "worker-client/server - "));
 		bossGroup = new NioEventLoopGroup(2, new DefaultThreadFactory(ConnectionBean.THREAD_NAME + "boss - "));
-		Dispatcher dispatcher = new Dispatcher(p2pId, peerBean, channelServerConfiguration.heartBeatMillis());
+		final Metrics metrics = new Metrics();
+		Dispatcher dispatcher = new Dispatcher(p2pId, peerBean, channelServerConfiguration.heartBeatMillis(), metrics);
 		final ChannelServer channelServer = new ChannelServer(bossGroup, workerGroup, channelServerConfiguration,
-		        dispatcher, peerBean.peerStatusListeners(), timer);
+		        dispatcher, peerBean.peerStatusListeners(), timer, metrics);
 		
 		//connection bean
-		Sender sender = new Sender(peerId, peerBean.peerStatusListeners(), channelClientConfiguration, dispatcher, sendBehavior, peerBean);
-		Reservation reservation = new Reservation(workerGroup, channelClientConfiguration);
+		Sender sender = new Sender(peerId, peerBean.peerStatusListeners(), channelClientConfiguration, dispatcher, sendBehavior, peerBean, metrics);
+		Reservation reservation = new Reservation(workerGroup, channelClientConfiguration, metrics);
 		connectionBean = new ConnectionBean(p2pId, dispatcher, sender, channelServer, reservation,
-		        channelClientConfiguration, timer);
+		        channelClientConfiguration, timer, metrics);
+		this.clockTicker = CoarseClock.start(timer);
 		this.master = true;
 	}
 
@@ -123,6 +129,7 @@ public class PeerCreator {
 		this.peerBean = new PeerBean(keyPair);
 		PeerAddress self = parent.peerBean().serverPeerAddress().changePeerId(peerId);
 		this.peerBean.serverPeerAddress(self);
+		this.clockTicker = null;
 		this.master = false;
 	}
 
@@ -148,6 +155,7 @@ public class PeerCreator {
 			return futureServerDone.done();
 		}
 		// shutdown the timer
+		CoarseClock.stop(clockTicker);
 		connectionBean.timer().shutdown();
 		
 		LOG.debug("Shutting down client...");
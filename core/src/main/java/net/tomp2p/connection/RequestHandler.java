@@ -16,11 +16,16 @@
 package net.tomp2p.connection;
 
  import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
 import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.util.concurrent.RejectedExecutionException;
+
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.MessageID;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
 import net.tomp2p.peers.PeerStatusListener;
 import net.tomp2p.rpc.RPC;
 
@@ -52,6 +57,9 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
 
     private final MessageID sendMessageID;
 
+    // the persistent connection this request is sent over, if any
+    private volatile PeerConnection peerConnection;
+
     // modifiable variables
     private final int idleTCPMillis; // = ConnectionBean.DEFAULT_TCP_IDLE_SECONDS;
     private final int idleUDPMillis; // = ConnectionBean.DEFAULT_UDP_IDLE_SECONDS;
@@ -194,6 +202,7 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
     
 	// TODO add JavaDoc
     public K sendTCP(final PeerConnection peerConnection) {
+        this.peerConnection = peerConnection;
         connectionBean.sender().sendTCP(this, futureResponse, message, null, idleTCPMillis,
                 connectionTimeoutTCPMillis, peerConnection);
         return futureResponse;
@@ -208,11 +217,69 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
      * @return The future that was added in the constructor
      */
     public K sendTCP(final ChannelCreator channelCreator, final PeerConnection peerConnection) {
+        this.peerConnection = peerConnection;
         connectionBean.sender().sendTCP(this, futureResponse, message, channelCreator, idleTCPMillis,
                 connectionTimeoutTCPMillis, peerConnection);
         return futureResponse;
     }
 
+    /**
+     * Sends a TCP message over the given persistent connection, but only if it is open and no other request uses it.
+     * The message is kept alive, so the connection stays open after the response.
+     * 
+     * @param channelCreator
+     *            The channel creator that creates a TCP connection if the peer connection gets closed meanwhile
+     * @param peerConnection
+     *            The persistent connection to the recipient, may be null
+     * @return The future that was added in the constructor or null if the peer connection cannot be used
+     */
+    public K sendTCPIfIdle(final ChannelCreator channelCreator, final PeerConnection peerConnection) {
+        if (peerConnection == null || !peerConnection.isOpen() || !peerConnection.tryAcquire(futureResponse)) {
+            return null;
+        }
+        LOG.debug("Reuse the connection to {} for {}.", peerConnection.remotePeer(), message);
+        connectionBean.metrics().counter("connection.reused").incrementAndGet();
+        message.keepAlive(true);
+        // the handler of the connection is replaced in its pipeline, which blocks until the event loop of the channel
+        // has done it. If we are called from the event loop of another channel, e.g. when routing continues in a
+        // response handler, two event loops could wait for each other. Thus, hand the request over.
+        final EventLoop eventLoop = peerConnection.channelFuture().channel().eventLoop();
+        if (eventLoop.inEventLoop()) {
+            return sendTCP(channelCreator, peerConnection);
+        }
+        try {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendTCP(channelCreator, peerConnection);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the event loop has been shut down
+            futureResponse.failed(e);
+        }
+        return futureResponse;
+    }
+
+    /**
+     * Sends a TCP message over the open persistent connection to the recipient that the peer map knows of. If there
+     * is none or it is used by another request, a new TCP connection is created.
+     * 
+     * @param channelCreator
+     *            The channel creator will create a TCP connection if needed
+     * @return The future that was added in the constructor
+     */
+    public K sendTCPReuse(final ChannelCreator channelCreator) {
+        final PeerMap peerMap = peerBean.peerMap();
+        if (peerMap != null) {
+            final K future = sendTCPIfIdle(channelCreator, peerMap.peerConnection(message.recipient()));
+            if (future != null) {
+                return future;
+            }
+        }
+        return sendTCP(channelCreator);
+    }
+
     @Override
     public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
 		LOG.debug("Error originating from {}. Cause {}.", futureResponse.request(), cause);
@@ -309,7 +376,7 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
         //if its an announce, the peer status will be handled in the RPC
 		if (responseMessage.command() != RPC.Commands.LOCAL_ANNOUNCE.getNr() 
 				&& (responseMessage.isOk() || responseMessage.isNotOk())) {
-			peerBean.notifyPeerFound(responseMessage.sender(), null, null, futureResponse.getRoundTripTime());
+			peerBean.notifyPeerFound(responseMessage.sender(), null, peerConnection, futureResponse.getRoundTripTime());
 		}
         
         // call this for streaming support
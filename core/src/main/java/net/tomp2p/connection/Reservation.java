@@ -37,6 +37,7 @@ import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.p2p.RequestConfiguration;
 import net.tomp2p.p2p.RoutingConfiguration;
+import net.tomp2p.utils.LatencyHistogram;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +61,7 @@ public class Reservation {
 	private final Semaphore semaphorePermanentTCP;
 
 	private final ChannelClientConfiguration channelClientConfiguration;
+	private final LatencyHistogram reservationWait;
 
 	private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
 	// single thread
@@ -90,6 +92,22 @@ public class Reservation {
 	 *            permanent TCP connections
 	 */
 	public Reservation(final EventLoopGroup workerGroup, final ChannelClientConfiguration channelClientConfiguration) {
+		this(workerGroup, channelClientConfiguration, null);
+	}
+
+	/**
+	 * Creates a new reservation class with the 3 permits contained in the provided configuration.
+	 * 
+	 * @param workerGroup
+	 *            The worker group for both UDP and TCP channels. This will not
+	 *            be shutdown in this class, you need to shutdown it outside.
+	 * @param channelClientConfiguration
+	 *            Sets maxPermitsUDP, maxPermitsTCP, and maxPermitsPermanentTCP
+	 * @param metrics
+	 *            The metrics for the time to wait for permits and the pending requests, or null
+	 */
+	public Reservation(final EventLoopGroup workerGroup, final ChannelClientConfiguration channelClientConfiguration,
+	        final Metrics metrics) {
 		this.workerGroup = workerGroup;
 		this.maxPermitsUDP = channelClientConfiguration.maxPermitsUDP();
 		this.maxPermitsTCP = channelClientConfiguration.maxPermitsTCP();
@@ -98,6 +116,17 @@ public class Reservation {
 		this.semaphoreTCP = new Semaphore(maxPermitsTCP);
 		this.semaphorePermanentTCP = new Semaphore(maxPermitsPermanentTCP);
 		this.channelClientConfiguration = channelClientConfiguration;
+		if (metrics != null) {
+			this.reservationWait = metrics.reservationWait();
+			metrics.gauge("reservation.pending", new Metrics.Gauge() {
+				@Override
+				public long value() {
+					return pendingRequests();
+				}
+			});
+		} else {
+			this.reservationWait = null;
+		}
 	}
 
 	/**
@@ -319,6 +348,7 @@ public class Reservation {
 	 */
 	private class WaitReservation implements Runnable {
 		private final FutureChannelCreator futureChannelCreator;
+		private final long start = System.nanoTime();
 		private final FutureDone<Void> futureChannelCreationShutdown;
 		private final int permitsUDP;
 		private final int permitsTCP;
@@ -375,6 +405,9 @@ public class Reservation {
 			} finally {
 				read.unlock();
 			}
+			if (reservationWait != null) {
+				reservationWait.record((System.nanoTime() - start) / 1000);
+			}
 			futureChannelCreator.reserved(channelCreator);
 		}
 
@@ -394,6 +427,7 @@ public class Reservation {
 	 */
 	private final class WaitReservationPermanent implements Runnable {
 		private final FutureChannelCreator futureChannelCreator;
+		private final long start = System.nanoTime();
 		private final FutureDone<Void> futureChannelCreationShutdown;
 		private final int permitsPermanentTCP;
 
@@ -440,6 +474,9 @@ public class Reservation {
 			} finally {
 				read.unlock();
 			}
+			if (reservationWait != null) {
+				reservationWait.record((System.nanoTime() - start) / 1000);
+			}
 			futureChannelCreator.reserved(channelCreator);
 		}
 
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.connection;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps the native epoll transport of Netty, which is the only way to set SO_REUSEPORT on a datagram socket with Java
+ * 6/7. With SO_REUSEPORT several UDP channels can bind to the same port and the kernel distributes the incoming
+ * packets among them. The epoll library is an optional dependency, thus all references to it are kept in this class
+ * and {@link #isAvailable()} has to be checked before any other method is called.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public final class ReusePortSupport {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReusePortSupport.class);
+
+	private static final boolean AVAILABLE = checkAvailable();
+
+	private ReusePortSupport() {
+	}
+
+	private static boolean checkAvailable() {
+		try {
+			return Epoll.isAvailable();
+		} catch (Throwable t) {
+			// netty-transport-native-epoll is not in the classpath or we are not on Linux
+			LOG.debug("native epoll transport not available", t);
+			return false;
+		}
+	}
+
+	/**
+	 * @return True if the native transport is in the classpath and can be loaded on this platform, otherwise only one
+	 *         UDP channel is bound per port
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	/**
+	 * @param nrThreads
+	 *            The number of event loops, one per UDP receiver channel
+	 * @param threadFactory
+	 *            The factory to name the threads
+	 * @return An epoll event loop group, the channels created by {@link #bootstrap(Bootstrap)} can only be registered
+	 *         with this kind of group
+	 */
+	static EventLoopGroup createEventLoopGroup(final int nrThreads, final ThreadFactory threadFactory) {
+		return new EpollEventLoopGroup(nrThreads, threadFactory);
+	}
+
+	/**
+	 * Sets the epoll datagram channel and SO_REUSEPORT on the bootstrap.
+	 *
+	 * @param b
+	 *            The bootstrap that uses a group from {@link #createEventLoopGroup(int, ThreadFactory)}
+	 * @return The same bootstrap
+	 */
+	static Bootstrap bootstrap(final Bootstrap b) {
+		b.channel(EpollDatagramChannel.class);
+		b.option(EpollChannelOption.SO_REUSEPORT, true);
+		return b;
+	}
+}
@@ -83,6 +83,7 @@ public class Sender {
 	private final SendBehavior sendBehavior;
 	private final Random random;
 	private final PeerBean peerBean;
+	private final Metrics metrics;
 	private final DataFilter dataFilterTTL = new DataFilterTTL();
 
 	// this map caches all messages which are meant to be sent by a reverse
@@ -104,12 +105,32 @@ public class Sender {
 	 */
 	public Sender(final Number160 peerId, final List<PeerStatusListener> peerStatusListeners,
 			final ChannelClientConfiguration channelClientConfiguration, Dispatcher dispatcher, SendBehavior sendBehavior, PeerBean peerBean) {
+		this(peerId, peerStatusListeners, channelClientConfiguration, dispatcher, sendBehavior, peerBean, null);
+	}
+
+	/**
+	 * Creates a new sender with the listeners for offline peers.
+	 * 
+	 * @param peerStatusListeners
+	 *            The listener for offline peers
+	 * @param channelClientConfiguration
+	 *            The configuration used to get the signature factory
+	 * @param dispatcher
+	 * @param sendBehavior
+	 * @param peerBean
+	 * @param metrics
+	 *            The metrics for the sent requests and the sent bytes, or null
+	 */
+	public Sender(final Number160 peerId, final List<PeerStatusListener> peerStatusListeners,
+			final ChannelClientConfiguration channelClientConfiguration, Dispatcher dispatcher, SendBehavior sendBehavior, PeerBean peerBean,
+			final Metrics metrics) {
 		this.peerStatusListeners = peerStatusListeners;
 		this.channelClientConfiguration = channelClientConfiguration;
 		this.dispatcher = dispatcher;
 		this.sendBehavior = sendBehavior;
 		this.random = new Random(peerId.hashCode());
 		this.peerBean = peerBean;
+		this.metrics = metrics;
 	}
 
 	public ChannelClientConfiguration channelClientConfiguration() {
@@ -150,6 +171,7 @@ public class Sender {
 		if (futureResponse.isCompleted()) {
 			return;
 		}
+		recordRequest(futureResponse, message);
 		// NAT reflection - rewrite recipient if we found a local address for
 		// the recipient
 		LocalMap localMap = peerBean.localMap();
@@ -465,11 +487,11 @@ public class Sender {
 
 		handlers.put("decoder",
 				new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PCumulationTCP(channelClientConfiguration.signatureFactory(), 
-						channelClientConfiguration.byteBufAllocator())));
+						channelClientConfiguration.byteBufAllocator(), metrics)));
 		handlers.put(
 				"encoder",
 				new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(channelClientConfiguration.signatureFactory(),
-						channelClientConfiguration.byteBufAllocator())));
+						channelClientConfiguration.byteBufAllocator(), metrics)));
 
 		if (peerConnection != null) {
 			// we expect replies on this connection
@@ -573,6 +595,7 @@ public class Sender {
 		if (futureResponse.isCompleted()) {
 			return;
 		}
+		recordRequest(futureResponse, message);
 
 		// NAT reflection - rewrite recipient if we found a local address for
 		// the recipient
@@ -679,8 +702,9 @@ public class Sender {
 				if (future.isSuccess()) {
 					futureResponse.response(future.object());
 				} else {
-					LOG.error(future.failedReason());
-					LOG.error("Message could not be sent with hole punching! New send attempt with relaying.");
+					// expected as long as no hole punching strategy is available
+					LOG.debug("Message could not be sent with hole punching, new send attempt with relaying: {}",
+							future.failedReason());
 					// futureResponse.failed(future.failedReason());
 					// throw new Exception(future.failedReason());
 					doRelayFallback(futureResponse, message, broadcast, handlers, channelFuture);
@@ -736,10 +760,10 @@ public class Sender {
 
 		handlers.put(
 				"decoder",
-				new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PSinglePacketUDP(channelClientConfiguration.signatureFactory())));
+				new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PSinglePacketUDP(channelClientConfiguration.signatureFactory(), metrics)));
 		handlers.put(
 				"encoder",
-				new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(channelClientConfiguration.signatureFactory(), channelClientConfiguration.byteBufAllocator())));
+				new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(channelClientConfiguration.signatureFactory(), channelClientConfiguration.byteBufAllocator(), metrics)));
 		if (!isFireAndForget) {
 			handlers.put("handler", new Pair<EventExecutorGroup, ChannelHandler>(null, handler));
 		}
@@ -885,6 +909,24 @@ public class Sender {
 		};
 	}
 
+	/**
+	 * Counts the request and records the time until the request completes in the metrics of its RPC command.
+	 */
+	private void recordRequest(final FutureResponse futureResponse, final Message message) {
+		final Metrics.RpcMetrics rpcMetrics = metrics == null ? null : metrics.rpc(message.command());
+		if (rpcMetrics == null) {
+			return;
+		}
+		rpcMetrics.sent();
+		final long start = System.nanoTime();
+		futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+			@Override
+			public void operationComplete(final FutureResponse future) throws Exception {
+				rpcMetrics.completed(start, future.isSuccess());
+			}
+		});
+	}
+
 	private void removePeerIfFailed(final FutureResponse futureResponse, final Message message) {
 		futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
 			@Override
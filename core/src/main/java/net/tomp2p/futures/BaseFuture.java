@@ -206,4 +206,18 @@ public interface BaseFuture extends Cancel {
      * @return this
      */
     BaseFuture setCancel(Cancel cancel);
+
+    /**
+     * Attaches a trace to this future. The operation behind this future records its phases in the trace.
+     * 
+     * @param trace
+     *            The trace or null to disable tracing
+     * @return this
+     */
+    BaseFuture trace(Trace trace);
+
+    /**
+     * @return The trace of this future, or null if tracing is not enabled
+     */
+    Trace trace();
 }
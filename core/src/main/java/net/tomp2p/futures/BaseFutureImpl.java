@@ -17,9 +17,8 @@ package net.tomp2p.futures;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import net.tomp2p.connection.ConnectionBean;
 
@@ -29,6 +28,11 @@ import org.slf4j.LoggerFactory;
 /**
  * The base for all BaseFuture implementations. Be aware of possible deadlocks. Never await from a listener. This class
  * is heavily inspired by MINA and Netty.
+ * <p>
+ * The state of a future is changed while holding the lock, but the listeners are managed without locking: the first
+ * listener is stored inline, further listeners are pushed on a lock-free stack, which is replaced by a marker once
+ * the listeners are notified. Listeners are called in the order they were added. The latch for
+ * {@link #awaitListeners()} is only created if someone waits for it.
  * 
  * @param <K>
  *            The class that extends BaseFuture and is used to return back the type for method calls. E.g, if K is
@@ -38,20 +42,36 @@ import org.slf4j.LoggerFactory;
 public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture {
     private static final Logger LOG = LoggerFactory.getLogger(BaseFutureImpl.class);
 
-    // Listeners that gets notified if the future finished
-    private final List<BaseFutureListener<? extends BaseFuture>> listeners = 
-            new ArrayList<BaseFutureListener<? extends BaseFuture>>(1);
+    // Marks the listeners as notified, listeners added afterwards are called immediately
+    private static final Object NOTIFIED = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<BaseFutureImpl, Object> LISTENERS_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(BaseFutureImpl.class, Object.class, "listeners");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<BaseFutureImpl, CountDownLatch> LATCH_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(BaseFutureImpl.class, CountDownLatch.class, "listenersFinished");
+
+    // Listeners that gets notified if the future finished: null, a single listener, a ListenerNode, or NOTIFIED
+    private volatile Object listeners = null;
 
     // While a future is running, the process may add cancellations for faster
     // cancel operations, e.g. cancel connection attempt
     private volatile Cancel cancel = null;
 
-    private final CountDownLatch listenersFinished = new CountDownLatch(1);
+    // optional, records the phases of the operation
+    private volatile Trace trace = null;
+
+    // created on demand in awaitListeners()
+    private volatile CountDownLatch listenersFinished = null;
+
+    private volatile boolean listenersNotified = false;
 
     protected final Object lock;
 
-    // set the ready flag if operation completed
-    protected boolean completed = false;
+    // set the ready flag if operation completed, volatile, so that it can be checked without locking
+    protected volatile boolean completed = false;
 
     // by default false, change in case of success. An unfinished operation is
     // always set to failed
@@ -167,13 +187,15 @@ public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture
 
     @Override
     public boolean isCompleted() {
-        synchronized (lock) {
-            return completed;
-        }
+        return completed;
     }
 
     @Override
     public boolean isSuccess() {
+        if (!completed) {
+            return false;
+        }
+        // the type is set after completed, thus wait for the lock
         synchronized (lock) {
             return completed && (type == FutureType.OK);
         }
@@ -181,6 +203,9 @@ public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture
 
     @Override
     public boolean isFailed() {
+        if (!completed) {
+            return false;
+        }
         synchronized (lock) {
             // failed means failed or canceled
             return completed && (type != FutureType.OK);
@@ -266,25 +291,21 @@ public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture
 
     @Override
     public K awaitListeners() throws InterruptedException {
-    	boolean wait = false;
     	synchronized (lock) {
             checkDeadlock();
             while (!completed) {
                 lock.wait();
             }
-            if(listeners.size() > 0) {
-    			wait = true;
-    		}
         }
-    	if(wait) {
-    		listenersFinished.await();
+    	final CountDownLatch latch = listenersLatch();
+    	if(latch != null) {
+    		latch.await();
     	}
     	return self;
     }
     
     @Override
     public K awaitListenersUninterruptibly() {
-    	boolean wait = false;
     	synchronized (lock) {
             checkDeadlock();
             while (!completed) {
@@ -294,13 +315,12 @@ public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture
                    LOG.debug("interrupted, but ignoring", e);
                 }
             }
-            if(listeners.size() > 0) {
-    			wait = true;
-    		}   
         }
+    	final CountDownLatch latch = listenersLatch();
+    	boolean wait = latch != null;
     	while(wait) {
     		try {
-    			listenersFinished.await();
+    			latch.await();
     			wait = false;
     		} catch (InterruptedException e) {
                 LOG.debug("interrupted, but ignoring", e);
@@ -308,22 +328,40 @@ public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture
     	}
     	return self;
     }
+
+    /**
+     * Creates the latch to wait for the listeners, if there are listeners that have not been notified yet.
+     * 
+     * @return The latch to wait for, or null if there is nothing to wait for
+     */
+    private CountDownLatch listenersLatch() {
+        if (listenersNotified || listeners == null) {
+            return null;
+        }
+        LATCH_UPDATER.compareAndSet(this, null, new CountDownLatch(1));
+        // notifyListeners() sets the flag before it reads the latch, so either it counts down our latch, or we see
+        // the flag
+        if (listenersNotified) {
+            return null;
+        }
+        return listenersFinished;
+    }
     
     @Override
     public K addListener(final BaseFutureListener<? extends BaseFuture> listener) {
-        boolean notifyNow = false;
-        synchronized (lock) {
-            if (completed) {
-                notifyNow = true;
-            } else {
-                listeners.add(listener);
+        while (true) {
+            final Object head = listeners;
+            if (head == NOTIFIED) {
+                // called only once
+                callOperationComplete(listener);
+                return self;
+            }
+            // the first listener is stored without a node
+            final Object newHead = head == null ? listener : new ListenerNode(listener, head);
+            if (LISTENERS_UPDATER.compareAndSet(this, head, newHead)) {
+                return self;
             }
         }
-        // called only once
-        if (notifyNow) {
-            callOperationComplete(listener);
-        }
-        return self;
     }
 
     /**
@@ -364,33 +402,74 @@ public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture
      */
     protected void notifyListeners() {
         // if this is synchronized, it will deadlock, so do not lock this!
-        // There won't be any visibility problem or concurrent modification
-        // because 'ready' flag will be checked against both addListener and
-        // removeListener calls.
-    	//
-    	// This method doesn't need synchronization because:
-        // 1) This method is always called after synchronized (this) block.
-        //    Hence any listener list modification happens-before this method.
-        // 2) This method is called only when 'done' is true.  Once 'done'
-        //    becomes true, the listener list is never modified - see add/removeListener()
-        for (final BaseFutureListener<? extends BaseFuture> listener : listeners) {
-            callOperationComplete(listener);
+        // Taking the listeners and setting the marker is atomic, a listener
+        // is either taken here or called directly in addListener(). The
+        // listeners are stored in reverse order.
+        final Object head = LISTENERS_UPDATER.getAndSet(this, NOTIFIED);
+        if (head != NOTIFIED) {
+            if (head instanceof ListenerNode) {
+                final BaseFutureListener<? extends BaseFuture>[] ordered = toArray(head);
+                for (final BaseFutureListener<? extends BaseFuture> listener : ordered) {
+                    callOperationComplete(listener);
+                }
+            } else if (head != null) {
+                callOperationComplete((BaseFutureListener<?>) head);
+            }
+        }
+        listenersNotified = true;
+        final CountDownLatch latch = listenersFinished;
+        if (latch != null) {
+            latch.countDown();
         }
-        
-        listeners.clear();
-        listenersFinished.countDown();
         // all events are one time events. It cannot happen that you get
         // notified twice
     }
 
     @Override
     public K removeListener(final BaseFutureListener<? extends BaseFuture> listener) {
-        synchronized (lock) {
-            if (!completed) {
-                listeners.remove(listener);
+        while (true) {
+            final Object head = listeners;
+            if (head == null || head == NOTIFIED) {
+                return self;
+            }
+            // removal is rare, the stack is rebuilt without the listener
+            Object newHead = null;
+            boolean removed = false;
+            for (final BaseFutureListener<? extends BaseFuture> current : toArray(head)) {
+                if (!removed && current.equals(listener)) {
+                    removed = true;
+                } else {
+                    newHead = newHead == null ? current : new ListenerNode(current, newHead);
+                }
+            }
+            if (!removed || LISTENERS_UPDATER.compareAndSet(this, head, newHead)) {
+                return self;
             }
         }
-        return self;
+    }
+
+    /**
+     * @param head
+     *            A single listener or the top of the listener stack
+     * @return The listeners in the order they were added
+     */
+    @SuppressWarnings("unchecked")
+    private static BaseFutureListener<? extends BaseFuture>[] toArray(final Object head) {
+        int size = 1;
+        Object current = head;
+        while (current instanceof ListenerNode) {
+            size++;
+            current = ((ListenerNode) current).next;
+        }
+        final BaseFutureListener<? extends BaseFuture>[] ordered = new BaseFutureListener[size];
+        current = head;
+        while (current instanceof ListenerNode) {
+            final ListenerNode node = (ListenerNode) current;
+            ordered[--size] = node.listener;
+            current = node.next;
+        }
+        ordered[0] = (BaseFutureListener<?>) current;
+        return ordered;
     }
 
     @Override
@@ -416,4 +495,29 @@ public abstract class BaseFutureImpl<K extends BaseFuture> implements BaseFuture
     	}
         notifyListeners();
     }
+
+    @Override
+    public K trace(final Trace trace) {
+    	this.trace = trace;
+    	return self;
+    }
+
+    @Override
+    public Trace trace() {
+    	return trace;
+    }
+
+    /**
+     * An entry of the listener stack. The bottom of the stack is the first listener itself.
+     */
+    private static final class ListenerNode {
+        private final BaseFutureListener<? extends BaseFuture> listener;
+        // a ListenerNode or the first listener
+        private final Object next;
+
+        private ListenerNode(final BaseFutureListener<? extends BaseFuture> listener, final Object next) {
+            this.listener = listener;
+            this.next = next;
+        }
+    }
 }
@@ -6,18 +6,34 @@ import java.io.IOException;
 
 import net.tomp2p.message.Buffer;
 import net.tomp2p.message.Message;
+import net.tomp2p.storage.JavaObjectCodec;
+import net.tomp2p.storage.ObjectCodec;
 
 
 public class FutureDirect extends FutureResponse {
 	
 	final private boolean isRaw;
+	final private ObjectCodec objectCodec;
 	private boolean convertToHeapBuffer = true;
 	private Object object = null;
 	private Buffer buffer = null;
     
     public FutureDirect(Message requestMessage, boolean isRaw) {
+		this(requestMessage, isRaw, new JavaObjectCodec());
+	}
+
+    /**
+     * @param requestMessage
+     *            The request message
+     * @param isRaw
+     *            True if the reply is a buffer, false if the reply is an object
+     * @param objectCodec
+     *            The codec that decodes the reply object, the same codec as the other peer uses
+     */
+    public FutureDirect(Message requestMessage, boolean isRaw, ObjectCodec objectCodec) {
 		super(requestMessage);
 		this.isRaw = isRaw;
+		this.objectCodec = objectCodec;
 		self(this);
 	}
     
@@ -80,7 +96,7 @@ public class FutureDirect extends FutureResponse {
 				responseMessage.buffer(0).buffer().release();
 			} else {
 				try {
-					object = responseMessage.buffer(0).object();
+					object = responseMessage.buffer(0).object(objectCodec);
 					responseMessage.buffer(0).buffer().release();
 				} catch (ClassNotFoundException e) {
 					type = FutureType.FAILED;
@@ -122,7 +138,7 @@ public class FutureDirect extends FutureResponse {
     public Object object() throws ClassNotFoundException, IOException {
         synchronized (lock) {
             if(object == null && responseMessage().buffer(0) != null) {
-            	object = responseMessage().buffer(0).object();
+            	object = responseMessage().buffer(0).object(objectCodec);
             	responseMessage().buffer(0).buffer().release();
             }
             return object;
@@ -3,8 +3,105 @@ package net.tomp2p.futures;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Combines futures without blocking. All the methods add listeners, the resulting futures complete in the thread that
+ * completed the last future that was needed, there is no extra thread involved.
+ * 
+ * @author Thomas Bocek
+ */
 public class Futures {
 
+	/**
+	 * A function that is called once a future completed successfully.
+	 * 
+	 * @param <A>
+	 *            The type of the input
+	 * @param <B>
+	 *            The type of the result
+	 */
+	public interface Function<A, B> {
+		B apply(A input) throws Exception;
+	}
+
+	/**
+	 * Transforms the result of a future, e.g., the data of a {@link BaseFuture} to a value.
+	 * 
+	 * @param future
+	 *            The future to wait for
+	 * @param function
+	 *            Called with the future, if it was successful
+	 * @return A future with the result of the function. It fails if the future fails or the function throws an
+	 *         exception
+	 */
+	public static <A extends BaseFuture, B> FutureDone<B> thenApply(final A future,
+	        final Function<? super A, ? extends B> function) {
+		final FutureDone<B> futureDone = new FutureDone<B>();
+		future.addListener(new BaseFutureAdapter<A>() {
+			@Override
+			public void operationComplete(final A future) throws Exception {
+				if (future.isFailed()) {
+					futureDone.failed(future);
+					return;
+				}
+				final B result;
+				try {
+					result = function.apply(future);
+				} catch (Exception e) {
+					futureDone.failed(e);
+					return;
+				}
+				futureDone.done(result);
+			}
+		});
+		return futureDone;
+	}
+
+	/**
+	 * Starts an operation once a future completed successfully, e.g., a put after a get.
+	 * 
+	 * @param future
+	 *            The future to wait for
+	 * @param function
+	 *            Called with the future, if it was successful, and returns the future of the next operation
+	 * @return A future that has the future of the next operation attached. It fails if the future fails, the function
+	 *         throws an exception, or the next operation fails
+	 */
+	public static <A extends BaseFuture, B extends BaseFuture> FutureDone<B> thenCompose(final A future,
+	        final Function<? super A, ? extends B> function) {
+		final FutureDone<B> futureDone = new FutureDone<B>();
+		future.addListener(new BaseFutureAdapter<A>() {
+			@Override
+			public void operationComplete(final A future) throws Exception {
+				if (future.isFailed()) {
+					futureDone.failed(future);
+					return;
+				}
+				final B next;
+				try {
+					next = function.apply(future);
+				} catch (Exception e) {
+					futureDone.failed(e);
+					return;
+				}
+				if (next == null) {
+					futureDone.failed("The function did not return a future");
+					return;
+				}
+				next.addListener(new BaseFutureAdapter<B>() {
+					@Override
+					public void operationComplete(final B next) throws Exception {
+						if (next.isSuccess()) {
+							futureDone.done(next);
+						} else {
+							futureDone.failed(next);
+						}
+					}
+				});
+			}
+		});
+		return futureDone;
+	}
+
 	public static <K extends BaseFuture> FutureDone<K[]> whenAll(final K... all) {
 		final AtomicInteger counter = new AtomicInteger();
 		final int size = all.length;
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.futures;
+
+import net.tomp2p.peers.PeerAddress;
+
+/**
+ * Receives the results of an operation that asks several peers, e.g., a get with all() or a range, as soon as each
+ * peer replied, and not only when the future of the operation completes. The listener is called from the thread that
+ * received the reply, so it must not block.
+ * 
+ * @author Thomas Bocek
+ * 
+ * @param <T>
+ *            The type of the result of one peer
+ */
+public interface ResultListener<T> {
+
+    /**
+     * Called once for every peer that replied successfully.
+     * 
+     * @param remotePeer
+     *            The peer that sent the result
+     * @param result
+     *            The result of this peer
+     */
+    void result(PeerAddress remotePeer, T result);
+}
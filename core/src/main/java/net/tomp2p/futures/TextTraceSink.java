@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.futures;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes traces as text, one line per span, e.g., to a local file. Writes are synchronized, so traces of concurrent
+ * operations do not interleave.
+ *
+ * @author Thomas Bocek
+ */
+public class TextTraceSink implements TraceSink {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TextTraceSink.class);
+
+	private final Writer writer;
+
+	/**
+	 * @param writer
+	 *            The writer to write the traces to, it is flushed after every trace
+	 */
+	public TextTraceSink(final Writer writer) {
+		this.writer = writer;
+	}
+
+	@Override
+	public void export(final Trace trace) {
+		final String text = trace.toString();
+		synchronized (writer) {
+			try {
+				writer.write(text);
+				writer.write('\n');
+				writer.flush();
+			} catch (IOException e) {
+				LOG.warn("Could not export trace {}", trace.name(), e);
+			}
+		}
+	}
+}
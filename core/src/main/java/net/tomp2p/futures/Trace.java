@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.futures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.tomp2p.peers.PeerAddress;
+
+/**
+ * Records the phases (spans) of one operation, e.g., the reservation of channels, each routing hop, and each storage
+ * RPC of a put. A trace is attached to a future with {@link BaseFuture#trace(Trace)} and is passed on to the futures
+ * of the phases. Tracing is optional, if no trace is set, nothing is recorded. Spans can be added from any thread.
+ *
+ * @author Thomas Bocek
+ */
+public class Trace {
+
+	private final String name;
+	private final long startMillis = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private final List<Span> spans = new ArrayList<Span>();
+
+	/**
+	 * @param name
+	 *            The name of the traced operation
+	 */
+	public Trace(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return The name of the traced operation
+	 */
+	public String name() {
+		return name;
+	}
+
+	/**
+	 * @return The wall clock time when the trace was started
+	 */
+	public long startMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * Starts a new span. The span needs to be ended with {@link Span#end(boolean, String)}.
+	 *
+	 * @param spanName
+	 *            The name of the phase
+	 * @param peerAddress
+	 *            The peer that is contacted in this phase, or null
+	 * @return The started span
+	 */
+	public Span start(final String spanName, final PeerAddress peerAddress) {
+		final Span span = new Span(spanName, peerAddress, System.nanoTime() - startNanos);
+		synchronized (spans) {
+			spans.add(span);
+		}
+		return span;
+	}
+
+	/**
+	 * Starts a new span that ends when the future completes. The result is "ok" or the failed reason of the future.
+	 *
+	 * @param spanName
+	 *            The name of the phase
+	 * @param peerAddress
+	 *            The peer that is contacted in this phase, or null
+	 * @param future
+	 *            The future of the phase
+	 * @return The future
+	 */
+	public <K extends BaseFuture> K span(final String spanName, final PeerAddress peerAddress, final K future) {
+		final Span span = start(spanName, peerAddress);
+		future.addListener(new BaseFutureAdapter<K>() {
+			@Override
+			public void operationComplete(final K future) throws Exception {
+				span.end(future.isSuccess(), future.isSuccess() ? "ok" : future.failedReason());
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return A copy of the spans in the order they were started
+	 */
+	public List<Span> spans() {
+		synchronized (spans) {
+			return new ArrayList<Span>(spans);
+		}
+	}
+
+	/**
+	 * @param sink
+	 *            The sink to export this trace to
+	 * @return This class
+	 */
+	public Trace export(final TraceSink sink) {
+		sink.export(this);
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("trace ").append(name).append(" at ").append(startMillis);
+		for (Span span : spans()) {
+			sb.append("\n  ").append(span);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * One phase of a traced operation. All times are in microseconds relative to the start of the trace.
+	 */
+	public static class Span {
+		private final String name;
+		private final PeerAddress peerAddress;
+		private final long startMicros;
+		private volatile long durationMicros = -1;
+		private volatile boolean success;
+		private volatile String result;
+		private final long startNanos = System.nanoTime();
+
+		private Span(final String name, final PeerAddress peerAddress, final long offsetNanos) {
+			this.name = name;
+			this.peerAddress = peerAddress;
+			this.startMicros = offsetNanos / 1000;
+		}
+
+		/**
+		 * Ends this span. Only the first call has an effect.
+		 *
+		 * @param success
+		 *            True if this phase was successful
+		 * @param result
+		 *            A short description of the result
+		 * @return This class
+		 */
+		public Span end(final boolean success, final String result) {
+			synchronized (this) {
+				if (durationMicros >= 0) {
+					return this;
+				}
+				this.success = success;
+				this.result = result;
+				this.durationMicros = (System.nanoTime() - startNanos) / 1000;
+			}
+			return this;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * @return The peer that was contacted, or null
+		 */
+		public PeerAddress peerAddress() {
+			return peerAddress;
+		}
+
+		public long startMicros() {
+			return startMicros;
+		}
+
+		/**
+		 * @return The duration, for a RPC this is the round trip time, or -1 if the span has not ended yet
+		 */
+		public long durationMicros() {
+			return durationMicros;
+		}
+
+		public boolean isEnded() {
+			return durationMicros >= 0;
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+
+		public String result() {
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder("+").append(startMicros).append("us ").append(name);
+			if (peerAddress != null) {
+				sb.append(" ").append(peerAddress.peerId()).append("@").append(peerAddress.inetAddress())
+				        .append(":").append(peerAddress.udpPort());
+			}
+			if (isEnded()) {
+				sb.append(" ").append(durationMicros).append("us ").append(result);
+			} else {
+				sb.append(" running");
+			}
+			return sb.toString();
+		}
+	}
+}
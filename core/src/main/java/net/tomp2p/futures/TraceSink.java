@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.futures;
+
+/**
+ * Receives finished traces, e.g., to write them to a file. A sink is called from the thread that completed the traced
+ * future, so it should not block.
+ *
+ * @author Thomas Bocek
+ */
+public interface TraceSink {
+
+	/**
+	 * @param trace
+	 *            The trace of a finished operation
+	 */
+	void export(Trace trace);
+}
@@ -4,6 +4,7 @@ import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
 
+import net.tomp2p.storage.ObjectCodec;
 import net.tomp2p.utils.Utils;
 
 public class Buffer {
@@ -50,6 +51,19 @@ public class Buffer {
 		return Utils.decodeJavaObject(buffer.duplicate().readerIndex(0));
 	}
 
+	/**
+	 * @param objectCodec
+	 *            The codec that was used to encode the object
+	 * @return The decoded object
+	 * @throws ClassNotFoundException
+	 *             If the class of the object is not available
+	 * @throws IOException
+	 *             If the object cannot be decoded
+	 */
+	public Object object(final ObjectCodec objectCodec) throws ClassNotFoundException, IOException {
+		return objectCodec.decode(buffer.duplicate().readerIndex(0));
+	}
+
 	public void reset() {
 		read = 0;
 		buffer.resetReaderIndex();
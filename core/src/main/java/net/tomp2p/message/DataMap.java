@@ -1,5 +1,7 @@
 package net.tomp2p.message;
 
+import io.netty.buffer.ByteBuf;
+
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
@@ -16,6 +18,8 @@ public class DataMap {
     private final Number160 domainKey;
     private final Number160 versionKey;
     private final boolean convertMeta;
+    // the data map encoded with Encoder#encodeDataMap, shared by several messages
+    private ByteBuf encoded;
     
     public DataMap(final NavigableMap<Number640, Data> dataMap) {
     	this(dataMap, false);
@@ -49,6 +53,27 @@ public class DataMap {
     	return convertMeta;
     }
 
+    /**
+     * @return The encoded form of this data map, or null if it is encoded with the message
+     */
+    public ByteBuf encoded() {
+        return encoded;
+    }
+
+    /**
+     * Sets the encoded form of this data map, created with {@link Encoder#encodeDataMap}. The encoder does not
+     * encode the data objects, but adds this buffer to the message. The caller needs to make sure that the buffer is
+     * not released before the message is sent.
+     * 
+     * @param encoded
+     *            The encoded data map
+     * @return This class
+     */
+    public DataMap encoded(final ByteBuf encoded) {
+        this.encoded = encoded;
+        return this;
+    }
+
     public NavigableMap<Number640, Data> dataMap() {
         return convert(this);
     }
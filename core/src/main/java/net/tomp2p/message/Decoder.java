@@ -1,6 +1,7 @@
 package net.tomp2p.message;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.util.Attribute;
@@ -86,10 +87,33 @@ public class Decoder {
 
 	private Content lastContent = null;
 
+	// the bytes of the current message as received, if the frame filter wants to keep them
+	private ByteBuf encodedFrame = null;
+	private boolean encodedFrameDone = false;
+
 	private final SignatureFactory signatureFactory;
+	private final FrameFilter frameFilter;
+
+	/**
+	 * Decides, after the header of a message has been decoded, if the message should keep its encoded frame (see
+	 * {@link Message#encodedFrame()}). This is the case if the message is only forwarded, e.g., by a relay peer.
+	 */
+	public interface FrameFilter {
+		/**
+		 * @param message
+		 *            The message with the decoded header
+		 * @return True if the encoded frame of the message should be kept
+		 */
+		boolean keepEncodedFrame(Message message);
+	}
 
 	public Decoder(SignatureFactory signatureFactory) {
+		this(signatureFactory, null);
+	}
+
+	public Decoder(SignatureFactory signatureFactory, FrameFilter frameFilter) {
 		this.signatureFactory = signatureFactory;
+		this.frameFilter = frameFilter;
 	}
 
 	public boolean decode(ChannelHandlerContext ctx, final ByteBuf buf, InetSocketAddress recipient,
@@ -113,6 +137,9 @@ public class Decoder {
 					if (message.isFireAndForget() && message.isUdp()) {
 						TimeoutFactory.removeTimeout(ctx);
 					}
+					if (frameFilter != null && !message.isStreaming() && frameFilter.keepEncodedFrame(message)) {
+						encodedFrame = Unpooled.buffer();
+					}
 				} else {
 					return false;
 				}
@@ -120,6 +147,11 @@ public class Decoder {
 			
 			final boolean donePayload = decodePayload(buf);
 			decodeSignature(buf, readerBefore, donePayload);
+			if (encodedFrame != null) {
+				// copy before the read bytes are discarded
+				encodedFrame.writeBytes(buf, readerBefore, buf.readerIndex() - readerBefore);
+				encodedFrameDone = donePayload;
+			}
 			
 			if(donePayload) {
 				boolean isRelay = message.sender().isRelayed();
@@ -604,6 +636,16 @@ public class Decoder {
 	public Message prepareFinish() {
 		Message ret = message;
 		message.setDone();
+		if (encodedFrame != null) {
+			if (encodedFrameDone) {
+				message.encodedFrame(encodedFrame);
+			} else {
+				// a partial frame cannot be forwarded
+				encodedFrame.release();
+			}
+			encodedFrame = null;
+			encodedFrameDone = false;
+		}
 		contentTypes.clear();
 		message = null;
 		neighborSize = -1;
@@ -641,6 +683,10 @@ public class Decoder {
 		if(message!=null) {
 			message.release();
 		}
+		if(encodedFrame != null) {
+			encodedFrame.release();
+			encodedFrame = null;
+		}
 		//release partial data
 		if(data != null) {
 			data.release();
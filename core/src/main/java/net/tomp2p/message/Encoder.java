@@ -1,7 +1,11 @@
 package net.tomp2p.message;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.SignatureException;
 import java.util.Collection;
@@ -44,6 +48,13 @@ public class Encoder {
 
         this.message = message;
         LOG.debug("message for outbound {}", message);
+
+        final ByteBuf encodedFrame = message.encodedFrame();
+        if (encodedFrame != null) {
+            // the message has not been decoded and changed, e.g., on a relay, send it as we got it
+            buf.addComponent(encodedFrame.slice());
+            return true;
+        }
         
         if (message.sender().isRelayed() && message.peerSocketAddresses().isEmpty()) {
         	message.peerSocketAddresses(message.sender().peerSocketAddresses());
@@ -96,6 +107,10 @@ public class Encoder {
                 break;
             case SET_NEIGHBORS:
                 NeighborSet neighborSet = message.neighborsSet(next.index());
+                if (neighborSet.size() > NeighborSet.MAX_SIZE) {
+                    throw new IllegalArgumentException("A neighbor set can have at most " + NeighborSet.MAX_SIZE
+                            + " peers, but has " + neighborSet.size());
+                }
                 // length
                 buf.writeByte(neighborSet.size());
                 for (PeerAddress neighbor : neighborSet.neighbors()) {
@@ -142,24 +157,13 @@ public class Encoder {
                 break;
             case MAP_KEY640_DATA:
                 DataMap dataMap = message.dataMap(next.index());
-                // legnth
-                buf.writeInt(dataMap.size());
-                if (dataMap.isConvert()) {
-                    for (Entry<Number160, Data> entry : dataMap.dataMapConvert().entrySet()) {
-                    	buf.writeBytes(dataMap.locationKey().toByteArray());
-                    	buf.writeBytes(dataMap.domainKey().toByteArray());
-                    	buf.writeBytes(entry.getKey().toByteArray());
-                    	buf.writeBytes(dataMap.versionKey().toByteArray());
-                    	encodeData(buf, entry.getValue(), dataMap.isConvertMeta(), !message.isRequest(), message.command() == Commands.REPLICA_PUT.getNr());
-                    }
+                if (dataMap.encoded() != null) {
+                	// encoded once and shared with other messages, the composite buffer retains it
+                	buf.addComponent(dataMap.encoded());
                 } else {
-                    for (Entry<Number640, Data> entry : dataMap.dataMap().entrySet()) {
-                        buf.writeBytes(entry.getKey().locationKey().toByteArray());
-                        buf.writeBytes(entry.getKey().domainKey().toByteArray());
-                        buf.writeBytes(entry.getKey().contentKey().toByteArray());
-                        buf.writeBytes(entry.getKey().versionKey().toByteArray());
-                        encodeData(buf, entry.getValue(), dataMap.isConvertMeta(), !message.isRequest(), message.command() == Commands.REPLICA_PUT.getNr());
-                    }
+                	encodeDataMap(buf, dataMap, !message.isRequest(),
+                	        message.command() == Commands.REPLICA_PUT.getNr(), message.isCompressedData(),
+                	        message.privateKey());
                 }
                 message.contentReferences().poll();
                 break;
@@ -242,11 +246,79 @@ public class Encoder {
         return true;
     }
 
+	/**
+	 * Encodes the data map of a request without a message. The returned buffer can be set with
+	 * {@link DataMap#encoded(ByteBuf)} on the data map of several messages, so that the same data map is encoded
+	 * only once if it is sent to several peers. The buffer needs to be released by the caller. Compressed data is
+	 * encoded uncompressed, since not every recipient may support compressed data.
+	 * 
+	 * @param dataMap
+	 *            The data map to encode
+	 * @param privateKey
+	 *            The key to sign data that is marked to be signed but has no signature yet, may be null
+	 * @return The encoded data map
+	 */
+	public ByteBuf encodeDataMap(final DataMap dataMap, final PrivateKey privateKey) throws InvalidKeyException,
+	        SignatureException, IOException {
+		final AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf
+		        .compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
+		try {
+			encodeDataMap(buf, dataMap, false, false, false, privateKey);
+			// copy once, so that the shared buffer does not depend on the buffers of the data objects
+			final ByteBuf encoded = Unpooled.buffer(buf.readableBytes());
+			encoded.writeBytes(buf);
+			return encoded;
+		} finally {
+			buf.release();
+		}
+	}
+
+	private void encodeDataMap(final AlternativeCompositeByteBuf buf, final DataMap dataMap, final boolean isReply,
+	        final boolean isReplicaSend, final boolean isCompressedData, final PrivateKey privateKey)
+	        throws InvalidKeyException, SignatureException, IOException {
+		// legnth
+		buf.writeInt(dataMap.size());
+		if (dataMap.isConvert()) {
+			for (Entry<Number160, Data> entry : dataMap.dataMapConvert().entrySet()) {
+				buf.writeBytes(dataMap.locationKey().toByteArray());
+				buf.writeBytes(dataMap.domainKey().toByteArray());
+				buf.writeBytes(entry.getKey().toByteArray());
+				buf.writeBytes(dataMap.versionKey().toByteArray());
+				encodeData(buf, entry.getValue(), dataMap.isConvertMeta(), isReply, isReplicaSend, isCompressedData,
+				        privateKey);
+			}
+		} else {
+			for (Entry<Number640, Data> entry : dataMap.dataMap().entrySet()) {
+				buf.writeBytes(entry.getKey().locationKey().toByteArray());
+				buf.writeBytes(entry.getKey().domainKey().toByteArray());
+				buf.writeBytes(entry.getKey().contentKey().toByteArray());
+				buf.writeBytes(entry.getKey().versionKey().toByteArray());
+				encodeData(buf, entry.getValue(), dataMap.isConvertMeta(), isReply, isReplicaSend, isCompressedData,
+				        privateKey);
+			}
+		}
+	}
+
 	private void encodeData(AlternativeCompositeByteBuf buf, Data data, boolean isConvertMeta, boolean isReply, boolean isReplicaSend) throws InvalidKeyException, SignatureException, IOException {
+		encodeData(buf, data, isConvertMeta, isReply, isReplicaSend, message.isCompressedData(), message.privateKey());
+	}
+
+	private void encodeData(AlternativeCompositeByteBuf buf, Data data, boolean isConvertMeta, boolean isReply,
+	        boolean isReplicaSend, boolean isCompressedData, PrivateKey privateKey) throws InvalidKeyException,
+	        SignatureException, IOException {
 		Data filteredData = dataFilterTTL.filter(data, isConvertMeta, isReply);
+		if (filteredData.isCompressed() && !isCompressedData) {
+			// the recipient did not announce that it can decode compressed data. A payload that is already signed
+			// cannot be uncompressed, uncompress() throws an exception in this case and the message is not sent
+			final Data uncompressed = filteredData.uncompress();
+			if (isReply || isReplicaSend) {
+				filteredData.release();
+			}
+			filteredData = uncompressed;
+		}
 		filteredData.encodeHeader(buf, signatureFactory);
 		filteredData.encodeBuffer(buf);
-		filteredData.encodeDone(buf, signatureFactory, message.privateKey());
+		filteredData.encodeDone(buf, signatureFactory, privateKey);
 		if(isReply || isReplicaSend) {
 			filteredData.release();
 		}
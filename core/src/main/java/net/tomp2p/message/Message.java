@@ -15,6 +15,8 @@
  */
 package net.tomp2p.message;
 
+import io.netty.buffer.ByteBuf;
+
 import java.net.InetSocketAddress;
 import java.security.KeyPair;
 import java.security.PrivateKey;
@@ -203,6 +205,8 @@ public class Message {
     private transient boolean content = false;
     private transient boolean verified = false;
     private transient boolean sendSelf = false;
+    private transient boolean compressedData = false;
+    private transient ByteBuf encodedFrame = null;
 
     /**
      * Creates message with a random ID.
@@ -1015,6 +1019,27 @@ public class Message {
         return recipientSocket;
     }
 
+    /**
+     * Store the message as it was received on the wire. If set, the message is not encoded again, but the frame is
+     * sent as it is. This is used by relay peers, which forward messages without touching them. The frame is only
+     * valid as long as the header and the content of the message are not changed.
+     * 
+     * @param encodedFrame
+     *            The complete encoded message including the header and the signature
+     * @return This class
+     */
+    public Message encodedFrame(final ByteBuf encodedFrame) {
+        this.encodedFrame = encodedFrame;
+        return this;
+    }
+
+    /**
+     * @return The message as it was received on the wire or null if the message needs to be encoded
+     */
+    public ByteBuf encodedFrame() {
+        return encodedFrame;
+    }
+
     /**
      * Set if we have a signed message.
      * 
@@ -1104,6 +1129,24 @@ public class Message {
     public boolean isSendSelf() {
         return sendSelf;
     }
+
+    /**
+     * @param compressedData
+     *            True if the recipient announced that it can decode compressed data. Otherwise, the encoder sends
+     *            compressed data uncompressed
+     * @return This class
+     */
+    public Message compressedData(final boolean compressedData) {
+        this.compressedData = compressedData;
+        return this;
+    }
+
+    /**
+     * @return True if the recipient announced that it can decode compressed data
+     */
+    public boolean isCompressedData() {
+        return compressedData;
+    }
     
     public Message duplicate() {
     	return duplicate(null);
@@ -1158,6 +1201,7 @@ public class Message {
         //content;
         //verified;
         //sendSelf;
+        //compressedData;
         
         return message;
     }
@@ -1284,6 +1328,8 @@ public class Message {
 				data.release();
 			}
 		}
-		
+		if(encodedFrame != null) {
+			encodedFrame.release();
+		}
 	}
 }
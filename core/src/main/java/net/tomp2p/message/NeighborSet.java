@@ -1,19 +1,74 @@
 package net.tomp2p.message;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
+import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerSocketAddress;
 import net.tomp2p.utils.Utils;
 
+/**
+ * A set of neighbors sent with a message. The neighbors can be encoded as full {@link PeerAddress} or in a compact
+ * form. A {@link Message.Content#SET_NEIGHBORS} is always encoded in the full form, with one byte for the number of
+ * neighbors. The compact form is sent as a {@link Message.Content#BYTE_BUFFER} (see {@link #encodeCompact()}) and
+ * only if the other peer announced that it can decode it (see {@link net.tomp2p.rpc.NeighborRPC}), so older peers
+ * are never confused by it. The format of the compact form looks as follows:
+ *
+ * <pre>
+ * 1 byte - number of neighbors
+ * entries, sorted by peer ID:
+ *  - 1 byte flags: the 6 bits of {@link PeerAddress#options()}, 0x40 same ports as the previous entry, 0x80 relays follow
+ *  - 1 byte - number of leading bytes of the peer ID that are equal to the peer ID of the previous entry
+ *  - 0-20 bytes - the remaining bytes of the peer ID
+ *  - 0 or 4 bytes - TCP and UDP port
+ *  - 4 or 16 bytes - Inet Address
+ *  - if relays follow: 1 byte relays as in {@link PeerAddress#relays()}, then 0-5 relays
+ * </pre>
+ *
+ * As neighbors are close to the same key, the peer IDs share a long prefix once they are sorted. Peers in the same
+ * network mostly use the same ports.
+ */
 public class NeighborSet {
+
+    public static final int COMPACT_HEADER_SIZE = Utils.BYTE_BYTE_SIZE;
+    // the size is encoded in one byte, in both forms
+    public static final int MAX_SIZE = Utils.MASK_FF;
+
+    private static final int SAME_PORTS = 0x40;
+    private static final int HAS_RELAYS = 0x80;
+    private static final int OPTIONS_MASK = 0x3f;
+    // TCP and UDP port
+    private static final int PORTS_SIZE = 4;
+    private static final int RELAY_TYPE_BITS = 5;
+    private static final int MASK_1F = 0x1f;
+    private static final int MASK_07 = 0x7;
+
+    private static final Comparator<PeerAddress> PEER_ID_COMPARATOR = new Comparator<PeerAddress>() {
+        @Override
+        public int compare(final PeerAddress o1, final PeerAddress o2) {
+            return o1.peerId().compareTo(o2.peerId());
+        }
+    };
+
     private final int neighborLimit;
     //this needs to be a collection as we want to process lists *and* sets
     private final Collection<PeerAddress> neighbors;
+    private final boolean compact;
 
     public NeighborSet(final int neighborLimit, final Collection<PeerAddress> neighbors) {
         this.neighborLimit = neighborLimit;
         this.neighbors = neighbors;
+        this.compact = false;
         // remove neighbors that are over the limit
         int serializedSize = 1;
         // no need to cut if we don't provide a limit
@@ -28,6 +83,45 @@ public class NeighborSet {
         }
     }
 
+    /**
+     * Creates a neighbor set that may be encoded in the compact form. The neighbors are sorted by peer ID. If a limit
+     * is provided, the neighbors are added in the order of the collection as long as the compact encoding does not
+     * exceed the limit.
+     *
+     * @param neighborLimit
+     *            The maximum size of the encoded set in bytes, -1 for no limit
+     * @param neighbors
+     *            The neighbors, the most important first
+     * @param compact
+     *            True if the compact form should be used
+     */
+    public NeighborSet(final int neighborLimit, final Collection<PeerAddress> neighbors, final boolean compact) {
+        if (!compact) {
+            this.neighborLimit = neighborLimit;
+            this.neighbors = neighbors;
+            this.compact = false;
+            return;
+        }
+        this.neighborLimit = neighborLimit;
+        this.compact = true;
+        final List<PeerAddress> sorted = new ArrayList<PeerAddress>(neighbors.size());
+        for (PeerAddress neighbor : neighbors) {
+            if (sorted.size() >= MAX_SIZE) {
+                break;
+            }
+            final int index = Collections.binarySearch(sorted, neighbor, PEER_ID_COMPARATOR);
+            if (index >= 0) {
+                //duplicate peer ID
+                continue;
+            }
+            sorted.add(-(index + 1), neighbor);
+            if (neighborLimit >= 0 && compactSize(sorted) > neighborLimit) {
+                sorted.remove(-(index + 1));
+            }
+        }
+        this.neighbors = sorted;
+    }
+
     public Collection<PeerAddress> neighbors() {
         return neighbors;
     }
@@ -48,6 +142,179 @@ public class NeighborSet {
         return neighborLimit;
     }
 
+    /**
+     * @return True if this set is encoded in the compact form
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return The size of the compact encoding of this set including the header
+     */
+    public int compactSize() {
+        return compactSize(neighbors);
+    }
+
+    /**
+     * Calculates the size of the compact encoding including the header.
+     *
+     * @param sorted
+     *            The neighbors sorted by peer ID
+     * @return The size in bytes
+     */
+    public static int compactSize(final Collection<PeerAddress> sorted) {
+        int size = COMPACT_HEADER_SIZE;
+        PeerAddress previous = null;
+        for (PeerAddress neighbor : sorted) {
+            size += 2 + Number160.BYTE_ARRAY_SIZE - commonPrefix(previous, neighbor);
+            if (!samePorts(previous, neighbor)) {
+                size += PORTS_SIZE;
+            }
+            size += neighbor.isIPv4() ? Utils.IPV4_BYTES : Utils.IPV6_BYTES;
+            if (neighbor.relaySize() > 0) {
+                size += Utils.BYTE_BYTE_SIZE;
+                for (PeerSocketAddress relay : neighbor.peerSocketAddresses()) {
+                    size += relay.size();
+                }
+            }
+            previous = neighbor;
+        }
+        return size;
+    }
+
+    /**
+     * Encodes this set in the compact form into a buffer that is sent with {@link Message#buffer(Buffer)}.
+     *
+     * @return The buffer with the compact form
+     */
+    public Buffer encodeCompact() {
+        final ByteBuf buf = Unpooled.buffer(compactSize());
+        encodeCompact(buf);
+        return new Buffer(buf);
+    }
+
+    /**
+     * Encodes this set in the compact form.
+     *
+     * @param buf
+     *            The buffer to write to
+     */
+    public void encodeCompact(final ByteBuf buf) {
+        if (neighbors.size() > MAX_SIZE) {
+            throw new IllegalArgumentException("A neighbor set can have at most " + MAX_SIZE + " peers, but has "
+                    + neighbors.size());
+        }
+        buf.writeByte(neighbors.size());
+        PeerAddress previous = null;
+        for (PeerAddress neighbor : neighbors) {
+            final boolean samePorts = samePorts(previous, neighbor);
+            final boolean hasRelays = neighbor.relaySize() > 0;
+            int flags = neighbor.options() & OPTIONS_MASK;
+            if (samePorts) {
+                flags |= SAME_PORTS;
+            }
+            if (hasRelays) {
+                flags |= HAS_RELAYS;
+            }
+            buf.writeByte(flags);
+            final int prefix = commonPrefix(previous, neighbor);
+            buf.writeByte(prefix);
+            buf.writeBytes(neighbor.peerId().toByteArray(), prefix, Number160.BYTE_ARRAY_SIZE - prefix);
+            if (!samePorts) {
+                buf.writeShort(neighbor.tcpPort());
+                buf.writeShort(neighbor.udpPort());
+            }
+            buf.writeBytes(neighbor.inetAddress().getAddress());
+            if (hasRelays) {
+                buf.writeByte(neighbor.relays());
+                for (PeerSocketAddress relay : neighbor.peerSocketAddresses()) {
+                    buf.writeBytes(relay.toByteArray());
+                }
+            }
+            previous = neighbor;
+        }
+    }
+
+    /**
+     * Decodes a compact set from a buffer that was created with {@link #encodeCompact()}. The reader index of the
+     * buffer is not changed.
+     *
+     * @param buffer
+     *            The buffer content of a message
+     * @return The decoded set
+     */
+    public static NeighborSet decodeCompact(final Buffer buffer) {
+        return decodeCompact(buffer.buffer().duplicate());
+    }
+
+    /**
+     * Decodes a compact set. The buffer contains the header and all entries.
+     *
+     * @param buf
+     *            The buffer to read from
+     * @return The decoded set
+     */
+    public static NeighborSet decodeCompact(final ByteBuf buf) {
+        final int size = buf.readUnsignedByte();
+        final List<PeerAddress> neighbors = new ArrayList<PeerAddress>(size);
+        final byte[] id = new byte[Number160.BYTE_ARRAY_SIZE];
+        int tcpPort = 0;
+        int udpPort = 0;
+        for (int i = 0; i < size; i++) {
+            final int flags = buf.readUnsignedByte();
+            final int prefix = buf.readUnsignedByte();
+            // the first prefix bytes are still in the array from the previous entry
+            buf.readBytes(id, prefix, Number160.BYTE_ARRAY_SIZE - prefix);
+            if ((flags & SAME_PORTS) == 0) {
+                tcpPort = buf.readUnsignedShort();
+                udpPort = buf.readUnsignedShort();
+            }
+            final int options = flags & OPTIONS_MASK;
+            final InetAddress inetAddress;
+            if (PeerAddress.isNet6(options)) {
+                final byte[] ip = new byte[Utils.IPV6_BYTES];
+                buf.readBytes(ip);
+                inetAddress = Utils.inet6FromBytes(ip, 0);
+            } else {
+                final byte[] ip = new byte[Utils.IPV4_BYTES];
+                buf.readBytes(ip);
+                inetAddress = Utils.inet4FromBytes(ip, 0);
+            }
+            PeerAddress neighbor = new PeerAddress(new Number160(id), inetAddress, tcpPort, udpPort, options);
+            if ((flags & HAS_RELAYS) != 0) {
+                final int relays = buf.readUnsignedByte();
+                // first 3 bits are the number of relays, the other 5 bits are set for IPv6 relays
+                final int relaySize = (relays >>> RELAY_TYPE_BITS) & MASK_07;
+                final BitSet relayType = Utils.createBitSet((byte) (relays & MASK_1F));
+                final List<PeerSocketAddress> relayAddresses = new ArrayList<PeerSocketAddress>(relaySize);
+                for (int j = 0; j < relaySize; j++) {
+                    relayAddresses.add(PeerSocketAddress.create(buf, !relayType.get(j)));
+                }
+                neighbor = neighbor.changePeerSocketAddresses(relayAddresses);
+            }
+            neighbors.add(neighbor);
+        }
+        return new NeighborSet(-1, neighbors, true);
+    }
+
+    private static int commonPrefix(final PeerAddress previous, final PeerAddress current) {
+        if (previous == null) {
+            return 0;
+        }
+        final byte[] a = previous.peerId().toByteArray();
+        final byte[] b = current.peerId().toByteArray();
+        int i = 0;
+        while (i < Number160.BYTE_ARRAY_SIZE && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean samePorts(final PeerAddress previous, final PeerAddress current) {
+        return previous != null && previous.tcpPort() == current.tcpPort() && previous.udpPort() == current.udpPort();
+    }
+
     @Override
     public boolean equals(Object obj) {
     	if (!(obj instanceof NeighborSet)) {
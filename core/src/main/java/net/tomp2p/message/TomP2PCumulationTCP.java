@@ -7,6 +7,7 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 
 import java.net.InetSocketAddress;
 
+import net.tomp2p.connection.Metrics;
 import net.tomp2p.connection.SignatureFactory;
 import net.tomp2p.storage.AlternativeCompositeByteBuf;
 
@@ -20,13 +21,25 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 
 	private final Decoder decoder;
 	private final ByteBufAllocator byteBufAllocator;
+	private final Metrics metrics;
 	private AlternativeCompositeByteBuf cumulation = null;
 
 	private int lastId = 0;
 
 	public TomP2PCumulationTCP(final SignatureFactory signatureFactory, ByteBufAllocator byteBufAllocator) {
-		decoder = new Decoder(signatureFactory);
+		this(signatureFactory, byteBufAllocator, null);
+	}
+
+	public TomP2PCumulationTCP(final SignatureFactory signatureFactory, ByteBufAllocator byteBufAllocator,
+			final Metrics metrics) {
+		this(signatureFactory, byteBufAllocator, metrics, null);
+	}
+
+	public TomP2PCumulationTCP(final SignatureFactory signatureFactory, ByteBufAllocator byteBufAllocator,
+			final Metrics metrics, final Decoder.FrameFilter frameFilter) {
+		decoder = new Decoder(signatureFactory, frameFilter);
 		this.byteBufAllocator = byteBufAllocator;
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -40,6 +53,9 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 		
 		final ByteBuf buf = (ByteBuf) msg;
 		final InetSocketAddress sender = (InetSocketAddress) ctx.channel().remoteAddress();
+		if (metrics != null) {
+			metrics.bytesIn(false, buf.readableBytes());
+		}
 
 		try {
 			if (cumulation == null) {
@@ -11,6 +11,7 @@ import io.netty.channel.socket.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 
+import net.tomp2p.connection.Metrics;
 import net.tomp2p.connection.SignatureFactory;
 import net.tomp2p.storage.AlternativeCompositeByteBuf;
 import net.tomp2p.utils.Utils;
@@ -23,10 +24,16 @@ public class TomP2POutbound extends ChannelOutboundHandlerAdapter {
     private static final Logger LOG = LoggerFactory.getLogger(TomP2POutbound.class);
     private final Encoder encoder;
     private final ByteBufAllocator byteBufAllocator;
+    private final Metrics metrics;
 
     public TomP2POutbound(SignatureFactory signatureFactory, ByteBufAllocator byteBufAllocator) {
+        this(signatureFactory, byteBufAllocator, null);
+    }
+
+    public TomP2POutbound(SignatureFactory signatureFactory, ByteBufAllocator byteBufAllocator, Metrics metrics) {
         this.encoder = new Encoder(signatureFactory);
         this.byteBufAllocator = byteBufAllocator;
+        this.metrics = metrics;
     }
 
     @Override
@@ -47,8 +54,12 @@ public class TomP2POutbound extends ChannelOutboundHandlerAdapter {
             final Message message = encoder.message();
 
             if (buf.isReadable()) {
+                final boolean isUdp = ctx.channel() instanceof DatagramChannel;
+                if (metrics != null) {
+                    metrics.bytesOut(isUdp, buf.readableBytes());
+                }
                 // this will release the buffer
-                if (ctx.channel() instanceof DatagramChannel) {
+                if (isUdp) {
                 	
                 	final InetSocketAddress recipientUnreflected;
                 	InetSocketAddress recipient;
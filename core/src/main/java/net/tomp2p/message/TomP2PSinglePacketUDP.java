@@ -8,6 +8,7 @@ import io.netty.channel.socket.DatagramPacket;
 
 import java.net.InetSocketAddress;
 
+import net.tomp2p.connection.Metrics;
 import net.tomp2p.connection.SignatureFactory;
 
 import org.slf4j.Logger;
@@ -19,9 +20,22 @@ public class TomP2PSinglePacketUDP extends ChannelInboundHandlerAdapter {
     private static final Logger LOG = LoggerFactory.getLogger(TomP2PSinglePacketUDP.class);
 
     private final SignatureFactory signatureFactory;
+    private final Metrics metrics;
+    private final Decoder.FrameFilter frameFilter;
     
     public TomP2PSinglePacketUDP(final SignatureFactory signatureFactory) {
+        this(signatureFactory, null);
+    }
+
+    public TomP2PSinglePacketUDP(final SignatureFactory signatureFactory, final Metrics metrics) {
+        this(signatureFactory, metrics, null);
+    }
+
+    public TomP2PSinglePacketUDP(final SignatureFactory signatureFactory, final Metrics metrics,
+            final Decoder.FrameFilter frameFilter) {
         this.signatureFactory = signatureFactory;
+        this.metrics = metrics;
+        this.frameFilter = frameFilter;
     }
 
     @Override
@@ -37,9 +51,12 @@ public class TomP2PSinglePacketUDP extends ChannelInboundHandlerAdapter {
         final ByteBuf buf = d.content();
         final InetSocketAddress sender = d.sender();
         final InetSocketAddress recipient = d.recipient();
+        if (metrics != null) {
+            metrics.bytesIn(true, buf.readableBytes());
+        }
 
         try {
-            Decoder decoder = new Decoder(signatureFactory);
+            Decoder decoder = new Decoder(signatureFactory, frameFilter);
             boolean finished = decoder.decode(ctx, buf, recipient, sender);
             if (finished) {
                 ctx.fireChannelRead(decoder.prepareFinish());
@@ -221,6 +221,7 @@ public class DistributedRouting {
         }
         
         final FutureRouting futureRouting = new FutureRouting();
+        futureRouting.trace(routingBuilder.trace());
         final RoutingMechanism routingMechanism = routingBuilder.createRoutingMechanism(futureRouting);
         routingMechanism.queueToAsk(queueToAsk);
         routingMechanism.potentialHits(potentialHits);
@@ -282,8 +283,14 @@ public class DistributedRouting {
                     		LOG.warn("Sanity check failed TCP: {}, {}.",i,Thread.currentThread().getName());
                     	}
                     }
-                    routingMechanism.futureResponse(i, neighbors.closeNeighbors(next,
-                            routingBuilder.searchValues(), type, channelCreator, routingBuilder));
+                    // a request over an open connection does not need a new channel
+                    final FutureResponse futureResponse = neighbors.closeNeighbors(next,
+                            routingBuilder.searchValues(), type, channelCreator,
+                            peerBean.peerMap().peerConnection(next), routingBuilder);
+                    if (routingBuilder.trace() != null) {
+                        routingBuilder.trace().span("routing.hop", next, futureResponse);
+                    }
+                    routingMechanism.futureResponse(i, futureResponse);
                     LOG.debug("get close neighbors: {} on {}", next, i);
                 }
             } else if (routingMechanism.futureResponse(i) != null) {
@@ -309,7 +316,7 @@ public class DistributedRouting {
                     Message lastResponse = future.last().responseMessage();
                     PeerAddress remotePeer = lastResponse.sender();
                     routingMechanism.addPotentialHits(remotePeer);
-                    Collection<PeerAddress> newNeighbors = lastResponse.neighborsSet(0).neighbors();
+                    Collection<PeerAddress> newNeighbors = NeighborRPC.neighbors(lastResponse).neighbors();
                     Collection<PeerStatistic> newNeighborStatistics = peerMap().getPeerStatistics(newNeighbors);
 
                     Integer resultSize = lastResponse.intAt(0);
@@ -0,0 +1,541 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.p2p;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.KeyCollection;
+import net.tomp2p.message.Message;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+import net.tomp2p.utils.ConcurrentCacheMap;
+import net.tomp2p.utils.LatencyHistogram;
+import net.tomp2p.utils.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A broadcast handler that uses push-pull gossip. A new message is pushed to a few random peers, which push it
+ * further until the maximum number of hops is reached. Since messages can get lost, each peer periodically sends the
+ * keys of the recently seen messages to a random peer (anti-entropy). The other peer pushes the messages that are
+ * missing in the digest and answers with its own digest, so that both peers end up with the same messages.
+ * <p>
+ * Messages are not sent right away, but in rounds. In each round, at most {@link #maxMessagesPerRound()} messages are
+ * sent, and at most {@link #maxMessagesPerPeer()} to the same peer. Messages over these limits are sent in the next
+ * round. At most {@link #maxPending()} messages wait for the next rounds, if there are more, the oldest are dropped
+ * and left to the anti-entropy. To use this handler, set it with {@link PeerBuilder#broadcastHandler(BroadcastHandler)},
+ * one instance per peer. Override {@link #deliver(Number160, NavigableMap)} to process the messages.
+ * <p>
+ * A digest contains the keys of the messages received within the last {@link #digestSeconds()}, at most
+ * {@link #digestSize()}. The keys of the delivered messages are kept twice as long and twice as many, so that a
+ * message that is pushed by a peer whose digest lags behind is still recognized as duplicate.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class GossipBroadcastHandler implements BroadcastHandler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GossipBroadcastHandler.class);
+
+	// the keys of the delivered messages, created in init from the digest window
+	private ConcurrentCacheMap<Number160, Boolean> seen;
+	// the recent messages for the digest, the newest first
+	private final Deque<GossipMessage> recent = new ArrayDeque<GossipMessage>();
+	private final Queue<Push> pending = new ConcurrentLinkedQueue<Push>();
+	private final AtomicInteger pendingSize = new AtomicInteger();
+	private final Random rnd = new Random();
+
+	private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+	private final AtomicLong deliveredCounter = new AtomicLong();
+	private final AtomicLong duplicateCounter = new AtomicLong();
+	private final AtomicLong sentCounter = new AtomicLong();
+	private final AtomicLong repairedCounter = new AtomicLong();
+	private final AtomicLong droppedCounter = new AtomicLong();
+	private final AtomicInteger round = new AtomicInteger();
+
+	private int fanout = 4;
+	private int maxHops = 8;
+	private int roundMillis = 100;
+	private int antiEntropyRounds = 10;
+	private int digestSize = 50;
+	private int digestSeconds = 10;
+	private int maxMessagesPerRound = 100;
+	private int maxMessagesPerPeer = 10;
+	private int maxPending = 1000;
+
+	private volatile Peer peer;
+	private ScheduledFuture<?> scheduledFuture;
+
+	@Override
+	public GossipBroadcastHandler init(final Peer peer) {
+		this.seen = new ConcurrentCacheMap<Number160, Boolean>(2 * digestSeconds, 2 * digestSize);
+		this.peer = peer;
+		scheduledFuture = peer.connectionBean().timer().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					round();
+				} catch (Throwable t) {
+					LOG.error("gossip round failed", t);
+				}
+			}
+		}, roundMillis, roundMillis, TimeUnit.MILLISECONDS);
+		peer.addShutdownListener(new Shutdown() {
+			@Override
+			public BaseFuture shutdown() {
+				scheduledFuture.cancel(false);
+				return new FutureDone<Void>().done();
+			}
+		});
+		return this;
+	}
+
+	@Override
+	public GossipBroadcastHandler receive(final Message message) {
+		if (peer == null) {
+			throw new RuntimeException("Init never called. This should be done by the PeerBuilder");
+		}
+		if (message.type() == Message.Type.REQUEST_FF_2) {
+			receiveDigest(message);
+			return this;
+		}
+		final Number160 messageKey = message.key(0);
+		final Integer hopCount = message.intAt(0);
+		if (messageKey == null || hopCount == null) {
+			LOG.debug("reject gossip without key or hop count from {}", message.sender());
+			return this;
+		}
+		final NavigableMap<Number640, Data> dataMap = message.dataMap(0) != null ? message.dataMap(0).dataMap()
+		        : null;
+		final long now = System.currentTimeMillis();
+		// the initiator does not send a start time
+		final long startMillis = message.longAt(0) != null ? message.longAt(0) : now;
+		if (seen.putIfAbsent(messageKey, Boolean.TRUE) != null) {
+			duplicateCounter.incrementAndGet();
+			return this;
+		}
+		final GossipMessage gossipMessage = new GossipMessage(messageKey, dataMap, startMillis, now,
+		        message.isUdp());
+		synchronized (recent) {
+			recent.addFirst(gossipMessage);
+			while (recent.size() > digestSize) {
+				recent.removeLast();
+			}
+		}
+		latencyHistogram.record(now - startMillis);
+		deliveredCounter.incrementAndGet();
+		LOG.debug("{} received gossip {} after {} hops", peer.peerID(), messageKey, hopCount);
+		if (hopCount < maxHops) {
+			final PeerAddress sender = message.sender();
+			for (PeerAddress peerAddress : randomPeers(fanout, sender)) {
+				enqueue(new Push(peerAddress, gossipMessage, hopCount + 1));
+			}
+		}
+		deliver(messageKey, dataMap);
+		return this;
+	}
+
+	/**
+	 * Called once for every new message. Override this method to process the messages.
+	 *
+	 * @param messageKey
+	 *            The key of the message
+	 * @param dataMap
+	 *            The payload of the message, may be null
+	 */
+	protected void deliver(final Number160 messageKey, final NavigableMap<Number640, Data> dataMap) {
+		// nothing to do by default
+	}
+
+	private void receiveDigest(final Message message) {
+		final KeyCollection keyCollection = message.keyCollection(0);
+		final Set<Number160> remoteKeys = new HashSet<Number160>();
+		if (keyCollection != null) {
+			for (Number640 key : keyCollection.keys()) {
+				remoteKeys.add(key.contentKey());
+			}
+		}
+		final boolean reply = message.intAt(0) != null && message.intAt(0) == 1;
+		final List<GossipMessage> localMessages = recentMessages();
+		final List<Number160> localKeys = new ArrayList<Number160>(localMessages.size());
+		// push what the other peer is missing, the other peer does not need to forward it
+		for (GossipMessage gossipMessage : localMessages) {
+			localKeys.add(gossipMessage.messageKey);
+			if (!remoteKeys.contains(gossipMessage.messageKey)) {
+				repairedCounter.incrementAndGet();
+				enqueue(new Push(message.sender(), gossipMessage, maxHops));
+			}
+		}
+		if (!reply) {
+			remoteKeys.removeAll(localKeys);
+			// answer only if we are missing something, otherwise the other peer has all our messages by now
+			if (!remoteKeys.isEmpty()) {
+				sendDigest(message.sender(), localKeys, true);
+			}
+		}
+	}
+
+	/**
+	 * Sends the pending messages within the limits of a round. Every {@link #antiEntropyRounds()} rounds, a digest is
+	 * sent to a random peer.
+	 */
+	private void round() {
+		if (peer == null || peer.isShutdown()) {
+			return;
+		}
+		if (round.incrementAndGet() % antiEntropyRounds == 0) {
+			final List<PeerAddress> peers = randomPeers(1, null);
+			if (!peers.isEmpty()) {
+				final List<GossipMessage> localMessages = recentMessages();
+				final List<Number160> localKeys = new ArrayList<Number160>(localMessages.size());
+				for (GossipMessage gossipMessage : localMessages) {
+					localKeys.add(gossipMessage.messageKey);
+				}
+				sendDigest(peers.get(0), localKeys, false);
+			}
+		}
+		final List<Push> toSend = new ArrayList<Push>();
+		final List<Push> deferred = new ArrayList<Push>();
+		final Map<PeerAddress, Integer> perPeer = new HashMap<PeerAddress, Integer>();
+		final int max = Math.min(maxMessagesPerRound, peer.connectionBean().resourceConfiguration().maxPermitsUDP());
+		Push push;
+		while (toSend.size() < max && (push = pending.poll()) != null) {
+			pendingSize.decrementAndGet();
+			final Integer count = perPeer.get(push.peerAddress);
+			final int c = count == null ? 0 : count;
+			if (c >= maxMessagesPerPeer) {
+				deferred.add(push);
+				continue;
+			}
+			perPeer.put(push.peerAddress, c + 1);
+			toSend.add(push);
+		}
+		for (Push deferredPush : deferred) {
+			enqueue(deferredPush);
+		}
+		if (!toSend.isEmpty()) {
+			send(toSend);
+		}
+	}
+
+	private void send(final List<Push> toSend) {
+		int udp = 0;
+		for (Push push : toSend) {
+			if (push.gossipMessage.isUDP) {
+				udp++;
+			}
+		}
+		final int tcp = toSend.size() - udp;
+		final FutureChannelCreator fcc = peer.connectionBean().reservation().create(udp, tcp);
+		fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+			@Override
+			public void operationComplete(final FutureChannelCreator future) throws Exception {
+				if (!future.isSuccess()) {
+					LOG.debug("could not reserve channels for gossip: {}", future.failedReason());
+					return;
+				}
+				final FutureResponse[] futureResponses = new FutureResponse[toSend.size()];
+				for (int i = 0; i < futureResponses.length; i++) {
+					final Push push = toSend.get(i);
+					final GossipMessage gossipMessage = push.gossipMessage;
+					futureResponses[i] = peer.broadcastRPC().sendGossip(push.peerAddress, gossipMessage.messageKey,
+					        gossipMessage.dataMap, push.hopCount, gossipMessage.startMillis, gossipMessage.isUDP,
+					        future.channelCreator(), new DefaultConnectionConfiguration());
+				}
+				sentCounter.addAndGet(futureResponses.length);
+				Utils.addReleaseListener(future.channelCreator(), futureResponses);
+			}
+		});
+	}
+
+	private void sendDigest(final PeerAddress remotePeer, final Collection<Number160> keys, final boolean reply) {
+		final FutureChannelCreator fcc = peer.connectionBean().reservation().create(1, 0);
+		fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+			@Override
+			public void operationComplete(final FutureChannelCreator future) throws Exception {
+				if (future.isSuccess()) {
+					FutureResponse futureResponse = peer.broadcastRPC().sendDigest(remotePeer, keys, reply,
+					        future.channelCreator(), new DefaultConnectionConfiguration());
+					Utils.addReleaseListener(future.channelCreator(), futureResponse);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues a push for the next rounds. If more than {@link #maxPending()} pushes are queued, the oldest is dropped,
+	 * since its message had the most time to spread. The anti-entropy repairs what is lost.
+	 */
+	private void enqueue(final Push push) {
+		pending.add(push);
+		if (pendingSize.incrementAndGet() > maxPending && pending.poll() != null) {
+			pendingSize.decrementAndGet();
+			droppedCounter.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The messages in the digest window, the newest first
+	 */
+	private List<GossipMessage> recentMessages() {
+		final long oldest = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(digestSeconds);
+		synchronized (recent) {
+			while (!recent.isEmpty() && recent.peekLast().receivedMillis < oldest) {
+				recent.removeLast();
+			}
+			return new ArrayList<GossipMessage>(recent);
+		}
+	}
+
+	private List<PeerAddress> randomPeers(final int nr, final PeerAddress exclude) {
+		final List<PeerAddress> all = peer.peerBean().peerMap().all();
+		if (exclude != null) {
+			all.remove(exclude);
+		}
+		final List<PeerAddress> result = new ArrayList<PeerAddress>(nr);
+		for (int i = 0; i < nr && !all.isEmpty(); i++) {
+			result.add(Utils.pollRandom(all, rnd));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The time from the start of a broadcast until it was delivered on this peer in milliseconds
+	 */
+	public LatencyHistogram latencyHistogram() {
+		return latencyHistogram;
+	}
+
+	/**
+	 * @return The number of messages that were delivered on this peer
+	 */
+	public long deliveredCounter() {
+		return deliveredCounter.get();
+	}
+
+	/**
+	 * @return The number of messages that were received more than once
+	 */
+	public long duplicateCounter() {
+		return duplicateCounter.get();
+	}
+
+	/**
+	 * @return The number of messages this peer sent
+	 */
+	public long sentCounter() {
+		return sentCounter.get();
+	}
+
+	/**
+	 * @return The number of messages this peer sent because they were missing in a digest of another peer
+	 */
+	public long repairedCounter() {
+		return repairedCounter.get();
+	}
+
+	/**
+	 * @return The number of pushes that were dropped because more than {@link #maxPending()} were queued
+	 */
+	public long droppedCounter() {
+		return droppedCounter.get();
+	}
+
+	public int fanout() {
+		return fanout;
+	}
+
+	/**
+	 * @param fanout
+	 *            The number of random peers a new message is pushed to, default is 4
+	 * @return This class
+	 */
+	public GossipBroadcastHandler fanout(final int fanout) {
+		this.fanout = fanout;
+		return this;
+	}
+
+	public int maxHops() {
+		return maxHops;
+	}
+
+	/**
+	 * @param maxHops
+	 *            The number of hops after which a message is not pushed further, default is 8
+	 * @return This class
+	 */
+	public GossipBroadcastHandler maxHops(final int maxHops) {
+		this.maxHops = maxHops;
+		return this;
+	}
+
+	public int roundMillis() {
+		return roundMillis;
+	}
+
+	/**
+	 * @param roundMillis
+	 *            The time between two rounds, default is 100ms. Needs to be set before init is called.
+	 * @return This class
+	 */
+	public GossipBroadcastHandler roundMillis(final int roundMillis) {
+		this.roundMillis = roundMillis;
+		return this;
+	}
+
+	public int antiEntropyRounds() {
+		return antiEntropyRounds;
+	}
+
+	/**
+	 * @param antiEntropyRounds
+	 *            A digest is sent every antiEntropyRounds rounds, default is 10
+	 * @return This class
+	 */
+	public GossipBroadcastHandler antiEntropyRounds(final int antiEntropyRounds) {
+		if (antiEntropyRounds <= 0) {
+			throw new IllegalArgumentException("Anti entropy rounds must be positive");
+		}
+		this.antiEntropyRounds = antiEntropyRounds;
+		return this;
+	}
+
+	public int digestSize() {
+		return digestSize;
+	}
+
+	/**
+	 * @param digestSize
+	 *            The number of recent message keys in a digest, default is 50, so that a digest fits into a UDP
+	 *            packet. Needs to be set before init is called.
+	 * @return This class
+	 */
+	public GossipBroadcastHandler digestSize(final int digestSize) {
+		this.digestSize = digestSize;
+		return this;
+	}
+
+	public int digestSeconds() {
+		return digestSeconds;
+	}
+
+	/**
+	 * @param digestSeconds
+	 *            The time a message key stays in the digest, default is 10s. Needs to be set before init is called.
+	 * @return This class
+	 */
+	public GossipBroadcastHandler digestSeconds(final int digestSeconds) {
+		this.digestSeconds = digestSeconds;
+		return this;
+	}
+
+	public int maxMessagesPerRound() {
+		return maxMessagesPerRound;
+	}
+
+	/**
+	 * @param maxMessagesPerRound
+	 *            The maximum number of messages sent in one round, default is 100
+	 * @return This class
+	 */
+	public GossipBroadcastHandler maxMessagesPerRound(final int maxMessagesPerRound) {
+		this.maxMessagesPerRound = maxMessagesPerRound;
+		return this;
+	}
+
+	public int maxMessagesPerPeer() {
+		return maxMessagesPerPeer;
+	}
+
+	/**
+	 * @param maxMessagesPerPeer
+	 *            The maximum number of messages sent to the same peer in one round, default is 10
+	 * @return This class
+	 */
+	public GossipBroadcastHandler maxMessagesPerPeer(final int maxMessagesPerPeer) {
+		this.maxMessagesPerPeer = maxMessagesPerPeer;
+		return this;
+	}
+
+	public int maxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * @param maxPending
+	 *            The maximum number of messages that wait for the next rounds, default is 1000. If more are queued,
+	 *            the oldest are dropped.
+	 * @return This class
+	 */
+	public GossipBroadcastHandler maxPending(final int maxPending) {
+		this.maxPending = maxPending;
+		return this;
+	}
+
+	private static class GossipMessage {
+		private final Number160 messageKey;
+		private final NavigableMap<Number640, Data> dataMap;
+		private final long startMillis;
+		private final long receivedMillis;
+		private final boolean isUDP;
+
+		private GossipMessage(final Number160 messageKey, final NavigableMap<Number640, Data> dataMap,
+		        final long startMillis, final long receivedMillis, final boolean isUDP) {
+			this.messageKey = messageKey;
+			this.dataMap = dataMap;
+			this.startMillis = startMillis;
+			this.receivedMillis = receivedMillis;
+			this.isUDP = isUDP;
+		}
+	}
+
+	private static class Push {
+		private final PeerAddress peerAddress;
+		private final GossipMessage gossipMessage;
+		private final int hopCount;
+
+		private Push(final PeerAddress peerAddress, final GossipMessage gossipMessage, final int hopCount) {
+			this.peerAddress = peerAddress;
+			this.gossipMessage = gossipMessage;
+			this.hopCount = hopCount;
+		}
+	}
+}
@@ -2,33 +2,58 @@ package net.tomp2p.p2p;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.tomp2p.connection.ConnectionConfiguration;
+import net.tomp2p.connection.Metrics;
+import net.tomp2p.connection.RequestHandler;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.peers.BatchMaintainable;
 import net.tomp2p.peers.Maintainable;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerStatistic;
+import net.tomp2p.utils.LatencyHistogram;
+import net.tomp2p.utils.Utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Checks periodically if the peers of the {@link Maintainable}s are still online. Every peer has its own budget of
+ * pings per second, which is not shared with other peers in the same JVM. In every round, the peers that need a
+ * check are fetched in one batch from each {@link BatchMaintainable} (and one by one from other maintainables) and
+ * pinged over UDP with a single channel reservation. Unused budget is saved for up to one second, and at most as many pings as allowed per second are
+ * outstanding. If the {@link NetworkEstimator} observes churn, the budget grows with the inverse of the liveness of
+ * the peers, up to twice the configured pings per second.
+ * <p>
+ * The following metrics are recorded: the counters maintenance.ping and maintenance.exhausted (rounds in which the
+ * budget did not suffice for all peers that need a check), and the histogram maintenance.lag, the time since a peer
+ * was last seen online when it is checked. Peers that were never seen online are not recorded. With a sufficient
+ * budget, the lag stays around the check intervals.
+ */
 public class MaintenanceTask implements Runnable {
-    
+
     private static final Logger LOG = LoggerFactory.getLogger(MaintenanceTask.class);
-    private static final int MAX_PING = 5;
-    private static final AtomicInteger COUNTER = new AtomicInteger(0);
+    public static final int DEFAULT_PINGS_PER_SECOND = 5;
 
     private Peer peer;
 
     private int intervalMillis = 1000;
 
+    private int pingsPerSecond = DEFAULT_PINGS_PER_SECOND;
+
     private List<Maintainable> maintainables = new ArrayList<Maintainable>();
 
     private Map<BaseFuture, PeerAddress> runningFutures = new HashMap<BaseFuture, PeerAddress>();
@@ -36,48 +61,179 @@ public class MaintenanceTask implements Runnable {
     private boolean shutdown = false;
 
     private final Object lock = new Object();
-    
+
     private ScheduledFuture<?> scheduledFuture;
 
+    // the number of pings that may be sent, may be fractional if less than one ping is allowed per round
+    private double budget = 0;
+
+    // the maintainable that is asked first, changes every round so that all get their share of the budget
+    private int first = 0;
+
+    private AtomicLong pingCounter;
+    private AtomicLong exhaustedCounter;
+    private LatencyHistogram lagHistogram;
+
     public void init(Peer peer, ScheduledExecutorService timer) {
         this.peer = peer;
+        final Metrics metrics = peer.connectionBean().metrics();
+        pingCounter = metrics.counter("maintenance.ping");
+        exhaustedCounter = metrics.counter("maintenance.exhausted");
+        lagHistogram = metrics.histogram("maintenance.lag");
         scheduledFuture = timer.scheduleAtFixedRate(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void run() {
+        final List<PeerStatistic> batch;
         synchronized (lock) {
-            //make sure we only have 5 pings in parallel
-            if (shutdown || COUNTER.get() > MAX_PING) {
+            if (shutdown) {
                 return;
             }
-            for (Maintainable maintainable : maintainables) {
-                PeerStatistic peerStatatistic = maintainable.nextForMaintenance(runningFutures.values());
-                if(peerStatatistic == null) {
-                    continue;
-                }
-                BaseFuture future;
-                if(peerStatatistic.isLocal()) {
-                	future = peer.localAnnounce().ping().peerAddress(peerStatatistic.peerAddress()).start();
-                	LOG.debug("Maintenance local ping from {} to {}.", peer.peerAddress(), peerStatatistic.peerAddress());
-                } else { 
-                	future = peer.ping().peerAddress(peerStatatistic.peerAddress()).start();
-                	LOG.debug("Maintenance ping from {} to {}.", peer.peerAddress(), peerStatatistic.peerAddress());
-                }
-                peer.notifyAutomaticFutures(future);
-                runningFutures.put(future, peerStatatistic.peerAddress());
-                COUNTER.incrementAndGet();
-                future.addListener(new BaseFutureAdapter<BaseFuture>() {
-                    @Override
-                    public void operationComplete(BaseFuture future) throws Exception {
-                    	synchronized (lock) {
-                            runningFutures.remove(future);
-                            COUNTER.decrementAndGet();
-                        }
+            final int perSecond = adaptedPingsPerSecond();
+            final double perRound = perSecond * intervalMillis / 1000d;
+            budget = Math.min(budget + perRound, Math.max(perSecond, perRound));
+            final int max = Math.min((int) budget, perSecond - runningFutures.size());
+            if (max <= 0) {
+                return;
+            }
+            batch = nextBatch(max);
+            budget -= batch.size();
+        }
+        if (!batch.isEmpty()) {
+            ping(batch);
+        }
+    }
+
+    /**
+     * @return The pings per second, raised by up to a factor of two if the {@link NetworkEstimator} observes churn
+     */
+    private int adaptedPingsPerSecond() {
+        final NetworkEstimator networkEstimator = peer.peerBean().networkEstimator();
+        if (networkEstimator == null) {
+            return pingsPerSecond;
+        }
+        return (int) Math.round(pingsPerSecond * networkEstimator.factor());
+    }
+
+    /**
+     * Fetches the peers that need a check from the maintainables. The peers that are checked already are excluded.
+     *
+     * @param max
+     *            The number of peers that can be checked in this round
+     * @return The peers to check
+     */
+    private List<PeerStatistic> nextBatch(final int max) {
+        final List<PeerStatistic> batch = new ArrayList<PeerStatistic>(max);
+        final int size = maintainables.size();
+        if (size == 0) {
+            return batch;
+        }
+        final Set<PeerAddress> notInterested = new HashSet<PeerAddress>(runningFutures.values());
+        boolean exhausted = false;
+        for (int i = 0; i < size; i++) {
+            final Maintainable maintainable = maintainables.get((first + i) % size);
+            final int remaining = max - batch.size();
+            if (remaining <= 0) {
+                exhausted = true;
+                break;
+            }
+            final List<PeerStatistic> next = next(maintainable, notInterested, remaining);
+            for (PeerStatistic peerStatistic : next) {
+                batch.add(peerStatistic);
+                notInterested.add(peerStatistic.peerAddress());
+            }
+            exhausted = next.size() == remaining;
+        }
+        first = (first + 1) % size;
+        if (exhausted) {
+            exhaustedCounter.incrementAndGet();
+        }
+        return batch;
+    }
+
+    /**
+     * Asks a maintainable for a batch of peers, or for one peer after the other if it does not return batches.
+     */
+    private static List<PeerStatistic> next(final Maintainable maintainable, final Set<PeerAddress> notInterested,
+            final int max) {
+        if (maintainable instanceof BatchMaintainable) {
+            return ((BatchMaintainable) maintainable).nextForMaintenance(notInterested, max);
+        }
+        final Set<PeerAddress> excluded = new HashSet<PeerAddress>(notInterested);
+        final List<PeerStatistic> next = new ArrayList<PeerStatistic>();
+        while (next.size() < max) {
+            final PeerStatistic peerStatistic = maintainable.nextForMaintenance(excluded);
+            if (peerStatistic == null) {
+                break;
+            }
+            next.add(peerStatistic);
+            excluded.add(peerStatistic.peerAddress());
+        }
+        return next;
+    }
+
+    private void ping(final List<PeerStatistic> batch) {
+        final long now = System.currentTimeMillis();
+        final ConnectionConfiguration connectionConfiguration = peer.connectionBean().channelServer()
+                .channelServerConfiguration();
+        final List<RequestHandler<FutureResponse>> requests = new ArrayList<RequestHandler<FutureResponse>>(
+                batch.size());
+        for (PeerStatistic peerStatistic : batch) {
+            // peers that were never seen online have no lag
+            if (peerStatistic.lastSeenOnline() > 0) {
+                lagHistogram.record(TimeUnit.MILLISECONDS.toMicros(now - peerStatistic.lastSeenOnline()));
+            }
+            pingCounter.incrementAndGet();
+            final BaseFuture future;
+            if (peerStatistic.isLocal()) {
+                future = peer.localAnnounce().ping().peerAddress(peerStatistic.peerAddress()).start();
+                LOG.debug("Maintenance local ping from {} to {}.", peer.peerAddress(), peerStatistic.peerAddress());
+            } else {
+                final RequestHandler<FutureResponse> request = peer.pingRPC().ping(peerStatistic.peerAddress(),
+                        connectionConfiguration);
+                requests.add(request);
+                future = request.futureResponse();
+                LOG.debug("Maintenance ping from {} to {}.", peer.peerAddress(), peerStatistic.peerAddress());
+            }
+            peer.notifyAutomaticFutures(future);
+            addRunning(future, peerStatistic.peerAddress());
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        // one reservation for the whole batch
+        final FutureChannelCreator fcc = peer.connectionBean().reservation().create(requests.size(), 0);
+        fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (future.isSuccess()) {
+                    final BaseFuture[] futures = new BaseFuture[requests.size()];
+                    for (int i = 0; i < futures.length; i++) {
+                        futures[i] = requests.get(i).sendUDP(future.channelCreator());
                     }
-                });
+                    Utils.addReleaseListener(future.channelCreator(), futures);
+                } else {
+                    for (RequestHandler<FutureResponse> request : requests) {
+                        request.futureResponse().failed(future);
+                    }
+                }
             }
+        });
+    }
+
+    private void addRunning(final BaseFuture future, final PeerAddress peerAddress) {
+        synchronized (lock) {
+            runningFutures.put(future, peerAddress);
         }
+        future.addListener(new BaseFutureAdapter<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture future) throws Exception {
+                synchronized (lock) {
+                    runningFutures.remove(future);
+                }
+            }
+        });
     }
 
     public FutureDone<Void> shutdown() {
@@ -116,8 +272,28 @@ public class MaintenanceTask implements Runnable {
         this.intervalMillis = intervalMillis;
         return this;
     }
-    
+
+    public int pingsPerSecond() {
+        return pingsPerSecond;
+    }
+
+    /**
+     * @param pingsPerSecond
+     *            The number of maintenance pings this peer may send per second, which is also the maximum number of
+     *            outstanding pings
+     * @return This class
+     */
+    public MaintenanceTask pingsPerSecond(int pingsPerSecond) {
+        if (pingsPerSecond <= 0) {
+            throw new IllegalArgumentException("At least one ping per second is needed for the maintenance.");
+        }
+        this.pingsPerSecond = pingsPerSecond;
+        return this;
+    }
+
     public void addMaintainable(Maintainable maintainable) {
-        maintainables.add(maintainable);
+        synchronized (lock) {
+            maintainables.add(maintainable);
+        }
     }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.p2p;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.connection.Metrics;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapChangeListener;
+import net.tomp2p.peers.PeerMapView;
+import net.tomp2p.peers.PeerStatistic;
+
+/**
+ * Estimates the size of the network, the churn rate and the liveness of the peers in each bag from the changes of the
+ * peer map. The estimates are updated periodically and smoothed with an exponential moving average, reading them is
+ * cheap. The routing ({@link #routingConfiguration(RoutingConfiguration)}) and the maintenance adapt to the
+ * estimates instead of relying on static defaults only, the automatic replication reads the {@link #departures()}.
+ * <p>
+ * A peer that leaves the verified map counts as departed, unless it moved to the overflow map, e.g., because it has
+ * been replaced by a faster peer. A peer that leaves several times within an interval departs once. The liveness of a
+ * bag is the fraction of its peers that did not depart within an interval. The estimates are exported as the gauges
+ * estimator.size, estimator.churn (departures per minute), estimator.liveness (per mille) and the counter
+ * estimator.departures.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class NetworkEstimator implements PeerMapChangeListener, Runnable, Shutdown {
+
+    public static final int DEFAULT_INTERVAL_MILLIS = 10 * 1000;
+
+    // the weight of the latest interval in the moving averages
+    private static final double ALPHA = 0.2;
+
+    // the routing and the maintenance do at most this much more work than configured
+    private static final int MAX_FACTOR = 2;
+
+    private final PeerMap peerMap;
+    private final Statistics statistics;
+
+    // the departures per bag since the last interval
+    private final AtomicIntegerArray departed = new AtomicIntegerArray(Number160.BITS);
+    private final AtomicLong departures;
+    // the peers that departed since the last interval
+    private volatile Set<Number160> departedPeers = newSet();
+    private volatile int lastDepartures;
+
+    private ScheduledFuture<?> scheduledFuture;
+    private long lastRun;
+
+    private volatile double networkSize;
+    private volatile double churnRate = 0;
+    private volatile double liveness = 1;
+    private volatile double[] bagLiveness;
+
+    /**
+     * @param peerMap
+     *            The peer map to observe
+     * @param metrics
+     *            The metrics where the estimates are exported
+     */
+    public NetworkEstimator(final PeerMap peerMap, final Metrics metrics) {
+        this.peerMap = peerMap;
+        this.statistics = new Statistics(peerMap);
+        this.networkSize = peerMap.size() + 1;
+        final double[] bagLiveness = new double[Number160.BITS];
+        Arrays.fill(bagLiveness, 1);
+        this.bagLiveness = bagLiveness;
+        this.departures = metrics.counter("estimator.departures");
+        metrics.gauge("estimator.size", new Metrics.Gauge() {
+            @Override
+            public long value() {
+                return Math.round(networkSize);
+            }
+        });
+        metrics.gauge("estimator.churn", new Metrics.Gauge() {
+            @Override
+            public long value() {
+                return Math.round(churnRate * 60);
+            }
+        });
+        metrics.gauge("estimator.liveness", new Metrics.Gauge() {
+            @Override
+            public long value() {
+                return Math.round(liveness * 1000);
+            }
+        });
+    }
+
+    public NetworkEstimator init(final Peer peer, final ScheduledExecutorService timer, final int intervalMillis) {
+        peerMap.addPeerMapChangeListener(this);
+        lastRun = System.currentTimeMillis();
+        scheduledFuture = timer.scheduleAtFixedRate(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        peer.addShutdownListener(this);
+        return this;
+    }
+
+    @Override
+    public void peerInserted(final PeerAddress peerAddress, final boolean verified) {
+    }
+
+    @Override
+    public void peerRemoved(final PeerAddress peerAddress, final PeerStatistic storedPeerAddress) {
+        if (peerMap.containsOverflow(peerAddress)) {
+            // still online, only moved
+            return;
+        }
+        final int classMember = PeerMap.classMember(peerMap.self(), peerAddress.peerId());
+        if (classMember >= 0 && departedPeers.add(peerAddress.peerId())) {
+            departed.incrementAndGet(classMember);
+            departures.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void peerUpdated(final PeerAddress peerAddress, final PeerStatistic storedPeerAddress) {
+    }
+
+    /**
+     * Updates the estimates with the departures since the last call.
+     */
+    @Override
+    public synchronized void run() {
+        final long now = System.currentTimeMillis();
+        final long elapsedMillis = Math.max(1, now - lastRun);
+        lastRun = now;
+        departedPeers = newSet();
+
+        final PeerMapView view = peerMap.view();
+        final double[] newBagLiveness = bagLiveness.clone();
+        int totalDeparted = 0;
+        int totalPeers = 0;
+        for (int i = 0; i < Number160.BITS; i++) {
+            final int nrDeparted = departed.getAndSet(i, 0);
+            final int nrPeers = view.bag(i).size() + nrDeparted;
+            if (nrPeers > 0) {
+                newBagLiveness[i] = ema(newBagLiveness[i], 1 - (nrDeparted / (double) nrPeers));
+            }
+            totalDeparted += nrDeparted;
+            totalPeers += nrPeers;
+        }
+        bagLiveness = newBagLiveness;
+        lastDepartures = totalDeparted;
+        churnRate = ema(churnRate, totalDeparted * 1000d / elapsedMillis);
+        if (totalPeers > 0) {
+            liveness = ema(liveness, 1 - (totalDeparted / (double) totalPeers));
+        }
+        // the gap estimation does not work if all bags are full or empty
+        final double size = statistics.estimatedNumberOfNodes();
+        if (!Double.isNaN(size) && !Double.isInfinite(size)) {
+            networkSize = ema(networkSize, Math.max(size, view.size() + 1));
+        } else {
+            networkSize = Math.max(networkSize, view.size() + 1);
+        }
+    }
+
+    private static Set<Number160> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Number160, Boolean>());
+    }
+
+    private static double ema(final double average, final double value) {
+        return average + (ALPHA * (value - average));
+    }
+
+    @Override
+    public BaseFuture shutdown() {
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        peerMap.removePeerMapChangeListener(this);
+        return new FutureDone<Void>().done();
+    }
+
+    /**
+     * @return The estimated number of peers in the network, including this peer
+     */
+    public double networkSize() {
+        return networkSize;
+    }
+
+    /**
+     * @return The average number of verified peers that depart per second
+     */
+    public double churnRate() {
+        return churnRate;
+    }
+
+    /**
+     * @return The total number of verified peers that departed, the sum of the distinct departures of every interval
+     *         including the current one
+     */
+    public long departures() {
+        return departures.get();
+    }
+
+    /**
+     * @return The number of distinct verified peers that departed in the last interval
+     */
+    public int lastDepartures() {
+        return lastDepartures;
+    }
+
+    /**
+     * @return The average fraction of the verified peers that stay online during an interval, between 0 and 1
+     */
+    public double liveness() {
+        return liveness;
+    }
+
+    /**
+     * @param bag
+     *            The bag, which is the class member of its peers
+     * @return The average fraction of the verified peers in this bag that stay online during an interval
+     */
+    public double liveness(final int bag) {
+        return bagLiveness[bag];
+    }
+
+    /**
+     * Adapts a routing configuration to the churn. If peers fail to respond, the routing needs more parallel requests,
+     * more tolerance for failures and more responses without new information to find the same close peers. The
+     * values grow with the inverse of the liveness up to twice the configured values. Without churn, the
+     * configuration is returned as is.
+     *
+     * @param routingConfiguration
+     *            The configuration for a network without churn
+     * @return The adapted configuration
+     */
+    public RoutingConfiguration routingConfiguration(final RoutingConfiguration routingConfiguration) {
+        final double factor = factor();
+        if (factor == 1) {
+            return routingConfiguration;
+        }
+        return new RoutingConfiguration(routingConfiguration.maxDirectHits(), scale(
+                routingConfiguration.maxNoNewInfoDiff(), factor), scale(routingConfiguration.maxFailures(), factor),
+                routingConfiguration.maxSuccess(), scale(routingConfiguration.parallel(), factor),
+                routingConfiguration.isForceTCP());
+    }
+
+    /**
+     * @return The factor by which the maintenance and routing need to do more work because of the churn, between 1
+     *         and 2
+     */
+    public double factor() {
+        final double current = liveness;
+        if (current >= 1) {
+            return 1;
+        }
+        return Math.min(MAX_FACTOR, 1 / Math.max(current, 1d / MAX_FACTOR));
+    }
+
+    private static int scale(final int value, final double factor) {
+        if (value == Integer.MAX_VALUE) {
+            return value;
+        }
+        return (int) Math.round(value * factor);
+    }
+}
@@ -48,6 +48,7 @@ import net.tomp2p.peers.LocalMap;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerMap;
 import net.tomp2p.peers.PeerMapConfiguration;
+import net.tomp2p.peers.PeerMapSnapshot;
 import net.tomp2p.rpc.AnnounceRPC;
 import net.tomp2p.rpc.BloomfilterFactory;
 import net.tomp2p.rpc.BroadcastRPC;
@@ -56,6 +57,8 @@ import net.tomp2p.rpc.DirectDataRPC;
 import net.tomp2p.rpc.NeighborRPC;
 import net.tomp2p.rpc.PingRPC;
 import net.tomp2p.rpc.QuitRPC;
+import net.tomp2p.storage.JavaObjectCodec;
+import net.tomp2p.storage.ObjectCodec;
 import net.tomp2p.utils.Pair;
 import net.tomp2p.utils.Utils;
 
@@ -119,8 +122,12 @@ public class PeerBuilder {
 	private Boolean behindFirewall = null;
 	private BroadcastHandler broadcastHandler;
 	private BloomfilterFactory bloomfilterFactory;
+	private ObjectCodec objectCodec;
 	private ScheduledExecutorService scheduledExecutorService = null;
 	private MaintenanceTask maintenanceTask = null;
+	private PeerMapSnapshot peerMapSnapshot = null;
+	private int snapshotIntervalMillis = 60 * 1000;
+	private int estimatorIntervalMillis = NetworkEstimator.DEFAULT_INTERVAL_MILLIS;
 	private Random random = null;
 	private List<PeerInit> toInitialize = new ArrayList<PeerInit>(1);
 	private SendBehavior sendBehavior;
@@ -265,6 +272,11 @@ public class PeerBuilder {
 			peerBean.bloomfilterFactory(new DefaultBloomfilterFactory());
 		}
 
+		if (objectCodec == null) {
+			objectCodec = new JavaObjectCodec();
+		}
+		peerBean.objectCodec(objectCodec);
+
 		if (broadcastHandler == null) {
 			broadcastHandler = new StructuredBroadcastHandler();
 		}
@@ -319,6 +331,17 @@ public class PeerBuilder {
 		}
 		peerBean.maintenanceTask(maintenanceTask);
 
+		if (peerMapSnapshot != null) {
+			peerBean.peerMapSnapshot(peerMapSnapshot);
+			new PeerMapSnapshotTask(peerMapSnapshot, peerMap).init(peer, connectionBean.timer(),
+			        snapshotIntervalMillis);
+		}
+
+		if (estimatorIntervalMillis > 0) {
+			peerBean.networkEstimator(new NetworkEstimator(peerMap, connectionBean.metrics()).init(peer,
+			        connectionBean.timer(), estimatorIntervalMillis));
+		}
+
 
 		// set the ping builder for the heart beat
 		connectionBean.sender().pingBuilderFactory(new PingBuilderFactory() {			
@@ -513,6 +536,21 @@ public class PeerBuilder {
 		return this;
 	}
 
+	public ObjectCodec objectCodec() {
+		return objectCodec;
+	}
+
+	/**
+	 * @param objectCodec
+	 *            The codec that converts objects to {@link net.tomp2p.storage.Data} and back. The default is
+	 *            {@link JavaObjectCodec}, all peers need to use a compatible codec
+	 * @return This class
+	 */
+	public PeerBuilder objectCodec(ObjectCodec objectCodec) {
+		this.objectCodec = objectCodec;
+		return this;
+	}
+
 	public MaintenanceTask maintenanceTask() {
 		return maintenanceTask;
 	}
@@ -522,6 +560,51 @@ public class PeerBuilder {
 		return this;
 	}
 
+	public PeerMapSnapshot peerMapSnapshot() {
+		return peerMapSnapshot;
+	}
+
+	/**
+	 * @param peerMapSnapshot
+	 *            The snapshot where the verified peers are stored periodically and on shutdown. The bootstrap
+	 *            verifies the peers of the snapshot, so a restarted peer finds its neighbors without iterative
+	 *            lookups
+	 * @return This class
+	 */
+	public PeerBuilder peerMapSnapshot(PeerMapSnapshot peerMapSnapshot) {
+		this.peerMapSnapshot = peerMapSnapshot;
+		return this;
+	}
+
+	public int snapshotIntervalMillis() {
+		return snapshotIntervalMillis;
+	}
+
+	/**
+	 * @param snapshotIntervalMillis
+	 *            The interval to store the peer map snapshot, 0 to store it only on shutdown
+	 * @return This class
+	 */
+	public PeerBuilder snapshotIntervalMillis(int snapshotIntervalMillis) {
+		this.snapshotIntervalMillis = snapshotIntervalMillis;
+		return this;
+	}
+
+	public int estimatorIntervalMillis() {
+		return estimatorIntervalMillis;
+	}
+
+	/**
+	 * @param estimatorIntervalMillis
+	 *            The interval to update the estimates of the network size and churn, 0 to disable the
+	 *            {@link NetworkEstimator}, which means that the routing and the maintenance do not adapt to churn
+	 * @return This class
+	 */
+	public PeerBuilder estimatorIntervalMillis(int estimatorIntervalMillis) {
+		this.estimatorIntervalMillis = estimatorIntervalMillis;
+		return this;
+	}
+
 	public Random random() {
 		return random;
 	}
@@ -0,0 +1,57 @@
+package net.tomp2p.p2p;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapSnapshot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the peer map of a peer periodically and when the peer shuts down.
+ */
+public class PeerMapSnapshotTask implements Runnable, Shutdown {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PeerMapSnapshotTask.class);
+
+    private final PeerMapSnapshot peerMapSnapshot;
+    private final PeerMap peerMap;
+    private ScheduledFuture<?> scheduledFuture;
+
+    public PeerMapSnapshotTask(PeerMapSnapshot peerMapSnapshot, PeerMap peerMap) {
+        this.peerMapSnapshot = peerMapSnapshot;
+        this.peerMap = peerMap;
+    }
+
+    public void init(Peer peer, ScheduledExecutorService timer, int intervalMillis) {
+        if (intervalMillis > 0) {
+            scheduledFuture = timer.scheduleAtFixedRate(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        peer.addShutdownListener(this);
+    }
+
+    @Override
+    public void run() {
+        try {
+            final int size = peerMapSnapshot.save(peerMap);
+            LOG.debug("Stored {} peers in the snapshot {}.", size, peerMapSnapshot.file());
+        } catch (IOException e) {
+            LOG.warn("Could not store the peer map snapshot {}.", peerMapSnapshot.file(), e);
+        }
+    }
+
+    @Override
+    public BaseFuture shutdown() {
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        run();
+        return new FutureDone<Void>().done();
+    }
+}
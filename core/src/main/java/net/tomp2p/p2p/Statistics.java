@@ -16,12 +16,9 @@
 
 package net.tomp2p.p2p;
 
-import java.util.List;
-import java.util.Map;
-
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerMap;
-import net.tomp2p.peers.PeerStatistic;
+import net.tomp2p.peers.PeerMapView;
 
 public class Statistics {
 
@@ -38,13 +35,12 @@ public class Statistics {
 	}
 	
 	public double estimatedNumberOfNodes() {
-		final List<Map<Number160, PeerStatistic>> map = peerMap.peerMapVerified();
+		final PeerMapView view = peerMap.view();
 		// assume we are full
 		double gap = 0D;
 		int gapCount = 0;
 		for (int i = 0; i < Number160.BITS; i++) {
-			Map<Number160, PeerStatistic> peers = map.get(i);
-			final int numPeers = peers.size();
+			final int numPeers = view.bag(i).size();
 
 			if (numPeers > 0 && numPeers < peerMap.bagSizeVerified(i)) {
 				double currentGap = Math.pow(2, i) / numPeers;
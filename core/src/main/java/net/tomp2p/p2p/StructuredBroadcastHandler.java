@@ -1,6 +1,8 @@
 package net.tomp2p.p2p;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -63,6 +65,10 @@ public class StructuredBroadcastHandler implements BroadcastHandler {
 			throw new RuntimeException(
 					"Init never called. This should be done by the PeerBuilder");
 		}
+		if (message.type() == Message.Type.REQUEST_FF_2) {
+			LOG.debug("ignore gossip digest, this peer does not gossip");
+			return this;
+		}
 		final Number160 messageKey = message.key(0);
 		final NavigableMap<Number640, Data> dataMap;
 		if (message.dataMap(0) != null) {
@@ -134,12 +140,7 @@ public class StructuredBroadcastHandler implements BroadcastHandler {
 			final boolean isUDP) {
 		final List<PeerAddress> list = peer.peerBean().peerMap()
 				.fromEachBag(FROM_EACH_BAG, Number160.BITS);
-		for (final PeerAddress peerAddress : list) {
-			final int bucketNr = PeerMap.classMember(peerAddress.peerId(),
-					peer.peerID());
-			doSend(messageKey, dataMap, hopCounter, isUDP, peerAddress,
-					bucketNr);
-		}
+		doSend(messageKey, dataMap, hopCounter, isUDP, list);
 	}
 
 	/**
@@ -160,21 +161,37 @@ public class StructuredBroadcastHandler implements BroadcastHandler {
 			boolean isUDP, final int bucketNr) {
 		final List<PeerAddress> list = peer.peerBean().peerMap()
 				.fromEachBag(FROM_EACH_BAG, bucketNr);
-		for (final PeerAddress peerAddress : list) {
-			final int bucketNr2 = PeerMap.classMember(peerAddress.peerId(),
-					peer.peerID());
-			doSend(messageKey, dataMap, hopCounter, isUDP, peerAddress,
-					bucketNr2);
-		}
+		doSend(messageKey, dataMap, hopCounter, isUDP, list);
 	}
 
+	/**
+	 * Sends the message to all peers in the list. The peers share one
+	 * channel reservation and the data map is encoded only once. If the list
+	 * is larger than the maximum number of permits, the peers are split up.
+	 */
 	private void doSend(final Number160 messageKey,
 			final NavigableMap<Number640, Data> dataMap, final int hopCounter,
-			final boolean isUDP, final PeerAddress peerAddress,
-			final int bucketNr) {
+			final boolean isUDP, final List<PeerAddress> list) {
+		final int maxPermits = isUDP ? peer.connectionBean()
+				.resourceConfiguration().maxPermitsUDP() : peer
+				.connectionBean().resourceConfiguration().maxPermitsTCP();
+		for (int i = 0; i < list.size(); i += maxPermits) {
+			final Map<PeerAddress, Integer> peerAddresses = new LinkedHashMap<PeerAddress, Integer>();
+			for (final PeerAddress peerAddress : list.subList(i,
+					Math.min(i + maxPermits, list.size()))) {
+				peerAddresses.put(peerAddress, PeerMap.classMember(
+						peerAddress.peerId(), peer.peerID()));
+			}
+			doSend(messageKey, dataMap, hopCounter, isUDP, peerAddresses);
+		}
+	}
 
+	private void doSend(final Number160 messageKey,
+			final NavigableMap<Number640, Data> dataMap, final int hopCounter,
+			final boolean isUDP, final Map<PeerAddress, Integer> peerAddresses) {
+		final int size = peerAddresses.size();
 		FutureChannelCreator frr = peer.connectionBean().reservation()
-				.create(isUDP ? 1 : 0, isUDP ? 0 : 1);
+				.create(isUDP ? size : 0, isUDP ? 0 : size);
 		frr.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
 			@Override
 			public void operationComplete(final FutureChannelCreator future)
@@ -185,14 +202,13 @@ public class StructuredBroadcastHandler implements BroadcastHandler {
 					broadcastBuilder.dataMap(dataMap);
 					broadcastBuilder.hopCounter(hopCounter + 1);
 					broadcastBuilder.udp(isUDP);
-					FutureResponse futureResponse = peer.broadcastRPC()
-							.send(peerAddress, broadcastBuilder,
-									future.channelCreator(), broadcastBuilder,
-									bucketNr);
-					LOG.debug("send to {}", peerAddress);
-					messageCounter.incrementAndGet();
+					List<FutureResponse> futureResponses = peer.broadcastRPC()
+							.send(peerAddresses, broadcastBuilder,
+									future.channelCreator(), broadcastBuilder);
+					LOG.debug("send to {}", peerAddresses.keySet());
+					messageCounter.addAndGet(size);
 					Utils.addReleaseListener(future.channelCreator(),
-							futureResponse);
+							futureResponses.toArray(new FutureResponse[size]));
 				} else {
 					Utils.addReleaseListener(future.channelCreator());
 				}
@@ -16,10 +16,18 @@
 
 package net.tomp2p.p2p.builder;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.DefaultConnectionConfiguration;
 
 import net.tomp2p.connection.Ports;
 import net.tomp2p.futures.BaseFutureAdapter;
@@ -27,12 +35,17 @@ import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FuturePing;
+import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FutureRouting;
 import net.tomp2p.futures.FutureWrappedBootstrap;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.RoutingConfiguration;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapChangeListener;
+import net.tomp2p.peers.PeerMapSnapshot;
+import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.utils.Pair;
 import net.tomp2p.utils.Utils;
 
@@ -44,11 +57,19 @@ import org.slf4j.LoggerFactory;
  * connection settings using the "peerAddress" argument . Then the routing is initiated to the peers specified in
  * "bootstrapTo". Please be aware that in order to boostrap, you need to know the peer ID of all peers in the "bootstrapTo" collection.
  * Passing Number160.ZERO does *not* work.
+ * <p>
+ * If the peer has a {@link PeerMapSnapshot}, the peers of the snapshot are pinged in parallel to the routing, and the
+ * ones that reply are added to the peer map. If the seeds cannot be reached, the routing starts from these peers. With
+ * a snapshot, no seeds are needed at all. If {@link #minFilledBags(int)} is set, the bootstrap is done as soon as the
+ * peer map has that many filled bags, while the routing continues in the background.
  */
 
 public class BootstrapBuilder {
     private static final Logger logger = LoggerFactory.getLogger(BootstrapBuilder.class);
 
+    // the number of seeds that are contacted concurrently if no routing configuration is set
+    private static final int MAX_PARALLEL_SEEDS = 4;
+
     private static final FutureBootstrap FUTURE_BOOTSTRAP_SHUTDOWN = new FutureWrappedBootstrap<FutureBootstrap>()
             .failed0("Peer is shutting down.");
 
@@ -71,6 +92,10 @@ public class BootstrapBuilder {
 
     private boolean forceRoutingOnlyToSelf = false;
 
+    private int minFilledBags = 0;
+
+    private boolean verifySnapshot = true;
+
     public BootstrapBuilder(Peer peer) {
         this.peer = peer;
     }
@@ -168,13 +193,48 @@ public class BootstrapBuilder {
         return this;
     }
 
+    public int minFilledBags() {
+        return minFilledBags;
+    }
+
+    /**
+     * @param minFilledBags
+     *            The number of filled bags in the peer map after which the bootstrap is done, 0 to wait for the
+     *            routing to finish
+     * @return this instance
+     */
+    public BootstrapBuilder minFilledBags(int minFilledBags) {
+        this.minFilledBags = minFilledBags;
+        return this;
+    }
+
+    public boolean isVerifySnapshot() {
+        return verifySnapshot;
+    }
+
+    /**
+     * @param verifySnapshot
+     *            True to ping the peers of the peer map snapshot, if the peer has one
+     * @return this instance
+     */
+    public BootstrapBuilder verifySnapshot(boolean verifySnapshot) {
+        this.verifySnapshot = verifySnapshot;
+        return this;
+    }
+
     public FutureBootstrap start() {
         if (peer.isShutdown()) {
             return FUTURE_BOOTSTRAP_SHUTDOWN;
         }
 
+        final List<PeerAddress> snapshot = verifySnapshot ? loadSnapshot() : Collections.<PeerAddress> emptyList();
         if (routingConfiguration == null) {
-            routingConfiguration = new RoutingConfiguration(8, 10, 2);
+            // contact several seeds concurrently
+            final int seeds = bootstrapTo == null ? 1 : bootstrapTo.size();
+            routingConfiguration = new RoutingConfiguration(8, 10, Math.max(2, Math.min(seeds, MAX_PARALLEL_SEEDS)));
+        }
+        if (peerAddress == null && inetAddress == null && bootstrapTo == null && !snapshot.isEmpty()) {
+            return bootstrap(snapshot);
         }
         if (peerAddress == null && inetAddress != null && bootstrapTo == null) {
             peerAddress = new PeerAddress(Number160.ZERO, inetAddress, portTCP, portUDP);
@@ -184,34 +244,220 @@ public class BootstrapBuilder {
         if (peerAddress != null && bootstrapTo == null) {
             bootstrapTo = new ArrayList<PeerAddress>(1);
             bootstrapTo.add(peerAddress);
-            return bootstrap();
+            return bootstrap(snapshot);
         } 
         if (bootstrapTo != null) {
-            return bootstrap();
+            return bootstrap(snapshot);
         }
         return FUTURE_BOOTSTRAP_NO_ADDRESS;
     }
 
-    private FutureBootstrap bootstrap() {
+    private FutureBootstrap bootstrap(final List<PeerAddress> snapshot) {
         final FutureWrappedBootstrap<FutureDone<Pair<FutureRouting,FutureRouting>>> result = new FutureWrappedBootstrap<FutureDone<Pair<FutureRouting,FutureRouting>>>();
-        result.bootstrapTo(bootstrapTo);
+        final FutureDone<Pair<FutureRouting,FutureRouting>> futureBootstrap = new FutureDone<Pair<FutureRouting,FutureRouting>>();
+        result.bootstrapTo(bootstrapTo == null ? snapshot : bootstrapTo);
+        result.waitFor(futureBootstrap);
+        if (minFilledBags > 0) {
+            waitForFilledBags(futureBootstrap);
+        }
+        final FutureDone<List<PeerAddress>> futureVerified = verify(snapshot);
+        if (bootstrapTo == null) {
+            // only the snapshot is known, start the routing from the peers that replied
+            futureVerified.addListener(new BaseFutureAdapter<FutureDone<List<PeerAddress>>>() {
+                @Override
+                public void operationComplete(final FutureDone<List<PeerAddress>> future) throws Exception {
+                    if (future.isSuccess() && !future.object().isEmpty()) {
+                        routing(future.object()).addListener(forward(futureBootstrap));
+                    } else {
+                        futureBootstrap.failed("No peer of the snapshot replied");
+                    }
+                }
+            });
+            return result;
+        }
+        routing(bootstrapTo).addListener(new BaseFutureAdapter<FutureDone<Pair<FutureRouting,FutureRouting>>>() {
+            @Override
+            public void operationComplete(final FutureDone<Pair<FutureRouting,FutureRouting>> future) throws Exception {
+                if (future.isSuccess()) {
+                    futureBootstrap.done(future.object());
+                    return;
+                }
+                // the seeds are not reachable, try the peers of the snapshot
+                futureVerified.addListener(new BaseFutureAdapter<FutureDone<List<PeerAddress>>>() {
+                    @Override
+                    public void operationComplete(final FutureDone<List<PeerAddress>> verified) throws Exception {
+                        if (verified.isSuccess() && !verified.object().isEmpty()) {
+                            routing(verified.object()).addListener(forward(futureBootstrap));
+                        } else {
+                            futureBootstrap.failed(future);
+                        }
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    private FutureDone<Pair<FutureRouting,FutureRouting>> routing(final Collection<PeerAddress> startPeers) {
+        final FutureDone<Pair<FutureRouting,FutureRouting>> futureRouting = new FutureDone<Pair<FutureRouting,FutureRouting>>();
         int conn = routingConfiguration.parallel();
         FutureChannelCreator fcc = peer.connectionBean().reservation().create(conn, 0);
-        Utils.addReleaseListener(fcc, result);
+        // the routing may continue after the bootstrap is done, see minFilledBags
+        Utils.addReleaseListener(fcc, futureRouting);
         fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
             @Override
             public void operationComplete(final FutureChannelCreator futureChannelCreator) throws Exception {
                 if (futureChannelCreator.isSuccess()) {
                     RoutingBuilder routingBuilder = createBuilder(routingConfiguration, forceRoutingOnlyToSelf);
                     FutureDone<Pair<FutureRouting,FutureRouting>> futureBootstrap = peer.distributedRouting().bootstrap(
-                            bootstrapTo, routingBuilder, futureChannelCreator.channelCreator());
-                    result.waitFor(futureBootstrap);
+                            startPeers, routingBuilder, futureChannelCreator.channelCreator());
+                    futureBootstrap.addListener(forward(futureRouting));
                 } else {
-                    result.failed(futureChannelCreator);
+                    futureRouting.failed(futureChannelCreator);
+                }
+            }
+        });
+        return futureRouting;
+    }
+
+    private static BaseFutureAdapter<FutureDone<Pair<FutureRouting,FutureRouting>>> forward(
+            final FutureDone<Pair<FutureRouting,FutureRouting>> target) {
+        return new BaseFutureAdapter<FutureDone<Pair<FutureRouting,FutureRouting>>>() {
+            @Override
+            public void operationComplete(final FutureDone<Pair<FutureRouting,FutureRouting>> future) throws Exception {
+                if (future.isSuccess()) {
+                    target.done(future.object());
+                } else {
+                    target.failed(future);
+                }
+            }
+        };
+    }
+
+    /**
+     * Completes the bootstrap as soon as the peer map has {@link #minFilledBags()} filled bags.
+     */
+    private void waitForFilledBags(final FutureDone<Pair<FutureRouting,FutureRouting>> futureBootstrap) {
+        final PeerMap peerMap = peer.peerBean().peerMap();
+        final PeerMapChangeListener listener = new PeerMapChangeListener() {
+            @Override
+            public void peerInserted(final PeerAddress peerAddress, final boolean verified) {
+                if (verified && peerMap.nrFilledBags() >= minFilledBags) {
+                    logger.debug("Bootstrap done with {} filled bags.", minFilledBags);
+                    futureBootstrap.done();
+                }
+            }
+
+            @Override
+            public void peerRemoved(final PeerAddress peerAddress, final PeerStatistic storedPeerAddress) {
+            }
+
+            @Override
+            public void peerUpdated(final PeerAddress peerAddress, final PeerStatistic storedPeerAddress) {
+            }
+        };
+        peerMap.addPeerMapChangeListener(listener);
+        futureBootstrap.addListener(new BaseFutureAdapter<FutureDone<Pair<FutureRouting,FutureRouting>>>() {
+            @Override
+            public void operationComplete(final FutureDone<Pair<FutureRouting,FutureRouting>> future) throws Exception {
+                // the future may complete in peerInserted, while the peer map iterates over its listeners
+                try {
+                    peer.connectionBean().timer().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            peerMap.removePeerMapChangeListener(listener);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Peer is shutting down, listener not removed.", e);
+                }
+            }
+        });
+        if (peerMap.nrFilledBags() >= minFilledBags) {
+            futureBootstrap.done();
+        }
+    }
+
+    private List<PeerAddress> loadSnapshot() {
+        final PeerMapSnapshot peerMapSnapshot = peer.peerBean().peerMapSnapshot();
+        if (peerMapSnapshot == null) {
+            return Collections.emptyList();
+        }
+        try {
+            final List<PeerAddress> snapshot = peerMapSnapshot.load();
+            // ourself may be in the snapshot of a different peer
+            snapshot.remove(peer.peerAddress());
+            return snapshot;
+        } catch (IOException e) {
+            logger.warn("Could not load the peer map snapshot {}.", peerMapSnapshot.file(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Pings the peers of the snapshot over UDP. Only as many pings as the routing runs in parallel are in flight, so
+     * that the verification does not hold the UDP permits that other requests need. A new ping is sent as soon as one
+     * completes. The peers that reply are added to the peer map by the handshake.
+     * 
+     * @param snapshot
+     *            The peers of the snapshot, the most important first
+     * @return The future with the peers that replied
+     */
+    private FutureDone<List<PeerAddress>> verify(final List<PeerAddress> snapshot) {
+        final FutureDone<List<PeerAddress>> futureDone = new FutureDone<List<PeerAddress>>();
+        if (snapshot.isEmpty()) {
+            return futureDone.done(Collections.<PeerAddress> emptyList());
+        }
+        final List<PeerAddress> candidates = snapshot.subList(0,
+                Math.min(snapshot.size(), peer.connectionBean().resourceConfiguration().maxPermitsUDP()));
+        final int parallel = Math.min(candidates.size(), Math.max(1, routingConfiguration.parallel()));
+        final FutureChannelCreator fcc = peer.connectionBean().reservation().create(parallel, 0);
+        fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (!future.isSuccess()) {
+                    futureDone.failed(future);
+                    return;
+                }
+                final List<PeerAddress> replied = new ArrayList<PeerAddress>();
+                final AtomicInteger next = new AtomicInteger(parallel);
+                final AtomicInteger counter = new AtomicInteger(candidates.size());
+                for (int i = 0; i < parallel; i++) {
+                    ping(future.channelCreator(), candidates, i, next, counter, replied, futureDone);
+                }
+            }
+        });
+        return futureDone;
+    }
+
+    /**
+     * Pings one peer of the snapshot and the next peer once the ping completes, the permit of the ping is released
+     * before the response is reported.
+     */
+    private void ping(final ChannelCreator channelCreator, final List<PeerAddress> candidates, final int index,
+            final AtomicInteger next, final AtomicInteger counter, final List<PeerAddress> replied,
+            final FutureDone<List<PeerAddress>> futureDone) {
+        final FutureResponse futureResponse = peer.pingRPC().pingUDP(candidates.get(index), channelCreator,
+                new DefaultConnectionConfiguration());
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(final FutureResponse future) throws Exception {
+                synchronized (replied) {
+                    if (future.isSuccess()) {
+                        replied.add(future.responseMessage().sender());
+                    }
+                }
+                final int nextIndex = next.getAndIncrement();
+                if (nextIndex < candidates.size()) {
+                    ping(channelCreator, candidates, nextIndex, next, counter, replied, futureDone);
+                }
+                if (counter.decrementAndGet() == 0) {
+                    logger.debug("{} of {} peers of the snapshot replied.", replied.size(), candidates.size());
+                    channelCreator.shutdown();
+                    futureDone.done(replied);
                 }
             }
         });
-        return result;
     }
 
     static RoutingBuilder createBuilder(RoutingConfiguration routingConfiguration, boolean forceRoutingOnlyToSelf) {
@@ -236,7 +482,7 @@ public class BootstrapBuilder {
                     bootstrapTo = new ArrayList<PeerAddress>(1);
                     bootstrapTo.add(peerAddress);
                     result.bootstrapTo(bootstrapTo);
-                    result.waitFor(bootstrap());
+                    result.waitFor(bootstrap(Collections.<PeerAddress> emptyList()));
                 } else {
                     result.failed("Could not reach anyone with bootstrap");
                 }
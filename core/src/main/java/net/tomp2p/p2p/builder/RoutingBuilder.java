@@ -6,6 +6,7 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
 import net.tomp2p.connection.DefaultConnectionConfiguration;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.futures.Trace;
 import net.tomp2p.p2p.PostRoutingFilter;
 import net.tomp2p.p2p.RoutingMechanism;
 import net.tomp2p.peers.Number160;
@@ -37,6 +38,7 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
     private boolean isBootstrap;
     private boolean isForceRoutingOnlyToSelf;
     private boolean isRoutingToOthers;
+    private Trace trace;
 
     public Number160 locationKey() {
         return locationKey;
@@ -208,4 +210,16 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
 	public Number640 to() {
 		return to;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return The trace that records a span for each routing hop, or null if routing is not traced
+	 */
+	public Trace trace() {
+		return trace;
+	}
+
+	public RoutingBuilder trace(Trace trace) {
+		this.trace = trace;
+		return this;
+	}
+}
@@ -175,7 +175,7 @@ public class SendDirectBuilder implements ConnectionConfiguration, SendDirectBui
 		}
 		
 		Message message = peer.directDataRPC().sendInternal0(remotePeer, this);
-    	final FutureDirect futureResponse = new FutureDirect(message, isRaw());
+    	final FutureDirect futureResponse = new FutureDirect(message, isRaw(), peer.peerBean().objectCodec());
 
 		final RequestHandler<FutureResponse> request = peer.directDataRPC().sendInternal(futureResponse, this);
 		if (keepAlive) {
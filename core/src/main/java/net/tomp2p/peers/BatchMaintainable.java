@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.peers;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link Maintainable} that returns the peers that need maintenance in batches. The maintenance task asks other
+ * maintainables for one peer after the other.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public interface BatchMaintainable extends Maintainable {
+
+    /**
+     * @param notInterestedAddresses
+     *            The peers that should not be returned, e.g., because they are already checked
+     * @param max
+     *            The maximum number of peers to return
+     * @return The peers that need maintenance, the most important first, or an empty list
+     */
+    List<PeerStatistic> nextForMaintenance(Set<PeerAddress> notInterestedAddresses, int max);
+}
@@ -16,9 +16,11 @@
 
 package net.tomp2p.peers;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import net.tomp2p.utils.ConcurrentCacheMap;
@@ -32,7 +34,7 @@ import org.slf4j.LoggerFactory;
  * @author Thomas Bocek
  * 
  */
-public class DefaultMaintenance implements Maintenance {
+public class DefaultMaintenance implements BatchMaintenance {
     
     private static final Logger LOG = LoggerFactory.getLogger(DefaultMaintenance.class);
 
@@ -45,6 +47,9 @@ public class DefaultMaintenance implements Maintenance {
     private final ConcurrentCacheMap<Number160, PeerAddress> shutdownMap;
     private final ConcurrentCacheMap<Number160, PeerAddress> exceptionMap;
 
+    // the bag where the last batch was filled, the next batch continues there
+    private volatile int nextBag = 0;
+
     /**
      * Creates a new maintenance class with the verified and non verified map.
      * 
@@ -117,12 +122,62 @@ public class DefaultMaintenance implements Maintenance {
      * @return The next most important peer to check if it is still alive.
      */
     public PeerStatistic nextForMaintenance(Collection<PeerAddress> notInterestedAddresses) {
+        final List<PeerStatistic> result = new ArrayList<PeerStatistic>(1);
+        scan(notInterestedAddresses, 1, 0, result);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Finds up to max peers that should have a maintenance check. The scan continues at the bag where the previous
+     * batch was filled and wraps around, thus the bags are walked once over several batches instead of once per
+     * batch. Only if all bags were walked without filling the batch, the next scan starts again with the closest bag.
+     * 
+     * @param notInterestedAddresses
+     *            The peers that should not be returned, e.g., because they are checked already
+     * @param max
+     *            The maximum number of peers to return
+     * @return The peers to check if they are still alive, or an empty list
+     */
+    @Override
+    public List<PeerStatistic> nextForMaintenance(Set<PeerAddress> notInterestedAddresses, int max) {
+        final List<PeerStatistic> result = new ArrayList<PeerStatistic>();
+        final int filledBag = scan(notInterestedAddresses, max, nextBag, result);
+        nextBag = filledBag < 0 ? 0 : filledBag;
+        return result;
+    }
+
+    /**
+     * Adds the peers that need maintenance to the result, starting with the given bag and wrapping around.
+     * 
+     * @param notInterestedAddresses
+     *            The peers that are not added
+     * @param max
+     *            The maximum size of the result
+     * @param start
+     *            The bag to start with
+     * @param result
+     *            The peers that need maintenance
+     * @return The bag in which the result reached max peers, or -1 if all bags were scanned
+     */
+    private int scan(final Collection<PeerAddress> notInterestedAddresses, final int max, final int start,
+            final List<PeerStatistic> result) {
         if (peerMapVerified == null || peerMapNonVerified == null || offlineMap == null 
                 || shutdownMap == null || exceptionMap == null) {
             throw new IllegalArgumentException("Did not initialize some of the maintenance maps.");
         }
+        // the urgency may depend on the peers in the closer bags, which are only counted
         int peersBefore = 0;
-        for (int i = 0; i < Number160.BITS; i++) {
+        for (int i = 0; i < start; i++) {
+            final Map<Number160, PeerStatistic> mapVerified = peerMapVerified.get(i);
+            synchronized (mapVerified) {
+                peersBefore += mapVerified.size();
+            }
+        }
+        for (int j = 0; j < Number160.BITS; j++) {
+            final int i = (start + j) % Number160.BITS;
+            if (i == 0) {
+                peersBefore = 0;
+            }
             final Map<Number160, PeerStatistic> mapVerified = peerMapVerified.get(i);
             boolean urgent = false;
             synchronized (mapVerified) {
@@ -131,39 +186,45 @@ public class DefaultMaintenance implements Maintenance {
                 urgent = isUrgent(i, size, peersBefore);
             }
             if (urgent) {
-                final Map<Number160, PeerStatistic> mapNonVerified = peerMapNonVerified.get(i);
-                final PeerStatistic readyForMaintenance = next(mapNonVerified);
-                if (readyForMaintenance != null
-                        && !notInterestedAddresses.contains(readyForMaintenance.peerAddress())) {
-                    LOG.debug("check peer {} from the non-verified map.", readyForMaintenance.peerAddress());
-                    return readyForMaintenance;
+                final int before = result.size();
+                next(peerMapNonVerified.get(i), notInterestedAddresses, max, result);
+                if (result.size() > before) {
+                    LOG.debug("check {} peers from the non-verified map.", result.size() - before);
                 }
             }
-            final PeerStatistic readyForMaintenance = next(mapVerified);
-            if (readyForMaintenance != null
-                    && !notInterestedAddresses.contains(readyForMaintenance.peerAddress())) {
-                return readyForMaintenance;
+            next(mapVerified, notInterestedAddresses, max, result);
+            if (result.size() >= max) {
+                return i;
             }
         }
-        return null;
+        return -1;
     }
 
     /**
-     * Returns a peer with its statistics from a bag that needs maintenance.
+     * Adds the peers of a bag that need maintenance to the result until it contains max peers.
      * 
      * @param map
      *            The bag with all the peers
-     * @return A peer that needs maintenance
+     * @param notInterestedAddresses
+     *            The peers that are not added
+     * @param max
+     *            The maximum size of the result
+     * @param result
+     *            The peers that need maintenance
      */
-    private PeerStatistic next(final Map<Number160, PeerStatistic> map) {
+    private void next(final Map<Number160, PeerStatistic> map, final Collection<PeerAddress> notInterestedAddresses,
+            final int max, final List<PeerStatistic> result) {
         synchronized (map) {
             for (PeerStatistic peerStatistic : map.values()) {
-                if (needMaintenance(peerStatistic, intervalSeconds)) {
-                    return peerStatistic;
+                if (result.size() >= max) {
+                    return;
+                }
+                if (!notInterestedAddresses.contains(peerStatistic.peerAddress())
+                        && needMaintenance(peerStatistic, intervalSeconds)) {
+                    result.add(peerStatistic);
                 }
             }
         }
-        return null;
     }
 
     /**
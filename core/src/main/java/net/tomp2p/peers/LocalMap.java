@@ -1,6 +1,9 @@
 package net.tomp2p.peers;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PeerException;
@@ -9,7 +12,7 @@ import net.tomp2p.utils.ConcurrentCacheMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class LocalMap implements Maintainable, PeerStatusListener {
+public class LocalMap implements BatchMaintainable, PeerStatusListener {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(LocalMap.class);
 	final private Number160 self;
@@ -42,6 +45,21 @@ public class LocalMap implements Maintainable, PeerStatusListener {
 	    return null;
     }
 
+    @Override
+    public List<PeerStatistic> nextForMaintenance(Set<PeerAddress> notInterestedAddresses, int max) {
+    	final List<PeerStatistic> result = new ArrayList<PeerStatistic>();
+    	for(PeerStatistic peerStatistic:localMap.values()) {
+    		if(result.size() >= max) {
+    			break;
+    		}
+	    	if(DefaultMaintenance.needMaintenance(peerStatistic, intervalSeconds)
+	    			&& !notInterestedAddresses.contains(peerStatistic.peerAddress())) {
+	    		result.add(peerStatistic);
+	    	}
+	    }
+	    return result;
+    }
+
 	@Override
     public boolean peerFailed(PeerAddress remotePeer, PeerException exception) {
 		PeerStatistic ps = localMap.remove(remotePeer.peerId());
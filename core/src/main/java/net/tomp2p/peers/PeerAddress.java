@@ -736,7 +736,7 @@ public final class PeerAddress implements Comparable<PeerAddress>, Serializable
      *            The option field, lowest 8 bit
      * @return <code>True</code> if its IPv6
      */
-    private static boolean isNet6(final int options) {
+    public static boolean isNet6(final int options) {
         return ((options & Utils.MASK_FF) & NET6) > 0;
     }
 
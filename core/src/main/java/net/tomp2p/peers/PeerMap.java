@@ -24,8 +24,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PeerException;
@@ -40,10 +43,14 @@ import org.slf4j.LoggerFactory;
 /**
  * This routing implementation uses is based on Kademlia. However, many changes have been applied to make it faster and
  * more flexible. This class is partially thread-safe.
+ * <p>
+ * Writers lock the bag they change. Every change of a verified bag publishes a new {@link PeerMapView}, which copies
+ * only the changed bag. The lookups of the verified peers, e.g., {@link #closePeers(Number160, int)}, read the current
+ * view and never block on writers.
  * 
  * @author Thomas Bocek
  */
-public class PeerMap implements PeerStatusListener, Maintainable {
+public class PeerMap implements PeerStatusListener, BatchMaintainable {
 	
     private static final Logger LOG = LoggerFactory.getLogger(PeerMap.class);
 
@@ -54,9 +61,12 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     // the id of this node
     private final Number160 self;
 
-    // the storage for the peers that are verified
+    // the storage for the peers that are verified, changes need to be published in the view
     private final List<Map<Number160, PeerStatistic>> peerMapVerified;
 
+    // the immutable copy of the verified peers for the readers
+    private final AtomicReference<PeerMapView> view = new AtomicReference<PeerMapView>(PeerMapView.empty());
+
     // the storage for the peers that are not verified or overflown
     private final List<Map<Number160, PeerStatistic>> peerMapOverflow;
 
@@ -65,7 +75,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     private final ConcurrentCacheMap<Number160, PeerAddress> exceptionMap;
 
     // stores listeners that will be notified if a peer gets removed or added
-    private final List<PeerMapChangeListener> peerMapChangeListeners = new ArrayList<PeerMapChangeListener>();
+    private final List<PeerMapChangeListener> peerMapChangeListeners = new CopyOnWriteArrayList<PeerMapChangeListener>();
 
     private final Collection<PeerMapFilter> peerMapFilters;
 
@@ -78,6 +88,9 @@ public class PeerMap implements PeerStatusListener, Maintainable {
 
     private PeerStatisticComparator peerStatisticComparator;
 
+    // -1 if proximity neighbor selection is disabled
+    private final int proximityThresholdMillis;
+
     /**
      * Creates the bag for the peers. This peer knows a lot about close peers and the further away the peers are, the
      * less known they are. Distance is measured with XOR of the peer ID. The distance of peer with ID 0x12 and peer
@@ -109,6 +122,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
                 offlineMap, shutdownMap, exceptionMap);
         this.peerVerification = peerMapConfiguration.isPeerVerification();
         this.peerStatisticComparator = peerMapConfiguration.getPeerStatisticComparator();
+        this.proximityThresholdMillis = peerMapConfiguration.proximityThresholdMillis();
 
     }
 
@@ -158,10 +172,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      *            The listener
      */
     public void addPeerMapChangeListener(final PeerMapChangeListener peerMapChangeListener) {
-        synchronized (peerMapChangeListeners) {
-            peerMapChangeListeners.add(peerMapChangeListener);
-        }
-
+        peerMapChangeListeners.add(peerMapChangeListener);
     }
 
     /**
@@ -171,13 +182,12 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      *            The listener
      */
     public void removePeerMapChangeListener(final PeerMapChangeListener peerMapChangeListener) {
-        synchronized (peerMapChangeListeners) {
-            peerMapChangeListeners.remove(peerMapChangeListener);
-        }
+        peerMapChangeListeners.remove(peerMapChangeListener);
     }
 
     /**
-     * Notifies on insert. This is called after the peer has been added to the map.
+     * Notifies on insert. This is called after the peer has been added to the map. The listeners are called without a
+     * lock, so they may be called concurrently.
      * 
      * @param peerAddress
      *            The address of the inserted peer
@@ -185,10 +195,8 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      *            True if the peer was inserted into the verified map
      */
     private void notifyInsert(final PeerAddress peerAddress, final boolean verified) {
-        synchronized (peerMapChangeListeners) {
-            for (PeerMapChangeListener listener : peerMapChangeListeners) {
-                listener.peerInserted(peerAddress, verified);
-            }
+        for (PeerMapChangeListener listener : peerMapChangeListeners) {
+            listener.peerInserted(peerAddress, verified);
         }
     }
 
@@ -201,10 +209,8 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      *            Contains statistical information
      */
     private void notifyRemove(final PeerAddress peerAddress, final PeerStatistic storedPeerAddress) {
-        synchronized (peerMapChangeListeners) {
-            for (PeerMapChangeListener listener : peerMapChangeListeners) {
-                listener.peerRemoved(peerAddress, storedPeerAddress);
-            }
+        for (PeerMapChangeListener listener : peerMapChangeListeners) {
+            listener.peerRemoved(peerAddress, storedPeerAddress);
         }
     }
 
@@ -217,10 +223,8 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      *            Contains statistical information
      */
     private void notifyUpdate(final PeerAddress peerAddress, final PeerStatistic storedPeerAddress) {
-        synchronized (peerMapChangeListeners) {
-            for (PeerMapChangeListener listener : peerMapChangeListeners) {
-                listener.peerUpdated(peerAddress, storedPeerAddress);
-            }
+        for (PeerMapChangeListener listener : peerMapChangeListeners) {
+            listener.peerUpdated(peerAddress, storedPeerAddress);
         }
     }
 
@@ -230,13 +234,33 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return the total number of peers
      */
     public int size() {
-        int size = 0;
-        for (Map<Number160, PeerStatistic> map : peerMapVerified) {
-            synchronized (map) {
-                size += map.size();
+        return view.get().size();
+    }
+
+    /**
+     * @return The current immutable view of the verified peers
+     */
+    public PeerMapView view() {
+        return view.get();
+    }
+
+    /**
+     * Publishes the new content of a verified bag. This needs to be called while holding the lock of the bag, so that
+     * the changes of a bag are published in order.
+     * 
+     * @param classMember
+     *            The bag that changed
+     * @param map
+     *            The content of the bag
+     */
+    private void publish(final int classMember, final Map<Number160, PeerStatistic> map) {
+        final PeerStatistic[] peerStatistics = map.values().toArray(new PeerStatistic[map.size()]);
+        while (true) {
+            final PeerMapView current = view.get();
+            if (view.compareAndSet(current, current.replace(classMember, peerStatistics))) {
+                return;
             }
         }
-        return size;
     }
 
     /**
@@ -271,6 +295,9 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @param referrer
      *            If we had direct contact and we know for sure that this node is online, we set firsthand to true.
      *            Information from 3rd party peers are always second hand and treated as such
+     * @param peerConnection
+     *            An open persistent connection to the peer or null. It is stored in the PeerStatistic, so that
+     *            requests to this peer can reuse it, see {@link #peerConnection(PeerAddress)}
      * @param roundTripTime
      *            A RTT object, that measured the round-trip-time related to the finding of this peer. This is
      *            will be saved into the PeerStatistic
@@ -325,6 +352,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         final PeerStatistic oldPeerStatistic = updateExistingVerifiedPeerAddress(
                 peerMapVerified.get(classMember), remotePeer, firstHand, roundTripTime);
         if (oldPeerStatistic != null) {
+            oldPeerStatistic.peerConnection(peerConnection);
             // we update the peer, so we can exit here and report that we have
             // updated it.
             notifyUpdate(remotePeer, oldPeerStatistic);
@@ -342,7 +370,9 @@ public class PeerMap implements PeerStatusListener, Maintainable {
                         final PeerStatistic peerStatistic = new PeerStatistic(remotePeer);
                         peerStatistic.successfullyChecked();
                         peerStatistic.addRTT(roundTripTime);
+                        peerStatistic.peerConnection(peerConnection);
                         map.put(remotePeer.peerId(), peerStatistic);
+                        publish(classMember, map);
                         insterted = true;
                     }
                 }
@@ -373,13 +403,90 @@ public class PeerMap implements PeerStatusListener, Maintainable {
             if (thirdHand && roundTripTime != null) {
                 peerStatistic.addRTT(roundTripTime.setEstimated());
             }
+            peerStatistic.peerConnection(peerConnection);
             mapOverflow.put(remotePeer.peerId(), peerStatistic);
         }
 
+        // only a peer that we have just seen online may replace a verified peer
+        if (firstHand && proximityThresholdMillis >= 0) {
+            final PeerStatistic replaced = replaceSlowest(classMember, remotePeer.peerId());
+            if (replaced != null) {
+                LOG.debug("Peer {} replaced the slower peer {}.", remotePeer, replaced.peerAddress());
+                notifyRemove(replaced.peerAddress(), replaced);
+                notifyInsert(remotePeer, true);
+                return true;
+            }
+        }
+
         notifyInsert(remotePeer, false);
         return true;
     }
 
+    /**
+     * Proximity neighbor selection: a peer of the overflow bag replaces the verified peer with the highest mean RTT of
+     * the same bag, if it is faster by more than the threshold. Any peer in a bag satisfies the routing, so this only
+     * lowers the latency per hop. Peers without measured RTTs are neither replaced nor replacing. The replaced peer is
+     * still online and moves to the overflow bag.
+     * 
+     * @param classMember
+     *            The bag of the peer
+     * @param peerId
+     *            The ID of the peer in the overflow bag
+     * @return The peer that has been replaced or null if the peer stays in the overflow bag
+     */
+    private PeerStatistic replaceSlowest(final int classMember, final Number160 peerId) {
+        final Map<Number160, PeerStatistic> map = peerMapVerified.get(classMember);
+        final Map<Number160, PeerStatistic> mapOverflow = peerMapOverflow.get(classMember);
+        // always lock the verified bag before the overflow bag
+        synchronized (map) {
+            if (map.size() < bagSizesVerified[classMember]) {
+                return null;
+            }
+            synchronized (mapOverflow) {
+                final PeerStatistic candidate = mapOverflow.get(peerId);
+                if (candidate == null) {
+                    // failed in the meantime
+                    return null;
+                }
+                final long candidateRTT = measuredRTT(candidate);
+                if (candidateRTT < 0) {
+                    return null;
+                }
+                PeerStatistic slowest = null;
+                long slowestRTT = -1;
+                for (final PeerStatistic peerStatistic : map.values()) {
+                    final long rtt = measuredRTT(peerStatistic);
+                    if (rtt > slowestRTT) {
+                        slowest = peerStatistic;
+                        slowestRTT = rtt;
+                    }
+                }
+                if (slowest == null || candidateRTT + proximityThresholdMillis >= slowestRTT) {
+                    return null;
+                }
+                final Number160 slowestId = slowest.peerAddress().peerId();
+                map.remove(slowestId);
+                map.put(peerId, candidate);
+                publish(classMember, map);
+                mapOverflow.remove(peerId);
+                mapOverflow.put(slowestId, slowest);
+                return slowest;
+            }
+        }
+    }
+
+    /**
+     * @param peerStatistic
+     *            The statistic of a peer
+     * @return The mean of the measured RTTs or -1 if there are none
+     */
+    private static long measuredRTT(final PeerStatistic peerStatistic) {
+        if (peerStatistic.getRTTCount() == 0 || peerStatistic.containsEstimates()) {
+            return -1;
+        }
+        return peerStatistic.getMeanRTT();
+    }
+
     /**
      * Removes a peer from the list. In order to not reappear, the node is put for a certain time in a cache list to keep
      * the node removed. This method is thread-safe.
@@ -420,6 +527,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
                 synchronized (tmp) {
                     peerStatistic = tmp.remove(remotePeer.peerId());
                     if (peerStatistic != null) {
+                        publish(classMember, tmp);
                         removed = true;
                     }
                 }
@@ -453,10 +561,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
             // -1 means we searched for ourself and we never are our neighbor
             return false;
         }
-        final Map<Number160, PeerStatistic> tmp = peerMapVerified.get(classMember);
-        synchronized (tmp) {
-            return tmp.containsKey(peerAddress.peerId());
-        }
+        return view.get().get(classMember, peerAddress.peerId()) != null;
     }
 
     /**
@@ -478,6 +583,27 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         }
     }
 
+    /**
+     * @param peerAddress
+     *            The peer to look up
+     * @return The open persistent connection to that peer or null if the peer is not in the peer map or there is no
+     *         such connection
+     */
+    public PeerConnection peerConnection(final PeerAddress peerAddress) {
+        final int classMember = classMember(peerAddress.peerId());
+        if (classMember == -1) {
+            return null;
+        }
+        PeerStatistic peerStatistic = view.get().get(classMember, peerAddress.peerId());
+        if (peerStatistic == null) {
+            final Map<Number160, PeerStatistic> mapOverflow = peerMapOverflow.get(classMember);
+            synchronized (mapOverflow) {
+                peerStatistic = mapOverflow.get(peerAddress.peerId());
+            }
+        }
+        return peerStatistic == null ? null : peerStatistic.peerConnection();
+    }
+
     /**
      * Checks if an entry of that peerAddress is available in the verified peer map
      * or overflow peer map.
@@ -493,7 +619,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         }
 
         // Try to find PeerStatistic in verified Map
-        peerStatistic = peerMapVerified().get(classMember).get(peerAddress.peerId());
+        peerStatistic = view.get().get(classMember, peerAddress.peerId());
 
         // If that failed, look in the overflow map
         if (peerStatistic == null) {
@@ -524,13 +650,37 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return A sorted set with close peers first in this set. Use set.first() to get the closest peer
      */
     public NavigableSet<PeerStatistic> closePeers(final Number160 id, final int atLeast) {
-    	return closePeers(self, id, atLeast, peerMapVerified, peerStatisticComparator.getComparator(id));
+    	return closePeers(self, id, atLeast, view.get(), peerStatisticComparator.getComparator(id));
     }
 
     public static NavigableSet<PeerStatistic> closePeers(final Number160 self, final Number160 other,
                                                          final int atLeast,
-                                                         List<Map<Number160, PeerStatistic>> peerMap,
+                                                         final List<Map<Number160, PeerStatistic>> peerMap,
+                                                         Comparator<PeerStatistic> comparator) {
+        return closePeers(self, other, atLeast, comparator, new Bags() {
+            @Override
+            public boolean fill(final int bag, final SortedSet<PeerStatistic> set, final int atLeast) {
+                return fillSet(atLeast, set, peerMap.get(bag));
+            }
+        });
+    }
+
+    public static NavigableSet<PeerStatistic> closePeers(final Number160 self, final Number160 other,
+                                                         final int atLeast, final PeerMapView peerMapView,
                                                          Comparator<PeerStatistic> comparator) {
+        return closePeers(self, other, atLeast, comparator, new Bags() {
+            @Override
+            public boolean fill(final int bag, final SortedSet<PeerStatistic> set, final int atLeast) {
+                for (final PeerStatistic peerStatistic : peerMapView.peers(bag)) {
+                    set.add(peerStatistic);
+                }
+                return set.size() >= atLeast;
+            }
+        });
+    }
+
+    private static NavigableSet<PeerStatistic> closePeers(final Number160 self, final Number160 other,
+            final int atLeast, Comparator<PeerStatistic> comparator, final Bags bags) {
 
         if (comparator == null) comparator = createXORStatisticComparator(other);
         final NavigableSet<PeerStatistic> set = new TreeSet<PeerStatistic>(comparator);
@@ -538,49 +688,56 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         // special treatment, as we can start iterating from 0
         if (classMember == -1) {
             for (int j = 0; j < Number160.BITS; j++) {
-                final Map<Number160, PeerStatistic> tmp = peerMap.get(j);
-                if (fillSet(atLeast, set, tmp)) {
+                if (bags.fill(j, set, atLeast)) {
                     return set;
                 }
             }
             return set;
         }
 
-        Map<Number160, PeerStatistic> tmp = peerMap.get(classMember);
-        if (fillSet(atLeast, set, tmp)) {
+        if (bags.fill(classMember, set, atLeast)) {
             return set;
         }
 
         // in this case we have to go over all the bags that are smaller
         boolean last = false;
         for (int i = 0; i < classMember; i++) {
-            tmp = peerMap.get(i);
-            last = fillSet(atLeast, set, tmp);
+            last = bags.fill(i, set, atLeast);
         }
         if (last) {
             return set;
         }
         // in this case we have to go over all the bags that are larger
         for (int i = classMember + 1; i < Number160.BITS; i++) {
-            tmp = peerMap.get(i);
-            fillSet(atLeast, set, tmp);
+            bags.fill(i, set, atLeast);
         }
         return set;
     }
+
+    /**
+     * The bags of a peer map, either locked maps or a view.
+     */
+    private interface Bags {
+        /**
+         * Adds the peers of a bag to the set.
+         * 
+         * @return True if the set contains at least the desired number of peers
+         */
+        boolean fill(int bag, SortedSet<PeerStatistic> set, int atLeast);
+    }
     
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("I'm node ");
         sb.append(self()).append("\n");
+        final PeerMapView current = view.get();
         for (int i = 0; i < Number160.BITS; i++) {
-            final Map<Number160, PeerStatistic> tmp = peerMapVerified.get(i);
-            synchronized (tmp) {
-                if (tmp.size() > 0) {
-                    sb.append("class:").append(i).append("->\n");
-                    for (final PeerStatistic node : tmp.values()) {
-                        sb.append("node:").append(node.peerAddress()).append(",");
+            final PeerStatistic[] tmp = current.peers(i);
+            if (tmp.length > 0) {
+                sb.append("class:").append(i).append("->\n");
+                for (final PeerStatistic node : tmp) {
+                    sb.append("node:").append(node.peerAddress()).append(",");
 
-                    }
                 }
             }
         }
@@ -602,15 +759,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return All neighbors
      */
     public List<PeerAddress> all() {
-        final List<PeerAddress> all = new ArrayList<PeerAddress>();
-        for (final Map<Number160, PeerStatistic> map : peerMapVerified) {
-            synchronized (map) {
-                for (PeerStatistic peerStatistic : map.values()) {
-                    all.add(peerStatistic.peerAddress());
-                }
-            }
-        }
-        return all;
+        return view.get().all();
     }
     /**
      * 
@@ -623,25 +772,22 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     		return all();
     	}
     	final List<PeerAddress> fromEachBag = new ArrayList<PeerAddress>();
-    	
-    	int bucketCounter = 0;
-    	for (final Map<Number160, PeerStatistic> map : peerMapVerified) {
-    		if(++bucketCounter > maxBucket) {
-				break;
-			}
-    		synchronized (map) {
-    			int neighborCounter = 0;
-    			for (PeerStatistic peerStatistic : map.values()) {
-    				if(++neighborCounter > nrNeighbors) {
-    					break;
-    				}
-    				fromEachBag.add(peerStatistic.peerAddress());
-    			}
+    	final PeerMapView current = view.get();
+    	for (int i = 0; i < Number160.BITS && i < maxBucket; i++) {
+    		final PeerStatistic[] bag = current.peers(i);
+    		for (int j = 0; j < bag.length && j < nrNeighbors; j++) {
+    			fromEachBag.add(bag[j].peerAddress());
     		}
     	}
 	    return fromEachBag;
     }
     
+    /**
+     * @return The verified bags. A bag must only be accessed while holding its lock and must not be modified
+     * @deprecated The bags are the mutable internal state of this map, use {@link #view()} to read the verified peers
+     *             without locking
+     */
+    @Deprecated
     public List<Map<Number160, PeerStatistic>> peerMapVerified() {
     	return peerMapVerified;
     }
@@ -692,6 +838,34 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         return maintenance.nextForMaintenance(notInterestedAddresses);
     }
 
+    /**
+     * Finds up to max peers that should have a maintenance check. If the maintenance class does not find them in
+     * batches, it is asked for one peer after the other.
+     * 
+     * @param notInterestedAddresses
+     *            The peers that should not be returned
+     * @param max
+     *            The maximum number of peers to return
+     * @return The peers to check if they are still alive, or an empty list
+     */
+    @Override
+    public List<PeerStatistic> nextForMaintenance(Set<PeerAddress> notInterestedAddresses, int max) {
+        if (maintenance instanceof BatchMaintenance) {
+            return ((BatchMaintenance) maintenance).nextForMaintenance(notInterestedAddresses, max);
+        }
+        final Set<PeerAddress> excluded = new HashSet<PeerAddress>(notInterestedAddresses);
+        final List<PeerStatistic> result = new ArrayList<PeerStatistic>();
+        while (result.size() < max) {
+            final PeerStatistic peerStatistic = maintenance.nextForMaintenance(excluded);
+            if (peerStatistic == null) {
+                break;
+            }
+            result.add(peerStatistic);
+            excluded.add(peerStatistic.peerAddress());
+        }
+        return result;
+    }
+
     /**
      * Returns the number of the class that this id belongs to.
      * 
@@ -913,15 +1087,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     }
 
 	public int nrFilledBags() {
-		int counter = 0;
-		for (final Map<Number160, PeerStatistic> map : peerMapVerified) {
-            synchronized (map) {
-            	if(map.size() > 0) {
-            		counter++;
-            	}
-            }
-        }
-		return counter;
+		return view.get().nrFilledBags();
 	}
 
 	
@@ -41,6 +41,7 @@ public class PeerMapConfiguration {
     private Maintenance maintenance;
     private boolean peerVerification;
     private PeerStatisticComparator peerStatisticComparator;
+    private int proximityThresholdMillis = -1;
 
     /**
      * Constructor with reasonable defaults.
@@ -328,4 +329,30 @@ public class PeerMapConfiguration {
         this.peerStatisticComparator = peerStatisticComparator;
         return this;
     }
+
+    /**
+     * @return The RTT in milliseconds a peer of the overflow bag needs to be faster than the slowest peer of the full
+     *         verified bag to replace it, or -1 if proximity neighbor selection is disabled
+     */
+    public int proximityThresholdMillis() {
+        return proximityThresholdMillis;
+    }
+
+    /**
+     * Enables proximity neighbor selection. If a verified bag is full and a peer that has just been seen online has a
+     * lower mean RTT than the slowest verified peer by more than the threshold, the two peers swap places. Only
+     * measured RTTs are compared. The default is -1, which disables proximity neighbor selection.
+     * 
+     * @param proximityThresholdMillis
+     *            The RTT in milliseconds a peer needs to be faster to replace a verified peer, or -1 to disable
+     *            proximity neighbor selection
+     * @return this class
+     */
+    public PeerMapConfiguration proximityThresholdMillis(final int proximityThresholdMillis) {
+        if (proximityThresholdMillis < -1) {
+            throw new IllegalArgumentException("The threshold needs to be -1 or positive.");
+        }
+        this.proximityThresholdMillis = proximityThresholdMillis;
+        return this;
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.peers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores the verified peers of a peer map in a file, so that a restarted peer does not need to find its neighbors
+ * from scratch. The peers of a snapshot are not trusted, they need to be verified before they are added to the peer
+ * map again, see {@link net.tomp2p.p2p.builder.BootstrapBuilder}.
+ * <p>
+ * The file contains a version, the number of peers and the peers as length-prefixed serialized peer addresses. A new
+ * snapshot is written to a temporary file first, which then replaces the old snapshot.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class PeerMapSnapshot {
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    /**
+     * @param file
+     *            The file where the snapshot is stored
+     */
+    public PeerMapSnapshot(final File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("A file for the snapshot is needed.");
+        }
+        this.file = file;
+    }
+
+    /**
+     * @return The file where the snapshot is stored
+     */
+    public File file() {
+        return file;
+    }
+
+    /**
+     * Stores the verified peers of the peer map. An empty peer map does not replace an existing snapshot.
+     *
+     * @param peerMap
+     *            The peer map to store
+     * @return The number of peers stored
+     * @throws IOException
+     *             If the snapshot could not be written
+     */
+    public int save(final PeerMap peerMap) throws IOException {
+        final List<PeerAddress> all = peerMap.all();
+        if (all.isEmpty()) {
+            return 0;
+        }
+        save(all);
+        return all.size();
+    }
+
+    /**
+     * Stores the peers, the most important first.
+     *
+     * @param peerAddresses
+     *            The peers to store
+     * @throws IOException
+     *             If the snapshot could not be written
+     */
+    public void save(final Collection<PeerAddress> peerAddresses) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(peerAddresses.size());
+            for (PeerAddress peerAddress : peerAddresses) {
+                final byte[] me = peerAddress.toByteArray();
+                out.writeShort(me.length);
+                out.write(me);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // on some platforms, an existing file cannot be replaced
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Could not replace the snapshot " + file);
+            }
+        }
+    }
+
+    /**
+     * @return The stored peers, the most important first, or an empty list if there is no snapshot
+     * @throws IOException
+     *             If the snapshot could not be read
+     */
+    public List<PeerAddress> load() throws IOException {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown snapshot version " + version);
+            }
+            final int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Corrupt snapshot, size is " + size);
+            }
+            final List<PeerAddress> peerAddresses = new ArrayList<PeerAddress>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                final byte[] me = new byte[in.readUnsignedShort()];
+                in.readFully(me);
+                peerAddresses.add(new PeerAddress(me));
+            }
+            return peerAddresses;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.peers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of the verified bags of a {@link PeerMap}. The peer map publishes a new view with an increased
+ * epoch whenever a peer is inserted into or removed from a verified bag. Readers iterate over a view without locking
+ * and without being blocked by writers. A view is consistent, but may be outdated by the time it is read.
+ * <p>
+ * Only the membership of the bags is copied on write. The {@link PeerStatistic}s are shared with the peer map, so an
+ * updated address or RTT of a peer is visible in older views as well.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public final class PeerMapView {
+
+    private static final PeerStatistic[] EMPTY_BAG = new PeerStatistic[0];
+
+    private final long epoch;
+    private final PeerStatistic[][] bags;
+    // the peers of each bag by their ID
+    private final Map<Number160, PeerStatistic>[] index;
+    private final int size;
+    private final int nrFilledBags;
+
+    private PeerMapView(final long epoch, final PeerStatistic[][] bags, final Map<Number160, PeerStatistic>[] index,
+            final int size, final int nrFilledBags) {
+        this.epoch = epoch;
+        this.bags = bags;
+        this.index = index;
+        this.size = size;
+        this.nrFilledBags = nrFilledBags;
+    }
+
+    /**
+     * @return A view without any peers in epoch 0
+     */
+    @SuppressWarnings("unchecked")
+    static PeerMapView empty() {
+        final PeerStatistic[][] bags = new PeerStatistic[Number160.BITS][];
+        Arrays.fill(bags, EMPTY_BAG);
+        final Map<Number160, PeerStatistic>[] index = new Map[Number160.BITS];
+        Arrays.fill(index, Collections.<Number160, PeerStatistic> emptyMap());
+        return new PeerMapView(0, bags, index, 0, 0);
+    }
+
+    /**
+     * Creates the next view, where one bag has been replaced.
+     *
+     * @param bag
+     *            The bag that changed
+     * @param peerStatistics
+     *            The peers that are now in this bag, the array must not be modified afterwards
+     * @return The view of the next epoch
+     */
+    PeerMapView replace(final int bag, final PeerStatistic[] peerStatistics) {
+        final PeerStatistic[][] newBags = bags.clone();
+        final int oldLength = bags[bag].length;
+        newBags[bag] = peerStatistics.length == 0 ? EMPTY_BAG : peerStatistics;
+        final Map<Number160, PeerStatistic>[] newIndex = index.clone();
+        final Map<Number160, PeerStatistic> bagIndex = new HashMap<Number160, PeerStatistic>(
+                peerStatistics.length * 2);
+        for (final PeerStatistic peerStatistic : peerStatistics) {
+            bagIndex.put(peerStatistic.peerAddress().peerId(), peerStatistic);
+        }
+        newIndex[bag] = bagIndex;
+        int newNrFilledBags = nrFilledBags;
+        if (oldLength == 0 && peerStatistics.length > 0) {
+            newNrFilledBags++;
+        } else if (oldLength > 0 && peerStatistics.length == 0) {
+            newNrFilledBags--;
+        }
+        return new PeerMapView(epoch + 1, newBags, newIndex, size - oldLength + peerStatistics.length,
+                newNrFilledBags);
+    }
+
+    /**
+     * @return The number of changes of the verified bags before this view was published
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * @return The number of verified peers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of bags with at least one verified peer
+     */
+    public int nrFilledBags() {
+        return nrFilledBags;
+    }
+
+    /**
+     * @param bag
+     *            The bag, which is the class member of the peers
+     * @return The verified peers in this bag
+     */
+    public List<PeerStatistic> bag(final int bag) {
+        return Collections.unmodifiableList(Arrays.asList(bags[bag]));
+    }
+
+    /**
+     * @return The addresses of all verified peers, the close bags first
+     */
+    public List<PeerAddress> all() {
+        final List<PeerAddress> all = new ArrayList<PeerAddress>(size);
+        for (final PeerStatistic[] bag : bags) {
+            for (final PeerStatistic peerStatistic : bag) {
+                all.add(peerStatistic.peerAddress());
+            }
+        }
+        return all;
+    }
+
+    /**
+     * @param bag
+     *            The bag where the peer is supposed to be
+     * @param peerId
+     *            The ID of the peer
+     * @return The statistic of the peer or null if the peer is not in this bag
+     */
+    PeerStatistic get(final int bag, final Number160 peerId) {
+        return index[bag].get(peerId);
+    }
+
+    /**
+     * @param bag
+     *            The bag
+     * @return The peers of the bag, must not be modified
+     */
+    PeerStatistic[] peers(final int bag) {
+        return bags[bag];
+    }
+}
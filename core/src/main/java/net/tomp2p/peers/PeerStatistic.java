@@ -19,6 +19,7 @@ import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.utils.FIFOCache;
 
 /**
@@ -49,6 +50,8 @@ public class PeerStatistic {
 
     private long numberOfResponses = 0;
 
+    private volatile PeerConnection peerConnection;
+
     /**
      * Constructor. Sets the peer address
      * 
@@ -162,6 +165,29 @@ public class PeerStatistic {
 		return this;
     }
 
+    /**
+     * @return The open persistent connection to this peer or null if there is none
+     */
+    public PeerConnection peerConnection() {
+        final PeerConnection peerConnection = this.peerConnection;
+        return peerConnection != null && peerConnection.isOpen() ? peerConnection : null;
+    }
+
+    /**
+     * Sets the persistent connection to this peer. An open connection over the same channel is kept, since only one
+     * request at a time can use a connection and the connection object keeps track of that.
+     * 
+     * @param peerConnection
+     *            The connection, which is ignored if it is not open
+     * @return This class
+     */
+    public PeerStatistic peerConnection(final PeerConnection peerConnection) {
+        if (peerConnection != null && peerConnection.isOpen() && !peerConnection.equals(peerConnection())) {
+            this.peerConnection = peerConnection;
+        }
+        return this;
+    }
+
     /**
      * Adds a RTT to the cache. If the provided RTT object is an estimate
      * it will be ignored in case there are already first-hand measurements
@@ -15,6 +15,15 @@
  */
 package net.tomp2p.rpc;
 
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.ConnectionBean;
 import net.tomp2p.connection.ConnectionConfiguration;
@@ -22,13 +31,19 @@ import net.tomp2p.connection.PeerBean;
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.RequestHandler;
 import net.tomp2p.connection.Responder;
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.DataMap;
+import net.tomp2p.message.Encoder;
+import net.tomp2p.message.KeyCollection;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.p2p.BroadcastHandler;
 import net.tomp2p.p2p.builder.BroadcastBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,13 +62,60 @@ public class BroadcastRPC extends DispatchHandler {
 
     public FutureResponse send(final PeerAddress remotePeer, final BroadcastBuilder broadcastBuilder,
             final ChannelCreator channelCreator, final ConnectionConfiguration configuration, int bucketNr) {
+        return send(remotePeer, broadcastBuilder, channelCreator, configuration, bucketNr, null);
+    }
+
+    /**
+     * Sends the same broadcast to several peers. The data map is encoded only once and the encoded buffer is shared by
+     * all messages, only the header and the bucket number differ per peer. Entries that need a signature are signed
+     * with the key of this peer. The channel creator needs to have enough permits for all peers.
+     * 
+     * @param remotePeers
+     *            The peers to send the broadcast to with their bucket number
+     * @param broadcastBuilder
+     *            The broadcast builder with the message key, the hop counter and the data map
+     * @param channelCreator
+     *            The channel creator shared by all messages
+     * @param configuration
+     *            The connection configuration
+     * @return The future responses, one per peer
+     */
+    public List<FutureResponse> send(final Map<PeerAddress, Integer> remotePeers,
+            final BroadcastBuilder broadcastBuilder, final ChannelCreator channelCreator,
+            final ConnectionConfiguration configuration) {
+        ByteBuf encoded = null;
+        if (broadcastBuilder.dataMap() != null) {
+            try {
+                // entries that are flagged for signing without a key of their own are signed with the key of
+                // this peer
+                encoded = new Encoder(connectionBean().resourceConfiguration().signatureFactory()).encodeDataMap(
+                        new DataMap(broadcastBuilder.dataMap()), peerBean().getKeyPair().getPrivate());
+            } catch (Exception e) {
+                // encode with every message, the encoder will report the error
+                LOG.warn("Could not encode the broadcast data map.", e);
+            }
+        }
+        final List<FutureResponse> futureResponses = new ArrayList<FutureResponse>(remotePeers.size());
+        for (Map.Entry<PeerAddress, Integer> entry : remotePeers.entrySet()) {
+            futureResponses.add(send(entry.getKey(), broadcastBuilder, channelCreator, configuration, entry.getValue(),
+                    encoded));
+        }
+        if (encoded != null) {
+            releaseWhenDone(encoded, futureResponses);
+        }
+        return futureResponses;
+    }
+
+    private FutureResponse send(final PeerAddress remotePeer, final BroadcastBuilder broadcastBuilder,
+            final ChannelCreator channelCreator, final ConnectionConfiguration configuration, final int bucketNr,
+            final ByteBuf encoded) {
         final Message message = createMessage(remotePeer, RPC.Commands.BROADCAST.getNr(), Type.REQUEST_FF_1);
         message.intValue(broadcastBuilder.hopCounter());
         message.intValue(bucketNr);
         message.key(broadcastBuilder.messageKey());
         
         if (broadcastBuilder.dataMap() != null) {
-            message.setDataMap(new DataMap(broadcastBuilder.dataMap()));
+            message.setDataMap(new DataMap(broadcastBuilder.dataMap()).encoded(encoded));
         }
         final FutureResponse futureResponse = new FutureResponse(message);
         final RequestHandler<FutureResponse> requestHandler = new RequestHandler<FutureResponse>(
@@ -65,9 +127,79 @@ public class BroadcastRPC extends DispatchHandler {
         }
     }
 
+    /**
+     * Sends a gossip message. In addition to a broadcast message, a gossip message carries the time when the broadcast
+     * was started, so that the receiver can measure the delivery latency.
+     * 
+     * @param remotePeer
+     *            The peer to send the message to
+     * @param messageKey
+     *            The key of the broadcast
+     * @param dataMap
+     *            The payload, may be null
+     * @param hopCounter
+     *            The number of hops of this message
+     * @param startMillis
+     *            The time when the broadcast was started
+     * @param isUDP
+     *            True if the message should be sent with UDP
+     * @param channelCreator
+     *            The channel creator
+     * @param configuration
+     *            The connection configuration
+     * @return The future response
+     */
+    public FutureResponse sendGossip(final PeerAddress remotePeer, final Number160 messageKey,
+            final NavigableMap<Number640, Data> dataMap, final int hopCounter, final long startMillis,
+            final boolean isUDP, final ChannelCreator channelCreator, final ConnectionConfiguration configuration) {
+        final Message message = createMessage(remotePeer, RPC.Commands.BROADCAST.getNr(), Type.REQUEST_FF_1);
+        message.intValue(hopCounter);
+        message.intValue(0);
+        message.key(messageKey);
+        message.longValue(startMillis);
+        if (dataMap != null) {
+            message.setDataMap(new DataMap(dataMap));
+        }
+        final FutureResponse futureResponse = new FutureResponse(message);
+        final RequestHandler<FutureResponse> requestHandler = new RequestHandler<FutureResponse>(
+                futureResponse, peerBean(), connectionBean(), configuration);
+        if (!isUDP) {
+            return requestHandler.sendTCP(channelCreator);
+        } else {
+            return requestHandler.fireAndForgetUDP(channelCreator);
+        }
+    }
+
+    /**
+     * Sends the keys of the recently seen broadcast messages to another peer. The other peer sends the messages back
+     * that are not in the digest. If it is not a reply, the other peer answers with its own digest.
+     * 
+     * @param remotePeer
+     *            The peer to send the digest to
+     * @param messageKeys
+     *            The keys of the recently seen messages
+     * @param reply
+     *            True if this digest is the answer to a digest
+     * @param channelCreator
+     *            The channel creator
+     * @param configuration
+     *            The connection configuration
+     * @return The future response
+     */
+    public FutureResponse sendDigest(final PeerAddress remotePeer, final Collection<Number160> messageKeys,
+            final boolean reply, final ChannelCreator channelCreator, final ConnectionConfiguration configuration) {
+        final Message message = createMessage(remotePeer, RPC.Commands.BROADCAST.getNr(), Type.REQUEST_FF_2);
+        message.intValue(reply ? 1 : 0);
+        message.keyCollection(new KeyCollection(Number160.ZERO, Number160.ZERO, Number160.ZERO, messageKeys));
+        final FutureResponse futureResponse = new FutureResponse(message);
+        final RequestHandler<FutureResponse> requestHandler = new RequestHandler<FutureResponse>(
+                futureResponse, peerBean(), connectionBean(), configuration);
+        return requestHandler.fireAndForgetUDP(channelCreator);
+    }
+
     @Override
     public void handleResponse(final Message message, PeerConnection peerConnection, final boolean sign, Responder responder) throws Exception {
-        if (!(message.type() == Type.REQUEST_FF_1 && message.command() == RPC.Commands.BROADCAST.getNr())) {
+        if (!((message.type() == Type.REQUEST_FF_1 || message.type() == Type.REQUEST_FF_2) && message.command() == RPC.Commands.BROADCAST.getNr())) {
             throw new IllegalArgumentException("Message content is wrong for this handler.");
         }
         LOG.debug("received BRODACAST message: {}", message);
@@ -79,6 +211,24 @@ public class BroadcastRPC extends DispatchHandler {
         }
     }
 
+    /**
+     * The encoded buffer is added to the outgoing messages when they are encoded. It can be released once all
+     * messages are sent.
+     */
+    private static void releaseWhenDone(final ByteBuf encoded, final List<FutureResponse> futureResponses) {
+        final AtomicInteger counter = new AtomicInteger(futureResponses.size());
+        for (FutureResponse futureResponse : futureResponses) {
+            futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                @Override
+                public void operationComplete(final FutureResponse future) throws Exception {
+                    if (counter.decrementAndGet() == 0) {
+                        encoded.release();
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * @return The broadcast handler that is currently used
      */
@@ -15,6 +15,7 @@
  */
 package net.tomp2p.rpc;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
@@ -30,7 +31,6 @@ import net.tomp2p.message.Buffer;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.peers.PeerAddress;
-import net.tomp2p.utils.Utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -71,10 +71,8 @@ public class DirectDataRPC extends DispatchHandler {
         	Buffer buffer = new Buffer(sendDirectBuilder.dataBuffer().toByteBuf());
             message.buffer(buffer);
         } else {
-            byte[] me;
             try {
-                me = Utils.encodeJavaObject(sendDirectBuilder.object());
-                message.buffer(new Buffer(Unpooled.wrappedBuffer(me)));
+                message.buffer(encode(sendDirectBuilder.object()));
             } catch (IOException e) {
                 futureResponse.failed("Cannot encode object.", e);
             }       
@@ -151,7 +149,7 @@ public class DirectDataRPC extends DispatchHandler {
                     responseMessage.buffer(replyBuffer);
                 }
             } else { // no streaming here when we deal with objects
-                Object obj = Utils.decodeJavaObject(requestBuffer.buffer());
+                Object obj = peerBean().objectCodec().decode(requestBuffer.buffer());
                 LOG.debug("handling {}", obj);
 
                 Object reply = objectDataReply2.reply(message.sender(), obj);
@@ -161,12 +159,20 @@ public class DirectDataRPC extends DispatchHandler {
                 } else if (reply == obj) {
                     responseMessage.type(Type.OK);
                 } else {
-                    byte[] me = Utils.encodeJavaObject(reply);
-                    responseMessage.buffer(new Buffer(Unpooled.wrappedBuffer(me)));
+                    responseMessage.buffer(encode(reply));
                 }
             }
             requestBuffer.buffer().release();
         }
         responder.response(responseMessage);
     }
+
+    /**
+     * Encodes an object with the codec of this peer, the same codec decodes the object on the other side.
+     */
+    private Buffer encode(final Object object) throws IOException {
+        final ByteBuf buf = Unpooled.buffer();
+        peerBean().objectCodec().encode(object, buf);
+        return new Buffer(buf);
+    }
 }
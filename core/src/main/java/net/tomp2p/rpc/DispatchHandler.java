@@ -154,7 +154,9 @@ public abstract class DispatchHandler {
         // Here, we need a referral since we got contacted and we don't know if
         // we can contact the peer with its address. The peer may be behind a NAT.
     	if(requestMessage.command() != RPC.Commands.LOCAL_ANNOUNCE.getNr()) {
-    		peerBean.notifyPeerFound(requestMessage.sender(), requestMessage.sender(), peerConnection, null);
+    		// only a kept alive connection can be reused for requests to the sender, the others are closed soon
+    		peerBean.notifyPeerFound(requestMessage.sender(), requestMessage.sender(),
+    				requestMessage.isKeepAlive() ? peerConnection : null, null);
     	}
         
         try {
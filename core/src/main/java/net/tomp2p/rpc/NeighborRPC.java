@@ -34,6 +34,7 @@ import net.tomp2p.connection.RequestHandler;
 import net.tomp2p.connection.Responder;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Buffer;
 import net.tomp2p.message.KeyCollection;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
@@ -60,6 +61,12 @@ public class NeighborRPC extends DispatchHandler {
 
     public static final int NEIGHBOR_SIZE = 30;
     public static final int NEIGHBOR_LIMIT = 1000;
+    /**
+     * Sent as integer in the request to announce that the requester can decode the compact form of the
+     * {@link NeighborSet}, which is then sent as buffer instead of a neighbor set. Older peers ignore this integer
+     * and reply with the full encoding.
+     */
+    public static final int COMPACT_NEIGHBORS = 1;
     
     public NeighborRPC(final PeerBean peerBean, final ConnectionBean connectionBean) {
         this(peerBean, connectionBean, true);
@@ -108,6 +115,31 @@ public class NeighborRPC extends DispatchHandler {
      */
     public FutureResponse closeNeighbors(final PeerAddress remotePeer, final SearchValues searchValues,
             final Type type, final ChannelCreator channelCreator, final ConnectionConfiguration configuration) {
+        return closeNeighbors(remotePeer, searchValues, type, channelCreator, null, configuration);
+    }
+
+    /**
+     * Requests close neighbors from the remote peer over an open persistent connection if it is not used by another
+     * request. Otherwise, the request is sent as in
+     * {@link #closeNeighbors(PeerAddress, SearchValues, Type, ChannelCreator, ConnectionConfiguration)}.
+     * 
+     * @param remotePeer
+     *            The remote peer to send this request to
+     * @param searchValues
+     *            The values to search for in the storage
+     * @param type
+     *            The type of the neighbor request
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @param peerConnection
+     *            The persistent connection to the remote peer, may be null
+     * @param configuration
+     *            The client-side connection configuration
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse closeNeighbors(final PeerAddress remotePeer, final SearchValues searchValues,
+            final Type type, final ChannelCreator channelCreator, final PeerConnection peerConnection,
+            final ConnectionConfiguration configuration) {
         Message message = createMessage(remotePeer, RPC.Commands.NEIGHBOR.getNr(), type);
         if (!message.isRequest()) {
             throw new IllegalArgumentException("The type must be a request");
@@ -134,10 +166,12 @@ public class NeighborRPC extends DispatchHandler {
         		message.bloomFilter(searchValues.contentBloomFilter());
         	}
         }
-        return send(message, configuration, channelCreator);
+        message.intValue(COMPACT_NEIGHBORS);
+        return send(message, configuration, channelCreator, peerConnection);
     }
 
-    private FutureResponse send(final Message message, final ConnectionConfiguration configuration, final ChannelCreator channelCreator) {
+    private FutureResponse send(final Message message, final ConnectionConfiguration configuration,
+            final ChannelCreator channelCreator, final PeerConnection peerConnection) {
         final FutureResponse futureResponse = new FutureResponse(message);
         futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
             @Override
@@ -145,7 +179,7 @@ public class NeighborRPC extends DispatchHandler {
                 if(future.isSuccess()) {
                     Message response = future.responseMessage();
                     if(response != null) {
-                        NeighborSet ns = response.neighborsSet(0);
+                        NeighborSet ns = neighbors(response);
                         if(ns!=null) {
                             for(PeerAddress neighbor:ns.neighbors()) {
                                 // Notify, that we found this peer. RTT is from the reporter and therefore only an estimate.
@@ -159,6 +193,12 @@ public class NeighborRPC extends DispatchHandler {
         RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
                 peerBean(), connectionBean(), configuration);
 
+        if (!configuration.isForceUDP()) {
+            final FutureResponse reused = request.sendTCPIfIdle(channelCreator, peerConnection);
+            if (reused != null) {
+                return reused;
+            }
+        }
         if (!configuration.isForceTCP()) {
             return request.sendUDP(channelCreator);
         } else {
@@ -179,6 +219,8 @@ public class NeighborRPC extends DispatchHandler {
         }
         Number160 locationKey = message.key(0);
         Number160 domainKey = message.key(1);
+        Integer capabilities = message.intAt(0);
+        boolean compact = capabilities != null && (capabilities.intValue() & COMPACT_NEIGHBORS) != 0;
         
         List<PeerAddress> neighbors = getNeighbors(locationKey, NEIGHBOR_SIZE);
         if(neighbors == null) {
@@ -193,8 +235,12 @@ public class NeighborRPC extends DispatchHandler {
         final Message responseMessage = createResponseMessage(message, Type.OK);
         
 		LOG.debug("Found the following neighbors: {}.", neighbors);
-        NeighborSet neighborSet = new NeighborSet(NEIGHBOR_LIMIT, neighbors);
-        responseMessage.neighborsSet(neighborSet);
+        NeighborSet neighborSet = new NeighborSet(NEIGHBOR_LIMIT, neighbors, compact);
+        if (compact) {
+            responseMessage.buffer(neighborSet.encodeCompact());
+        } else {
+            responseMessage.neighborsSet(neighborSet);
+        }
 		// check for fast get:
 		// -1 if no domain provided, so we cannot check content length
 		// 0 for content not here
@@ -264,6 +310,23 @@ public class NeighborRPC extends DispatchHandler {
         responder.response(responseMessage);
     }
 
+    /**
+     * Returns the neighbors of a response to a neighbor request, regardless if they were sent in the full or in the
+     * compact form.
+     * 
+     * @param response
+     *            The response of a neighbor request
+     * @return The neighbors or null if the response does not contain any
+     */
+    public static NeighborSet neighbors(final Message response) {
+        final NeighborSet neighborSet = response.neighborsSet(0);
+        if (neighborSet != null) {
+            return neighborSet;
+        }
+        final Buffer buffer = response.buffer(0);
+        return buffer == null ? null : NeighborSet.decodeCompact(buffer);
+    }
+
     /**
      * TODO: explain why protected method here.
      */
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.util.CharsetUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.tomp2p.peers.Number160;
+
+/**
+ * A codec that is faster and more compact than the Java serialization. Strings, numbers, byte arrays and
+ * {@link Number160} are written with a one byte tag and their value only. All other objects use the Java
+ * serialization, but classes that are registered with {@link #register(Class...)} are written as a two byte ID instead
+ * of the full class descriptor. The classes need to be registered in the same order on all peers before the codec is
+ * used. Data written by {@link JavaObjectCodec} can be decoded as well.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public class CompactObjectCodec implements ObjectCodec {
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_STRING = 1;
+	private static final int TAG_INTEGER = 2;
+	private static final int TAG_LONG = 3;
+	private static final int TAG_BOOLEAN = 4;
+	private static final int TAG_DOUBLE = 5;
+	private static final int TAG_BYTE_ARRAY = 6;
+	private static final int TAG_NUMBER160 = 7;
+	private static final int TAG_OBJECT = 8;
+	// the first byte of the Java serialization stream magic 0xaced
+	private static final int TAG_JAVA = 0xac;
+
+	private static final int CLASS_DESCRIPTOR = 0;
+	private static final int CLASS_ID = 1;
+
+	private final Map<Class<?>, Integer> classIds = new ConcurrentHashMap<Class<?>, Integer>();
+	private volatile Class<?>[] classes = new Class<?>[0];
+
+	/**
+	 * Registers classes, the ID is given in the order of registration.
+	 * 
+	 * @param types
+	 *            The classes that are frequently encoded
+	 * @return This class
+	 */
+	public synchronized CompactObjectCodec register(final Class<?>... types) {
+		for (Class<?> type : types) {
+			if (!Serializable.class.isAssignableFrom(type)) {
+				throw new IllegalArgumentException("Class " + type.getName() + " is not serializable.");
+			}
+			if (classIds.containsKey(type)) {
+				continue;
+			}
+			final Class<?>[] newClasses = new Class<?>[classes.length + 1];
+			System.arraycopy(classes, 0, newClasses, 0, classes.length);
+			newClasses[classes.length] = type;
+			classIds.put(type, classes.length);
+			classes = newClasses;
+		}
+		return this;
+	}
+
+	@Override
+	public void encode(final Object object, final ByteBuf buf) throws IOException {
+		if (object == null) {
+			buf.writeByte(TAG_NULL);
+		} else if (object instanceof String) {
+			buf.writeByte(TAG_STRING);
+			final byte[] me = ((String) object).getBytes(CharsetUtil.UTF_8);
+			buf.writeInt(me.length);
+			buf.writeBytes(me);
+		} else if (object instanceof Integer) {
+			buf.writeByte(TAG_INTEGER);
+			buf.writeInt((Integer) object);
+		} else if (object instanceof Long) {
+			buf.writeByte(TAG_LONG);
+			buf.writeLong((Long) object);
+		} else if (object instanceof Boolean) {
+			buf.writeByte(TAG_BOOLEAN);
+			buf.writeBoolean((Boolean) object);
+		} else if (object instanceof Double) {
+			buf.writeByte(TAG_DOUBLE);
+			buf.writeDouble((Double) object);
+		} else if (object instanceof byte[]) {
+			buf.writeByte(TAG_BYTE_ARRAY);
+			final byte[] me = (byte[]) object;
+			buf.writeInt(me.length);
+			buf.writeBytes(me);
+		} else if (object instanceof Number160) {
+			buf.writeByte(TAG_NUMBER160);
+			buf.writeBytes(((Number160) object).toByteArray());
+		} else {
+			buf.writeByte(TAG_OBJECT);
+			final ObjectOutputStream oos = new CompactObjectOutputStream(new ByteBufOutputStream(buf));
+			oos.writeObject(object);
+			oos.flush();
+		}
+	}
+
+	@Override
+	public Object decode(final ByteBuf buf) throws ClassNotFoundException, IOException {
+		final int tag = buf.getUnsignedByte(buf.readerIndex());
+		if (tag == TAG_JAVA) {
+			final ObjectInputStream ois = new ObjectInputStream(new ByteBufInputStream(buf));
+			return ois.readObject();
+		}
+		buf.skipBytes(1);
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_STRING:
+			final byte[] string = new byte[readLength(buf)];
+			buf.readBytes(string);
+			return new String(string, CharsetUtil.UTF_8);
+		case TAG_INTEGER:
+			return buf.readInt();
+		case TAG_LONG:
+			return buf.readLong();
+		case TAG_BOOLEAN:
+			return buf.readBoolean();
+		case TAG_DOUBLE:
+			return buf.readDouble();
+		case TAG_BYTE_ARRAY:
+			final byte[] me = new byte[readLength(buf)];
+			buf.readBytes(me);
+			return me;
+		case TAG_NUMBER160:
+			final byte[] id = new byte[Number160.BYTE_ARRAY_SIZE];
+			buf.readBytes(id);
+			return new Number160(id);
+		case TAG_OBJECT:
+			final ObjectInputStream ois = new CompactObjectInputStream(new ByteBufInputStream(buf));
+			return ois.readObject();
+		default:
+			throw new IOException("Unknown tag: " + tag);
+		}
+	}
+
+	/**
+	 * Reads the length of a string or a byte array and checks it against the remaining bytes, so that a corrupt or
+	 * malicious length does not allocate a huge array.
+	 */
+	private static int readLength(final ByteBuf buf) throws IOException {
+		final int length = buf.readInt();
+		if (length < 0 || length > buf.readableBytes()) {
+			throw new IOException("Invalid length " + length + ", only " + buf.readableBytes() + " bytes left.");
+		}
+		return length;
+	}
+
+	/**
+	 * Writes registered classes as an ID and skips the stream header.
+	 */
+	private class CompactObjectOutputStream extends ObjectOutputStream {
+
+		public CompactObjectOutputStream(final OutputStream out) throws IOException {
+			super(out);
+		}
+
+		@Override
+		protected void writeStreamHeader() throws IOException {
+			// the tag is our header
+		}
+
+		@Override
+		protected void writeClassDescriptor(final ObjectStreamClass desc) throws IOException {
+			final Integer classId = classIds.get(desc.forClass());
+			if (classId == null) {
+				write(CLASS_DESCRIPTOR);
+				super.writeClassDescriptor(desc);
+			} else {
+				write(CLASS_ID);
+				writeShort(classId);
+			}
+		}
+	}
+
+	/**
+	 * Reads the classes written by {@link CompactObjectOutputStream}.
+	 */
+	private class CompactObjectInputStream extends ObjectInputStream {
+
+		public CompactObjectInputStream(final InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected void readStreamHeader() throws IOException {
+			// the tag is our header
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			final int type = read();
+			if (type == CLASS_DESCRIPTOR) {
+				return super.readClassDescriptor();
+			} else if (type == CLASS_ID) {
+				final int classId = readUnsignedShort();
+				final Class<?>[] registered = classes;
+				if (classId >= registered.length) {
+					throw new ClassNotFoundException("Class with ID " + classId + " is not registered.");
+				}
+				return ObjectStreamClass.lookup(registered[classId]);
+			} else {
+				throw new IOException("Unknown class descriptor type: " + type);
+			}
+		}
+	}
+}
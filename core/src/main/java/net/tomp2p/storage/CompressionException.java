@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.storage;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link Data#toBytes()} and {@link Data#toDataBuffer()} if a compressed payload cannot be uncompressed,
+ * either because it is corrupt or because it exceeds {@link Data#MAX_UNCOMPRESSED_LENGTH}. The cause is the
+ * {@link IOException} of the decompression.
+ *
+ * @author Thomas Bocek
+ */
+public class CompressionException extends RuntimeException {
+
+	private static final long serialVersionUID = -2372406458217932816L;
+
+	public CompressionException(final IOException cause) {
+		super("Cannot uncompress the payload: " + cause.getMessage(), cause);
+	}
+}
@@ -16,6 +16,7 @@
 package net.tomp2p.storage;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -46,6 +47,14 @@ import net.tomp2p.utils.Utils;
 public class Data {
 
 	private static final int MAX_BYTE_SIZE = 256;
+	// the highest bit of the length of a large data object marks a compressed payload
+	private static final int COMPRESSED_FLAG = 0x80000000;
+
+	/**
+	 * The maximum length of an uncompressed payload. A compressed payload may come from another peer, so the length
+	 * is limited to protect against decompression bombs. Larger values are stored uncompressed.
+	 */
+	public static final int MAX_UNCOMPRESSED_LENGTH = 64 * 1024 * 1024;
 
 	/**
 	 * small means 8 bit, medium is 32bit.
@@ -69,6 +78,7 @@ public class Data {
 	private boolean protectedEntry;
 	private boolean publicKeyFlag;
 	private boolean prepareFlag;
+	private final boolean compressed;
 
 	// can be added later
 	private SignatureCodec signature;
@@ -77,6 +87,8 @@ public class Data {
 	private PublicKey publicKey;
 	//this goes never over the network! If this is set, we have to sign lazy
 	private transient PrivateKey privateKey;
+	// the codec that decodes the payload in object(), not sent over the wire
+	private transient ObjectCodec objectCodec;
 
 	// never serialized over the network in this object
 	private long validFromMillis;
@@ -98,12 +110,18 @@ public class Data {
 	 *            header + size (2, 5 or 9).
 	 */
 	public Data(final DataBuffer buffer, final int length) {
+		this(buffer, length, false);
+	}
+
+	private Data(final DataBuffer buffer, final int length, final boolean compressed) {
 		this.length = length;
-		if (length < MAX_BYTE_SIZE) {
+		// compressed data always uses the large header, the flag is stored in the length
+		if (length < MAX_BYTE_SIZE && !compressed) {
 			this.type = Type.SMALL;
 		} else {
 			this.type = Type.LARGE;
 		}
+		this.compressed = compressed;
 		this.buffer = buffer;
 		this.validFromMillis = System.currentTimeMillis();
 	}
@@ -118,6 +136,10 @@ public class Data {
 	 *            The length, depending on the header values.
 	 */
 	public Data(final int header, final int length) {
+		this(header, length, false);
+	}
+
+	private Data(final int header, final int length, final boolean compressed) {
 		this.publicKeyFlag = hasPublicKey(header);
 		this.flag1 = isFlag1(header);
 		this.flag2 = isFlag2(header);
@@ -130,11 +152,12 @@ public class Data {
 
 		if (type == Type.SMALL && length > 255) {
 			throw new IllegalArgumentException("Type is not small");
-		} else if (type == Type.LARGE && (length <= 255)) {
+		} else if (type == Type.LARGE && (length <= 255) && !compressed) {
 			throw new IllegalArgumentException("Type is not large");
 		}
 
 		this.length = length;
+		this.compressed = compressed;
 		this.buffer = new DataBuffer();
 		this.validFromMillis = System.currentTimeMillis();
 	}
@@ -143,6 +166,30 @@ public class Data {
 		this(Utils.encodeJavaObject(object));
 	}
 
+	/**
+	 * Creates a Data object with an encoded object.
+	 * 
+	 * @param object
+	 *            The object to encode
+	 * @param objectCodec
+	 *            The codec that encodes the object, the same codec is used by {@link #object()}
+	 * @throws IOException
+	 *             If the object cannot be encoded
+	 */
+	public Data(final Object object, final ObjectCodec objectCodec) throws IOException {
+		this(encode(object, objectCodec));
+		this.objectCodec = objectCodec;
+	}
+
+	private static DataBuffer encode(final Object object, final ObjectCodec objectCodec) throws IOException {
+		final ByteBuf buf = Unpooled.buffer();
+		objectCodec.encode(object, buf);
+		final DataBuffer dataBuffer = new DataBuffer(buf);
+		// the data buffer holds a reference now
+		buf.release();
+		return dataBuffer;
+	}
+
 	public Data(final byte[] buffer) {
 		this(buffer, 0, buffer.length);
 	}
@@ -169,6 +216,7 @@ public class Data {
 		} else {
 			this.type = Type.LARGE;
 		}
+		this.compressed = false;
 		this.validFromMillis = System.currentTimeMillis();
 	}
 	
@@ -183,7 +231,7 @@ public class Data {
 	 * Header format:
 	 * <pre>
 	 * 1 byte - header
-	 * 1 or 4 bytes - length
+	 * 1 or 4 bytes - length, for 4 bytes the highest bit is set if the payload is compressed
 	 * 4 or 0 bytes - ttl (hasTTL)
 	 * 1 or 0 bytes - number of basedon keys (hasBasedOn)
 	 * n x 20 bytes - basedon keys (hasBasedOn, number of basedon keys)
@@ -208,11 +256,13 @@ public class Data {
 		
 		// length
 		final int length;
+		final boolean compressed;
 		final int indexLength = Utils.BYTE_BYTE_SIZE;
 		final int indexTTL;
 		switch (type) {
 		case SMALL:
 			length = buf.getUnsignedByte(buf.readerIndex() + indexLength);
+			compressed = false;
 			indexTTL = indexLength + Utils.BYTE_BYTE_SIZE;
 			break;
 		case LARGE:
@@ -220,7 +270,9 @@ public class Data {
 			if (buf.readableBytes() < indexTTL) {
 				return null;
 			}
-			length = buf.getInt(buf.readerIndex() + indexLength);
+			final int rawLength = buf.getInt(buf.readerIndex() + indexLength);
+			length = rawLength & ~COMPRESSED_FLAG;
+			compressed = (rawLength & COMPRESSED_FLAG) != 0;
 			break;
 		default:
 			throw new IllegalArgumentException("Unknown Type.");
@@ -297,7 +349,7 @@ public class Data {
 		}
 		
 		// now, we have read the header and the length
-		final Data data = new Data(header, length);
+		final Data data = new Data(header, length, compressed);
 		data.ttlSeconds = ttl;
 		data.basedOnSet = basedOn;
 		data.publicKey = publicKey;
@@ -365,7 +417,7 @@ public class Data {
 	 * * Header format:
 	 * <pre>
 	 * 1 byte - header
-	 * 1 or 4 bytes - length
+	 * 1 or 4 bytes - length, for 4 bytes the highest bit is set if the payload is compressed
 	 * 4 or 0 bytes - ttl (hasTTL)
 	 * 1 or 0 bytes - number of basedon keys (hasBasedOn)
 	 * n x 20 bytes - basedon keys (hasBasedOn, number of basedon keys)
@@ -407,7 +459,7 @@ public class Data {
 			break;
 		case LARGE:
 			buf.writeByte(header);
-			buf.writeInt(length);
+			buf.writeInt(compressed ? length | COMPRESSED_FLAG : length);
 			break;
 		default:
 			throw new IllegalArgumentException("Unknown Type.");
@@ -422,7 +474,8 @@ public class Data {
 			}
 		}
 		if (publicKeyFlag) {
-			if (publicKey == null) {
+			// a forwarded entry from a message without a key has the empty key
+			if (publicKey == null || publicKey == PeerBuilder.EMPTY_PUBLIC_KEY) {
 				buf.writeShort(0);
 			} else {
 				signatureFactory.encodePublicKey(publicKey, buf);
@@ -466,10 +519,105 @@ public class Data {
 		return buffer.toByteBuf();
 	}
 
+	/**
+	 * @return The decoded object, decoded with the codec set in {@link #objectCodec(ObjectCodec)} or with the Java
+	 *         serialization if no codec is set
+	 * @throws ClassNotFoundException
+	 *             If the class of the object is not available
+	 * @throws IOException
+	 *             If the object cannot be decoded
+	 */
 	public Object object() throws ClassNotFoundException, IOException {
+		if (objectCodec != null) {
+			return object(objectCodec);
+		}
+		if (compressed) {
+			return Utils.decodeJavaObject(Utils.uncompress(buffer.bufferList(), MAX_UNCOMPRESSED_LENGTH));
+		}
 		return Utils.decodeJavaObject(buffer);
 	}
 
+	/**
+	 * @param objectCodec
+	 *            The codec that was used to encode the object
+	 * @return The decoded object
+	 * @throws ClassNotFoundException
+	 *             If the class of the object is not available
+	 * @throws IOException
+	 *             If the object cannot be decoded
+	 */
+	public Object object(final ObjectCodec objectCodec) throws ClassNotFoundException, IOException {
+		if (compressed) {
+			return objectCodec.decode(Utils.uncompress(buffer.bufferList(), MAX_UNCOMPRESSED_LENGTH).toByteBuf());
+		}
+		return objectCodec.decode(buffer.toByteBuf());
+	}
+
+	/**
+	 * @return The codec that is used by {@link #object()}, or null if the Java serialization is used
+	 */
+	public ObjectCodec objectCodec() {
+		return objectCodec;
+	}
+
+	/**
+	 * Sets the codec that is used by {@link #object()}. The DHT sets the codec of the peer on the data it receives.
+	 * 
+	 * @param objectCodec
+	 *            The codec that was used to encode the object
+	 * @return This class
+	 */
+	public Data objectCodec(final ObjectCodec objectCodec) {
+		this.objectCodec = objectCodec;
+		return this;
+	}
+
+	/**
+	 * Compresses the payload with deflate. Compressed data is always encoded with the large header, thus only payloads
+	 * with at least 256 bytes are compressed and only if the compressed payload is smaller. The payload is uncompressed
+	 * by {@link #object()} and {@link #toBytes()}, while the hash and the signature are calculated over the compressed
+	 * payload. Peers with an older version cannot decode compressed data, thus the payload is only sent compressed to
+	 * peers that announce support for it, otherwise the encoder sends it uncompressed. Payloads larger than
+	 * {@link #MAX_UNCOMPRESSED_LENGTH} are not compressed, as they could not be uncompressed again.
+	 * 
+	 * @return A compressed copy of this data object or this data object if the payload is already compressed, is too
+	 *         small or too large, or does not compress well
+	 */
+	public Data compress() {
+		if (compressed || length < MAX_BYTE_SIZE || length > MAX_UNCOMPRESSED_LENGTH) {
+			return this;
+		}
+		if (signature != null) {
+			throw new IllegalArgumentException("Data is already signed, compress before signing.");
+		}
+		final DataBuffer compressedBuffer = Utils.compress(buffer.bufferList());
+		final int compressedLength = compressedBuffer.length();
+		if (compressedLength >= length) {
+			return this;
+		}
+		return copyMeta(new Data(compressedBuffer, compressedLength, true));
+	}
+
+	/**
+	 * @return An uncompressed copy of this data object or this data object if the payload is not compressed
+	 * @throws IOException
+	 *             If the payload could not be uncompressed
+	 */
+	public Data uncompress() throws IOException {
+		if (!compressed) {
+			return this;
+		}
+		if (signature != null) {
+			throw new IllegalArgumentException("Data is signed, the signature is only valid for the compressed payload.");
+		}
+		final DataBuffer uncompressedBuffer = Utils.uncompress(buffer.bufferList(), MAX_UNCOMPRESSED_LENGTH);
+		return copyMeta(new Data(uncompressedBuffer, uncompressedBuffer.length(), false));
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
 	public long validFromMillis() {
 		return validFromMillis;
 	}
@@ -728,35 +876,22 @@ public class Data {
 	 *         index is not shared. This will increase the ref count on the buffer
 	 */
 	public Data duplicate() {
-		Data data = new Data(buffer.shallowCopy(), length).publicKey(publicKey)
-				.signature(signature).ttlSeconds(ttlSeconds);
-		// duplicate based on keys
-		data.basedOnSet.addAll(basedOnSet);
-
-		// duplicate all the flags.
-		// although signature, basedOn, and ttlSeconds set a flag, they will be overwritten with the data from this class
-		data.publicKeyFlag = publicKeyFlag;
-		data.flag1 = flag1;
-		data.flag2 = flag2;
-		data.basedOnFlag = basedOnFlag;
-		data.signed = signed;
-		data.ttl = ttl;
-		data.protectedEntry = protectedEntry;
-		data.privateKey = privateKey;
-		data.validFromMillis = validFromMillis;
-		data.prepareFlag = prepareFlag;
-		return data;
+		return copyMeta(new Data(buffer.shallowCopy(), length, compressed));
 	}
 	
 	public Data duplicateMeta() {
-		Data data = new Data().publicKey(publicKey)
-				.signature(signature).ttlSeconds(ttlSeconds);
+		return copyMeta(new Data());
+	}
+
+	private Data copyMeta(final Data data) {
+		data.publicKey(publicKey).signature(signature).ttlSeconds(ttlSeconds);
 		// duplicate based on keys
 		data.basedOnSet.addAll(basedOnSet);
 
 		// duplicate all the flags.
 		// although signature, basedOn, and ttlSeconds set a flag, they will be overwritten with the data from this class
 		data.publicKeyFlag = publicKeyFlag;
+		data.objectCodec = objectCodec;
 		data.flag1 = flag1;
 		data.flag2 = flag2;
 		data.basedOnFlag = basedOnFlag;
@@ -806,14 +941,43 @@ public class Data {
 	}
 
 	/**
-	 * @return The byte array that is the payload. Here we copy the buffer
+	 * @return The byte array that is the payload. Here we copy the buffer. A compressed payload is uncompressed
+	 * @throws CompressionException
+	 *             If the compressed payload cannot be uncompressed
 	 */
 	public byte[] toBytes() {
+		if (compressed) {
+			try {
+				return Utils.uncompress(buffer.bufferList(), MAX_UNCOMPRESSED_LENGTH).convertToHeapBuffer();
+			} catch (IOException e) {
+				throw new CompressionException(e);
+			}
+		}
 		return buffer.convertToHeapBuffer();
 	}
 
 	/**
-	 * @return The ByteBuffers that is the payload. We do not make a copy here
+	 * @return The payload as a data buffer that shares the memory with this object, thus the payload is neither copied
+	 *         nor flattened into a single array. A compressed payload is uncompressed
+	 * @throws CompressionException
+	 *             If the compressed payload cannot be uncompressed
+	 */
+	public DataBuffer toDataBuffer() {
+		if (compressed) {
+			try {
+				return Utils.uncompress(buffer.bufferList(), MAX_UNCOMPRESSED_LENGTH);
+			} catch (IOException e) {
+				throw new CompressionException(e);
+			}
+		}
+		if (buffer.isHeapBuffer()) {
+			return new DataBuffer(buffer.heapBuffer());
+		}
+		return buffer.shallowCopyIntern();
+	}
+
+	/**
+	 * @return The ByteBuffers that is the payload, compressed if {@link #isCompressed()}. We do not make a copy here
 	 */
 	public ByteBuffer[] toByteBuffers() {
 		return buffer.bufferList().toArray(new ByteBuffer[0]);
@@ -847,7 +1011,7 @@ public class Data {
 
 	@Override
 	public int hashCode() {
-		BitSet bs = new BitSet(8);
+		BitSet bs = new BitSet(9);
 		bs.set(0, signed);
 		bs.set(1, ttl);
 		bs.set(2, basedOnFlag);
@@ -856,6 +1020,7 @@ public class Data {
 		bs.set(5, flag1);
 		bs.set(6, flag2);
 		bs.set(7, prepareFlag);
+		bs.set(8, compressed);
 		int hashCode = bs.hashCode() ^ ttlSeconds ^ type.ordinal() ^ length;
 		for (Number160 basedOn : basedOnSet) {
 			hashCode = hashCode ^ basedOn.hashCode();
@@ -876,7 +1041,7 @@ public class Data {
 		//ignore ttl -> it's still the same data even if ttl is different
 		if (d.signed != signed  || d.basedOnFlag != basedOnFlag 
 				|| d.protectedEntry != protectedEntry || d.publicKeyFlag != publicKeyFlag 
-				|| flag1!=d.flag1 || flag2!=d.flag2 || prepareFlag!=d.prepareFlag) {
+				|| flag1!=d.flag1 || flag2!=d.flag2 || prepareFlag!=d.prepareFlag || compressed!=d.compressed) {
 			return false;
 		}
 		if (d.type != type || d.length != length) {
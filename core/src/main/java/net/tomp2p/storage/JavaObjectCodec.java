@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * The default codec that uses the Java serialization. This is the same format as {@link net.tomp2p.utils.Utils#encodeJavaObject(Object)}.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public class JavaObjectCodec implements ObjectCodec {
+
+	@Override
+	public void encode(final Object object, final ByteBuf buf) throws IOException {
+		final ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(buf));
+		oos.writeObject(object);
+		oos.flush();
+	}
+
+	@Override
+	public Object decode(final ByteBuf buf) throws ClassNotFoundException, IOException {
+		final ObjectInputStream ois = new ObjectInputStream(new ByteBufInputStream(buf));
+		return ois.readObject();
+	}
+}
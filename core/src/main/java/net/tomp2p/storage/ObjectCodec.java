@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * Converts objects to bytes and back, e.g., for {@link Data#Data(Object, ObjectCodec)} and
+ * {@link Data#object(ObjectCodec)}. Both peers need to use a compatible codec. A user may set its own codec with
+ * {@link net.tomp2p.p2p.PeerBuilder#objectCodec(ObjectCodec)}. Implementations need to be thread-safe.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public interface ObjectCodec {
+
+	/**
+	 * Encodes an object.
+	 * 
+	 * @param object
+	 *            The object to encode
+	 * @param buf
+	 *            The buffer to write to, the writer index is increased by the encoded size
+	 * @throws IOException
+	 *             If the object cannot be encoded
+	 */
+	void encode(Object object, ByteBuf buf) throws IOException;
+
+	/**
+	 * Decodes an object.
+	 * 
+	 * @param buf
+	 *            The buffer to read from, the reader index is increased by the decoded size
+	 * @return The decoded object
+	 * @throws ClassNotFoundException
+	 *             If the class of the object is not available
+	 * @throws IOException
+	 *             If the object cannot be decoded
+	 */
+	Object decode(ByteBuf buf) throws ClassNotFoundException, IOException;
+}
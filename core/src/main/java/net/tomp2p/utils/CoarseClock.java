@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.utils;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock with a resolution of {@link #RESOLUTION_MILLIS} that is updated by the timer of the running peers. Reading
+ * this clock is a volatile read, which is cheaper than {@link System#currentTimeMillis()} on some platforms and avoids
+ * a system call per operation for data structures with a timeout in seconds such as {@link ConcurrentCacheMap}. A
+ * master peer starts a ticker on its timer and stops it on shutdown. If no peer is running, the system time is
+ * returned, thus no thread is left behind.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public final class CoarseClock {
+
+	/**
+	 * The clock is updated every 10 milliseconds.
+	 */
+	public static final int RESOLUTION_MILLIS = 10;
+
+	private static final Runnable TICK = new Runnable() {
+		@Override
+		public void run() {
+			now = System.currentTimeMillis();
+		}
+	};
+
+	private static volatile long now = System.currentTimeMillis();
+	// the number of running tickers, only changed in start and stop
+	private static volatile int tickers = 0;
+
+	private CoarseClock() {
+	}
+
+	/**
+	 * Starts a ticker that updates this clock. Each ticker needs to be stopped with {@link #stop(ScheduledFuture)}.
+	 * 
+	 * @param timer
+	 *            The timer of the peer that runs the ticker
+	 * @return The ticker
+	 */
+	public static synchronized ScheduledFuture<?> start(final ScheduledExecutorService timer) {
+		now = System.currentTimeMillis();
+		final ScheduledFuture<?> ticker = timer.scheduleAtFixedRate(TICK, RESOLUTION_MILLIS, RESOLUTION_MILLIS,
+		        TimeUnit.MILLISECONDS);
+		tickers++;
+		return ticker;
+	}
+
+	/**
+	 * Stops a ticker that was started with {@link #start(ScheduledExecutorService)}.
+	 * 
+	 * @param ticker
+	 *            The ticker to stop
+	 */
+	public static synchronized void stop(final ScheduledFuture<?> ticker) {
+		ticker.cancel(false);
+		tickers--;
+	}
+
+	/**
+	 * @return The current time in milliseconds, may be behind the system time by up to {@link #RESOLUTION_MILLIS}
+	 */
+	public static long currentTimeMillis() {
+		if (tickers == 0) {
+			return System.currentTimeMillis();
+		}
+		return now;
+	}
+}
@@ -20,7 +20,10 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -29,13 +32,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A map with expiration and more or less LRU. Since the maps are separated in segments, the LRU is done for each
- * segment. A segment is chosen based on the hash of the key. If one segments is more loaded than another, then an entry
- * of the loaded segment may get evicted before an entry used least recently from an other segment. The expiration is
- * done best effort. There is no thread checking for timed out entries since the cache has a fixed size. Once an entry
- * times out, it remains in the map until it either is accessed or evicted. A test showed that for the default entry
- * size of 1024, this map has a size of 967 if 1024 items are inserted. This is due to the segmentation and hashing.
- * 
+ * A map with expiration and more or less LRU. The entries are stored in a {@link ConcurrentHashMap}, thus reads do
+ * not lock. The capacity is global, once it is reached the entries are evicted with the CLOCK algorithm (second
+ * chance): the entries are kept in a queue in the order of insertion, an entry that was read since it was enqueued is
+ * moved to the end of the queue instead of being evicted. The expiration is done best effort. There is no thread
+ * checking for timed out entries. Once an entry times out, it remains in the map until it is accessed, evicted, or
+ * removed in a batch from the head of the queue, which is done at most once per tick of the {@link CoarseClock}.
+ *
  * @author Thomas Bocek
  * @param <K>
  *            the type of the key
@@ -45,11 +48,6 @@ import org.slf4j.LoggerFactory;
 public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentCacheMap.class);
 
-    /**
-     * Number of segments that can be accessed concurrently.
-     */
-    public static final int SEGMENT_NR = 16;
-
     /**
      * Max. number of entries that the map can hold until the least recently used gets replaced
      */
@@ -60,26 +58,37 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
      */
     public static final int DEFAULT_TIME_TO_LIVE = 60;
 
-    private final CacheMap<K, ExpiringObject>[] segments;
+    private final ConcurrentHashMap<K, ExpiringObject> map;
+
+    // insertion order for eviction and expiration, may contain removed entries
+    private final Queue<ExpiringObject> queue = new ConcurrentLinkedQueue<ExpiringObject>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    private final int maxEntries;
 
-    private final int timeToLiveSeconds;
+    private final long timeToLiveMillis;
 
     private final boolean refreshTimeout;
 
     private final AtomicInteger removedCounter = new AtomicInteger();
 
+    private final AtomicInteger evictedCounter = new AtomicInteger();
+
+    private volatile long lastExpire;
+
     /**
-     * Creates a new instance of ConcurrentCacheMap using the default values and a {@link CacheMap} for the internal
-     * data structure.
+     * Creates a new instance of ConcurrentCacheMap using the default values.
      */
     public ConcurrentCacheMap() {
         this(DEFAULT_TIME_TO_LIVE, MAX_ENTRIES, true);
     }
 
     /**
-     * Creates a new instance of ConcurrentCacheMap using the supplied values and a {@link CacheMap} for the internal
-     * data structure.
-     * 
+     * Creates a new instance of ConcurrentCacheMap using the supplied values.
+     *
      * @param timeToLiveSeconds
      *            The time-to-live value (seconds)
      * @param maxEntries
@@ -90,9 +99,8 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     }
 
     /**
-     * Creates a new instance of ConcurrentCacheMap using the supplied values and a {@link CacheMap} for the internal
-     * data structure.
-     * 
+     * Creates a new instance of ConcurrentCacheMap using the supplied values.
+     *
      * @param timeToLiveSeconds
      *            The time-to-live value (seconds)
      * @param maxEntries
@@ -100,84 +108,80 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
      * @param refreshTimeout
      *            If set to true, timeout will be reset in case of {@link #putIfAbsent(Object, Object)}
      */
-    @SuppressWarnings("unchecked")
     public ConcurrentCacheMap(final int timeToLiveSeconds, final int maxEntries, final boolean refreshTimeout) {
-        this.segments = new CacheMap[SEGMENT_NR];
-        final int maxEntriesPerSegment = maxEntries / SEGMENT_NR;
-        for (int i = 0; i < SEGMENT_NR; i++) {
-        	// set updateOnInsert to true, since it should behave as a regular map
-            segments[i] = new CacheMap<K, ExpiringObject>(maxEntriesPerSegment, true);
-        }
-        this.timeToLiveSeconds = timeToLiveSeconds;
+        this.map = new ConcurrentHashMap<K, ExpiringObject>(Math.min(maxEntries, MAX_ENTRIES));
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = TimeUnit.MILLISECONDS.convert(timeToLiveSeconds, TimeUnit.SECONDS);
         this.refreshTimeout = refreshTimeout;
     }
 
-    /**
-     * Returns the segment based on the key.
-     * 
-     * @param key
-     *            The key where the hash code identifies the segment
-     * @return The cache map that corresponds to this segment
-     */
-    private CacheMap<K, ExpiringObject> segment(final Object key) {
-        return segments[(key.hashCode() & Integer.MAX_VALUE) % SEGMENT_NR];
-    }
-
     @Override
     public V put(final K key, final V value) {
-        final ExpiringObject newValue = new ExpiringObject(value, System.currentTimeMillis());
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.put(key, newValue);
-        }
-        if (oldValue == null || oldValue.isExpired()) {
-            return null;
+        if (value == null) {
+            throw new IllegalArgumentException("An expiring object cannot be null.");
+        }
+        final long now = CoarseClock.currentTimeMillis();
+        while (true) {
+            final ExpiringObject oldValue = map.get(key);
+            if (oldValue == null) {
+                if (insert(key, value, now)) {
+                    return null;
+                }
+                continue;
+            }
+            synchronized (oldValue) {
+                if (oldValue.removed) {
+                    continue;
+                }
+                final V retVal = oldValue.isExpired(now) ? null : oldValue.value;
+                oldValue.value = value;
+                oldValue.lastAccessTime = now;
+                return retVal;
+            }
         }
-        return oldValue.getValue();
     }
 
     @Override
-    /**
-     * This does not reset the timer!
-     */
     public V putIfAbsent(final K key, final V value) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject newValue = new ExpiringObject(value, System.currentTimeMillis());
-        ExpiringObject oldValue = null;
-        synchronized (segment) {
-            if (!segment.containsKey(key)) {
-                oldValue = segment.put(key, newValue);
-            } else {
-                oldValue = segment.get(key);
-                if (oldValue.isExpired()) {
-                    segment.put(key, newValue);
-                } else if (refreshTimeout) {
-                    oldValue = new ExpiringObject(oldValue.getValue(), System.currentTimeMillis());
-                    segment.put(key, oldValue);
+        if (value == null) {
+            throw new IllegalArgumentException("An expiring object cannot be null.");
+        }
+        final long now = CoarseClock.currentTimeMillis();
+        while (true) {
+            final ExpiringObject oldValue = map.get(key);
+            if (oldValue == null) {
+                if (insert(key, value, now)) {
+                    return null;
                 }
+                continue;
+            }
+            synchronized (oldValue) {
+                if (oldValue.removed) {
+                    continue;
+                }
+                if (oldValue.isExpired(now)) {
+                    oldValue.value = value;
+                    oldValue.lastAccessTime = now;
+                    return null;
+                }
+                if (refreshTimeout) {
+                    oldValue.lastAccessTime = now;
+                }
+                return oldValue.value;
             }
         }
-        if (oldValue == null || oldValue.isExpired()) {
-            return null;
-        }
-        return oldValue.getValue();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public V get(final Object key) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.get(key);
-        }
+        final ExpiringObject oldValue = map.get(key);
         if (oldValue != null) {
-            if (expire(segment, (K) key, oldValue)) {
+            if (expire(oldValue)) {
                 return null;
             } else {
-                LOGGER.debug("Get found. Key: {}. Value: {}.", key, oldValue.getValue());
-                return oldValue.getValue();
+                oldValue.access();
+                LOGGER.debug("Get found. Key: {}. Value: {}.", key, oldValue.value);
+                return oldValue.value;
             }
         }
         LOGGER.debug("Get not found. Key: {}.", key);
@@ -186,59 +190,45 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 
     @Override
     public V remove(final Object key) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.remove(key);
-        }
-        if (oldValue == null || oldValue.isExpired()) {
+        final ExpiringObject oldValue = map.get(key);
+        if (oldValue == null) {
             return null;
         }
-        return oldValue.getValue();
+        synchronized (oldValue) {
+            if (!removeEntry(oldValue) || oldValue.isExpired(CoarseClock.currentTimeMillis())) {
+                return null;
+            }
+            return oldValue.value;
+        }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public boolean remove(final Object key, final Object value) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        boolean removed = false;
-        synchronized (segment) {
-            oldValue = segment.get(key);
-            if (oldValue != null && oldValue.equals(value) && !oldValue.isExpired()) {
-                removed = segment.remove(key) != null;
-            }
+        final ExpiringObject oldValue = map.get(key);
+        if (oldValue == null) {
+            return false;
         }
-        if (oldValue != null) {
-            expire(segment, (K) key, oldValue);
+        synchronized (oldValue) {
+            if (!oldValue.removed && !oldValue.isExpired(CoarseClock.currentTimeMillis())
+                    && oldValue.value.equals(value)) {
+                return removeEntry(oldValue);
+            }
         }
-        return removed;
+        expire(oldValue);
+        return false;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public boolean containsKey(final Object key) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.get(key);
-        }
-        if (oldValue != null) {
-            if (!expire(segment, (K) key, oldValue)) {
-                return true;
-            }
-        }
-        return false;
+        final ExpiringObject oldValue = map.get(key);
+        return oldValue != null && !expire(oldValue);
     }
 
     @Override
     public boolean containsValue(final Object value) {
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                if (segment.containsValue(value)) {
-                    return true;
-                }
+        for (final ExpiringObject expiringObject : map.values()) {
+            if (!expire(expiringObject) && expiringObject.value.equals(value)) {
+                return true;
             }
         }
         return false;
@@ -246,34 +236,20 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 
     @Override
     public int size() {
-        int size = 0;
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                size += segment.size();
-            }
-        }
-        return size;
+        expireQueue(CoarseClock.currentTimeMillis());
+        return size.get();
     }
 
     @Override
     public boolean isEmpty() {
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                if (!segment.isEmpty()) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return size() == 0;
     }
 
     @Override
     public void clear() {
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                segment.clear();
+        for (final ExpiringObject expiringObject : map.values()) {
+            synchronized (expiringObject) {
+                removeEntry(expiringObject);
             }
         }
     }
@@ -281,11 +257,10 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     @Override
     public int hashCode() {
         int hashCode = 0;
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
+        for (final ExpiringObject expiringObject : map.values()) {
+            if (!expire(expiringObject)) {
                 // as seen in AbstractMap
-                hashCode += segment.hashCode();
+                hashCode += expiringObject.key.hashCode() ^ expiringObject.value.hashCode();
             }
         }
         return hashCode;
@@ -294,10 +269,9 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     @Override
     public Set<K> keySet() {
         final Set<K> retVal = new HashSet<K>();
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                retVal.addAll(segment.keySet());
+        for (final ExpiringObject expiringObject : map.values()) {
+            if (!expire(expiringObject)) {
+                retVal.add(expiringObject.key);
             }
         }
         return retVal;
@@ -336,19 +310,9 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 				};
         	}
         };
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                final Iterator<ExpiringObject> iterator = segment.values().iterator();
-                while (iterator.hasNext()) {
-                    final ExpiringObject expiringObject = iterator.next();
-                    if (expiringObject.isExpired()) {
-                        iterator.remove();
-                        LOGGER.debug("Remove in entry set: {}.", expiringObject.getValue());
-                        removedCounter.incrementAndGet();
-                    } else {
-                        retVal.add(expiringObject.getValue());
-                    }
-                }
+        for (final ExpiringObject expiringObject : map.values()) {
+            if (!expire(expiringObject)) {
+                retVal.add(expiringObject.value);
             }
         }
         return retVal;
@@ -365,7 +329,7 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
         	    return new Iterator<Map.Entry<K,V>>() {
 
         	    	private K currentKey = null;
-        	    	
+
 					@Override
                     public boolean hasNext() {
 	                    return orig.hasNext();
@@ -388,34 +352,26 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 				};
         	}
         };
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                final Iterator<Map.Entry<K, ExpiringObject>> iterator = segment.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    final Map.Entry<K, ExpiringObject> entry = iterator.next();
-                    if (entry.getValue().isExpired()) {
-                        iterator.remove();
-                        LOGGER.debug("Removed in entry set: {}.", entry.getValue().getValue());
-                        removedCounter.incrementAndGet();
-                    } else {
-                        retVal.add(new Map.Entry<K, V>() {
-                            @Override
-                            public K getKey() {
-                                return entry.getKey();
-                            }
-
-                            @Override
-                            public V getValue() {
-                                return entry.getValue().getValue();
-                            }
-
-                            @Override
-                            public V setValue(final V value) {
-                                throw new UnsupportedOperationException("not supported");
-                            }
-                        });
+        for (final ExpiringObject expiringObject : map.values()) {
+            if (!expire(expiringObject)) {
+                final K key = expiringObject.key;
+                final V value = expiringObject.value;
+                retVal.add(new Map.Entry<K, V>() {
+                    @Override
+                    public K getKey() {
+                        return key;
                     }
-                }
+
+                    @Override
+                    public V getValue() {
+                        return value;
+                    }
+
+                    @Override
+                    public V setValue(final V value) {
+                        throw new UnsupportedOperationException("not supported");
+                    }
+                });
             }
         }
         return retVal;
@@ -423,62 +379,100 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 
     @Override
     public boolean replace(final K key, final V oldValue, final V newValue) {
-        final ExpiringObject oldValue2 = new ExpiringObject(oldValue, 0L);
-        final ExpiringObject newValue2 = new ExpiringObject(newValue, System.currentTimeMillis());
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue3;
-        boolean replaced = false;
-        synchronized (segment) {
-            oldValue3 = segment.get(key);
-            if (oldValue3 != null && !oldValue3.isExpired() && oldValue2.getValue().equals(oldValue3.getValue())) {
-                segment.put(key, newValue2);
-                replaced = true;
+        if (oldValue == null || newValue == null) {
+            throw new IllegalArgumentException("An expiring object cannot be null.");
+        }
+        final ExpiringObject oldValue2 = map.get(key);
+        if (oldValue2 == null) {
+            return false;
+        }
+        synchronized (oldValue2) {
+            final long now = CoarseClock.currentTimeMillis();
+            if (!oldValue2.removed && !oldValue2.isExpired(now) && oldValue.equals(oldValue2.value)) {
+                oldValue2.value = newValue;
+                oldValue2.lastAccessTime = now;
+                return true;
             }
         }
-        if (oldValue3 != null) {
-            expire(segment, key, oldValue3);
-        }
-        return replaced;
+        expire(oldValue2);
+        return false;
     }
 
     @Override
     public V replace(final K key, final V value) {
-        final ExpiringObject newValue = new ExpiringObject(value, System.currentTimeMillis());
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.get(key);
-            if (oldValue != null && !oldValue.isExpired()) {
-                segment.put(key, newValue);
-            }
+        if (value == null) {
+            throw new IllegalArgumentException("An expiring object cannot be null.");
         }
+        final ExpiringObject oldValue = map.get(key);
         if (oldValue == null) {
             return null;
         }
-        if (expire(segment, key, oldValue)) {
-            return null;
+        synchronized (oldValue) {
+            final long now = CoarseClock.currentTimeMillis();
+            if (!oldValue.removed && !oldValue.isExpired(now)) {
+                final V retVal = oldValue.value;
+                oldValue.value = value;
+                oldValue.lastAccessTime = now;
+                return retVal;
+            }
+        }
+        expire(oldValue);
+        return null;
+    }
+
+    /**
+     * Adds a new entry if there is no entry for this key.
+     *
+     * @return True if the entry was added, false if another thread added an entry for this key
+     */
+    private boolean insert(final K key, final V value, final long now) {
+        final ExpiringObject newValue = new ExpiringObject(key, value, now);
+        if (map.putIfAbsent(key, newValue) != null) {
+            return false;
+        }
+        size.incrementAndGet();
+        queue.add(newValue);
+        queueSize.incrementAndGet();
+        if (now != lastExpire) {
+            expireQueue(now);
+        }
+        if (size.get() > maxEntries) {
+            evict(now);
+        }
+        if (queueSize.get() > (size.get() + MAX_ENTRIES) * 2) {
+            compactQueue();
         }
-        return oldValue.getValue();
+        return true;
+    }
+
+    /**
+     * Removes an entry from the map. Needs to be called while holding the lock of the entry.
+     *
+     * @return True if this call removed the entry, false if it was already removed
+     */
+    private boolean removeEntry(final ExpiringObject expiringObject) {
+        if (expiringObject.removed) {
+            return false;
+        }
+        expiringObject.removed = true;
+        map.remove(expiringObject.key, expiringObject);
+        size.decrementAndGet();
+        return true;
     }
 
     /**
-     * Expires a key in a segment. If a key value pair is expired, it will get removed.
-     * 
-     * @param segment
-     *            The segment
-     * @param key
-     *            The key
+     * Expires an entry. If the entry is expired, it will get removed.
+     *
      * @param value
      *            The value
      * @return True if expired, otherwise false.
      */
-    private boolean expire(final CacheMap<K, ExpiringObject> segment, final K key, final ExpiringObject value) {
-        if (value.isExpired()) {
-            synchronized (segment) {
-                final ExpiringObject tmp = segment.get(key);
-                if (tmp != null && tmp.equals(value)) {
-                    segment.remove(key);
-                    LOGGER.debug("Removed in expire: {}.", value.getValue());
+    private boolean expire(final ExpiringObject value) {
+        if (value.isExpired(CoarseClock.currentTimeMillis())) {
+            synchronized (value) {
+                // the entry may have been refreshed in the meantime
+                if (value.isExpired(CoarseClock.currentTimeMillis()) && removeEntry(value)) {
+                    LOGGER.debug("Removed in expire: {}.", value.value);
                     removedCounter.incrementAndGet();
                 }
             }
@@ -488,21 +482,61 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     }
 
     /**
-     * Fast expiration. Since the ExpiringObject is ordered the for loop can break early if a object is not expired.
-     * 
-     * @param segment
-     *            The segment
+     * Batched expiration. Since the queue is ordered by insertion, the loop can stop at the first entry that is not
+     * expired.
+     *
+     * @param now
+     *            The current time of the {@link CoarseClock}
      */
-    private void expireSegment(final CacheMap<K, ExpiringObject> segment) {
-        final Iterator<ExpiringObject> iterator = segment.values().iterator();
-        while (iterator.hasNext()) {
-            final ExpiringObject expiringObject = iterator.next();
-            if (expiringObject.isExpired()) {
+    private void expireQueue(final long now) {
+        lastExpire = now;
+        ExpiringObject head;
+        while ((head = queue.peek()) != null) {
+            if (!head.removed && !expire(head)) {
+                return;
+            }
+            if (queue.remove(head)) {
+                queueSize.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Evicts entries until the map is below its capacity. An entry that was accessed gets a second chance.
+     *
+     * @param now
+     *            The current time of the {@link CoarseClock}
+     */
+    private void evict(final long now) {
+        ExpiringObject head;
+        while (size.get() > maxEntries && (head = queue.poll()) != null) {
+            if (head.removed) {
+                queueSize.decrementAndGet();
+                continue;
+            }
+            if (head.accessed && !head.isExpired(now)) {
+                head.accessed = false;
+                queue.add(head);
+                continue;
+            }
+            queueSize.decrementAndGet();
+            synchronized (head) {
+                if (removeEntry(head)) {
+                    LOGGER.debug("Evicted: {}.", head.value);
+                    evictedCounter.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entries from the queue that were removed from the map with a remove call.
+     */
+    private void compactQueue() {
+        for (final Iterator<ExpiringObject> iterator = queue.iterator(); iterator.hasNext();) {
+            if (iterator.next().removed) {
                 iterator.remove();
-                LOGGER.debug("Remove in expire segment: {}.", expiringObject.getValue());
-                removedCounter.incrementAndGet();
-            } else {
-                break;
+                queueSize.decrementAndGet();
             }
         }
     }
@@ -515,57 +549,63 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     }
 
     /**
-     * An object that also holds expiration information.
+     * @return The number of objects that were removed because the map reached its capacity
+     */
+    public int evictedCounter() {
+        return evictedCounter.get();
+    }
+
+    /**
+     * An object that also holds expiration information. The value and the time are only modified while holding the
+     * lock of this object.
      */
     private class ExpiringObject {
-        private final V value;
+        private final K key;
 
-        private final long lastAccessTime;
+        private volatile V value;
+
+        private volatile long lastAccessTime;
+
+        private volatile boolean accessed;
+
+        private volatile boolean removed;
 
         /**
          * Creates a new expiring object with the given time of access.
-         * 
+         *
+         * @param key
+         *            The key of this entry
          * @param value
          *            The value that is wrapped in this instance
          * @param lastAccessTimeMillis
          *            The time of access in milliseconds.
          */
-        ExpiringObject(final V value, final long lastAccessTimeMillis) {
+        ExpiringObject(final K key, final V value, final long lastAccessTimeMillis) {
             if (value == null) {
                 throw new IllegalArgumentException("An expiring object cannot be null.");
             }
+            this.key = key;
             this.value = value;
             this.lastAccessTime = lastAccessTimeMillis;
         }
 
         /**
+         * @param now
+         *            The current time in milliseconds of the {@link CoarseClock}
          * @return If entry is expired
          */
-        public boolean isExpired() {
-            return System.currentTimeMillis() >= lastAccessTime + 
-            		(TimeUnit.MILLISECONDS.convert(timeToLiveSeconds, TimeUnit.SECONDS));
+        boolean isExpired(final long now) {
+            // the coarse clock may lag behind, rather expire an entry a tick too early than too late
+            return now + CoarseClock.RESOLUTION_MILLIS >= lastAccessTime + timeToLiveMillis;
         }
 
         /**
-         * @return The wrapped value
+         * Marks this entry as recently used. Only write if necessary to avoid cache line contention.
          */
-        public V getValue() {
-            return value;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (!(obj instanceof ConcurrentCacheMap.ExpiringObject)) {
-                return false;
+        void access() {
+            if (!accessed) {
+                accessed = true;
             }
-            @SuppressWarnings("unchecked")
-            final ExpiringObject exp = (ExpiringObject) obj;
-            return value.equals(exp.value);
-        }
-
-        @Override
-        public int hashCode() {
-            return value.hashCode();
         }
     }
 }
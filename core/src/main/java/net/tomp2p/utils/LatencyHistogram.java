@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram with exponential buckets. Bucket 0 counts the values 0, bucket i counts the values in [2^(i-1),
+ * 2^i). Recording a value is a single atomic increment, so it can be used on hot paths. The precision is a factor of
+ * two, which is enough to see the shape of a latency distribution.
+ *
+ * @author Thomas Bocek
+ */
+public class LatencyHistogram {
+
+	// 2^62 is the largest bucket that still fits into a long
+	private static final int NR_BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NR_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are counted as 0.
+	 *
+	 * @param value
+	 *            The value to record, e.g., a latency in milliseconds
+	 * @return This class
+	 */
+	public LatencyHistogram record(final long value) {
+		final long v = value < 0 ? 0 : value;
+		buckets.incrementAndGet(bucket(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		long currentMax;
+		while ((currentMax = max.get()) < v) {
+			if (max.compareAndSet(currentMax, v)) {
+				break;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return The number of recorded values
+	 */
+	public long count() {
+		return count.get();
+	}
+
+	/**
+	 * @return The largest recorded value
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * @return The average of the recorded values, or 0 if no value was recorded
+	 */
+	public double mean() {
+		final long c = count.get();
+		return c == 0 ? 0 : sum.get() / (double) c;
+	}
+
+	/**
+	 * Returns an upper bound for the percentile, which is the upper limit of the bucket the percentile falls into.
+	 *
+	 * @param percentile
+	 *            The percentile between 0 and 100
+	 * @return The upper bound of the value, or 0 if no value was recorded
+	 */
+	public long percentile(final double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		}
+		final long[] snapshot = buckets();
+		long total = 0;
+		for (long c : snapshot) {
+			total += c;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long target = (long) Math.ceil(total * percentile / 100d);
+		long seen = 0;
+		for (int i = 0; i < NR_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= target && snapshot[i] > 0) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return A copy of the counts per bucket, see {@link #upperBound(int)} for the limits of a bucket
+	 */
+	public long[] buckets() {
+		final long[] snapshot = new long[NR_BUCKETS];
+		for (int i = 0; i < NR_BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @param bucket
+	 *            The bucket number
+	 * @return The largest value that is counted in this bucket
+	 */
+	public static long upperBound(final int bucket) {
+		if (bucket == 0) {
+			return 0;
+		}
+		if (bucket >= NR_BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		return (1L << bucket) - 1;
+	}
+
+	private static int bucket(final long value) {
+		return Math.min(NR_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("hist[n=").append(count()).append(",mean=")
+		        .append(String.format("%.1f", mean())).append(",p50=").append(percentile(50)).append(",p99=")
+		        .append(percentile(99)).append(",max=").append(max()).append("]");
+		return sb.toString();
+	}
+}
@@ -67,6 +67,7 @@ import net.tomp2p.peers.Number480;
 import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerSocketAddress;
+import net.tomp2p.storage.Data;
 import net.tomp2p.storage.DataBuffer;
 
 /**
@@ -87,6 +88,7 @@ public class Utils {
     public static final int SHORT_BYTE_SIZE = 2;	// 16 bits
     public static final int INTEGER_BYTE_SIZE = 4;	// 32 bits
     public static final int LONG_BYTE_SIZE = 8;		// 64 bits
+    private static final int COMPRESSION_CHUNK_SIZE = 8 * 1024;
 	public static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
     public static ByteBuffer loadFile(File file) throws IOException {
@@ -268,6 +270,127 @@ public class Utils {
         return uncompress(compressedData, 0, compressedData.length);
     }
 
+    /**
+     * Compresses the buffers with deflate (fastest level). The buffers are processed one after the other and the output
+     * is written in chunks, thus the data is never copied into one large array.
+     *
+     * @param buffers
+     *            The uncompressed data
+     * @return A new data buffer with the compressed data
+     */
+    public static DataBuffer compress(final List<ByteBuffer> buffers) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DataBuffer dataBuffer = new DataBuffer();
+            byte[] chunk = new byte[COMPRESSION_CHUNK_SIZE];
+            int chunkLength = 0;
+            for (final ByteBuffer buffer : buffers) {
+                setInput(deflater, null, buffer);
+                while (!deflater.needsInput()) {
+                    chunkLength += deflater.deflate(chunk, chunkLength, chunk.length - chunkLength);
+                    if (chunkLength == chunk.length) {
+                        dataBuffer.append(chunk, 0, chunkLength);
+                        chunk = new byte[COMPRESSION_CHUNK_SIZE];
+                        chunkLength = 0;
+                    }
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                chunkLength += deflater.deflate(chunk, chunkLength, chunk.length - chunkLength);
+                if (chunkLength == chunk.length) {
+                    dataBuffer.append(chunk, 0, chunkLength);
+                    chunk = new byte[COMPRESSION_CHUNK_SIZE];
+                    chunkLength = 0;
+                }
+            }
+            if (chunkLength > 0) {
+                dataBuffer.append(chunk, 0, chunkLength);
+            }
+            return dataBuffer;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Uncompresses the buffers that were compressed with {@link #compress(List)}. The buffers are processed one after
+     * the other and the output is written in chunks. The compressed data may come from an untrusted peer, thus the
+     * output is limited and a stream that does not make progress is rejected.
+     *
+     * @param buffers
+     *            The compressed data
+     * @param maxLength
+     *            The maximum length of the uncompressed data
+     * @return A new data buffer with the uncompressed data
+     * @throws IOException
+     *             If the data is not deflate compressed, incomplete, needs a preset dictionary or is longer than
+     *             maxLength when uncompressed
+     */
+    public static DataBuffer uncompress(final List<ByteBuffer> buffers, final int maxLength) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            final DataBuffer dataBuffer = new DataBuffer();
+            byte[] chunk = new byte[COMPRESSION_CHUNK_SIZE];
+            int chunkLength = 0;
+            long length = 0;
+            for (final ByteBuffer buffer : buffers) {
+                setInput(null, inflater, buffer);
+                while (!inflater.needsInput() && !inflater.finished()) {
+                    final int remaining = inflater.getRemaining();
+                    final int inflated = inflater.inflate(chunk, chunkLength, chunk.length - chunkLength);
+                    if (inflater.needsDictionary()) {
+                        throw new IOException("Compressed data with a preset dictionary is not supported.");
+                    }
+                    if (inflated == 0 && remaining == inflater.getRemaining()) {
+                        throw new IOException("Compressed data is corrupt.");
+                    }
+                    length += inflated;
+                    if (length > maxLength) {
+                        throw new IOException("Uncompressed data is longer than " + maxLength + " bytes.");
+                    }
+                    chunkLength += inflated;
+                    if (chunkLength == chunk.length) {
+                        dataBuffer.append(chunk, 0, chunkLength);
+                        chunk = new byte[COMPRESSION_CHUNK_SIZE];
+                        chunkLength = 0;
+                    }
+                }
+            }
+            if (!inflater.finished()) {
+                throw new IOException("Compressed data is incomplete.");
+            }
+            if (chunkLength > 0) {
+                dataBuffer.append(chunk, 0, chunkLength);
+            }
+            return dataBuffer;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void setInput(final Deflater deflater, final Inflater inflater, final ByteBuffer buffer) {
+        final byte[] array;
+        final int offset;
+        final int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            array = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+        } else {
+            // direct buffer, the (de)compressor only works with arrays
+            array = new byte[length];
+            buffer.duplicate().get(array);
+            offset = 0;
+        }
+        if (deflater != null) {
+            deflater.setInput(array, offset, length);
+        } else {
+            inflater.setInput(array, offset, length);
+        }
+    }
+
     public static byte[] encodeJavaObject(Object attachement) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(bos);
@@ -285,7 +408,7 @@ public class Utils {
         return obj;
     }
     
-    public static synchronized Object decodeJavaObject(List<ByteBuffer> buffers) throws ClassNotFoundException, IOException {
+    public static Object decodeJavaObject(List<ByteBuffer> buffers) throws ClassNotFoundException, IOException {
     	int count = buffers.size();
         Vector<InputStream> is = new Vector<InputStream>(count);
         for (ByteBuffer byteBuffer : buffers) {
@@ -298,7 +421,7 @@ public class Utils {
         return obj;
     }
 
-    public static synchronized Object decodeJavaObject(DataBuffer dataBuffer) throws ClassNotFoundException, IOException {
+    public static Object decodeJavaObject(DataBuffer dataBuffer) throws ClassNotFoundException, IOException {
         
     	if(dataBuffer.isHeapBuffer()) {
     		return decodeJavaObject(dataBuffer.heapBuffer(), 0, dataBuffer.length());
@@ -554,9 +677,31 @@ public class Utils {
         return false;
     }*/
 
+    /**
+     * Picks a random subset of the tracker data with a partial Fisher-Yates shuffle. If the data contains not more than
+     * trackerSize peers, the data is returned as is.
+     * 
+     * @param activePeers
+     *            The peers on the tracker
+     * @param trackerSize
+     *            The maximum number of peers to return
+     * @return The tracker data with at most trackerSize peers, marked as incomplete if peers were left out
+     */
     public static TrackerData limitRandom(TrackerData activePeers, int trackerSize) {
-        // TODO Auto-generated method stub
-        return activePeers;
+        final int size = activePeers.size();
+        if (size <= trackerSize) {
+            return activePeers;
+        }
+        final List<Map.Entry<PeerAddress, Data>> entries = new ArrayList<Map.Entry<PeerAddress, Data>>(activePeers
+                .peerAddresses().entrySet());
+        final Map<PeerAddress, Data> retVal = new HashMap<PeerAddress, Data>(trackerSize * 2);
+        for (int i = 0; i < trackerSize; i++) {
+            final int j = i + random.nextInt(size - i);
+            final Map.Entry<PeerAddress, Data> entry = entries.get(j);
+            entries.set(j, entries.get(i));
+            retVal.put(entry.getKey(), entry.getValue());
+        }
+        return new TrackerData(retVal, true);
     }
 
     public static <K> K getLast(List<K> list) {
@@ -0,0 +1,135 @@
+package net.tomp2p.connection;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.SortedMap;
+
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.rpc.RPC;
+import net.tomp2p.utils.LatencyHistogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMetrics {
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		Assert.assertEquals(100, histogram.count());
+		Assert.assertEquals(100, histogram.max());
+		Assert.assertEquals(50.5, histogram.mean(), 0.001);
+		// 50 is in the bucket [32, 64)
+		Assert.assertEquals(63, histogram.percentile(50));
+		// the upper bound of the last bucket is capped by the max
+		Assert.assertEquals(100, histogram.percentile(99));
+		Assert.assertEquals(0, new LatencyHistogram().percentile(99));
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Metrics metrics = new Metrics();
+		metrics.counter("test.counter").addAndGet(5);
+		metrics.histogram("test.latency").record(10).record(20);
+		metrics.gauge("test.gauge", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				return 7;
+			}
+		});
+		metrics.bytesOut(true, 100);
+		metrics.rpc(RPC.Commands.PING.getNr()).sent();
+		Assert.assertNull(metrics.rpc(255));
+
+		SortedMap<String, Long> snapshot = metrics.snapshot();
+		Assert.assertEquals(Long.valueOf(5), snapshot.get("test.counter"));
+		Assert.assertEquals(Long.valueOf(2), snapshot.get("test.latency.count"));
+		Assert.assertEquals(Long.valueOf(20), snapshot.get("test.latency.max"));
+		Assert.assertEquals(Long.valueOf(7), snapshot.get("test.gauge"));
+		Assert.assertEquals(Long.valueOf(100), snapshot.get("transport.udp.out"));
+		Assert.assertEquals(Long.valueOf(1), snapshot.get("rpc.PING.sent"));
+
+		String text = metrics.toString();
+		Assert.assertTrue(text.contains("rpc.PING.sent 1\n"));
+		// zeros are skipped
+		Assert.assertFalse(text.contains("rpc.PING.failed"));
+	}
+
+	@Test
+	public void testPingMetrics() throws Exception {
+		Peer sender = null;
+		Peer recv1 = null;
+		MetricsExporter exporter = null;
+		try {
+			sender = new PeerBuilder(new Number160("0x9876")).p2pId(55).ports(2424).start();
+			recv1 = new PeerBuilder(new Number160("0x1234")).p2pId(55).ports(8088).start();
+
+			FutureChannelCreator fcc = sender.connectionBean().reservation().create(1, 1);
+			fcc.awaitUninterruptibly();
+			FutureResponse fr1 = sender.pingRPC().pingUDP(recv1.peerAddress(), fcc.channelCreator(),
+			        new DefaultConnectionConfiguration());
+			FutureResponse fr2 = sender.pingRPC().pingTCP(recv1.peerAddress(), fcc.channelCreator(),
+			        new DefaultConnectionConfiguration());
+			fr1.awaitUninterruptibly();
+			fr2.awaitUninterruptibly();
+			fcc.channelCreator().shutdown().awaitUninterruptibly();
+			Assert.assertTrue(fr1.isSuccess());
+			Assert.assertTrue(fr2.isSuccess());
+
+			Metrics.RpcMetrics ping = sender.connectionBean().metrics().rpc(RPC.Commands.PING.getNr());
+			Assert.assertEquals(2, ping.sentCounter());
+			Assert.assertEquals(2, ping.okCounter());
+			Assert.assertEquals(0, ping.failedCounter());
+			Assert.assertEquals(2, ping.latency().count());
+			Metrics.RpcMetrics pingRecv = recv1.connectionBean().metrics().rpc(RPC.Commands.PING.getNr());
+			Assert.assertEquals(2, pingRecv.receivedCounter());
+			Assert.assertEquals(2, pingRecv.handled().count());
+
+			SortedMap<String, Long> snapshot = sender.connectionBean().metrics().snapshot();
+			Assert.assertTrue(snapshot.get("transport.udp.out") > 0);
+			Assert.assertTrue(snapshot.get("transport.udp.in") > 0);
+			Assert.assertTrue(snapshot.get("transport.tcp.out") > 0);
+			Assert.assertTrue(snapshot.get("transport.tcp.in") > 0);
+			Assert.assertEquals(Long.valueOf(1), snapshot.get("reservation.wait.count"));
+
+			exporter = new MetricsExporter(sender.connectionBean().metrics(), 0).start();
+			Socket socket = new Socket("localhost", exporter.port());
+			try {
+				OutputStream out = socket.getOutputStream();
+				out.write("GET / HTTP/1.0\r\n\r\n".getBytes("UTF-8"));
+				out.flush();
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				Assert.assertEquals("HTTP/1.0 200 OK", in.readLine());
+				boolean found = false;
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.equals("rpc.PING.sent 2")) {
+						found = true;
+					}
+				}
+				Assert.assertTrue(found);
+			} finally {
+				socket.close();
+			}
+		} finally {
+			if (exporter != null) {
+				exporter.shutdown();
+			}
+			if (sender != null) {
+				sender.shutdown().await();
+			}
+			if (recv1 != null) {
+				recv1.shutdown().await();
+			}
+		}
+	}
+}
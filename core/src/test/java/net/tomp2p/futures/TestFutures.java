@@ -16,15 +16,22 @@
 
 package net.tomp2p.futures;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.tomp2p.peers.Number160;
 
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
@@ -107,6 +114,114 @@ public class TestFutures {
         }
     }
 
+    /**
+     * Listeners are called in the order they were added, removed listeners are not called and listeners added after
+     * completion are called immediately.
+     */
+    @Test
+    public void testListenerOrder() {
+        final List<Integer> calls = new ArrayList<Integer>();
+        final FutureDone<Void> futureDone = new FutureDone<Void>();
+        BaseFutureAdapter<FutureDone<Void>> removed = null;
+        for (int i = 0; i < 5; i++) {
+            final int nr = i;
+            BaseFutureAdapter<FutureDone<Void>> listener = new BaseFutureAdapter<FutureDone<Void>>() {
+                @Override
+                public void operationComplete(final FutureDone<Void> future) throws Exception {
+                    calls.add(nr);
+                }
+            };
+            futureDone.addListener(listener);
+            if (i == 2) {
+                removed = listener;
+            }
+        }
+        futureDone.removeListener(removed);
+        Assert.assertFalse(futureDone.isCompleted());
+        futureDone.done();
+        Assert.assertTrue(futureDone.isSuccess());
+        Assert.assertEquals(Arrays.asList(0, 1, 3, 4), calls);
+        futureDone.addListener(new BaseFutureAdapter<FutureDone<Void>>() {
+            @Override
+            public void operationComplete(final FutureDone<Void> future) throws Exception {
+                calls.add(5);
+            }
+        });
+        Assert.assertEquals(Arrays.asList(0, 1, 3, 4, 5), calls);
+    }
+
+    /**
+     * Listeners added concurrently to the completion are called exactly once, and awaitListeners returns only after
+     * all of them were called.
+     */
+    @Test
+    public void testConcurrentListeners() throws Exception {
+        for (int round = 0; round < 1000; round++) {
+            final FutureDone<Void> futureDone = new FutureDone<Void>();
+            final AtomicInteger counter = new AtomicInteger();
+            final CountDownLatch started = new CountDownLatch(1);
+            final Future<?> adder = e.submit(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < 10; i++) {
+                        futureDone.addListener(new BaseFutureAdapter<FutureDone<Void>>() {
+                            @Override
+                            public void operationComplete(final FutureDone<Void> future) throws Exception {
+                                counter.incrementAndGet();
+                            }
+                        });
+                    }
+                }
+            });
+            started.await();
+            futureDone.done();
+            adder.get();
+            futureDone.awaitListeners();
+            Assert.assertEquals(10, counter.get());
+        }
+    }
+
+    /**
+     * Composed futures complete without blocking and propagate failures.
+     */
+    @Test
+    public void testCompose() {
+        final FutureDone<Integer> first = new FutureDone<Integer>();
+        final FutureDone<Integer> second = new FutureDone<Integer>();
+        FutureDone<FutureDone<Integer>> composed = Futures.thenCompose(first,
+                new Futures.Function<FutureDone<Integer>, FutureDone<Integer>>() {
+                    @Override
+                    public FutureDone<Integer> apply(final FutureDone<Integer> input) throws Exception {
+                        return second;
+                    }
+                });
+        FutureDone<String> applied = Futures.thenApply(composed,
+                new Futures.Function<FutureDone<FutureDone<Integer>>, String>() {
+                    @Override
+                    public String apply(final FutureDone<FutureDone<Integer>> input) throws Exception {
+                        return "result " + input.object().object();
+                    }
+                });
+        first.done(1);
+        Assert.assertFalse(applied.isCompleted());
+        second.done(2);
+        // completed in this thread
+        Assert.assertTrue(applied.isSuccess());
+        Assert.assertEquals("result 2", applied.object());
+
+        final FutureDone<Integer> failed = new FutureDone<Integer>();
+        FutureDone<String> notApplied = Futures.thenApply(failed, new Futures.Function<FutureDone<Integer>, String>() {
+            @Override
+            public String apply(final FutureDone<Integer> input) throws Exception {
+                throw new IllegalStateException("not called");
+            }
+        });
+        failed.failed("test");
+        Assert.assertTrue(notApplied.isFailed());
+        Assert.assertTrue(notApplied.failedReason().contains("test"));
+    }
+
     private void recursive(final AtomicReferenceArray<FutureTest> array, final Number160[] number160s, final int start,
             final int rounds, final int counter, final FutureDone<Void> futureDone) {
         int active = 0;
@@ -55,6 +55,7 @@ import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerSocketAddress;
+import net.tomp2p.rpc.NeighborRPC;
 import net.tomp2p.storage.AlternativeCompositeByteBuf;
 import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Utils;
@@ -429,6 +430,59 @@ public class TestMessage {
 		compareMessage(m1, m2);
 	}
 
+	@Test
+	public void testEncodedDataMap() throws Exception {
+		NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+		Random rnd = new Random(42l);
+		for (int i = 0; i < 100; i++) {
+			dataMap.put(new Number640(new Number160(rnd), new Number160(rnd),
+					new Number160(rnd), new Number160(rnd)), new Data(
+					new byte[] { (byte) rnd.nextInt(), (byte) rnd.nextInt(),
+							(byte) rnd.nextInt(), (byte) rnd.nextInt(),
+							(byte) rnd.nextInt() }));
+		}
+		ByteBuf encoded = new Encoder(new DSASignatureFactory()).encodeDataMap(new DataMap(dataMap), null);
+		// the same buffer is used for two messages
+		for (int i = 0; i < 2; i++) {
+			Message m1 = Utils2.createDummyMessage();
+			m1.type(Message.Type.REQUEST_1);
+			m1.intValue(i);
+			m1.setDataMap(new DataMap(dataMap).encoded(encoded));
+			Message m2 = encodeDecode(m1);
+			compareMessage(m1, m2);
+			Assert.assertEquals(Integer.valueOf(i), m2.intAt(0));
+			m2.release();
+		}
+		Assert.assertEquals(1, encoded.refCnt());
+		encoded.release();
+	}
+
+	@Test
+	public void testCompressedData() throws Exception {
+		Random rnd = new Random(42l);
+		Number640 key = new Number640(new Number160(rnd), new Number160(rnd), new Number160(rnd), new Number160(rnd));
+		Data data = new Data(new byte[1000]).compress();
+		Assert.assertTrue(data.isCompressed());
+		NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+		dataMap.put(key, data);
+		// the recipient did not announce that it can decode compressed data
+		Message m1 = Utils2.createDummyMessage();
+		m1.setDataMap(new DataMap(dataMap));
+		Message m2 = encodeDecode(m1);
+		Assert.assertFalse(m2.dataMap(0).dataMap().get(key).isCompressed());
+		Assert.assertArrayEquals(new byte[1000], m2.dataMap(0).dataMap().get(key).toBytes());
+		m2.release();
+		// the recipient can decode compressed data
+		Message m3 = Utils2.createDummyMessage();
+		m3.compressedData(true);
+		m3.setDataMap(new DataMap(dataMap));
+		Message m4 = encodeDecode(m3);
+		Assert.assertTrue(m4.dataMap(0).dataMap().get(key).isCompressed());
+		Assert.assertEquals(data, m4.dataMap(0).dataMap().get(key));
+		Assert.assertArrayEquals(new byte[1000], m4.dataMap(0).dataMap().get(key).toBytes());
+		m4.release();
+	}
+
 	@Test
 	public void testEncodeDecode480Set() throws Exception { // encode
 		Message m1 = Utils2.createDummyMessage();
@@ -550,6 +604,99 @@ public class TestMessage {
 		
 	}
 	
+	@Test
+	public void testCompactNeighbors() throws Exception {
+		Collection<PeerSocketAddress> psa = new ArrayList<PeerSocketAddress>();
+		psa.add(new PeerSocketAddress(InetAddress.getByName("192.168.230.230"), RND.nextInt(BIT_16),
+		        RND.nextInt(BIT_16)));
+		psa.add(new PeerSocketAddress(InetAddress.getByName("2123:4567:89ab:cdef:0123:4567:89ab:cde2"),
+		        RND.nextInt(BIT_16), RND.nextInt(BIT_16)));
+		List<PeerAddress> tmp = new ArrayList<PeerAddress>();
+		tmp.add(new PeerAddress(new Number160("0x657435a424444522456"), new PeerSocketAddress(
+		        InetAddress.getByName("192.168.230.236"), 7700, 7700), true, true, true, true, true, psa));
+		tmp.add(new PeerAddress(new Number160("0x657435a424444522457"), new PeerSocketAddress(
+		        InetAddress.getByName("4123:4567:89ab:cdef:0123:4567:89ab:cde4"), 7700, 7700), false, false,
+		        false, false, false, null));
+		for (int i = 0; i < 28; i++) {
+			tmp.add(new PeerAddress(new Number160("0x6574" + Integer.toHexString(RND.nextInt())),
+			        InetAddress.getByName("192.168.1." + i), 7700, 7701));
+		}
+		NeighborSet neighborSet = new NeighborSet(-1, tmp, true);
+		int fullSize = 1;
+		for (PeerAddress pa : tmp) {
+			fullSize += pa.size();
+		}
+		Assert.assertTrue(neighborSet.compactSize() < fullSize);
+		Message m1 = Utils2.createDummyMessage();
+		m1.buffer(neighborSet.encodeCompact());
+		m1.intValue(5);
+
+		Message m2 = encodeDecode(m1);
+		Assert.assertNull(m2.neighborsSet(0));
+		NeighborSet decoded = NeighborSet.decodeCompact(m2.buffer(0));
+		Assert.assertTrue(decoded.isCompact());
+		Assert.assertEquals(5, m2.intAt(0).intValue());
+		Assert.assertEquals(new HashSet<PeerAddress>(tmp), new HashSet<PeerAddress>(decoded.neighbors()));
+		for (PeerAddress pa : decoded.neighbors()) {
+			if (pa.peerId().equals(new Number160("0x657435a424444522456"))) {
+				Assert.assertArrayEquals(psa.toArray(), pa.peerSocketAddresses().toArray());
+				Assert.assertTrue(pa.isSlow());
+				Assert.assertTrue(pa.isPortForwarding());
+			} else if (pa.peerId().equals(new Number160("0x657435a424444522457"))) {
+				Assert.assertTrue(pa.isIPv6());
+			} else {
+				Assert.assertEquals(7701, pa.udpPort());
+			}
+		}
+		compareMessage(m1, m2);
+	}
+
+	@Test
+	public void testCompactNeighborsLimit() throws Exception {
+		List<PeerAddress> tmp = new ArrayList<PeerAddress>();
+		for (int i = 0; i < 100; i++) {
+			tmp.add(new PeerAddress(new Number160(RND), InetAddress.getByName("192.168.1." + i), 7700, 7700));
+		}
+		NeighborSet full = new NeighborSet(NeighborRPC.NEIGHBOR_LIMIT, new ArrayList<PeerAddress>(tmp));
+		NeighborSet compact = new NeighborSet(NeighborRPC.NEIGHBOR_LIMIT, tmp, true);
+		Assert.assertTrue(compact.compactSize() <= NeighborRPC.NEIGHBOR_LIMIT);
+		Assert.assertTrue(compact.size() > full.size());
+		// the first neighbors are the most important ones
+		Assert.assertTrue(compact.neighbors().containsAll(full.neighbors()));
+		Message m1 = Utils2.createDummyMessage();
+		m1.buffer(compact.encodeCompact());
+		Message m2 = encodeDecode(m1);
+		Assert.assertEquals(compact.neighbors(), NeighborSet.decodeCompact(m2.buffer(0)).neighbors());
+	}
+
+	@Test
+	public void testNeighborsMaxSize() throws Exception {
+		List<PeerAddress> tmp = new ArrayList<PeerAddress>();
+		for (int i = 0; i < 300; i++) {
+			tmp.add(new PeerAddress(new Number160(RND), InetAddress.getByName("192.168." + (i / 256) + "." + (i % 256)), 7700, 7700));
+		}
+		Message m1 = Utils2.createDummyMessage();
+		m1.neighborsSet(new NeighborSet(-1, new ArrayList<PeerAddress>(tmp.subList(0, NeighborSet.MAX_SIZE))));
+		Message m2 = encodeDecode(m1);
+		Assert.assertFalse(m2.neighborsSet(0).isCompact());
+		Assert.assertEquals(tmp.subList(0, NeighborSet.MAX_SIZE), m2.neighborsSet(0).neighbors());
+
+		// older peers send up to 255 neighbors in the full form
+		Message m4 = Utils2.createDummyMessage();
+		m4.neighborsSet(new NeighborSet(-1, new ArrayList<PeerAddress>(tmp.subList(0, 200))));
+		Assert.assertEquals(tmp.subList(0, 200), encodeDecode(m4).neighborsSet(0).neighbors());
+
+		// the size is one byte
+		Message m3 = Utils2.createDummyMessage();
+		m3.neighborsSet(new NeighborSet(-1, tmp));
+		try {
+			encodeDecode(m3);
+			Assert.fail("a set of 300 neighbors cannot be encoded");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 	@Test
 	public void testRelayFlag() throws Exception { // encode
 		Message m1 = Utils2.createDummyMessage();
@@ -594,6 +741,35 @@ public class TestMessage {
 		Assert.assertEquals(size, encodeDecode(message).estimateSize());
 	}
 
+	@Test
+	public void testKeepEncodedFrame() throws Exception {
+		Message m1 = Utils2.createDummyMessage();
+		m1.buffer(new Buffer(Unpooled.buffer().writeInt(99)));
+		final AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
+		new Encoder(null).write(buf, m1, null);
+		final byte[] encoded = new byte[buf.readableBytes()];
+		buf.getBytes(buf.readerIndex(), encoded);
+
+		Decoder decoder = new Decoder(null, new Decoder.FrameFilter() {
+			@Override
+			public boolean keepEncodedFrame(Message message) {
+				return true;
+			}
+		});
+		decoder.decode(mockChannelHandlerContext(buf, new AtomicReference<Message>()), buf, m1.recipient()
+				.createSocketTCP(), m1.sender().createSocketTCP());
+		Message m2 = decoder.prepareFinish();
+		compareMessage(m1, m2);
+		Assert.assertEquals(Unpooled.wrappedBuffer(encoded), m2.encodedFrame());
+
+		// the kept frame is written as it is
+		final AlternativeCompositeByteBuf buf2 = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
+		new Encoder(null).write(buf2, m2, null);
+		Assert.assertEquals(Unpooled.wrappedBuffer(encoded), buf2);
+		buf.release();
+		buf2.release();
+	}
+
 	/**
 	 * Encodes and decodes a message.
 	 * 
@@ -1,5 +1,6 @@
 package net.tomp2p.p2p;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,6 +12,7 @@ import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.futures.FutureDiscover;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMapSnapshot;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -205,4 +207,65 @@ public class TestBootstrap {
             }
         }
     }
+
+    @Test
+    public void testBootstrapSnapshot() throws Exception {
+        final Random rnd = new Random(42);
+        Peer master = null;
+        Peer peer = null;
+        File file = File.createTempFile("peermap", ".snapshot");
+        file.delete();
+        try {
+            Peer[] peers = Utils2.createNodes(100, rnd, 4001);
+            master = peers[0];
+            Utils2.perfectRouting(peers);
+
+            Number160 peerId = new Number160(rnd);
+            PeerMapSnapshot snapshot = new PeerMapSnapshot(file);
+            peer = new PeerBuilder(peerId).ports(4101).peerMapSnapshot(snapshot).start();
+            FutureBootstrap fb = peer.bootstrap().peerAddress(master.peerAddress()).start();
+            fb.awaitUninterruptibly();
+            Assert.assertEquals(true, fb.isSuccess());
+            List<PeerAddress> before = peer.peerBean().peerMap().all();
+            Assert.assertFalse(before.isEmpty());
+            peer.shutdown().await();
+            Assert.assertEquals(before, snapshot.load());
+
+            // restart without seeds
+            peer = new PeerBuilder(peerId).ports(4101).peerMapSnapshot(snapshot).start();
+            Assert.assertEquals(0, peer.peerBean().peerMap().size());
+            fb = peer.bootstrap().minFilledBags(3).start();
+            fb.awaitUninterruptibly();
+            Assert.assertEquals(true, fb.isSuccess());
+            Assert.assertTrue(peer.peerBean().peerMap().nrFilledBags() >= 3);
+        } finally {
+            if (peer != null) {
+                peer.shutdown().await();
+            }
+            if (master != null) {
+                master.shutdown().await();
+            }
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBootstrapMinFilledBags() throws Exception {
+        final Random rnd = new Random(42);
+        Peer peer = null;
+        try {
+            peer = new PeerBuilder(new Number160(rnd)).ports(4001).start();
+            // nobody listens on this port, the bootstrap only completes because of the filled bag
+            PeerAddress seed = new PeerAddress(new Number160(rnd), InetAddress.getByName("127.0.0.1"), 4999, 4999);
+            FutureBootstrap fb = peer.bootstrap().peerAddress(seed).minFilledBags(1).start();
+            // completes the bootstrap while the peer map notifies its listeners
+            peer.peerBean().peerMap().peerFound(new PeerAddress(new Number160(rnd)), null, null, null);
+            fb.awaitUninterruptibly();
+            Assert.assertEquals(true, fb.isSuccess());
+        } finally {
+            if (peer != null) {
+                peer.shutdown().await();
+            }
+        }
+    }
 }
@@ -1,10 +1,22 @@
 package net.tomp2p.p2p;
 
 
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.NavigableMap;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.Utils2;
+import net.tomp2p.connection.Bindings;
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.message.Message;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapConfiguration;
+import net.tomp2p.storage.Data;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -82,4 +94,217 @@ public class TestBroadcast {
 			}
 		}
 	}
+	
+	@Test
+	public void testBroadcastDataMap() throws Exception {
+		
+		Peer master = null;
+		try {
+			// setup
+			Peer[] peers = Utils2.createNodes(200, RND, 4001);
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+			for (int i = 0; i < 4; i++) {
+				dataMap.put(new Number640(new Number160(RND), Number160.ZERO, Number160.ZERO, Number160.ZERO),
+				        new Data(new byte[100]));
+			}
+			// the counter is shared by all handlers in this JVM
+			StructuredBroadcastHandler d = (StructuredBroadcastHandler) master.broadcastRPC().broadcastHandler();
+			final int expected = d.broadcastCounter() + 200;
+			// do testing, the data map is encoded once per fan-out
+			master.broadcast(Number160.createHash("blub2")).dataMap(dataMap).start();
+			int counter = 0;
+			while (d.broadcastCounter() < expected) {
+				Thread.sleep(200);
+				counter++;
+				if (counter > 100) {
+					Assert.fail("did not broadcast to 200 peers, but to " + (d.broadcastCounter() - expected + 200));
+				}
+			}
+			System.out.println("msg count: "+d.messageCounter());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+	
+	@Test
+	public void testBroadcastSignedDataMap() throws Exception {
+		
+		Peer master = null;
+		try {
+			// setup, the key is small enough for SHA1withDSA
+			final int nrOfPeers = 20;
+			KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+			gen.initialize(1024);
+			final KeyPair keyPair = gen.generateKeyPair();
+			final AtomicInteger verified = new AtomicInteger();
+			final AtomicInteger unsigned = new AtomicInteger();
+			Peer[] peers = new Peer[nrOfPeers];
+			Bindings bindings = new Bindings();
+			for (int i = 0; i < nrOfPeers; i++) {
+				Number160 peerId = new Number160(RND);
+				StructuredBroadcastHandler handler = new StructuredBroadcastHandler() {
+					@Override
+					public StructuredBroadcastHandler receive(Message message) {
+						// the initiator passes its own message with hop 0 to the handler without encoding it
+						if (message.dataMap(0) != null && message.intAt(0) > 0) {
+							for (Data data : message.dataMap(0).dataMap().values()) {
+								try {
+									if (data.signature() != null
+									        && data.verify(keyPair.getPublic(), new DSASignatureFactory())) {
+										verified.incrementAndGet();
+									} else {
+										unsigned.incrementAndGet();
+									}
+								} catch (Exception e) {
+									unsigned.incrementAndGet();
+								}
+							}
+						}
+						return super.receive(message);
+					}
+				};
+				PeerBuilder pb = new PeerBuilder(peerId).bindings(bindings).enableMaintenance(false)
+				        .peerMap(new PeerMap(new PeerMapConfiguration(peerId).peerNoVerification()))
+				        .broadcastHandler(handler);
+				peers[i] = i == 0 ? pb.keyPair(keyPair).ports(4001).start() : pb.masterPeer(peers[0]).start();
+			}
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+			dataMap.put(new Number640(new Number160(RND), Number160.ZERO, Number160.ZERO, Number160.ZERO),
+			        new Data(new byte[100]).sign());
+			// do testing, the entry has no key, so it is signed with the key of the peer
+			master.broadcast(Number160.createHash("signed")).dataMap(dataMap).start();
+			int counter = 0;
+			while (verified.get() < nrOfPeers - 1) {
+				Thread.sleep(200);
+				counter++;
+				if (counter > 100) {
+					Assert.fail("did not verify on " + (nrOfPeers - 1) + " peers, but on " + verified.get());
+				}
+			}
+			Assert.assertEquals(0, unsigned.get());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+	
+	@Test
+	public void testGossipBroadcast() throws Exception {
+		
+		Peer master = null;
+		try {
+			// setup, every peer needs its own handler
+			final int nrOfPeers = 100;
+			final AtomicInteger delivered = new AtomicInteger();
+			Peer[] peers = new Peer[nrOfPeers];
+			Bindings bindings = new Bindings();
+			for (int i = 0; i < nrOfPeers; i++) {
+				Number160 peerId = new Number160(RND);
+				GossipBroadcastHandler handler = new GossipBroadcastHandler() {
+					@Override
+					protected void deliver(Number160 messageKey, NavigableMap<Number640, Data> dataMap) {
+						Assert.assertEquals(2, dataMap.size());
+						delivered.incrementAndGet();
+					}
+				};
+				PeerBuilder pb = new PeerBuilder(peerId).bindings(bindings).enableMaintenance(false)
+				        .peerMap(new PeerMap(new PeerMapConfiguration(peerId).peerNoVerification()))
+				        .broadcastHandler(handler);
+				peers[i] = i == 0 ? pb.ports(4001).start() : pb.masterPeer(peers[0]).start();
+			}
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+			for (int i = 0; i < 2; i++) {
+				dataMap.put(new Number640(new Number160(RND), Number160.ZERO, Number160.ZERO, Number160.ZERO),
+				        new Data(new byte[100]));
+			}
+			// do testing
+			master.broadcast(Number160.createHash("gossip")).dataMap(dataMap).start();
+			int counter = 0;
+			while (delivered.get() < nrOfPeers) {
+				Thread.sleep(200);
+				counter++;
+				if (counter > 100) {
+					Assert.fail("did not gossip to " + nrOfPeers + " peers, but to " + delivered.get());
+				}
+			}
+			GossipBroadcastHandler d = (GossipBroadcastHandler) master.broadcastRPC().broadcastHandler();
+			Assert.assertEquals(1, d.deliveredCounter());
+			System.out.println("latency of the last peer: "
+			        + ((GossipBroadcastHandler) peers[nrOfPeers - 1].broadcastRPC().broadcastHandler())
+			                .latencyHistogram());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
+	@Test
+	public void testGossipAntiEntropy() throws Exception {
+		Peer master = null;
+		try {
+			// setup, a push reaches only one peer and half of the pushes are lost, the digests repair the rest
+			final int nrOfPeers = 20;
+			final AtomicInteger delivered = new AtomicInteger();
+			final AtomicInteger lost = new AtomicInteger();
+			final Random lossRnd = new Random(42);
+			Peer[] peers = new Peer[nrOfPeers];
+			GossipBroadcastHandler[] handlers = new GossipBroadcastHandler[nrOfPeers];
+			Bindings bindings = new Bindings();
+			for (int i = 0; i < nrOfPeers; i++) {
+				Number160 peerId = new Number160(RND);
+				handlers[i] = new GossipBroadcastHandler() {
+					@Override
+					public GossipBroadcastHandler receive(Message message) {
+						if (message.type() == Message.Type.REQUEST_FF_1 && lossRnd.nextBoolean()) {
+							lost.incrementAndGet();
+							return this;
+						}
+						return super.receive(message);
+					}
+
+					@Override
+					protected void deliver(Number160 messageKey, NavigableMap<Number640, Data> dataMap) {
+						delivered.incrementAndGet();
+					}
+				}.fanout(1).maxHops(1).antiEntropyRounds(2);
+				PeerBuilder pb = new PeerBuilder(peerId).bindings(bindings).enableMaintenance(false)
+				        .peerMap(new PeerMap(new PeerMapConfiguration(peerId).peerNoVerification()))
+				        .broadcastHandler(handlers[i]);
+				peers[i] = i == 0 ? pb.ports(4001).start() : pb.masterPeer(peers[0]).start();
+			}
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			// do testing
+			master.broadcast(Number160.createHash("anti-entropy")).start();
+			int counter = 0;
+			while (delivered.get() < nrOfPeers) {
+				Thread.sleep(200);
+				counter++;
+				if (counter > 150) {
+					Assert.fail("did not repair to " + nrOfPeers + " peers, but to " + delivered.get());
+				}
+			}
+			long repaired = 0;
+			for (GossipBroadcastHandler handler : handlers) {
+				Assert.assertEquals(1, handler.deliveredCounter());
+				repaired += handler.repairedCounter();
+			}
+			Assert.assertTrue(lost.get() > 0);
+			Assert.assertTrue(repaired >= nrOfPeers - 2);
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
 }
@@ -4,21 +4,33 @@ import io.netty.channel.ChannelHandler;
 import io.netty.util.concurrent.EventExecutorGroup;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
 import net.tomp2p.connection.Bindings;
+import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.connection.ChannelServerConfiguration;
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PipelineFilter;
 import net.tomp2p.connection.StandardProtocolFamily;
 import net.tomp2p.futures.FutureBootstrap;
+import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDirect;
 import net.tomp2p.futures.FuturePeerConnection;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.futures.FutureRouting;
 import net.tomp2p.message.CountConnectionOutboundHandler;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.builder.RoutingBuilder;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.NeighborRPC.SearchValues;
 import net.tomp2p.rpc.ObjectDataReply;
 import net.tomp2p.utils.Pair;
 
@@ -119,4 +131,136 @@ public class TestConnection {
             }
         }
     }
+
+    @Test
+    public void testRoutingReuse() throws Exception {
+        Random rnd = new Random(42);
+        Peer peer1 = null;
+        Peer peer2 = null;
+        ChannelCreator cc = null;
+        try {
+            final CountConnectionOutboundHandler ccohTCP = new CountConnectionOutboundHandler();
+            final CountConnectionOutboundHandler ccohUDP = new CountConnectionOutboundHandler();
+            PipelineFilter pf = new PipelineFilter() {
+                @Override
+                public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+                        Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp,
+                        boolean client) {
+                    Map<String, Pair<EventExecutorGroup, ChannelHandler>> retVal = new LinkedHashMap<String, Pair<EventExecutorGroup, ChannelHandler>>();
+                    retVal.put("counter", new Pair<EventExecutorGroup, ChannelHandler>(null, tcp ? ccohTCP : ccohUDP));
+                    retVal.putAll(channelHandlers);
+                    return retVal;
+                }
+            };
+            ChannelClientConfiguration ccc = PeerBuilder.createDefaultChannelClientConfiguration();
+            ccc.pipelineFilter(pf);
+            peer1 = new PeerBuilder(new Number160(rnd)).ports(4005).channelClientConfiguration(ccc).start();
+            peer2 = new PeerBuilder(new Number160(rnd)).ports(4006).start();
+            peer2.objectDataReply(new ObjectDataReply() {
+                @Override
+                public Object reply(PeerAddress sender, Object request) throws Exception {
+                    return "world!";
+                }
+            });
+            peer1.bootstrap().peerAddress(peer2.peerAddress()).start().awaitUninterruptibly();
+
+            // the open connection is known to both peers after the first request
+            FuturePeerConnection fpc = peer1.createPeerConnection(peer2.peerAddress());
+            FutureDirect fd = peer1.sendDirect(fpc).object("Hello").start().awaitUninterruptibly();
+            Assert.assertEquals(true, fd.isSuccess());
+            Assert.assertNotNull(peer1.peerBean().peerMap().peerConnection(peer2.peerAddress()));
+            Assert.assertNotNull(peer2.peerBean().peerMap().peerConnection(peer1.peerAddress()));
+            final int totalTCP = ccohTCP.total();
+
+            // the routing reuses the connection instead of opening a new one
+            FutureChannelCreator fcc = peer1.connectionBean().reservation().create(1, 0);
+            fcc.awaitUninterruptibly();
+            cc = fcc.channelCreator();
+            RoutingBuilder routingBuilder = new RoutingBuilder();
+            routingBuilder.locationKey(peer2.peerID());
+            routingBuilder.maxDirectHits(0);
+            routingBuilder.setMaxNoNewInfo(0);
+            routingBuilder.maxFailures(0);
+            routingBuilder.maxSuccess(100);
+            routingBuilder.parallel(1);
+            FutureRouting fr = peer1.distributedRouting().route(routingBuilder, Type.REQUEST_1, cc);
+            fr.awaitUninterruptibly();
+            Assert.assertEquals(true, fr.isSuccess());
+            Assert.assertEquals(peer2.peerAddress(), fr.potentialHits().first());
+            Assert.assertEquals(1, peer1.connectionBean().metrics().counter("connection.reused").get());
+            Assert.assertEquals(totalTCP, ccohTCP.total());
+            fpc.close().await();
+        } finally {
+            if (cc != null) {
+                cc.shutdown().awaitListenersUninterruptibly();
+            }
+            if (peer1 != null) {
+                peer1.shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.shutdown().await();
+            }
+        }
+    }
+
+    @Test
+    public void testSharedConnection() throws Exception {
+        Random rnd = new Random(42);
+        Peer peer1 = null;
+        Peer peer2 = null;
+        ChannelCreator cc = null;
+        try {
+            peer1 = new PeerBuilder(new Number160(rnd)).ports(4005).start();
+            peer2 = new PeerBuilder(new Number160(rnd)).ports(4006).start();
+            peer2.objectDataReply(new ObjectDataReply() {
+                @Override
+                public Object reply(PeerAddress sender, Object request) throws Exception {
+                    return "world!";
+                }
+            });
+            peer1.bootstrap().peerAddress(peer2.peerAddress()).start().awaitUninterruptibly();
+            FuturePeerConnection fpc = peer1.createPeerConnection(peer2.peerAddress());
+            // the connection is released by a listener
+            FutureDirect fd = peer1.sendDirect(fpc).object("Hello").start();
+            fd.awaitListenersUninterruptibly();
+            Assert.assertEquals(true, fd.isSuccess());
+
+            // the dispatcher creates its own connection object for a request that arrives over the channel
+            PeerConnection pc = fpc.peerConnection();
+            PeerConnection incoming = new PeerConnection(peer2.peerAddress(), pc.channelFuture(),
+                    pc.heartBeatMillis());
+            FutureResponse held = new FutureResponse(new Message());
+            Assert.assertEquals(true, pc.tryAcquire(held));
+            Assert.assertEquals(false, incoming.tryAcquire(new FutureResponse(new Message())));
+            held.failed("released");
+
+            // direct messages over the connection of the user and neighbor requests over the one of the dispatcher
+            final int nr = 20;
+            FutureChannelCreator fcc = peer1.connectionBean().reservation().create(nr, nr);
+            fcc.awaitUninterruptibly();
+            cc = fcc.channelCreator();
+            List<FutureResponse> futures = new ArrayList<FutureResponse>();
+            for (int i = 0; i < nr; i++) {
+                futures.add(peer1.sendDirect(fpc).object("Hello").start());
+                futures.add(peer1.neighborRPC().closeNeighbors(peer2.peerAddress(),
+                        new SearchValues(peer2.peerID(), null), Type.REQUEST_1, cc, incoming,
+                        new DefaultConnectionConfiguration()));
+            }
+            for (FutureResponse future : futures) {
+                future.awaitUninterruptibly();
+                Assert.assertEquals(future.failedReason(), true, future.isSuccess());
+            }
+            fpc.close().await();
+        } finally {
+            if (cc != null) {
+                cc.shutdown().awaitListenersUninterruptibly();
+            }
+            if (peer1 != null) {
+                peer1.shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.shutdown().await();
+            }
+        }
+    }
 }
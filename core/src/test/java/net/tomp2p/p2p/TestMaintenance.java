@@ -1,10 +1,16 @@
 package net.tomp2p.p2p;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.Utils2;
 import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.peers.Number160;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -51,6 +57,55 @@ public class TestMaintenance {
         
     }
     
+    @Test
+    public void testPingBudget() throws Exception {
+        final Random rnd = new Random(42L);
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        Peer master = null;
+        try {
+            // no churn estimation, which would raise the budget
+            master = new PeerBuilder(new Number160(rnd)).ports(4001).enableMaintenance(false)
+                    .estimatorIntervalMillis(0).start();
+            final List<BaseFuture> futures = Collections.synchronizedList(new ArrayList<BaseFuture>());
+            master.addAutomaticFuture(new AutomaticFuture() {
+                @Override
+                public void futureCreated(BaseFuture future) {
+                    futures.add(future);
+                }
+            });
+            Peer[] slaves = new Peer[20];
+            for (int i = 0; i < slaves.length; i++) {
+                slaves[i] = new PeerBuilder(new Number160(rnd)).masterPeer(master).enableMaintenance(false).start();
+            }
+            // all peers need a check right away
+            for (int i = 1; i < slaves.length; i++) {
+                master.peerBean().peerMap().peerFound(slaves[i].peerAddress(), slaves[0].peerAddress(), null, null);
+            }
+
+            // the rounds are run here instead of by the timer
+            final MaintenanceTask maintenanceTask = new MaintenanceTask().pingsPerSecond(2);
+            maintenanceTask.init(master, timer);
+            timer.shutdownNow();
+            maintenanceTask.addMaintainable(master.peerBean().peerMap());
+            for (int round = 1; round <= 3; round++) {
+                maintenanceTask.run();
+                // two pings per round
+                Assert.assertEquals(2 * round, futures.size());
+                for (BaseFuture future : new ArrayList<BaseFuture>(futures)) {
+                    future.awaitListenersUninterruptibly();
+                }
+            }
+            Assert.assertEquals(6, master.connectionBean().metrics().counter("maintenance.ping").get());
+            // the peers were never seen online before, so there is no lag
+            Assert.assertEquals(0, master.connectionBean().metrics().histogram("maintenance.lag").count());
+        } finally {
+            timer.shutdownNow();
+            if (master != null) {
+                master.shutdown().await();
+            }
+        }
+    }
+
     private static class Rep implements AutomaticFuture {
         
         private final AtomicInteger counter;
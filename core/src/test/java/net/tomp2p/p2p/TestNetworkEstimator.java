@@ -0,0 +1,140 @@
+package net.tomp2p.p2p;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.tomp2p.Utils2;
+import net.tomp2p.connection.Metrics;
+import net.tomp2p.connection.PeerException;
+import net.tomp2p.connection.PeerException.AbortCause;
+import net.tomp2p.peers.DefaultMaintenance;
+import net.tomp2p.peers.DefaultPeerFilter;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapConfiguration;
+import net.tomp2p.peers.RTT;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+public class TestNetworkEstimator {
+
+	private static final Number160 ID = new Number160("0x1");
+
+	@Rule
+	public TestRule watcher = new TestWatcher() {
+		protected void starting(Description description) {
+			System.out.println("Starting test: " + description.getMethodName());
+		}
+	};
+
+	@Test
+	public void testChurn() throws UnknownHostException {
+		final PeerMap peerMap = createPeerMap(20, -1);
+		final Metrics metrics = new Metrics();
+		final NetworkEstimator networkEstimator = new NetworkEstimator(peerMap, metrics);
+		peerMap.addPeerMapChangeListener(networkEstimator);
+
+		final Random rnd = new Random(42L);
+		final List<PeerAddress> peers = new ArrayList<PeerAddress>();
+		for (int i = 0; i < 10000; i++) {
+			final PeerAddress peerAddress = Utils2.createAddress(new Number160(rnd));
+			peerMap.peerFound(peerAddress, null, null, null);
+			if (peerMap.contains(peerAddress)) {
+				peers.add(peerAddress);
+			}
+		}
+
+		// without churn, the routing is not changed
+		networkEstimator.run();
+		Assert.assertEquals(1, networkEstimator.liveness(), 0);
+		Assert.assertEquals(0, networkEstimator.churnRate(), 0);
+		Assert.assertTrue(networkEstimator.networkSize() > peerMap.size());
+		final RoutingConfiguration routingConfiguration = new RoutingConfiguration(5, 10, 2);
+		Assert.assertSame(routingConfiguration, networkEstimator.routingConfiguration(routingConfiguration));
+
+		// half of the peers leave in every interval
+		for (int j = 0; j < 5; j++) {
+			for (int i = 0; i < peers.size() / 2; i++) {
+				peerMap.peerFailed(peers.get(i), new PeerException(AbortCause.SHUTDOWN, "shutdown"));
+			}
+			networkEstimator.run();
+			peers.subList(0, peers.size() / 2).clear();
+		}
+		Assert.assertTrue(networkEstimator.departures() > 0);
+		Assert.assertEquals(networkEstimator.departures(), metrics.counter("estimator.departures").get());
+		Assert.assertTrue(networkEstimator.churnRate() > 0);
+		Assert.assertTrue(networkEstimator.liveness() < 0.75);
+		final int bag = PeerMap.classMember(ID, peers.get(0).peerId());
+		Assert.assertTrue(networkEstimator.liveness(bag) < 1);
+		Assert.assertTrue(networkEstimator.factor() > 1.3 && networkEstimator.factor() <= 2);
+
+		final RoutingConfiguration adapted = networkEstimator.routingConfiguration(routingConfiguration);
+		Assert.assertEquals(Math.round(2 * networkEstimator.factor()), adapted.parallel());
+		Assert.assertEquals(Math.round(5 * networkEstimator.factor()), adapted.maxNoNewInfoDiff());
+		Assert.assertEquals(Math.round(10 * networkEstimator.factor()), adapted.maxFailures());
+		Assert.assertEquals(Integer.MAX_VALUE, adapted.maxDirectHits());
+	}
+
+	@Test
+	public void testReplacedPeerNotDeparted() throws UnknownHostException {
+		final PeerMap peerMap = createPeerMap(3, 0);
+		final NetworkEstimator networkEstimator = new NetworkEstimator(peerMap, new Metrics());
+		peerMap.addPeerMapChangeListener(networkEstimator);
+		final PeerAddress slow = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000001"));
+		final PeerAddress fast = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000002"));
+		for (int i = 0; i < 2; i++) {
+			peerMap.peerFound(Utils2.createAddress(new Number160("0x800000000000000000000000000000000000001" + i)),
+			        null, null, new RTT(10, false));
+		}
+		peerMap.peerFound(slow, null, null, new RTT(100, false));
+		peerMap.peerFound(fast, null, null, new RTT(20, false));
+		Assert.assertTrue(peerMap.contains(fast));
+		Assert.assertTrue(peerMap.containsOverflow(slow));
+		networkEstimator.run();
+		Assert.assertEquals(0, networkEstimator.departures());
+		Assert.assertEquals(1, networkEstimator.liveness(), 0);
+	}
+
+	@Test
+	public void testDistinctDepartures() throws UnknownHostException {
+		final PeerMap peerMap = createPeerMap(3, -1);
+		final NetworkEstimator networkEstimator = new NetworkEstimator(peerMap, new Metrics());
+		peerMap.addPeerMapChangeListener(networkEstimator);
+		final PeerAddress peerAddress = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000001"));
+		final PeerException shutdown = new PeerException(AbortCause.SHUTDOWN, "shutdown");
+
+		// a peer that leaves twice within an interval departs once
+		for (int i = 0; i < 2; i++) {
+			peerMap.peerFound(peerAddress, null, null, null);
+			Assert.assertTrue(peerMap.peerFailed(peerAddress, shutdown));
+		}
+		Assert.assertEquals(1, networkEstimator.departures());
+		networkEstimator.run();
+		Assert.assertEquals(1, networkEstimator.lastDepartures());
+
+		// and again in the next interval
+		peerMap.peerFound(peerAddress, null, null, null);
+		Assert.assertTrue(peerMap.peerFailed(peerAddress, shutdown));
+		networkEstimator.run();
+		Assert.assertEquals(2, networkEstimator.departures());
+		Assert.assertEquals(1, networkEstimator.lastDepartures());
+		networkEstimator.run();
+		Assert.assertEquals(0, networkEstimator.lastDepartures());
+	}
+
+	private static PeerMap createPeerMap(int bagSize, int proximityThresholdMillis) {
+		PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+		conf.setFixedVerifiedBagSizes(bagSize).setFixedOverflowBagSizes(10).proximityThresholdMillis(proximityThresholdMillis);
+		conf.offlineCount(1000).offlineTimeout(60);
+		conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+		return new PeerMap(conf);
+	}
+}
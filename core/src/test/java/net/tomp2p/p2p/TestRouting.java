@@ -773,9 +773,9 @@ public class TestRouting {
             System.out.println(peer.peerAddress().peerId().toString(true) + ":");
             System.out.println("\tVerified:");
             for (int bucket=0; bucket<160; bucket++) {
-                if (!peer.peerBean().peerMap().peerMapVerified().get(bucket).isEmpty()) {
+                if (!peer.peerBean().peerMap().view().bag(bucket).isEmpty()) {
                     System.out.print("\t\tBucket " + bucket + ":");
-                    for (PeerStatistic ps : peer.peerBean().peerMap().peerMapVerified().get(bucket).values()) {
+                    for (PeerStatistic ps : peer.peerBean().peerMap().view().bag(bucket)) {
                         System.out.print(" " + ps.peerAddress().peerId().toString(true));
                     }
                     System.out.print("\n");
@@ -16,19 +16,30 @@
 
 package net.tomp2p.peers;
 
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Random;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.Utils2;
+import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PeerException;
 import net.tomp2p.connection.PeerException.AbortCause;
 import net.tomp2p.utils.Utils;
@@ -506,6 +517,300 @@ public class TestPeerMap {
         Assert.assertEquals(peerStatatistic.peerAddress(), pa3);
     }
 
+    @Test
+    public void testMaintenanceBatch() throws UnknownHostException {
+        PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+        conf.setFixedVerifiedBagSizes(10).setFixedOverflowBagSizes(10);
+        conf.offlineCount(1000).offlineTimeout(100);
+        conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(4, new int[] { 1, 1 }));
+        final PeerMap peerMap = new PeerMap(conf);
+
+        Random rnd = new Random(42L);
+        PeerAddress referrer = Utils2.createAddress(Number160.createHash("referrer"));
+        for (int i = 0; i < 20; i++) {
+            peerMap.peerFound(Utils2.createAddress(new Number160(rnd)), referrer, null, null);
+        }
+
+        // the batch contains the same peers in the same order as single calls
+        List<PeerStatistic> all = peerMap.nextForMaintenance(new HashSet<PeerAddress>(), 100);
+        List<PeerStatistic> batch = peerMap.nextForMaintenance(new HashSet<PeerAddress>(), 5);
+        Assert.assertEquals(5, batch.size());
+        Set<PeerAddress> notInterested = new HashSet<PeerAddress>();
+        for (int i = 0; i < 5; i++) {
+            PeerStatistic peerStatatistic = peerMap.nextForMaintenance(notInterested);
+            Assert.assertEquals(batch.get(i).peerAddress(), peerStatatistic.peerAddress());
+            notInterested.add(peerStatatistic.peerAddress());
+        }
+
+        // the next batch continues at the bag where the previous one was filled
+        List<PeerStatistic> rest = peerMap.nextForMaintenance(notInterested, 100);
+        Assert.assertEquals(all.size() - 5, rest.size());
+        int bag = PeerMap.classMember(ID, batch.get(batch.size() - 1).peerAddress().peerId());
+        for (PeerStatistic peerStatistic : rest) {
+            Assert.assertFalse(notInterested.contains(peerStatistic.peerAddress()));
+            int next = PeerMap.classMember(ID, peerStatistic.peerAddress().peerId());
+            Assert.assertTrue(next >= bag);
+            bag = next;
+        }
+    }
+
+    @Test
+    public void testPeerConnection() throws UnknownHostException {
+        PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+        conf.setFixedVerifiedBagSizes(10).setFixedOverflowBagSizes(10);
+        conf.offlineCount(1000).offlineTimeout(100);
+        conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+        final PeerMap peerMap = new PeerMap(conf);
+        PeerAddress pa1 = Utils2.createAddress(Number160.createHash("peer1"));
+        PeerAddress pa2 = Utils2.createAddress(Number160.createHash("peer2"));
+        Channel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        PeerConnection pc1 = new PeerConnection(pa1, new DefaultChannelPromise(channel).setSuccess(), 2000);
+        PeerConnection pc2 = new PeerConnection(pa1, new DefaultChannelPromise(channel).setSuccess(), 2000);
+
+        peerMap.peerFound(pa1, null, pc1, null);
+        peerMap.peerFound(pa2, null, null, null);
+        Assert.assertSame(pc1, peerMap.peerConnection(pa1));
+        Assert.assertNull(peerMap.peerConnection(pa2));
+
+        // the same channel keeps the first connection, since it tracks if the connection is in use
+        peerMap.peerFound(pa1, pa1, pc2, null);
+        Assert.assertSame(pc1, peerMap.peerConnection(pa1));
+        peerMap.peerFound(pa1, null, null, null);
+        Assert.assertSame(pc1, peerMap.peerConnection(pa1));
+
+        channel.close();
+        Assert.assertNull(peerMap.peerConnection(pa1));
+        Assert.assertNull(peerMap.getPeerStatistic(pa1).peerConnection());
+    }
+
+    @Test
+    public void testView() throws UnknownHostException {
+        PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+        conf.setFixedVerifiedBagSizes(10).setFixedOverflowBagSizes(10);
+        conf.offlineCount(1000).offlineTimeout(100);
+        conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+        final PeerMap peerMap = new PeerMap(conf);
+        PeerAddress pa1 = Utils2.createAddress(Number160.createHash("peer1"));
+        PeerAddress pa2 = Utils2.createAddress(Number160.createHash("peer2"));
+
+        PeerMapView view0 = peerMap.view();
+        Assert.assertEquals(0, view0.size());
+        peerMap.peerFound(pa1, null, null, null);
+        peerMap.peerFound(pa2, null, null, null);
+        PeerMapView view2 = peerMap.view();
+        Assert.assertEquals(view0.epoch() + 2, view2.epoch());
+        Assert.assertEquals(2, view2.size());
+        Assert.assertEquals(peerMap.all().size(), view2.all().size());
+
+        // an update does not change the membership of the bags
+        peerMap.peerFound(pa1, null, null, null);
+        Assert.assertSame(view2, peerMap.view());
+
+        // a removal publishes a new view, the old one stays the same
+        peerMap.peerFailed(pa1, new PeerException(AbortCause.SHUTDOWN, "shutdown"));
+        PeerMapView view3 = peerMap.view();
+        Assert.assertEquals(view2.epoch() + 1, view3.epoch());
+        Assert.assertEquals(1, view3.size());
+        Assert.assertFalse(peerMap.contains(pa1));
+        Assert.assertTrue(peerMap.contains(pa2));
+        Assert.assertEquals(2, view2.size());
+        Assert.assertEquals(1, view2.bag(PeerMap.classMember(ID, pa1.peerId())).size() - view3.bag(PeerMap.classMember(ID, pa1.peerId())).size());
+    }
+
+    @Test
+    public void testViewConcurrent() throws Exception {
+        PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+        conf.setFixedVerifiedBagSizes(5).setFixedOverflowBagSizes(5);
+        conf.offlineCount(1000).offlineTimeout(100);
+        conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+        final PeerMap peerMap = new PeerMap(conf);
+        final Random rnd = new Random(42L);
+        final PeerAddress[] peers = new PeerAddress[200];
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = Utils2.createAddress(new Number160(rnd));
+        }
+        final AtomicInteger errors = new AtomicInteger();
+        final Thread[] writers = new Thread[2];
+        for (int t = 0; t < writers.length; t++) {
+            final int offset = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        PeerAddress peer = peers[(i * 7 + offset) % peers.length];
+                        peerMap.peerFailed(peer, new PeerException(AbortCause.SHUTDOWN, "shutdown"));
+                        peerMap.peerFound(peer, null, null, null);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        while (writers[0].isAlive() || writers[1].isAlive()) {
+            // a view is always consistent
+            PeerMapView view = peerMap.view();
+            int size = 0;
+            int filled = 0;
+            for (int i = 0; i < Number160.BITS; i++) {
+                size += view.bag(i).size();
+                filled += view.bag(i).isEmpty() ? 0 : 1;
+            }
+            if (size != view.size() || filled != view.nrFilledBags()) {
+                errors.incrementAndGet();
+            }
+            peerMap.closePeers(new Number160(rnd), 10);
+        }
+        Assert.assertEquals(0, errors.get());
+
+        // the last view contains the peers of the bags and finds them by ID
+        final PeerMapView view = peerMap.view();
+        int size = 0;
+        for (int i = 0; i < Number160.BITS; i++) {
+            for (PeerStatistic peerStatistic : view.bag(i)) {
+                Assert.assertSame(peerStatistic, view.get(i, peerStatistic.peerAddress().peerId()));
+                size++;
+            }
+        }
+        Assert.assertEquals(size, peerMap.size());
+    }
+
+    @Test
+    public void testProximityNeighborSelection() throws UnknownHostException {
+        PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+        conf.setFixedVerifiedBagSizes(2).setFixedOverflowBagSizes(10).proximityThresholdMillis(5);
+        conf.offlineCount(1000).offlineTimeout(100);
+        conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+        final PeerMap peerMap = new PeerMap(conf);
+        // all in bag 159
+        PeerAddress slow1 = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000001"));
+        PeerAddress slow2 = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000002"));
+        PeerAddress fast = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000003"));
+        PeerAddress similar = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000004"));
+        PeerAddress unknown = Utils2.createAddress(new Number160("0x8000000000000000000000000000000000000005"));
+        peerMap.peerFound(slow1, null, null, new RTT(100, false));
+        peerMap.peerFound(slow2, null, null, new RTT(50, false));
+
+        // no measured RTT, stays in the overflow bag
+        peerMap.peerFound(unknown, null, null, null);
+        Assert.assertTrue(peerMap.containsOverflow(unknown));
+        // not faster than the threshold
+        peerMap.peerFound(similar, null, null, new RTT(96, false));
+        Assert.assertTrue(peerMap.containsOverflow(similar));
+        // second hand information never replaces a verified peer
+        peerMap.peerFound(fast, slow1, null, new RTT(10, false));
+        Assert.assertTrue(peerMap.containsOverflow(fast));
+        // the slowest peer is replaced
+        peerMap.peerFound(fast, null, null, new RTT(10, false));
+        Assert.assertTrue(peerMap.contains(fast));
+        Assert.assertTrue(peerMap.contains(slow2));
+        Assert.assertFalse(peerMap.contains(slow1));
+        Assert.assertTrue(peerMap.containsOverflow(slow1));
+        Assert.assertFalse(peerMap.containsOverflow(fast));
+        Assert.assertEquals(2, peerMap.size());
+    }
+
+    /**
+     * Simulates greedy routing in a network with a synthetic latency matrix, where the peers are placed on a plane and
+     * the latency is their distance. Proximity neighbor selection lowers the latency of the lookups, but the lookups
+     * end at the same peers.
+     */
+    @Test
+    public void testProximityNeighborSelectionSimulation() throws UnknownHostException {
+        final int nrPeers = 500;
+        final int nrLookups = 1000;
+        final Random rnd = new Random(42L);
+        final Number160[] ids = new Number160[nrPeers];
+        final PeerAddress[] addresses = new PeerAddress[nrPeers];
+        final long[][] latency = new long[nrPeers][nrPeers];
+        final int[] x = new int[nrPeers];
+        final int[] y = new int[nrPeers];
+        for (int i = 0; i < nrPeers; i++) {
+            ids[i] = new Number160(rnd);
+            addresses[i] = Utils2.createAddress(ids[i]);
+            x[i] = rnd.nextInt(200);
+            y[i] = rnd.nextInt(200);
+        }
+        for (int i = 0; i < nrPeers; i++) {
+            for (int j = 0; j < nrPeers; j++) {
+                latency[i][j] = 1 + (long) Math.sqrt((x[i] - x[j]) * (x[i] - x[j]) + (y[i] - y[j]) * (y[i] - y[j]));
+            }
+        }
+        final Number160[] targets = new Number160[nrLookups];
+        final int[] sources = new int[nrLookups];
+        for (int i = 0; i < nrLookups; i++) {
+            targets[i] = new Number160(rnd);
+            sources[i] = rnd.nextInt(nrPeers);
+        }
+
+        final long[] kademlia = simulateLookups(ids, addresses, latency, targets, sources, -1);
+        final long[] pns = simulateLookups(ids, addresses, latency, targets, sources, 0);
+        System.out.println("kademlia: " + kademlia[0] + "ms, " + kademlia[1] + " hops, pns: " + pns[0] + "ms, "
+                + pns[1] + " hops");
+        // all lookups found the closest peer in both cases
+        Assert.assertEquals(nrLookups, kademlia[2]);
+        Assert.assertEquals(nrLookups, pns[2]);
+        Assert.assertTrue(pns[0] < kademlia[0]);
+    }
+
+    /**
+     * @return The total latency, the total number of hops and the number of lookups that ended at the closest peer
+     */
+    private static long[] simulateLookups(final Number160[] ids, final PeerAddress[] addresses, final long[][] latency,
+            final Number160[] targets, final int[] sources, final int proximityThresholdMillis) {
+        final int nrPeers = ids.length;
+        final Map<Number160, Integer> index = new HashMap<Number160, Integer>();
+        final PeerMap[] peerMaps = new PeerMap[nrPeers];
+        for (int i = 0; i < nrPeers; i++) {
+            index.put(ids[i], i);
+            PeerMapConfiguration conf = new PeerMapConfiguration(ids[i]);
+            conf.setFixedVerifiedBagSizes(2).setFixedOverflowBagSizes(10).proximityThresholdMillis(proximityThresholdMillis);
+            conf.offlineCount(1000).offlineTimeout(100);
+            conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+            peerMaps[i] = new PeerMap(conf);
+        }
+        // every peer contacts every other peer in the same order, so both runs see the same peers first
+        final Random rnd = new Random(1L);
+        for (int i = 0; i < nrPeers; i++) {
+            final List<Integer> others = new ArrayList<Integer>(nrPeers);
+            for (int j = 0; j < nrPeers; j++) {
+                others.add(j);
+            }
+            Collections.shuffle(others, rnd);
+            for (int j : others) {
+                if (i != j) {
+                    peerMaps[i].peerFound(addresses[j], null, null, new RTT(latency[i][j], false));
+                }
+            }
+        }
+
+        long totalLatency = 0;
+        long totalHops = 0;
+        long found = 0;
+        for (int l = 0; l < targets.length; l++) {
+            final Number160 target = targets[l];
+            int current = sources[l];
+            while (true) {
+                final PeerStatistic next = peerMaps[current].closePeers(target, 1).first();
+                if (PeerMap.isKadCloser(target, next.peerAddress().peerId(), ids[current]) >= 0) {
+                    break;
+                }
+                final int nextIndex = index.get(next.peerAddress().peerId());
+                totalLatency += latency[current][nextIndex];
+                totalHops++;
+                current = nextIndex;
+            }
+            int closest = 0;
+            for (int i = 1; i < nrPeers; i++) {
+                if (PeerMap.isKadCloser(target, ids[i], ids[closest]) < 0) {
+                    closest = i;
+                }
+            }
+            if (closest == current) {
+                found++;
+            }
+        }
+        return new long[] { totalLatency, totalHops, found };
+    }
+
     @Test
     public void testClose() throws UnknownHostException {
         for (int i = 1; i < 30; i++) {
@@ -73,9 +73,10 @@ public class TestNeighbor {
             fr.awaitUninterruptibly();
             // Thread.sleep(10000000);
             Assert.assertEquals(true, fr.isSuccess());
-            NeighborSet pas = fr.responseMessage().neighborsSet(0);
-            // we are able to fit 40 neighbors into 1400 bytes
-            Assert.assertEquals(33, pas.size());
+            NeighborSet pas = NeighborRPC.neighbors(fr.responseMessage());
+            // all 39 close peers fit into 1000 bytes with the compact encoding (33 without)
+            Assert.assertEquals(39, pas.size());
+            Assert.assertTrue(pas.isCompact());
             Assert.assertEquals(new Number160("0x1"), pas.neighbors().iterator().next().peerId());
             Assert.assertEquals(PORT_TCP, pas.neighbors().iterator().next().tcpPort());
             Assert.assertEquals(PORT_UDP, pas.neighbors().iterator().next().udpPort());
@@ -118,9 +119,10 @@ public class TestNeighbor {
             System.err.println(fr.failedReason());
             // Thread.sleep(10000000);
             Assert.assertEquals(true, fr.isSuccess());
-            NeighborSet pas = fr.responseMessage().neighborsSet(0);
-            // we are able to fit 40 neighbors into 1400 bytes
-            Assert.assertEquals(33, pas.size());
+            NeighborSet pas = NeighborRPC.neighbors(fr.responseMessage());
+            // all 39 close peers fit into 1000 bytes with the compact encoding (33 without)
+            Assert.assertEquals(39, pas.size());
+            Assert.assertTrue(pas.isCompact());
             Assert.assertEquals(new Number160("0x1"), pas.neighbors().iterator().next().peerId());
             Assert.assertEquals(PORT_TCP, pas.neighbors().iterator().next().tcpPort());
             Assert.assertEquals(PORT_UDP, pas.neighbors().iterator().next().udpPort());
@@ -156,7 +158,7 @@ public class TestNeighbor {
                     Type.REQUEST_2, cc, new DefaultConnectionConfiguration());
             fr.awaitUninterruptibly();
             Assert.assertEquals(true, fr.isSuccess());
-            NeighborSet pas = fr.responseMessage().neighborsSet(0);
+            NeighborSet pas = NeighborRPC.neighbors(fr.responseMessage());
 
             // I see no one, not evenmyself. My peer was added in the overflow map
             Assert.assertEquals(0, pas.size());
@@ -6,6 +6,7 @@ import java.util.List;
 import net.tomp2p.connection.Bindings;
 import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.connection.ReusePortSupport;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureResponse;
@@ -15,6 +16,7 @@ import net.tomp2p.peers.Number160;
 import net.tomp2p.utils.Utils;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
@@ -175,6 +177,45 @@ public class TestPing {
         }
     }
 
+    @Test
+    public void testPingUDPReceivers() throws Exception {
+        Peer sender = null;
+        Peer recv1 = null;
+        ChannelCreator cc = null;
+        try {
+            sender = new PeerBuilder(new Number160("0x9876")).p2pId(55).ports(2424).start();
+            PingRPC handshake = new PingRPC(sender.peerBean(), sender.connectionBean());
+            recv1 = new PeerBuilder(new Number160("0x1234")).p2pId(55).ports(8088)
+                    .channelServerConfiguration(PeerBuilder.createDefaultChannelServerConfiguration().udpReceivers(4))
+                    .start();
+            new PingRPC(recv1.peerBean(), recv1.connectionBean());
+            // several UDP channels per port need SO_REUSEPORT of the native epoll transport
+            Assume.assumeTrue(ReusePortSupport.isAvailable());
+            Assert.assertTrue(recv1.connectionBean().channelServer().nrUDPChannels(recv1.peerAddress().inetAddress()) > 1);
+            FutureChannelCreator fcc = sender.connectionBean().reservation().create(100, 0);
+            fcc.awaitUninterruptibly();
+            cc = fcc.channelCreator();
+            List<FutureResponse> list = new ArrayList<FutureResponse>(100);
+            for (int i = 0; i < 100; i++) {
+                list.add(handshake.pingUDP(recv1.peerAddress(), cc, new DefaultConnectionConfiguration()));
+            }
+            for (FutureResponse fr : list) {
+                fr.awaitUninterruptibly();
+                Assert.assertEquals(true, fr.isSuccess());
+            }
+        } finally {
+            if (cc != null) {
+                cc.shutdown().await();
+            }
+            if (sender != null) {
+                sender.shutdown().await();
+            }
+            if (recv1 != null) {
+                recv1.shutdown().await();
+            }
+        }
+    }
+
     @Test
     public void testPingHandlerError() throws Exception {
         Peer sender = null;
@@ -4,16 +4,23 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Random;
 import java.util.UUID;
+import java.util.zip.Deflater;
 
 import net.tomp2p.connection.DSASignatureFactory;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.utils.Utils;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -33,6 +40,189 @@ public class TestData {
        }
     };
 	
+    @Test
+    public void testObjectCodec() throws IOException, ClassNotFoundException {
+        CompactObjectCodec compact = new CompactObjectCodec().register(TestPojo.class);
+        JavaObjectCodec java = new JavaObjectCodec();
+        TestPojo pojo = new TestPojo("test", 42, new Number160(42));
+        Data javaData = new Data(pojo, java);
+        Data compactData = new Data(pojo, compact);
+        Assert.assertTrue(compactData.length() < javaData.length());
+        Assert.assertEquals(pojo, compactData.object(compact));
+        // the data remembers its codec
+        Assert.assertEquals(pojo, compactData.object());
+        // compact codec can read the Java serialization
+        Assert.assertEquals(pojo, javaData.object(compact));
+        Assert.assertEquals(pojo, javaData.object());
+        Object[] values = new Object[] { null, "test\u00e4", 42, 42L, true, 4.2d, new byte[] { 1, 2 },
+                Number160.ONE, UUID.randomUUID() };
+        for (Object value : values) {
+            Object decoded = new Data(value, compact).object(compact);
+            if (value instanceof byte[]) {
+                Assert.assertArrayEquals((byte[]) value, (byte[]) decoded);
+            } else {
+                Assert.assertEquals(value, decoded);
+            }
+        }
+        // a peer without the registration cannot decode the ID
+        try {
+            compactData.object(new CompactObjectCodec());
+            Assert.fail();
+        } catch (InvalidClassException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testObjectCodecInvalidLength() throws ClassNotFoundException {
+        CompactObjectCodec compact = new CompactObjectCodec();
+        // tag string / byte array with a length larger than the remaining bytes
+        for (int tag : new int[] { 1, 6 }) {
+            for (int length : new int[] { Integer.MAX_VALUE, -1 }) {
+                ByteBuf buf = Unpooled.buffer();
+                buf.writeByte(tag);
+                buf.writeInt(length);
+                buf.writeBytes(new byte[10]);
+                try {
+                    compact.decode(buf);
+                    Assert.fail();
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    private static class TestPojo implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final int age;
+        private final Number160 id;
+
+        TestPojo(String name, int age, Number160 id) {
+            this.name = name;
+            this.age = age;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TestPojo)) {
+                return false;
+            }
+            TestPojo other = (TestPojo) obj;
+            return name.equals(other.name) && age == other.age && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() ^ age ^ id.hashCode();
+        }
+    }
+
+    @Test
+    public void testCompress() throws IOException, ClassNotFoundException, InvalidKeyException, SignatureException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("{\"key\":").append(i).append(",\"value\":\"test\"}");
+        }
+        Data data = new Data(sb.toString()).compress();
+        Assert.assertTrue(data.isCompressed());
+        Assert.assertTrue(data.length() < sb.length() / 5);
+        AlternativeCompositeByteBuf transfer = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
+        data.encodeHeader(transfer, factory);
+        data.encodeBuffer(transfer);
+        data.encodeDone(transfer, factory);
+
+        ByteBuf transfer2 = Unpooled.buffer();
+        transfer2.writeBytes(transfer);
+        Data newData = Data.decodeHeader(transfer2, factory);
+        newData.decodeBuffer(transfer2);
+        newData.decodeDone(transfer2, null, factory);
+
+        Assert.assertTrue(newData.isCompressed());
+        Assert.assertEquals(data, newData);
+        Assert.assertEquals(sb.toString(), newData.object());
+        Assert.assertEquals(new Data(sb.toString()), newData.uncompress());
+        transfer.release();
+        transfer2.release();
+    }
+
+    @Test(timeout = 10000)
+    public void testUncompressDictionary() {
+        // a deflate stream with a preset dictionary (FDICT) cannot be uncompressed and must not hang
+        byte[] dictionary = "dictionary".getBytes();
+        Deflater deflater = new Deflater();
+        deflater.setDictionary(dictionary);
+        deflater.setInput("dictionary dictionary dictionary".getBytes());
+        deflater.finish();
+        byte[] compressed = new byte[100];
+        int length = deflater.deflate(compressed);
+        deflater.end();
+        try {
+            Utils.uncompress(Collections.singletonList(ByteBuffer.wrap(compressed, 0, length)), Integer.MAX_VALUE);
+            Assert.fail("preset dictionary not detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUncompressTooLong() throws IOException, ClassNotFoundException {
+        // 1MB of zeros compress to about 1KB
+        Data data = new Data(new byte[1024 * 1024]).compress();
+        Assert.assertTrue(data.isCompressed());
+        Assert.assertTrue(data.length() < 10 * 1024);
+        Assert.assertEquals(1024 * 1024, Utils.uncompress(Arrays.asList(data.toByteBuffers()), 1024 * 1024).length());
+        try {
+            Utils.uncompress(Arrays.asList(data.toByteBuffers()), 1024 * 1024 - 1);
+            Assert.fail("output not limited");
+        } catch (IOException e) {
+            // expected
+        }
+        // larger payloads are not compressed, as they could not be uncompressed again
+        final byte[] tooLong = new byte[Data.MAX_UNCOMPRESSED_LENGTH + 1];
+        Assert.assertFalse(new Data(tooLong).compress().isCompressed());
+        // a peer may send such a payload compressed nevertheless
+        final DataBuffer bomb = Utils.compress(Collections.singletonList(ByteBuffer.wrap(tooLong)));
+        final ByteBuf transfer = Unpooled.buffer();
+        transfer.writeByte(Data.Type.LARGE.ordinal());
+        transfer.writeInt(bomb.length() | 0x80000000);
+        transfer.writeBytes(bomb.toByteBuf());
+        final Data newData = Data.decodeHeader(transfer, factory);
+        Assert.assertTrue(newData.decodeBuffer(transfer));
+        Assert.assertTrue(newData.decodeDone(transfer, null, factory));
+        Assert.assertTrue(newData.isCompressed());
+        try {
+            newData.object();
+            Assert.fail("output not limited");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            newData.toBytes();
+            Assert.fail("output not limited");
+        } catch (CompressionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        transfer.release();
+    }
+
+    @Test
+    public void testCompressSmallOrRandom() throws IOException {
+        Data small = new Data(new byte[100]);
+        Assert.assertSame(small, small.compress());
+        byte[] random = new byte[10000];
+        new Random(42).nextBytes(random);
+        Data incompressible = new Data(random);
+        Assert.assertSame(incompressible, incompressible.compress());
+        // 300 bytes compress to only a few bytes, this needs the large header
+        Data compressed = new Data(new byte[300]).compress();
+        Assert.assertTrue(compressed.isCompressed());
+        Assert.assertTrue(compressed.length() < 255);
+        Assert.assertArrayEquals(new byte[300], compressed.toBytes());
+    }
+
     @Test
     public void testData1() throws IOException, ClassNotFoundException, InvalidKeyException, SignatureException {
         Data data = new Data("test");
@@ -138,6 +138,30 @@ public class TestCache {
         
     }
 
+    @Test
+    public void testCacheCapacity() {
+        ConcurrentCacheMap<String, String> test = new ConcurrentCacheMap<String, String>(60, 1024);
+        for (int i = 0; i < 1024; i++) {
+            test.put("hallo" + i, "test" + i);
+        }
+        Assert.assertEquals(1024, test.size());
+        // the first 100 entries were used recently and get a second chance
+        for (int i = 0; i < 100; i++) {
+            test.get("hallo" + i);
+        }
+        for (int i = 1024; i < 1536; i++) {
+            test.put("hallo" + i, "test" + i);
+        }
+        Assert.assertEquals(1024, test.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("test" + i, test.get("hallo" + i));
+        }
+        Assert.assertEquals("test1535", test.get("hallo1535"));
+        Assert.assertNull(test.get("hallo100"));
+        Assert.assertNull(test.get("hallo611"));
+        Assert.assertEquals("test612", test.get("hallo612"));
+    }
+
     @Test
     public void testCache4() throws InterruptedException {
         String key = "hallo0";
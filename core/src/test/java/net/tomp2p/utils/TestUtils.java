@@ -18,6 +18,9 @@ package net.tomp2p.utils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -109,4 +112,22 @@ public class TestUtils {
         Utils.difference(collection1, result, collection2, collection3);
         Assert.assertEquals(1, result.size());
     }
+
+    @Test(timeout = 10000)
+    public void testCoarseClock() throws InterruptedException {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        ScheduledFuture<?> ticker = CoarseClock.start(timer);
+        try {
+            long start = CoarseClock.currentTimeMillis();
+            Assert.assertTrue(start <= System.currentTimeMillis());
+            // the ticker updates the clock on the timer of the peer
+            while (CoarseClock.currentTimeMillis() == start) {
+                Thread.sleep(1);
+            }
+        } finally {
+            CoarseClock.stop(ticker);
+            timer.shutdown();
+        }
+        Assert.assertTrue(ticker.isCancelled());
+    }
 }
@@ -59,7 +59,7 @@ public class AddBuilder extends DHTBuilder<AddBuilder> {
     }
 
     public AddBuilder object(Object object) throws IOException {
-        return data(new Data(object));
+        return data(new Data(object, peer.peer().peerBean().objectCodec()));
     }
 
     public boolean isList() {
@@ -23,6 +23,9 @@ import java.util.Collection;
 import net.tomp2p.connection.ConnectionConfiguration;
 import net.tomp2p.connection.DefaultConnectionConfiguration;
 import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.Trace;
+import net.tomp2p.futures.TraceSink;
+import net.tomp2p.p2p.NetworkEstimator;
 import net.tomp2p.p2p.PostRoutingFilter;
 import net.tomp2p.p2p.RequestP2PConfiguration;
 import net.tomp2p.p2p.RoutingConfiguration;
@@ -71,6 +74,11 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
     private Collection<PeerMapFilter> peerMapFilters;
     private Collection<PostRoutingFilter> postRoutingFilters;
 
+    private boolean tracing = false;
+    private TraceSink traceSink = null;
+    // the trace of the last start, null if not traced
+    private Trace trace = null;
+
     private K self;
 
     public DHTBuilder(PeerDHT peer, Number160 locationKey) {
@@ -292,6 +300,48 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
     	return postRoutingFilters;
     }
 
+    public boolean isTracing() {
+        return tracing || traceSink != null;
+    }
+
+    /**
+     * @param tracing
+     *            True to record the reservation, each routing hop and each storage RPC as spans. The spans can be read
+     *            from {@link FutureDHT#trace()}
+     * @return This object
+     */
+    public K tracing(final boolean tracing) {
+        this.tracing = tracing;
+        return self;
+    }
+
+    public K tracing() {
+        this.tracing = true;
+        return self;
+    }
+
+    public TraceSink traceSink() {
+        return traceSink;
+    }
+
+    /**
+     * @param traceSink
+     *            The sink where the trace is exported to once the operation is finished. Setting a sink enables
+     *            tracing
+     * @return This object
+     */
+    public K traceSink(final TraceSink traceSink) {
+        this.traceSink = traceSink;
+        return self;
+    }
+
+    /**
+     * @return The trace of the operation that was last started with this builder, or null if tracing is disabled
+     */
+    public Trace trace() {
+        return trace;
+    }
+
     protected void preBuild(String name) {
         if (domainKey == null) {
             domainKey = Number160.ZERO;
@@ -301,6 +351,10 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
         }
         if (routingConfiguration == null) {
             routingConfiguration = new RoutingConfiguration(5, 10, 2);
+            final NetworkEstimator networkEstimator = peer.peer().peerBean().networkEstimator();
+            if (networkEstimator != null) {
+                routingConfiguration = networkEstimator.routingConfiguration(routingConfiguration);
+            }
         }
         if (requestP2PConfiguration == null) {
             requestP2PConfiguration = new RequestP2PConfiguration(3, 5, 3);
@@ -312,6 +366,12 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
             futureChannelCreator = peer.peer().connectionBean().reservation()
                     .create(routingConfiguration, requestP2PConfiguration, this);
         }
+        if (isTracing()) {
+            trace = new Trace(name);
+            trace.span("reservation", null, futureChannelCreator);
+        } else {
+            trace = null;
+        }
     }
 
     public RoutingBuilder createBuilder(RequestP2PConfiguration requestP2PConfiguration,
@@ -323,6 +383,7 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
         routingBuilder.maxDirectHits(routingConfiguration.maxDirectHits());
         routingBuilder.maxFailures(routingConfiguration.maxFailures());
         routingBuilder.maxSuccess(routingConfiguration.maxSuccess());
+        routingBuilder.trace(trace);
         return routingBuilder;
     }
 
@@ -33,6 +33,8 @@ import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureForkJoin;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.futures.ResultListener;
+import net.tomp2p.futures.Trace;
 import net.tomp2p.message.KeyMap640Keys;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.p2p.DistributedRouting;
@@ -182,7 +184,7 @@ public class DistributedHashTable {
                                                             rawObjects.put(
                                                                     future.request().recipient(),
                                                                     future.responseMessage().buffer(0)
-                                                                            .object());
+                                                                            .object(storeRCP.peerBean().objectCodec()));
                                                             future.responseMessage().buffer(0).buffer().release();
                                                         } catch (ClassNotFoundException e) {
                                                             rawObjects.put(
@@ -323,18 +325,23 @@ public class DistributedHashTable {
                                             @Override
                                             public FutureResponse create(ChannelCreator channelCreator,
                                                     PeerAddress address) {
+                                            	final FutureResponse futureResponse;
 												if (builder.isGetLatest()) {
 													if (builder.isWithDigest()) {
-														return storeRCP.getLatest(address, builder,
+														futureResponse = storeRCP.getLatest(address, builder,
 																channelCreator, RPC.Commands.GET_LATEST_WITH_DIGEST);
 													} else {
-														return storeRCP.getLatest(address, builder,
+														futureResponse = storeRCP.getLatest(address, builder,
 																channelCreator,
 																RPC.Commands.GET_LATEST);
 													}
 												} else {
-													return storeRCP.get(address, builder, channelCreator);
+													futureResponse = storeRCP.get(address, builder, channelCreator);
 												}
+												if (builder.resultListener() != null) {
+													addResultListener(futureResponse, builder.resultListener());
+												}
+												return futureResponse;
                                             }
 
                                             @Override
@@ -349,7 +356,7 @@ public class DistributedHashTable {
                                                 if (future.isSuccess()) {
                                                     
                                                 	boolean hasData = false;
-                                                    Map<Number640, Data> data = future.responseMessage().dataMap(0).dataMap();
+                                                    Map<Number640, Data> data = objectCodec(future.responseMessage().dataMap(0).dataMap());
                                                     if(data !=null && !data.isEmpty()) {
                                                         rawData.put(future.request().recipient(), data);
                                                         hasData = true;
@@ -524,7 +531,7 @@ public class DistributedHashTable {
                                                 if (future.isSuccess() && future.responseMessage().isOk()) {
                                                     if (builder.isReturnResults()) {
                                                         rawDataResult.put(future.request().recipient(),
-                                                                future.responseMessage().dataMap(0).dataMap());
+                                                                objectCodec(future.responseMessage().dataMap(0).dataMap()));
                                                     } else {
                                                         rawDataNoResult.put(future.request()
                                                                 .recipient(), future.responseMessage()
@@ -550,7 +557,9 @@ public class DistributedHashTable {
     }
 
     /**
-     * Creates RPCs and executes them parallel.
+     * Creates RPCs and executes them parallel. The storage RPCs are sent over open persistent connections to the peers
+     * if there are any, see {@link net.tomp2p.connection.RequestHandler#sendTCPReuse(ChannelCreator)}, and only
+     * fall back to a new channel of the channel creator otherwise.
      * 
      * @param p2pConfiguration
      *            The configuration that specifies e.g. how many parallel requests there are.
@@ -622,6 +631,11 @@ public class DistributedHashTable {
                     FutureResponse futureResponse = operation.create(channelCreator, next);
                     futures.set(i, futureResponse);
                     futureDHT.addRequests(futureResponse);
+                    final Trace trace = futureDHT.trace();
+                    if (trace != null) {
+                        trace.span(RPC.Commands.find(futureResponse.request().command()).name(), next,
+                                futureResponse);
+                    }
                 }
             } else {
                 active++;
@@ -659,6 +673,39 @@ public class DistributedHashTable {
         });
     }
     
+    /**
+     * Passes the data of a reply to the result listener as soon as the reply arrives.
+     */
+    private void addResultListener(final FutureResponse futureResponse,
+            final ResultListener<Map<Number640, Data>> resultListener) {
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(final FutureResponse future) throws Exception {
+                if (future.isSuccess() && future.responseMessage().dataMap(0) != null) {
+                    final Map<Number640, Data> data = objectCodec(future.responseMessage().dataMap(0).dataMap());
+                    if (data != null && !data.isEmpty()) {
+                        resultListener.result(future.request().recipient(), data);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the codec of this peer on the received data, so that {@link Data#object()} decodes the objects with the
+     * same codec they were encoded with.
+     */
+    private Map<Number640, Data> objectCodec(final Map<Number640, Data> dataMap) {
+        if (dataMap != null) {
+            for (final Data data : dataMap.values()) {
+                if (data != null) {
+                    data.objectCodec(storeRCP.peerBean().objectCodec());
+                }
+            }
+        }
+        return dataMap;
+    }
+
     private static RoutingBuilder createBuilder(BasicBuilder<?> builder) {
     	RoutingBuilder routingBuilder = builder.createBuilder(builder.requestP2PConfiguration(),
                 builder.routingConfiguration());
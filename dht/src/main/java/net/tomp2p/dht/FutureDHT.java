@@ -12,6 +12,8 @@ import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureForkJoin;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.futures.Trace;
+import net.tomp2p.futures.TraceSink;
 
 public abstract class FutureDHT<K extends BaseFuture> extends BaseFutureImpl<K> {
 
@@ -29,6 +31,19 @@ public abstract class FutureDHT<K extends BaseFuture> extends BaseFutureImpl<K>
 
     public FutureDHT(DHTBuilder<?> builder) {
         this.builder = builder;
+        if (builder != null && builder.trace() != null) {
+            final Trace trace = builder.trace();
+            trace(trace);
+            final TraceSink traceSink = builder.traceSink();
+            if (traceSink != null) {
+                addListener(new BaseFutureAdapter<BaseFuture>() {
+                    @Override
+                    public void operationComplete(final BaseFuture future) throws Exception {
+                        trace.export(traceSink);
+                    }
+                });
+            }
+        }
     }
 
     /**
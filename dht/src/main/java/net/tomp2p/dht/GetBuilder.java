@@ -18,10 +18,13 @@ package net.tomp2p.dht;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
 
+import net.tomp2p.futures.ResultListener;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number640;
 import net.tomp2p.rpc.SimpleBloomFilter;
+import net.tomp2p.storage.Data;
 
 public class GetBuilder extends DHTBuilder<GetBuilder> implements SearchableBuilder {
 
@@ -66,6 +69,8 @@ public class GetBuilder extends DHTBuilder<GetBuilder> implements SearchableBuil
     
     private boolean fastGet = true;
 
+    private ResultListener<Map<Number640, Data>> resultListener;
+
     static {
         NUMBER_ZERO_CONTENT_KEYS.add(Number160.ZERO);
     }
@@ -294,6 +299,21 @@ public class GetBuilder extends DHTBuilder<GetBuilder> implements SearchableBuil
         return this;
     }
 
+    public ResultListener<Map<Number640, Data>> resultListener() {
+        return resultListener;
+    }
+
+    /**
+     * @param resultListener
+     *            Receives the data of every peer as soon as the peer replied, useful for get with all() or for range
+     *            gets. The {@link FutureGet} still completes with the evaluated result
+     * @return This class
+     */
+    public GetBuilder resultListener(ResultListener<Map<Number640, Data>> resultListener) {
+        this.resultListener = resultListener;
+        return this;
+    }
+
     public FutureGet start() {
         if (peer.peer().isShutdown()) {
             return FUTURE_SHUTDOWN;
@@ -60,7 +60,7 @@ public class PeerBuilderDHT {
 			storage = new StorageMemory();
 		}
 		if (storageLayer == null) {
-			storageLayer = new StorageLayer(storage);
+			storageLayer = new StorageLayer(storage).metrics(peer.connectionBean().metrics());
 			storageLayer.start(peer.connectionBean().timer(), storageLayer.storageCheckIntervalMillis());
 		}
 		if (peer.peerBean().digestStorage() == null) {
@@ -121,11 +121,11 @@ public class PutBuilder extends DHTBuilder<PutBuilder> {
     }
 
     public PutBuilder object(Object object) throws IOException {
-        return data(new Data(object));
+        return data(new Data(object, peer.peer().peerBean().objectCodec()));
     }
 
     public PutBuilder keyObject(Number160 contentKey, Object object) throws IOException {
-        return data(contentKey, new Data(object));
+        return data(contentKey, new Data(object, peer.peer().peerBean().objectCodec()));
     }
 
     public NavigableMap<Number640, Data> dataMap() {
@@ -31,6 +31,7 @@ import java.util.TreeMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import net.tomp2p.connection.Metrics;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.Number480;
@@ -39,6 +40,7 @@ import net.tomp2p.rpc.DigestInfo;
 import net.tomp2p.rpc.SimpleBloomFilter;
 import net.tomp2p.storage.Data;
 import net.tomp2p.storage.DigestStorage;
+import net.tomp2p.utils.LatencyHistogram;
 import net.tomp2p.utils.Pair;
 import net.tomp2p.utils.Utils;
 
@@ -84,6 +86,12 @@ public class StorageLayer implements DigestStorage {
 	final private Storage backend;
 	final int maxVersions;
 
+	// the latencies of the storage operations in microseconds, not recorded if no metrics are set
+	private volatile LatencyHistogram putLatency;
+	private volatile LatencyHistogram getLatency;
+	private volatile LatencyHistogram removeLatency;
+	private volatile LatencyHistogram digestLatency;
+
 	public StorageLayer(Storage backend) {
 		this.backend = backend;
 		this.maxVersions = -1;
@@ -94,6 +102,28 @@ public class StorageLayer implements DigestStorage {
 		this.maxVersions = maxVersions;
 	}
 
+	/**
+	 * Records the latencies of put, get, remove, and digest operations in the metrics as storage.put, storage.get,
+	 * storage.remove, and storage.digest. The time to wait for the lock is included.
+	 * 
+	 * @param metrics
+	 *            The metrics of the node
+	 * @return This class
+	 */
+	public StorageLayer metrics(Metrics metrics) {
+		this.putLatency = metrics.histogram("storage.put");
+		this.getLatency = metrics.histogram("storage.get");
+		this.removeLatency = metrics.histogram("storage.remove");
+		this.digestLatency = metrics.histogram("storage.digest");
+		return this;
+	}
+
+	private static void record(LatencyHistogram latency, long start) {
+		if (latency != null) {
+			latency.record((System.nanoTime() - start) / 1000);
+		}
+	}
+
 	public void protection(ProtectionEnable protectionDomainEnable, ProtectionMode protectionDomainMode,
 	        ProtectionEnable protectionEntryEnable, ProtectionMode protectionEntryMode) {
 		protectionDomainEnable(protectionDomainEnable);
@@ -183,6 +213,7 @@ public class StorageLayer implements DigestStorage {
 		if(dataMap.isEmpty()) {
 			return Collections.emptyMap();
 		}
+		final long start = System.nanoTime();
 		final Number640 min = dataMap.firstKey();
 		final Number640 max = dataMap.lastKey();
 		final Map<Number640, Enum<?>> retVal = new HashMap<Number640, Enum<?>>();
@@ -291,6 +322,7 @@ public class StorageLayer implements DigestStorage {
 			
 		} finally {
 			lock.unlock();
+			record(putLatency, start);
 		}
 	}
 	
@@ -308,6 +340,7 @@ public class StorageLayer implements DigestStorage {
 	}
 
 	public Pair<Data, Enum<?>> remove(Number640 key, PublicKey publicKey, boolean returnData) {
+		final long start = System.nanoTime();
 		RangeLock<Number640>.Range lock = lock(key);
 		try {
 			if (!canClaimDomain(key.locationAndDomainKey(), publicKey)) {
@@ -328,16 +361,19 @@ public class StorageLayer implements DigestStorage {
 			return new Pair<Data, Enum<?>>(removed, PutStatus.OK);
 		} finally {
 			lock.unlock();
+			record(removeLatency, start);
 		}
 	}
 
 	public Data get(Number640 key) {
+		final long start = System.nanoTime();
 		RangeLock<Number640>.Range lock = lock(key);
 		try {
 			Data tmp = getInternal(key);
 			return tmp == null? null:tmp.duplicate();
 		} finally {
 			lock.unlock();
+			record(getLatency, start);
 		}
 	}
 
@@ -351,6 +387,7 @@ public class StorageLayer implements DigestStorage {
 	}
 
 	public NavigableMap<Number640, Data> get(Number640 from, Number640 to, int limit, boolean ascending) {
+		final long start = System.nanoTime();
 		RangeLock<Number640>.Range lock = rangeLock.lock(from, to);
 		try {
 			NavigableMap<Number640, Data> tmp = backend.subMap(from, to);
@@ -358,10 +395,12 @@ public class StorageLayer implements DigestStorage {
 			return tmp;
 		} finally {
 			lock.unlock();
+			record(getLatency, start);
 		}
 	}
 
 	public NavigableMap<Number640, Data> getLatestVersion(Number640 key) {
+		final long start = System.nanoTime();
 		RangeLock<Number640>.Range lock = lock(key.locationAndDomainAndContentKey());
 		try {
 			NavigableMap<Number640, Data> tmp = backend.subMap(key.minVersionKey(), key.maxVersionKey());
@@ -369,6 +408,7 @@ public class StorageLayer implements DigestStorage {
 			return getLatestInternal(tmp);
 		} finally {
 			lock.unlock();
+			record(getLatency, start);
 		}
 	}
 
@@ -470,6 +510,7 @@ public class StorageLayer implements DigestStorage {
 	public NavigableMap<Number640, Data> get(Number640 from, Number640 to, SimpleBloomFilter<Number160> contentKeyBloomFilter,
 	        SimpleBloomFilter<Number160> versionKeyBloomFilter, SimpleBloomFilter<Number160> contentBloomFilter, 
 	        int limit, boolean ascending, boolean isBloomFilterAnd) {
+		final long start = System.nanoTime();
 		RangeLock<Number640>.Range lock = rangeLock.lock(from, to);
 		try {
 			NavigableMap<Number640, Data> tmp = backend.subMap(from, to);
@@ -517,10 +558,12 @@ public class StorageLayer implements DigestStorage {
 			return tmp;
 		} finally {
 			lock.unlock();
+			record(getLatency, start);
 		}
 	}
 
 	public NavigableMap<Number640, Data> removeReturnData(Number640 from, Number640 to, PublicKey publicKey) {
+		final long start = System.nanoTime();
 		RangeLock<Number640>.Range lock = rangeLock.lock(from, to);
 		try {
 			Map<Number640, Data> tmp = backend.subMap(from, to);
@@ -545,6 +588,7 @@ public class StorageLayer implements DigestStorage {
 			return result;
 		} finally {
 			lock.unlock();
+			record(removeLatency, start);
 		}
 	}
 
@@ -606,6 +650,7 @@ public class StorageLayer implements DigestStorage {
 	 */
 	@Override
     public DigestInfo digest(Number640 from, Number640 to, int limit, boolean ascending) {
+		final long start = System.nanoTime();
 		DigestInfo digestInfo = new DigestInfo();
 		RangeLock<Number640>.Range lock = rangeLock.lock(from, to);
 		try {
@@ -619,6 +664,7 @@ public class StorageLayer implements DigestStorage {
 			return digestInfo;
 		} finally {
 			lock.unlock();
+			record(digestLatency, start);
 		}
 	}
 
@@ -628,6 +674,7 @@ public class StorageLayer implements DigestStorage {
 	@Override
     public DigestInfo digest(Number320 locationAndDomainKey, SimpleBloomFilter<Number160> keyBloomFilter,
 	        SimpleBloomFilter<Number160> contentKeyBloomFilter, int limit, boolean ascending, boolean isBloomFilterAnd) {
+		final long start = System.nanoTime();
 		DigestInfo digestInfo = new DigestInfo();
 		RangeLock<Number640>.Range lock = lock(locationAndDomainKey);
 		try {
@@ -657,6 +704,7 @@ public class StorageLayer implements DigestStorage {
 			return digestInfo;
 		} finally {
 			lock.unlock();
+			record(digestLatency, start);
 		}
 	}
 
@@ -665,6 +713,7 @@ public class StorageLayer implements DigestStorage {
 	 */
 	@Override
     public DigestInfo digest(Collection<Number640> number640s) {
+		final long start = System.nanoTime();
 		DigestInfo digestInfo = new DigestInfo();
 		for (Number640 number640 : number640s) {
 			RangeLock<Number640>.Range lock = lock(number640);
@@ -679,6 +728,7 @@ public class StorageLayer implements DigestStorage {
 				lock.unlock();
 			}
 		}
+		record(digestLatency, start);
 		return digestInfo;
 	}
 
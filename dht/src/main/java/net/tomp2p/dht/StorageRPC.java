@@ -69,6 +69,12 @@ public class StorageRPC extends DispatchHandler {
 	
 	public static final SimpleBloomFilter<Number160> EMPTY_FILTER = new SimpleBloomFilter<Number160>(0,0);
 	public static final SimpleBloomFilter<Number160> FULL_FILTER = new SimpleBloomFilter<Number160>(8,1).setAll();
+	/**
+	 * Sent as long in the get and remove requests to announce that the requester can decode compressed data, which is
+	 * then sent compressed in the reply. A long is used because the integers of these requests are optional and read
+	 * by position. Older peers ignore this long and get compressed data uncompressed.
+	 */
+	public static final long COMPRESSED_DATA = 1;
 	
     private static final Logger LOG = LoggerFactory.getLogger(StorageRPC.class);
     private static final Random RND = new Random();
@@ -242,7 +248,7 @@ public class StorageRPC extends DispatchHandler {
                 peerBean(), connectionBean(), putBuilder);
 
         if (!putBuilder.isForceUDP()) {
-            return request.sendTCP(channelCreator);
+            return request.sendTCPReuse(channelCreator);
         } else {
             return request.sendUDP(channelCreator);
         }
@@ -292,7 +298,7 @@ public class StorageRPC extends DispatchHandler {
                 peerBean(), connectionBean(), putBuilder);
 
         if (!putBuilder.isForceUDP()) {
-            return request.sendTCP(channelCreator);
+            return request.sendTCPReuse(channelCreator);
         } else {
             return request.sendUDP(channelCreator);
         }
@@ -325,7 +331,7 @@ public class StorageRPC extends DispatchHandler {
 				peerBean(), connectionBean(), putBuilder);
 
 		if (!putBuilder.isForceUDP()) {
-			return request.sendTCP(channelCreator);
+			return request.sendTCPReuse(channelCreator);
 		} else {
 			return request.sendUDP(channelCreator);
 		}
@@ -405,7 +411,7 @@ public class StorageRPC extends DispatchHandler {
         final RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
                 peerBean(), connectionBean(), addBuilder);
         if (!addBuilder.isForceUDP()) {
-            return request.sendTCP(channelCreator);
+            return request.sendTCPReuse(channelCreator);
         } else {
             return request.sendUDP(channelCreator);
         }
@@ -479,7 +485,7 @@ public class StorageRPC extends DispatchHandler {
         final RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
                 peerBean(), connectionBean(), getBuilder);
         if (!getBuilder.isForceUDP()) {
-            return request.sendTCP(channelCreator);
+            return request.sendTCPReuse(channelCreator);
         } else {
             return request.sendUDP(channelCreator);
         }
@@ -498,6 +504,7 @@ public class StorageRPC extends DispatchHandler {
         	type = Type.REQUEST_4;
         }
         final Message message = createMessage(remotePeer, RPC.Commands.GET.getNr(), type);
+        message.longValue(COMPRESSED_DATA);
 
         if (getBuilder.isSign()) {
             message.publicKeyAndSign(getBuilder.keyPair());
@@ -561,7 +568,7 @@ public class StorageRPC extends DispatchHandler {
         final RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
                 peerBean(), connectionBean(), getBuilder);
         if (!getBuilder.isForceUDP()) {
-            return request.sendTCP(channelCreator);
+            return request.sendTCPReuse(channelCreator);
         } else {
             return request.sendUDP(channelCreator);
         }
@@ -571,6 +578,7 @@ public class StorageRPC extends DispatchHandler {
 			final ChannelCreator channelCreator, final RPC.Commands command) {
 		final Type type = Type.REQUEST_1;
 		final Message message = createMessage(remotePeer, command.getNr(), type);
+		message.longValue(COMPRESSED_DATA);
 
 		if (getBuilder.isSign()) {
 			message.publicKeyAndSign(getBuilder.keyPair());
@@ -584,7 +592,7 @@ public class StorageRPC extends DispatchHandler {
 		final RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
 				peerBean(), connectionBean(), getBuilder);
 		if (!getBuilder.isForceUDP()) {
-			return request.sendTCP(channelCreator);
+			return request.sendTCPReuse(channelCreator);
 		} else {
 			return request.sendUDP(channelCreator);
 		}
@@ -615,6 +623,9 @@ public class StorageRPC extends DispatchHandler {
             final ChannelCreator channelCreator) {
         final Message message = createMessage(remotePeer, RPC.Commands.REMOVE.getNr(),
                 removeBuilder.isReturnResults() ? Type.REQUEST_2 : Type.REQUEST_1);
+        if (removeBuilder.isReturnResults()) {
+            message.longValue(COMPRESSED_DATA);
+        }
 
         if (removeBuilder.isSign()) {
             message.publicKeyAndSign(removeBuilder.keyPair());
@@ -648,7 +659,7 @@ public class StorageRPC extends DispatchHandler {
         final RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
                 peerBean(), connectionBean(), removeBuilder);
         if (!removeBuilder.isForceUDP()) {
-            return request.sendTCP(channelCreator);
+            return request.sendTCPReuse(channelCreator);
         } else {
             return request.sendUDP(channelCreator);
         }
@@ -659,6 +670,7 @@ public class StorageRPC extends DispatchHandler {
             Responder responder) throws Exception {
 
     	final Message responseMessage = createResponseMessage(message, Type.OK);
+    	responseMessage.compressedData(isCompressedData(message));
 
         //switch/case does not work here out of the box, need to convert byte back to enum, not sure if thats worth it.
         if (message.command() == RPC.Commands.ADD.getNr()) {
@@ -692,6 +704,11 @@ public class StorageRPC extends DispatchHandler {
         responder.response(responseMessage);
     }
 
+    private static boolean isCompressedData(final Message message) {
+        final Long capabilities = message.longAt(0);
+        return capabilities != null && (capabilities & COMPRESSED_DATA) != 0;
+    }
+
     private boolean isReplicaPut(final Message message) {
         return message.command() == RPC.Commands.REPLICA_PUT.getNr();
     }
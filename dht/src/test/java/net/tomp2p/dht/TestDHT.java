@@ -8,6 +8,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -20,6 +21,7 @@ import java.util.NavigableMap;
 import java.util.Random;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -36,6 +38,10 @@ import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.futures.FutureDirect;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FuturePeerConnection;
+import net.tomp2p.futures.Futures;
+import net.tomp2p.futures.ResultListener;
+import net.tomp2p.futures.TextTraceSink;
+import net.tomp2p.futures.Trace;
 import net.tomp2p.message.Buffer;
 import net.tomp2p.p2p.AutomaticFuture;
 import net.tomp2p.p2p.Peer;
@@ -53,6 +59,7 @@ import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.rpc.DigestResult;
 import net.tomp2p.rpc.ObjectDataReply;
 import net.tomp2p.rpc.RawDataReply;
+import net.tomp2p.storage.CompactObjectCodec;
 import net.tomp2p.storage.Data;
 import net.tomp2p.storage.DataBuffer;
 import net.tomp2p.utils.Utils;
@@ -157,6 +164,48 @@ public class TestDHT {
 
 	}
 
+	@Test
+	public void testPutTrace() throws Exception {
+		PeerDHT master = null;
+		try {
+			PeerDHT[] peers = UtilsDHT2.createNodes(10, rnd, 4001);
+			master = peers[0];
+			UtilsDHT2.perfectRouting(peers);
+			StringWriter writer = new StringWriter();
+			FuturePut futurePut = master.put(Number160.createHash("test")).data(new Data("trace"))
+			        .traceSink(new TextTraceSink(writer)).start();
+			futurePut.awaitListenersUninterruptibly();
+			futurePut.futureRequests().awaitUninterruptibly();
+			Assert.assertEquals(true, futurePut.isSuccess());
+			Trace trace = futurePut.trace();
+			Assert.assertNotNull(trace);
+			List<Trace.Span> spans = trace.spans();
+			Assert.assertEquals("reservation", spans.get(0).name());
+			int hops = 0;
+			int puts = 0;
+			for (Trace.Span span : spans) {
+				if (span.name().equals("routing.hop")) {
+					Assert.assertNotNull(span.peerAddress());
+					hops++;
+				} else if (span.name().equals("PUT")) {
+					Assert.assertTrue(span.isEnded());
+					puts++;
+				}
+			}
+			Assert.assertTrue(hops > 0);
+			Assert.assertEquals(futurePut.requests().size(), puts);
+			Assert.assertTrue(writer.toString().startsWith("trace put-builder"));
+			// tracing is off by default
+			FutureGet futureGet = peers[1].get(Number160.createHash("test")).start();
+			futureGet.awaitUninterruptibly();
+			Assert.assertNull(futureGet.trace());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
 	@Test
 	public void testPutVersion() throws Exception {
 		final Random rnd = new Random(42L);
@@ -642,6 +691,81 @@ public class TestDHT {
 		}
 	}
 
+	@Test
+	public void testObjectCodec() throws Exception {
+		PeerDHT p1 = null;
+		PeerDHT p2 = null;
+		try {
+			// the compact format cannot be read with the Java serialization
+			p1 = new PeerBuilderDHT(new PeerBuilder(new Number160(rnd)).ports(4001)
+			        .objectCodec(new CompactObjectCodec()).start()).start();
+			p2 = new PeerBuilderDHT(new PeerBuilder(new Number160(rnd)).ports(4002)
+			        .objectCodec(new CompactObjectCodec()).start()).start();
+			p2.peer().bootstrap().peerAddress(p1.peerAddress()).start().awaitUninterruptibly();
+			p2.peer().objectDataReply(new ObjectDataReply() {
+				@Override
+				public Object reply(PeerAddress sender, Object request) throws Exception {
+					return "re: " + request;
+				}
+			});
+			FuturePut fput = p1.put(Number160.ONE).object("hallo").start();
+			fput.awaitUninterruptibly();
+			Assert.assertEquals(true, fput.isSuccess());
+			FutureGet fget = p2.get(Number160.ONE).start();
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(true, fget.isSuccess());
+			Assert.assertEquals("hallo", fget.data().object());
+			FutureDirect fdir = p1.peer().sendDirect(p2.peerAddress()).object("hallo").start();
+			fdir.awaitUninterruptibly();
+			Assert.assertEquals(true, fdir.isSuccess());
+			Assert.assertEquals("re: hallo", fdir.object());
+		} finally {
+			if (p1 != null) {
+				p1.shutdown().await();
+			}
+			if (p2 != null) {
+				p2.shutdown().await();
+			}
+		}
+	}
+
+	@Test
+	public void testCompressedData() throws Exception {
+		PeerDHT p1 = null;
+		PeerDHT p2 = null;
+		try {
+			p1 = new PeerBuilderDHT(new PeerBuilder(new Number160(rnd)).ports(4001).start()).start();
+			p2 = new PeerBuilderDHT(new PeerBuilder(new Number160(rnd)).ports(4002).start()).start();
+			p2.peer().bootstrap().peerAddress(p1.peerAddress()).start().awaitUninterruptibly();
+			p1.peer().bootstrap().peerAddress(p2.peerAddress()).start().awaitUninterruptibly();
+			Data data = new Data(new byte[10000]).compress();
+			Assert.assertTrue(data.isCompressed());
+			FuturePut fput = p1.put(Number160.ONE).data(data).start();
+			fput.awaitUninterruptibly();
+			Assert.assertEquals(true, fput.isSuccess());
+			FutureGet fget = p2.get(Number160.ONE).requestP2PConfiguration(new RequestP2PConfiguration(2, 0, 0))
+			        .start();
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(true, fget.isSuccess());
+			Assert.assertEquals(2, fget.rawData().size());
+			// p1 stores the data compressed and sends it compressed, since the get request announced support
+			Data fromP1 = fget.rawData().get(p1.peerAddress()).values().iterator().next();
+			Assert.assertTrue(fromP1.isCompressed());
+			Assert.assertArrayEquals(new byte[10000], fromP1.toBytes());
+			// the put request does not know if p2 can decode compressed data, so p2 got and stored it uncompressed
+			Data fromP2 = fget.rawData().get(p2.peerAddress()).values().iterator().next();
+			Assert.assertFalse(fromP2.isCompressed());
+			Assert.assertArrayEquals(new byte[10000], fromP2.toBytes());
+		} finally {
+			if (p1 != null) {
+				p1.shutdown().await();
+			}
+			if (p2 != null) {
+				p2.shutdown().await();
+			}
+		}
+	}
+
 	@Test
 	public void testAddListGet() throws Exception {
 		PeerDHT master = null;
@@ -705,6 +829,45 @@ public class TestDHT {
 		}
 	}
 
+	@Test
+	public void testGetResultListener() throws Exception {
+		PeerDHT master = null;
+		try {
+			// setup
+			PeerDHT[] peers = UtilsDHT2.createNodes(200, rnd, 4001);
+			master = peers[0];
+			UtilsDHT2.perfectRouting(peers);
+			// do testing
+			Number160 nr = new Number160(rnd);
+			peers[30].add(nr).data(new Data("hallo1")).start().awaitUninterruptibly();
+			peers[50].add(nr).data(new Data("hallo2")).start().awaitUninterruptibly();
+			final Map<PeerAddress, Map<Number640, Data>> streamed = new ConcurrentHashMap<PeerAddress, Map<Number640, Data>>();
+			FutureGet fget = peers[77].get(nr).all().resultListener(new ResultListener<Map<Number640, Data>>() {
+				@Override
+				public void result(PeerAddress remotePeer, Map<Number640, Data> result) {
+					streamed.put(remotePeer, result);
+				}
+			}).start();
+			FutureDone<Integer> size = Futures.thenApply(fget, new Futures.Function<FutureGet, Integer>() {
+				@Override
+				public Integer apply(FutureGet input) throws Exception {
+					return input.dataMap().size();
+				}
+			});
+			size.awaitUninterruptibly();
+			Assert.assertEquals(true, fget.isSuccess());
+			Assert.assertEquals(Integer.valueOf(2), size.object());
+			// every reply that was evaluated has been streamed before
+			for (Map.Entry<PeerAddress, Map<Number640, Data>> entry : fget.rawData().entrySet()) {
+				Assert.assertEquals(entry.getValue(), streamed.get(entry.getKey()));
+			}
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
 	@Test
 	public void testDigest() throws Exception {
 		PeerDHT master = null;
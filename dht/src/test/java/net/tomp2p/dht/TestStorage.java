@@ -11,6 +11,7 @@ import java.util.SortedMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.connection.Metrics;
 import net.tomp2p.dht.StorageLayer.PutStatus;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number640;
@@ -97,6 +98,21 @@ public class TestStorage {
         Assert.assertEquals(null, result3);
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        Storage storageM = createStorage();
+        Metrics metrics = new Metrics();
+        StorageLayer storageLayer = new StorageLayer(storageM).metrics(metrics);
+        testGet(storageLayer);
+        storageLayer.remove(key1, null, false);
+        // testGet stores 2 entries and gets 3
+        Assert.assertEquals(2, metrics.histogram("storage.put").count());
+        Assert.assertEquals(3, metrics.histogram("storage.get").count());
+        Assert.assertEquals(1, metrics.histogram("storage.remove").count());
+        Assert.assertEquals(Long.valueOf(1), metrics.snapshot().get("storage.remove.count"));
+        storageM.close();
+    }
+
     @Test
     public void testPut() throws Exception {
         Storage storageM = createStorage();
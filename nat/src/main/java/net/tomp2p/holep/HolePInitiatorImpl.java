@@ -1,6 +1,7 @@
 package net.tomp2p.holep;
 
 import net.tomp2p.connection.HolePInitiator;
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.holep.strategy.HolePStrategy;
@@ -22,21 +23,58 @@ public class HolePInitiatorImpl implements HolePInitiator {
 	private static final Logger LOG = LoggerFactory.getLogger(HolePInitiatorImpl.class);
 	private final NATTypeDetection natTypeDetection;
 	private final Peer peer;
+	private final HolePSessionCache sessionCache;
 	private boolean testCase = false;
 	private FutureDone<NATType> future;
 
 	public HolePInitiatorImpl(final Peer peer) {
+		this(peer, new HolePSessionCache(peer.connectionBean().timer(), peer.connectionBean().metrics(),
+				HolePSessionCache.DEFAULT_KEEP_ALIVE_SECONDS, HolePSessionCache.DEFAULT_SESSION_TIMEOUT_SECONDS));
+	}
+
+	public HolePInitiatorImpl(final Peer peer, final HolePSessionCache sessionCache) {
 		this.peer = peer;
 		this.natTypeDetection = null;
+		this.sessionCache = sessionCache;
 	}
 
 	@Override
 	public FutureDone<Message> handleHolePunch(final int idleUDPMillis, final FutureResponse futureResponse, final Message originalMessage) {
 		//this is called from the sender, we start hole punching here.
 		final FutureDone<Message> futureDone = new FutureDone<Message>();
+		if (HolePSession.isSupported(originalMessage)) {
+			final HolePSession session = sessionCache.session(originalMessage.recipient().peerId());
+			if (session != null) {
+				LOG.debug("Reusing the punched hole to {}", originalMessage.recipient().peerId());
+				return sendOverSession(session, idleUDPMillis, originalMessage);
+			}
+		}
 		//final HolePStrategy holePuncher = natType().holePuncher(peer, peer.peerBean().holePNumberOfHoles(), idleUDPSeconds, originalMessage);
 		//return holePuncher.initiateHolePunch(futureDone, futureResponse);
-		return null;
+		// without a strategy, the sender falls back to relaying
+		return futureDone.failed("No hole punching strategy available for " + originalMessage.recipient().peerId());
+	}
+
+	private FutureDone<Message> sendOverSession(final HolePSession session, final int idleUDPMillis, final Message originalMessage) {
+		final FutureDone<Message> futureDone = session.send(originalMessage, idleUDPMillis);
+		futureDone.addListener(new BaseFutureAdapter<FutureDone<Message>>() {
+			@Override
+			public void operationComplete(final FutureDone<Message> future) throws Exception {
+				if (!future.isSuccess()) {
+					// the mapping may have been dropped by a NAT device, punch again next time
+					LOG.debug("The punched hole to {} failed: {}", session.remotePeerId(), future.failedReason());
+					sessionCache.remove(session);
+				}
+			}
+		});
+		return futureDone;
+	}
+
+	/**
+	 * @return the sessions of the holes that have been punched by this peer
+	 */
+	public HolePSessionCache sessionCache() {
+		return sessionCache;
 	}
 
 	/**
@@ -55,6 +55,11 @@ public class HolePRPC extends DispatchHandler {
 		else if (message.type() == Message.Type.REQUEST_2) {
 			LOG.debug("HolePunch initiated on peer: " + message.recipient().peerId());
 			handleHolePunch(message, responder);
+		}
+		// This means that the other peer keeps a punched hole open
+		else if (message.type() == Message.Type.REQUEST_FF_1) {
+			LOG.trace("Keep-alive received from peer {}", message.sender().peerId());
+			responder.responseFireAndForget();
 		} else {
 			throw new IllegalArgumentException("Message Content is wrong!");
 		}
@@ -0,0 +1,305 @@
+package net.tomp2p.holep;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.Dispatcher;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.message.Buffer;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Content;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.RPC;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A punched hole to a remote peer that is kept open after the hole punching procedure. The session owns the UDP
+ * channel whose local port is mapped by the NAT devices to the remote port, thus further messages can be sent over
+ * this channel without punching again. The responses are correlated with the requests by their message ID, requests
+ * of the remote peer that arrive on this channel are handed to the {@link Dispatcher}.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class HolePSession {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HolePSession.class);
+	public static final String HANDLER_NAME = "handler";
+
+	private final Number160 remotePeerId;
+	private final PeerAddress remotePeer;
+	private final PeerAddress localPeer;
+	private final Channel channel;
+	private final ChannelCreator channelCreator;
+	private final int localPort;
+	private final int remotePort;
+	private final int p2pId;
+
+	private final ConcurrentMap<Integer, Pending> pending = new ConcurrentHashMap<Integer, Pending>();
+	private volatile long lastUsed;
+	private volatile long lastSent;
+
+	/**
+	 * Takes over a punched channel. The handlers that belong to the hole punching procedure (timeouts and the reply
+	 * handler) are replaced by the handler of this session.
+	 *
+	 * @param peer
+	 *            this peer
+	 * @param channel
+	 *            the punched UDP channel
+	 * @param channelCreator
+	 *            the channel creator that reserved the channel and is shut down when the session is closed, or null
+	 *            if only the channel needs to be closed
+	 * @param remotePeer
+	 *            the address of the remote peer with the punched port
+	 */
+	public HolePSession(final Peer peer, final Channel channel, final ChannelCreator channelCreator,
+			final PeerAddress remotePeer) {
+		this.channel = channel;
+		this.channelCreator = channelCreator;
+		this.p2pId = peer.connectionBean().p2pId();
+		this.remotePeerId = remotePeer.peerId();
+		this.remotePort = remotePeer.udpPort();
+		this.localPort = ((InetSocketAddress) channel.localAddress()).getPort();
+		this.remotePeer = remotePeer.changeFirewalledTCP(false).changeFirewalledUDP(false).changeRelayed(false);
+		this.localPeer = peer.peerBean().serverPeerAddress().changePorts(-1, localPort).changeFirewalledTCP(false)
+				.changeFirewalledUDP(false).changeRelayed(false);
+		this.lastUsed = System.currentTimeMillis();
+		this.lastSent = lastUsed;
+
+		final ChannelPipeline pipeline = channel.pipeline();
+		// the session lives longer than a single request
+		if (pipeline.get("timeout0") != null) {
+			pipeline.remove("timeout0");
+		}
+		if (pipeline.get("timeout1") != null) {
+			pipeline.remove("timeout1");
+		}
+		final SessionHandler handler = new SessionHandler(peer.connectionBean().dispatcher());
+		if (pipeline.get(HANDLER_NAME) != null) {
+			pipeline.replace(HANDLER_NAME, HANDLER_NAME, handler);
+		} else {
+			pipeline.addLast(HANDLER_NAME, handler);
+		}
+		channel.closeFuture().addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(final ChannelFuture future) throws Exception {
+				failAll("The hole punching session to " + remotePeerId + " has been closed");
+			}
+		});
+	}
+
+	/**
+	 * Only unsigned messages that consist of buffers can be sent over a session, because the message needs to be
+	 * copied (see {@link #send(Message, int)}). This is the case for direct messages.
+	 *
+	 * @param message
+	 *            the message to check
+	 * @return true if the message can be sent over a session
+	 */
+	public static boolean isSupported(final Message message) {
+		if (message.isSign()) {
+			return false;
+		}
+		for (Content content : message.contentTypes()) {
+			if (content != null && content != Content.EMPTY && content != Content.BYTE_BUFFER) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends a copy of the message over the punched hole. The original message is left untouched, so it can still be
+	 * sent over the relay if the session fails.
+	 *
+	 * @param originalMessage
+	 *            the request
+	 * @param timeoutMillis
+	 *            the time to wait for the response
+	 * @return the future that contains the response
+	 */
+	public FutureDone<Message> send(final Message originalMessage, final int timeoutMillis) {
+		final FutureDone<Message> futureDone = new FutureDone<Message>();
+		if (!isOpen()) {
+			return futureDone.failed("The hole punching session to " + remotePeerId + " is closed");
+		}
+		final Message message = copy(originalMessage);
+		final int messageId = message.messageId();
+		final ScheduledFuture<?> timeout = channel.eventLoop().schedule(new Runnable() {
+			@Override
+			public void run() {
+				complete(messageId, null, "No response within " + timeoutMillis + "ms over the punched hole");
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		pending.put(messageId, new Pending(futureDone, timeout));
+		write(message, messageId);
+		return futureDone;
+	}
+
+	/**
+	 * Sends an empty fire and forget message to refresh the port mapping of the NAT devices.
+	 */
+	public void keepAlive() {
+		final Message message = createMessage(RPC.Commands.HOLEP.getNr(), Message.Type.REQUEST_FF_1);
+		LOG.trace("Sending keep-alive over the punched hole {} -> {}", localPort, remotePort);
+		write(message, null);
+	}
+
+	private void write(final Message message, final Integer messageId) {
+		lastSent = System.currentTimeMillis();
+		channel.writeAndFlush(message).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(final ChannelFuture future) throws Exception {
+				if (!future.isSuccess() && messageId != null) {
+					complete(messageId, null, "Could not write over the punched hole: " + future.cause());
+				}
+			}
+		});
+	}
+
+	private Message copy(final Message originalMessage) {
+		final Message message = createMessage(originalMessage.command(), originalMessage.type());
+		message.messageId(originalMessage.messageId());
+		for (Buffer buf : originalMessage.bufferList()) {
+			// the buffer can only be read once, keep the original for a fallback
+			message.buffer(new Buffer(buf.buffer().duplicate()));
+		}
+		return message;
+	}
+
+	private Message createMessage(final byte command, final Message.Type type) {
+		final Message message = new Message();
+		message.recipient(remotePeer);
+		message.sender(localPeer);
+		message.command(command);
+		message.type(type);
+		message.version(p2pId);
+		message.udp(true);
+		return message;
+	}
+
+	private void complete(final int messageId, final Message responseMessage, final String failedReason) {
+		final Pending entry = pending.remove(messageId);
+		if (entry == null) {
+			return;
+		}
+		entry.timeout.cancel(false);
+		if (responseMessage != null) {
+			lastUsed = System.currentTimeMillis();
+			entry.futureDone.done(responseMessage);
+		} else {
+			entry.futureDone.failed(failedReason);
+		}
+	}
+
+	private void failAll(final String reason) {
+		for (Iterator<Map.Entry<Integer, Pending>> iterator = pending.entrySet().iterator(); iterator.hasNext();) {
+			final Pending entry = iterator.next().getValue();
+			iterator.remove();
+			entry.timeout.cancel(false);
+			entry.futureDone.failed(reason);
+		}
+	}
+
+	/**
+	 * Closes the punched channel and fails all outstanding requests.
+	 */
+	public void close() {
+		LOG.debug("Closing the hole punching session to {}", remotePeerId);
+		if (channelCreator != null) {
+			channelCreator.shutdown();
+		} else {
+			channel.close();
+		}
+	}
+
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	public Number160 remotePeerId() {
+		return remotePeerId;
+	}
+
+	public int localPort() {
+		return localPort;
+	}
+
+	public int remotePort() {
+		return remotePort;
+	}
+
+	/**
+	 * @return the time of the last response received over this session
+	 */
+	public long lastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * @return the time of the last message (including keep-alives) sent over this session
+	 */
+	public long lastSent() {
+		return lastSent;
+	}
+
+	/**
+	 * @return the number of requests that wait for their response
+	 */
+	public int pendingRequests() {
+		return pending.size();
+	}
+
+	private class SessionHandler extends SimpleChannelInboundHandler<Message> {
+
+		private final Dispatcher dispatcher;
+
+		private SessionHandler(final Dispatcher dispatcher) {
+			this.dispatcher = dispatcher;
+		}
+
+		@Override
+		protected void channelRead0(final ChannelHandlerContext ctx, final Message msg) throws Exception {
+			if (!msg.isRequest() && pending.containsKey(msg.messageId())) {
+				LOG.debug("Received response over the punched hole {}", msg);
+				complete(msg.messageId(), msg, null);
+			} else if (msg.command() == RPC.Commands.HOLEP.getNr()) {
+				// keep-alive or a late hole punch message of the remote peer
+				LOG.trace("Received hole punch message over the session {}", msg);
+			} else if (msg.isRequest() && dispatcher != null) {
+				LOG.debug("Request received over the punched hole will be forwarded to the Dispatcher!");
+				dispatcher.channelRead(ctx, msg);
+			} else {
+				LOG.debug("Ignoring message over the punched hole {}", msg);
+			}
+		}
+	}
+
+	private static class Pending {
+		private final FutureDone<Message> futureDone;
+		private final ScheduledFuture<?> timeout;
+
+		private Pending(final FutureDone<Message> futureDone, final ScheduledFuture<?> timeout) {
+			this.futureDone = futureDone;
+			this.timeout = timeout;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package net.tomp2p.holep;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.connection.Metrics;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.utils.LatencyHistogram;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the {@link HolePSession}s of a peer, one per remote peer. A periodic task sends keep-alives over the
+ * sessions that have not been used recently, such that the NAT devices do not drop the port mappings, and closes
+ * the sessions that have not been used for longer than the session timeout.
+ * <p>
+ * The cache also records how often hole punching succeeds and how long it takes, as well as how often a message
+ * could be sent over an existing session.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class HolePSessionCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HolePSessionCache.class);
+
+	// most NAT devices drop idle UDP mappings after 30 to 60 seconds
+	public static final int DEFAULT_KEEP_ALIVE_SECONDS = 15;
+	public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 120;
+
+	private final ConcurrentMap<Number160, HolePSession> sessions = new ConcurrentHashMap<Number160, HolePSession>();
+	private final int keepAliveMillis;
+	private final int sessionTimeoutMillis;
+	private final ScheduledFuture<?> maintenance;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong setupSuccess;
+	private final AtomicLong setupFailed;
+	private final AtomicLong keepAlives;
+	private final LatencyHistogram setupLatency;
+
+	/**
+	 * @param timer
+	 *            the timer that runs the keep-alives
+	 * @param metrics
+	 *            the metrics of the peer
+	 * @param keepAliveSeconds
+	 *            the interval of the keep-alives if a session is not used
+	 * @param sessionTimeoutSeconds
+	 *            the time after which an unused session is closed
+	 */
+	public HolePSessionCache(final ScheduledExecutorService timer, final Metrics metrics, final int keepAliveSeconds,
+			final int sessionTimeoutSeconds) {
+		if (keepAliveSeconds <= 0 || sessionTimeoutSeconds <= 0) {
+			throw new IllegalArgumentException("The keep-alive interval and the session timeout must be positive");
+		}
+		this.keepAliveMillis = keepAliveSeconds * 1000;
+		this.sessionTimeoutMillis = sessionTimeoutSeconds * 1000;
+		this.hits = metrics.counter("holep.session.hit");
+		this.misses = metrics.counter("holep.session.miss");
+		this.setupSuccess = metrics.counter("holep.setup.ok");
+		this.setupFailed = metrics.counter("holep.setup.failed");
+		this.keepAlives = metrics.counter("holep.session.keepalive");
+		this.setupLatency = metrics.histogram("holep.setup.latency");
+		metrics.gauge("holep.sessions", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				return sessions.size();
+			}
+		});
+		// check twice per interval, so a keep-alive is sent at the latest 1.5 intervals after the last message
+		final long period = Math.max(keepAliveMillis / 2, 1);
+		this.maintenance = timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					maintain(System.currentTimeMillis());
+				} catch (Throwable t) {
+					LOG.error("Could not maintain the hole punching sessions", t);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Looks up an open session to the remote peer and counts the hit or miss.
+	 *
+	 * @param remotePeerId
+	 *            the ID of the remote peer
+	 * @return the session or null if there is no open session
+	 */
+	public HolePSession session(final Number160 remotePeerId) {
+		final HolePSession session = sessions.get(remotePeerId);
+		if (session != null && session.isOpen()) {
+			hits.incrementAndGet();
+			return session;
+		}
+		if (session != null) {
+			sessions.remove(remotePeerId, session);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Adds a new session. If there is already an open session to the same peer, the new session is closed.
+	 *
+	 * @param session
+	 *            the new session
+	 * @return true if the session has been added
+	 */
+	public boolean add(final HolePSession session) {
+		final HolePSession old = sessions.putIfAbsent(session.remotePeerId(), session);
+		if (old == null) {
+			LOG.debug("New hole punching session to {} on ports {} -> {}", session.remotePeerId(),
+					session.localPort(), session.remotePort());
+			return true;
+		}
+		if (!old.isOpen() && sessions.replace(session.remotePeerId(), old, session)) {
+			return true;
+		}
+		session.close();
+		return false;
+	}
+
+	/**
+	 * Closes and removes the session, e.g., because a message over it timed out.
+	 *
+	 * @param session
+	 *            the session to remove
+	 */
+	public void remove(final HolePSession session) {
+		sessions.remove(session.remotePeerId(), session);
+		session.close();
+	}
+
+	/**
+	 * Records the outcome of a hole punching procedure.
+	 *
+	 * @param startNanos
+	 *            the start of the procedure, from {@link System#nanoTime()}
+	 * @param success
+	 *            true if the holes have been punched
+	 */
+	public void setupCompleted(final long startNanos, final boolean success) {
+		(success ? setupSuccess : setupFailed).incrementAndGet();
+		setupLatency.record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	void maintain(final long now) {
+		for (Iterator<HolePSession> iterator = sessions.values().iterator(); iterator.hasNext();) {
+			final HolePSession session = iterator.next();
+			if (!session.isOpen()) {
+				iterator.remove();
+			} else if (now - session.lastUsed() >= sessionTimeoutMillis && session.pendingRequests() == 0) {
+				LOG.debug("The hole punching session to {} has not been used for {}ms", session.remotePeerId(),
+						now - session.lastUsed());
+				iterator.remove();
+				session.close();
+			} else if (now - session.lastSent() >= keepAliveMillis) {
+				keepAlives.incrementAndGet();
+				session.keepAlive();
+			}
+		}
+	}
+
+	/**
+	 * Stops the keep-alives and closes all sessions.
+	 */
+	public void shutdown() {
+		maintenance.cancel(false);
+		for (Iterator<HolePSession> iterator = sessions.values().iterator(); iterator.hasNext();) {
+			final HolePSession session = iterator.next();
+			iterator.remove();
+			session.close();
+		}
+	}
+
+	/**
+	 * @return the number of open sessions
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public long keepAlives() {
+		return keepAlives.get();
+	}
+
+	/**
+	 * @return the share of successful hole punching procedures, or 0 if there was none yet
+	 */
+	public double setupSuccessRate() {
+		final long success = setupSuccess.get();
+		final long total = success + setupFailed.get();
+		return total == 0 ? 0 : (double) success / total;
+	}
+
+	/**
+	 * @return the duration of the hole punching procedures (in microseconds)
+	 */
+	public LatencyHistogram setupLatency() {
+		return setupLatency;
+	}
+}
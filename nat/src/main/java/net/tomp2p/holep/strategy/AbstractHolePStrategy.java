@@ -1,6 +1,7 @@
 package net.tomp2p.holep.strategy;
 
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -13,8 +14,10 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.Dispatcher;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
@@ -23,6 +26,7 @@ import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.holep.DuplicatesHandler;
 import net.tomp2p.holep.HolePInitiatorImpl;
 import net.tomp2p.holep.HolePScheduler;
+import net.tomp2p.holep.HolePSession;
 import net.tomp2p.holep.NATType;
 import net.tomp2p.message.Buffer;
 import net.tomp2p.message.Message;
@@ -64,6 +68,8 @@ public abstract class AbstractHolePStrategy implements HolePStrategy {
 	protected final Message originalMessage;
 	protected volatile List<ChannelFuture> channelFutures = new ArrayList<ChannelFuture>();
 	protected volatile List<Pair<Integer, Integer>> portMappings = new ArrayList<Pair<Integer, Integer>>();
+	// the channel creator of each hole, needed to hand over a punched hole to a session
+	private final Map<Channel, ChannelCreator> channelCreators = new ConcurrentHashMap<Channel, ChannelCreator>();
 
 	/**
 	 * This constructor should never be called by the user, since it should be
@@ -172,6 +178,7 @@ public abstract class AbstractHolePStrategy implements HolePStrategy {
 							@Override
 							public void operationComplete(final ChannelFuture future) throws Exception {
 								if (future.isSuccess()) {
+									channelCreators.put(future.channel(), fcc.channelCreator());
 									channelFutures.add(future);
 								} else {
 									mainFutureDone.failed("Error while creating the ChannelFutures!");
@@ -204,10 +211,18 @@ public abstract class AbstractHolePStrategy implements HolePStrategy {
 	 */
 	public FutureDone<Message> initiateHolePunch(final FutureDone<Message> mainFutureDone, final FutureResponse originalFutureResponse) {
 		//check if testCase == true
-		if (((HolePInitiatorImpl) peer.peerBean().holePunchInitiator()).isTestCase()) {
+		final HolePInitiatorImpl holePInitiator = (HolePInitiatorImpl) peer.peerBean().holePunchInitiator();
+		if (holePInitiator.isTestCase()) {
 			mainFutureDone.failed("Gandalf says: You shall not pass!!!");
 			return mainFutureDone;
 		}
+		final long start = System.nanoTime();
+		mainFutureDone.addListener(new BaseFutureAdapter<FutureDone<Message>>() {
+			@Override
+			public void operationComplete(final FutureDone<Message> future) throws Exception {
+				holePInitiator.sessionCache().setupCompleted(start, future.isSuccess());
+			}
+		});
 		final FutureDone<List<ChannelFuture>> fDoneChannelFutures = createChannelFutures(prepareHandlers(true, mainFutureDone),
 				mainFutureDone, numberOfHoles);
 		fDoneChannelFutures.addListener(new BaseFutureAdapter<FutureDone<List<ChannelFuture>>>() {
@@ -456,7 +471,9 @@ public abstract class AbstractHolePStrategy implements HolePStrategy {
 					LOG.debug("Successfully transmitted the original message to peer:[" + msg.sender().toString()
 							+ "]. Now here's the reply:[" + msg.toString() + "]");
 					mainFutureDone.done(msg);
-					ctx.close();
+					if (!adoptSession(ctx, msg)) {
+						ctx.close();
+					}
 				} else if (Message.Type.REQUEST_3 == msg.type() && Commands.HOLEP.getNr() == msg.command()) {
 					LOG.debug("Holes successfully punched with ports = {localPort = " + msg.recipient().udpPort() + " , remotePort = "
 							+ msg.sender().udpPort() + "}!");
@@ -469,6 +486,28 @@ public abstract class AbstractHolePStrategy implements HolePStrategy {
 		return inboundHandler;
 	}
 
+	/**
+	 * This method keeps the punched hole open for further messages to the same
+	 * peer. The {@link HolePSession} takes over the channel and its
+	 * {@link ChannelCreator}, which is not released by the timeout of this
+	 * hole anymore.
+	 * 
+	 * @param ctx
+	 * @param msg
+	 *            the reply of the other peer over the punched hole
+	 * @return true if the channel is now owned by a session
+	 */
+	private boolean adoptSession(final ChannelHandlerContext ctx, final Message msg) {
+		final ChannelCreator channelCreator = channelCreators.get(ctx.channel());
+		if (channelCreator == null || !HolePSession.isSupported(originalMessage)) {
+			return false;
+		}
+		final int remotePort = msg.senderSocket() != null ? msg.senderSocket().getPort() : msg.sender().udpPort();
+		final HolePSession session = new HolePSession(peer, ctx.channel(), channelCreator, msg.sender().changePorts(-1,
+				remotePort));
+		return ((HolePInitiatorImpl) peer.peerBean().holePunchInitiator()).sessionCache().add(session);
+	}
+
 	/**
 	 * This method looks up a {@Link ChannelFuture} from the
 	 * channelFutures {@link List}. If the {@Link ChannelFuture} can't be
@@ -10,6 +10,7 @@ import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.holep.HolePInitiatorImpl;
 import net.tomp2p.holep.HolePRPC;
+import net.tomp2p.holep.HolePSessionCache;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.Shutdown;
 import net.tomp2p.relay.RconRPC;
@@ -27,11 +28,14 @@ public class PeerBuilderNAT {
 
 	// holds multiple implementations for serving relay peers
 	private Map<RelayType, RelayServerConfig> relayServerConfigurations;
+	private int maxRelayedPeers = RelayRPC.DEFAULT_MAX_RELAYED_PEERS;
 
 	private static final int DEFAULT_NUMBER_OF_HOLEP_HOLES = 3;
 	private int holePNumberOfHoles = DEFAULT_NUMBER_OF_HOLEP_HOLES;
 	private static final int DEFAULT_NUMBER_OF_HOLE_PUNCHES = 3;
 	private int holePNumberOfPunches = DEFAULT_NUMBER_OF_HOLE_PUNCHES;
+	private int holePSessionKeepAliveSeconds = HolePSessionCache.DEFAULT_KEEP_ALIVE_SECONDS;
+	private int holePSessionTimeoutSeconds = HolePSessionCache.DEFAULT_SESSION_TIMEOUT_SECONDS;
 
 	public PeerBuilderNAT(Peer peer) {
 		this.peer = peer;
@@ -82,6 +86,22 @@ public class PeerBuilderNAT {
 		return this;
 	}
 
+	/**
+	 * Limits the number of unreachable peers this peer serves as a relay. Further
+	 * relay requests are denied, the unreachable peers then ask other relays.
+	 * 
+	 * @param maxRelayedPeers
+	 * @return this instance
+	 */
+	public PeerBuilderNAT maxRelayedPeers(final int maxRelayedPeers) {
+		this.maxRelayedPeers = maxRelayedPeers;
+		return this;
+	}
+
+	public int maxRelayedPeers() {
+		return maxRelayedPeers;
+	}
+
 	/**
 	 * This method specifies the amount of holes, which shall be punched by the
 	 * {@link HolePStrategy}.
@@ -122,12 +142,47 @@ public class PeerBuilderNAT {
 		return holePNumberOfPunches;
 	}
 
+	/**
+	 * A punched hole is kept open for further messages to the same peer. If no
+	 * message has been sent over it for the given time, a keep-alive is sent
+	 * to refresh the port mappings of the NAT devices.
+	 * 
+	 * @param holePSessionKeepAliveSeconds
+	 * @return this instance
+	 */
+	public PeerBuilderNAT holePSessionKeepAliveSeconds(final int holePSessionKeepAliveSeconds) {
+		this.holePSessionKeepAliveSeconds = holePSessionKeepAliveSeconds;
+		return this;
+	}
+
+	public int holePSessionKeepAliveSeconds() {
+		return holePSessionKeepAliveSeconds;
+	}
+
+	/**
+	 * specifies after how many seconds without a response a punched hole is
+	 * closed.
+	 * 
+	 * @param holePSessionTimeoutSeconds
+	 * @return this instance
+	 */
+	public PeerBuilderNAT holePSessionTimeoutSeconds(final int holePSessionTimeoutSeconds) {
+		this.holePSessionTimeoutSeconds = holePSessionTimeoutSeconds;
+		return this;
+	}
+
+	public int holePSessionTimeoutSeconds() {
+		return holePSessionTimeoutSeconds;
+	}
+
 	public PeerNAT start() {
 		final NATUtils natUtils = new NATUtils();
 		final RconRPC rconRPC = new RconRPC(peer);
 		final HolePRPC holePunchRPC = new HolePRPC(peer);
 		
-		peer.peerBean().holePunchInitiator(new HolePInitiatorImpl(peer));
+		final HolePSessionCache holePSessionCache = new HolePSessionCache(peer.connectionBean().timer(), peer
+				.connectionBean().metrics(), holePSessionKeepAliveSeconds, holePSessionTimeoutSeconds);
+		peer.peerBean().holePunchInitiator(new HolePInitiatorImpl(peer, holePSessionCache));
 		peer.peerBean().holePNumberOfHoles(holePNumberOfHoles);
 		peer.peerBean().holePNumberOfPunches(holePNumberOfPunches);
 
@@ -139,12 +194,14 @@ public class PeerBuilderNAT {
 				config.start(peer);
 			}
 		}
-		final RelayRPC relayRPC = new RelayRPC(peer, rconRPC, holePunchRPC, relayServerConfigurations);
+		final RelayRPC relayRPC = new RelayRPC(peer, rconRPC, holePunchRPC, relayServerConfigurations,
+				maxRelayedPeers);
 
 		peer.addShutdownListener(new Shutdown() {
 			@Override
 			public BaseFuture shutdown() {
 				natUtils.shutdown();
+				holePSessionCache.shutdown();
 				return new FutureDone<Void>().done();
 			}
 		});
@@ -18,10 +18,12 @@ import net.tomp2p.peers.PeerAddress;
 public abstract class BaseRelayClient {
 
 	private final PeerAddress relayAddress;
+	private final PeerMapDelta peerMapDelta;
 	protected final Set<RelayListener> listeners;
 
 	public BaseRelayClient(PeerAddress relayAddress) {
 		this.relayAddress = relayAddress;
+		this.peerMapDelta = new PeerMapDelta();
 		this.listeners = new HashSet<RelayListener>();
 	}
 	
@@ -29,6 +31,13 @@ public abstract class BaseRelayClient {
 		return relayAddress;
 	}
 	
+	/**
+	 * @return the version of the peer map this relay acknowledged, used by the {@link PeerMapUpdateTask}
+	 */
+	public PeerMapDelta peerMapDelta() {
+		return peerMapDelta;
+	}
+
 	public abstract FutureResponse sendToRelay(Message message);
 	
 	public abstract FutureDone<Void> shutdown();
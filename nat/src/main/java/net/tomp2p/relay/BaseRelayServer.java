@@ -3,6 +3,7 @@ package net.tomp2p.relay;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
@@ -51,7 +52,8 @@ public abstract class BaseRelayServer extends DispatchHandler implements PeerSta
 	private final Number160 relayPeerId;
 	private PeerAddress unreachablePeer;
 	private final ArrayList<OfflineListener> offlineListeners;
-	private List<Map<Number160, PeerStatistic>> peerMap = null;
+	private volatile List<Map<Number160, PeerStatistic>> peerMap = null;
+	private int peerMapVersion = PeerMapDelta.NO_VERSION;
 
 	protected BaseRelayServer(Peer peer, PeerAddress unreachablePeer, RelayType relayType) {
 		super(peer.peerBean(), peer.connectionBean());
@@ -241,7 +243,9 @@ public abstract class BaseRelayServer extends DispatchHandler implements PeerSta
 
 		Collection<PeerStatistic> statistics = new ArrayList<PeerStatistic>();
 		for (Map<Number160, PeerStatistic> map : peerMap) {
-			statistics.addAll(map.values());
+			synchronized (map) {
+				statistics.addAll(map.values());
+			}
 		}
 		for (PeerStatistic peerStatatistic : statistics) {
 			peerAddresses.add(peerStatatistic.peerAddress());
@@ -262,6 +266,69 @@ public abstract class BaseRelayServer extends DispatchHandler implements PeerSta
 		peerMapUpdated(requestMessage, preparedResponse);
 	}
 
+	/**
+	 * Applies the map update of the unreachable peer, which is either the full peer map or the peers that were
+	 * added and removed since an earlier version (see {@link PeerMapDelta}). A delta is applied in place if it is
+	 * based on the version this relay holds, otherwise it is dropped. The version this relay holds after the
+	 * update is attached to the response, such that the unreachable peer sends the full map if needed, followed by
+	 * the capabilities of this relay.
+	 * 
+	 * @param requestMessage the map update message
+	 * @param preparedResponse the response that will be sent to the unreachable peer
+	 */
+	public final void updatePeerMap(Message requestMessage, Message preparedResponse) {
+		synchronized (this) {
+			final int version = PeerMapDelta.version(requestMessage);
+			if (!PeerMapDelta.isDelta(requestMessage)) {
+				final List<Map<Number160, PeerStatistic>> bags = new ArrayList<Map<Number160, PeerStatistic>>(
+						Number160.BITS);
+				for (int i = 0; i < Number160.BITS; i++) {
+					bags.add(new HashMap<Number160, PeerStatistic>());
+				}
+				addPeers(bags, PeerMapDelta.added(requestMessage));
+				peerMap = bags;
+				peerMapVersion = version;
+			} else if (peerMap != null && PeerMapDelta.baseVersion(requestMessage) == peerMapVersion) {
+				removePeers(peerMap, PeerMapDelta.removed(requestMessage));
+				addPeers(peerMap, PeerMapDelta.added(requestMessage));
+				peerMapVersion = version;
+			} else {
+				LOG.debug("Peer map delta of {} is based on version {}, but version {} is known",
+						unreachablePeerAddress(), PeerMapDelta.baseVersion(requestMessage), peerMapVersion);
+			}
+			preparedResponse.intValue(peerMapVersion);
+			PeerMapDelta.announceCapabilities(preparedResponse);
+		}
+		peerMapUpdated(requestMessage, preparedResponse);
+	}
+
+	private void addPeers(List<Map<Number160, PeerStatistic>> bags, Collection<PeerAddress> peerAddresses) {
+		for (PeerAddress peerAddress : peerAddresses) {
+			final int classMember = PeerMap.classMember(unreachablePeerId(), peerAddress.peerId());
+			if (classMember < 0) {
+				// the unreachable peer itself
+				continue;
+			}
+			final Map<Number160, PeerStatistic> bag = bags.get(classMember);
+			synchronized (bag) {
+				bag.put(peerAddress.peerId(), new PeerStatistic(peerAddress));
+			}
+		}
+	}
+
+	private void removePeers(List<Map<Number160, PeerStatistic>> bags, Collection<PeerAddress> peerAddresses) {
+		for (PeerAddress peerAddress : peerAddresses) {
+			final int classMember = PeerMap.classMember(unreachablePeerId(), peerAddress.peerId());
+			if (classMember < 0) {
+				continue;
+			}
+			final Map<Number160, PeerStatistic> bag = bags.get(classMember);
+			synchronized (bag) {
+				bag.remove(peerAddress.peerId());
+			}
+		}
+	}
+
 	/**
 	 * Is called when the unreachable peer sent an update to the relay peer. This gives the server
 	 * implementation the chance to extract further information from the original map update message or attach
@@ -5,11 +5,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureForkJoin;
 import net.tomp2p.futures.FuturePeerConnection;
@@ -22,6 +24,7 @@ import net.tomp2p.peers.PeerSocketAddress;
 import net.tomp2p.relay.buffer.BufferRequestListener;
 import net.tomp2p.relay.buffer.BufferedRelayClient;
 import net.tomp2p.rpc.RPC;
+import net.tomp2p.utils.Utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +50,7 @@ public class DistributedRelay implements BufferRequestListener {
 
 	private final Collection<RelayListener> relayListeners;
 	private final RelayClientConfig relayConfig;
+	private final RelayLoadBalancer loadBalancer;
 
 	/**
 	 * @param peer
@@ -68,12 +72,22 @@ public class DistributedRelay implements BufferRequestListener {
 		relayClients = Collections.synchronizedList(new ArrayList<BaseRelayClient>());
 		failedRelays = new ConcurrentCacheSet<PeerAddress>(relayConfig.failedRelayWaitTime());
 		relayListeners = Collections.synchronizedList(new ArrayList<RelayListener>(1));
+		// the loads are refreshed with every peer map update
+		loadBalancer = new RelayLoadBalancer(Math.max(relayConfig.peerMapUpdateInterval() * 4, 1),
+				relayConfig.loadImbalanceFactor(), new Random(peer.peerID().hashCode()));
 	}
 
 	public RelayClientConfig relayConfig() {
 		return relayConfig;
 	}
 
+	/**
+	 * @return the loads reported by the relay peers
+	 */
+	public RelayLoadBalancer loadBalancer() {
+		return loadBalancer;
+	}
+
 	/**
 	 * Returns connections to current relay peers
 	 * 
@@ -125,6 +139,8 @@ public class DistributedRelay implements BufferRequestListener {
 			relayCandidates = peer.distributedRouting().peerMap().all();
 			// remove those who we know have failed
 			relayCandidates.removeAll(failedRelays);
+			// ask the least loaded relays first
+			loadBalancer.sortCandidates(relayCandidates);
 		} else {
 			// if the user sets manual relays, the failed relays are not removed, as this has to be done by
 			// the user
@@ -287,13 +303,21 @@ public class DistributedRelay implements BufferRequestListener {
 					FutureResponse response = RelayUtils.send(peerConnection, peer.peerBean(), peer.connectionBean(), message);
 					response.addListener(new BaseFutureAdapter<FutureResponse>() {
 						public void operationComplete(FutureResponse future) throws Exception {
-							if (future.isSuccess()) {
+							// the relay reports its load also when it denies the request
+							loadBalancer.loadReported(candidate, future.responseMessage());
+							// a denied request is a successful communication, but no relay
+							if (future.isSuccess() && future.responseMessage().isOk()) {
 								// finialize the relay setup
 								setupAddRelays(peerConnection);
 								futureDone.done(peerConnection);
-							} else {
+							} else if (future.isSuccess()) {
 								LOG.debug("Peer {} denied relay request", candidate);
 								failedRelays.add(candidate);
+								peerConnection.close();
+								futureDone.failed("Peer " + candidate + " denied relay request");
+							} else {
+								LOG.debug("Peer {} did not answer relay request", candidate);
+								failedRelays.add(candidate);
 								futureDone.failed(future);
 							}
 						}
@@ -362,6 +386,87 @@ public class DistributedRelay implements BufferRequestListener {
 		});
 	}
 
+	/**
+	 * Leaves a relay that is considerably more loaded than a known alternative. The relay is treated like a failed
+	 * one, thus the relay listeners set up a relay at a less loaded peer and the left relay is not asked again
+	 * for a while. At most one relay is left per call, such that this peer stays reachable.
+	 * 
+	 * @return the relay that has been left or <code>null</code> if the load is balanced
+	 */
+	public PeerAddress migrateFromOverloadedRelay() {
+		if (!relayConfig.manualRelays().isEmpty()) {
+			// the user decides about the relays
+			return null;
+		}
+
+		final List<BaseRelayClient> clients = relayClients();
+		final List<PeerAddress> relays = new ArrayList<PeerAddress>(clients.size());
+		for (BaseRelayClient client : clients) {
+			relays.add(client.relayAddress());
+		}
+		final PeerAddress overloaded = loadBalancer.overloadedRelay(relays, relayAlternatives(relays));
+		if (overloaded == null) {
+			return null;
+		}
+		for (BaseRelayClient client : clients) {
+			if (client.relayAddress().equals(overloaded)) {
+				LOG.debug("Leaving the overloaded relay {} with {}", overloaded, loadBalancer.load(overloaded));
+				failedRelays.add(overloaded);
+				// the close listener replaces the relay
+				client.shutdown();
+				return overloaded;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Asks a relay candidate with an unknown load for its load. The load is considered when the relays are
+	 * chosen and left the next time.
+	 */
+	public void probeRelayLoad() {
+		if (!relayConfig.manualRelays().isEmpty()) {
+			return;
+		}
+
+		final List<PeerAddress> relays = new ArrayList<PeerAddress>();
+		for (BaseRelayClient client : relayClients()) {
+			relays.add(client.relayAddress());
+		}
+		final PeerAddress candidate = loadBalancer.probeCandidate(relayAlternatives(relays));
+		if (candidate == null) {
+			return;
+		}
+		LOG.debug("Asking relay candidate {} for its load", candidate);
+		final FutureChannelCreator fcc = peer.connectionBean().reservation().create(0, 1);
+		fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+			public void operationComplete(FutureChannelCreator future) throws Exception {
+				if (future.isSuccess()) {
+					final FutureResponse response = relayRPC.sendLoadRequest(candidate, future.channelCreator());
+					Utils.addReleaseListener(future.channelCreator(), response);
+					response.addListener(new BaseFutureAdapter<FutureResponse>() {
+						public void operationComplete(FutureResponse future) throws Exception {
+							loadBalancer.loadReported(candidate, future.responseMessage());
+						}
+					});
+				} else {
+					LOG.debug("Could not reserve a channel to ask for the load: {}", future.failedReason());
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the relay candidates this peer is not connected to
+	 */
+	private List<PeerAddress> relayAlternatives(List<PeerAddress> relays) {
+		final List<PeerAddress> alternatives = peer.distributedRouting().peerMap().all();
+		alternatives.removeAll(failedRelays);
+		alternatives.removeAll(relays);
+		filterRelayCandidates(alternatives);
+		return alternatives;
+	}
+
 	/**
 	 * Updates the peer's PeerAddress: Adds the relay addresses to the peer
 	 * address, updates the firewalled flags, and bootstraps to announce its new
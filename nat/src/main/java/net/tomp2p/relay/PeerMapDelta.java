@@ -0,0 +1,291 @@
+package net.tomp2p.relay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.tomp2p.message.Buffer;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.NeighborSet;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.NeighborRPC;
+import net.tomp2p.utils.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the peer map that a relay peer acknowledged and prepares the next peer map update for it. Instead of
+ * the full peer map, only the peers that were added or removed since the acknowledged version are sent. If the
+ * relay does not hold the acknowledged version anymore (e.g. because an update got lost), it replies with the
+ * version it holds and the unreachable peer falls back to the full peer map.
+ * <p>
+ * A full update contains the peer map in one or more sets, followed by the version and the layout as integers. A
+ * delta contains the added peers in the first sets and the removed peers in the last one, followed by the version,
+ * the layout and the version the delta is based on. The layout holds the number of sets and whether the update is
+ * a delta and whether the sets are compact. The sets are sent as full neighbor sets, unless the relay announced in
+ * its reply that it reads compact sets; these are sent as buffers (see {@link NeighborSet#encodeCompact()}). Relays
+ * that do not know the layout read the peers of the first neighbor set. Further neighbor sets of the relay type
+ * follow the sets of the peer map (see {@link #nrOfNeighborSets(Message)}).
+ * <p>
+ * The reply of the relay contains the version the relay holds after the update and the capabilities of the relay.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class PeerMapDelta {
+
+	/**
+	 * The version of a peer map that has not been sent with a version
+	 */
+	public static final int NO_VERSION = 0;
+
+	/**
+	 * The capability of a relay to read compact sets, announced in the reply to a map update
+	 */
+	public static final int COMPACT_NEIGHBORS = NeighborRPC.COMPACT_NEIGHBORS;
+
+	// the number of peers that fit into a set
+	public static final int MAX_SET_SIZE = NeighborSet.MAX_SIZE;
+	// leaves room for the integers and one neighbor set of the relay type
+	public static final int MAX_SETS = 4;
+
+	// the layout of an update, the lowest byte is the number of sets
+	private static final int LAYOUT_DELTA = 0x100;
+	private static final int LAYOUT_COMPACT = 0x200;
+
+	private static final Logger LOG = LoggerFactory.getLogger(PeerMapDelta.class);
+
+	private Map<Number160, PeerAddress> acknowledged = Collections.emptyMap();
+	private int acknowledgedVersion = NO_VERSION;
+
+	private Map<Number160, PeerAddress> pending = null;
+	private int pendingVersion = NO_VERSION;
+	private int version = NO_VERSION;
+	private boolean compact = false;
+
+	/**
+	 * Adds the peer map update to the message. If the relay did not acknowledge any version yet or the delta would
+	 * not be smaller, the full peer map is added. The sets are compact if the relay announced that it reads them.
+	 *
+	 * @param message
+	 *            the map update message
+	 * @param peerMap
+	 *            the current peer map of the unreachable peer
+	 * @param full
+	 *            true to send the full peer map in any case
+	 * @return true if a delta has been added
+	 */
+	public synchronized boolean prepare(Message message, Collection<PeerAddress> peerMap, boolean full) {
+		final Map<Number160, PeerAddress> current = new HashMap<Number160, PeerAddress>(peerMap.size());
+		for (PeerAddress peerAddress : peerMap) {
+			current.put(peerAddress.peerId(), peerAddress);
+		}
+		if (++version == NO_VERSION) {
+			// overflow
+			version++;
+		}
+		pending = current;
+		pendingVersion = version;
+
+		if (!full && acknowledgedVersion != NO_VERSION) {
+			final List<PeerAddress> added = new ArrayList<PeerAddress>();
+			final List<PeerAddress> removed = new ArrayList<PeerAddress>();
+			for (PeerAddress peerAddress : current.values()) {
+				final PeerAddress old = acknowledged.get(peerAddress.peerId());
+				// a peer with a changed address is added again
+				if (old == null || !Arrays.equals(old.toByteArray(), peerAddress.toByteArray())) {
+					added.add(peerAddress);
+				}
+			}
+			for (PeerAddress peerAddress : acknowledged.values()) {
+				if (!current.containsKey(peerAddress.peerId())) {
+					removed.add(peerAddress);
+				}
+			}
+			if (added.size() + removed.size() < current.size() && removed.size() <= MAX_SET_SIZE
+					&& added.size() <= (MAX_SETS - 1) * MAX_SET_SIZE) {
+				int nrOfSets = addSets(message, added, MAX_SETS - 1, compact);
+				nrOfSets += addSets(message, removed, 1, compact);
+				message.intValue(version);
+				message.intValue(layout(nrOfSets, true, compact));
+				message.intValue(acknowledgedVersion);
+				return true;
+			}
+		}
+		if (current.size() > MAX_SETS * MAX_SET_SIZE) {
+			LOG.warn("The peer map has {} peers, only {} are sent to the relay", current.size(), MAX_SETS
+					* MAX_SET_SIZE);
+		}
+		final int nrOfSets = addSets(message, current.values(), MAX_SETS, compact);
+		message.intValue(version);
+		message.intValue(layout(nrOfSets, false, compact));
+		return false;
+	}
+
+	private static int addSets(Message message, Collection<PeerAddress> peers, int maxSets, boolean compact) {
+		final List<PeerAddress> list = new ArrayList<PeerAddress>(peers);
+		int from = 0;
+		int nrOfSets = 0;
+		for (; nrOfSets < maxSets && (nrOfSets == 0 || from < list.size()); nrOfSets++) {
+			final int to = Math.min(from + MAX_SET_SIZE, list.size());
+			if (compact) {
+				message.buffer(new NeighborSet(-1, list.subList(from, to), true).encodeCompact());
+			} else {
+				message.neighborsSet(new NeighborSet(-1, list.subList(from, to)));
+			}
+			from = to;
+		}
+		return nrOfSets;
+	}
+
+	private static int layout(int nrOfSets, boolean delta, boolean compact) {
+		return nrOfSets | (delta ? LAYOUT_DELTA : 0) | (compact ? LAYOUT_COMPACT : 0);
+	}
+
+	/**
+	 * Processes the reply of the relay peer to a map update. The next updates are compact if the relay announced
+	 * that it reads compact sets.
+	 *
+	 * @param request
+	 *            the map update message
+	 * @param reply
+	 *            the reply of the relay peer
+	 * @return false if the relay could not apply the update and needs the full peer map
+	 */
+	public synchronized boolean acknowledged(Message request, Message reply) {
+		final int sentVersion = version(request);
+		final int relayVersion = reply == null || reply.intList().isEmpty() ? NO_VERSION : reply.intAt(0);
+		final Integer capabilities = reply == null ? null : reply.intAt(1);
+		compact = capabilities != null && (capabilities & COMPACT_NEIGHBORS) != 0;
+		if (sentVersion != relayVersion) {
+			reset();
+			return false;
+		}
+		if (sentVersion == pendingVersion) {
+			acknowledged = pending;
+			acknowledgedVersion = pendingVersion;
+			pending = null;
+		}
+		// else the acknowledgement of an older update, a newer one is on its way
+		return true;
+	}
+
+	/**
+	 * Forgets the acknowledged version, thus the next update contains the full peer map.
+	 */
+	public synchronized void reset() {
+		acknowledged = Collections.emptyMap();
+		acknowledgedVersion = NO_VERSION;
+	}
+
+	/**
+	 * @return the version of the peer map that the relay acknowledged last
+	 */
+	public synchronized int acknowledgedVersion() {
+		return acknowledgedVersion;
+	}
+
+	/**
+	 * @return true if the next updates are sent in compact sets
+	 */
+	public synchronized boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * Announces in the reply to a map update that this relay reads compact sets.
+	 *
+	 * @param reply
+	 *            the reply that already contains the version of the relay
+	 */
+	public static void announceCapabilities(Message reply) {
+		reply.intValue(COMPACT_NEIGHBORS);
+	}
+
+	/**
+	 * @return true if the map update message contains a delta
+	 */
+	public static boolean isDelta(Message message) {
+		return (layout(message) & LAYOUT_DELTA) != 0;
+	}
+
+	/**
+	 * @return the number of neighbor sets that belong to the peer map, further neighbor sets are content of the
+	 *         relay type
+	 */
+	public static int nrOfNeighborSets(Message message) {
+		final int layout = layout(message);
+		return (layout & LAYOUT_COMPACT) != 0 ? 0 : layout & Utils.MASK_FF;
+	}
+
+	/**
+	 * @return the peers of a full update or the peers that were added by a delta
+	 */
+	public static List<PeerAddress> added(Message message) {
+		final List<NeighborSet> sets = sets(message);
+		final int nrOfSets = isDelta(message) ? sets.size() - 1 : sets.size();
+		final List<PeerAddress> added = new ArrayList<PeerAddress>();
+		for (int i = 0; i < nrOfSets; i++) {
+			added.addAll(sets.get(i).neighbors());
+		}
+		return added;
+	}
+
+	/**
+	 * @return the peers that were removed by a delta
+	 */
+	public static Collection<PeerAddress> removed(Message message) {
+		final List<NeighborSet> sets = sets(message);
+		if (!isDelta(message) || sets.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return sets.get(sets.size() - 1).neighbors();
+	}
+
+	private static List<NeighborSet> sets(Message message) {
+		final int layout = layout(message);
+		final boolean compact = (layout & LAYOUT_COMPACT) != 0;
+		final int nrOfSets = layout & Utils.MASK_FF;
+		final List<NeighborSet> sets = new ArrayList<NeighborSet>(nrOfSets);
+		for (int i = 0; i < nrOfSets; i++) {
+			if (compact) {
+				final Buffer buffer = message.buffer(i);
+				if (buffer != null) {
+					sets.add(NeighborSet.decodeCompact(buffer));
+				}
+			} else {
+				final NeighborSet neighborSet = message.neighborsSet(i);
+				if (neighborSet != null) {
+					sets.add(neighborSet);
+				}
+			}
+		}
+		return sets;
+	}
+
+	private static int layout(Message message) {
+		final Integer layout = message.intAt(1);
+		// peers that do not send the layout send the peer map in one neighbor set
+		return layout == null ? 1 : layout;
+	}
+
+	/**
+	 * @return the version of the map update message or {@link #NO_VERSION}
+	 */
+	public static int version(Message message) {
+		return message.intList().isEmpty() ? NO_VERSION : message.intAt(0);
+	}
+
+	/**
+	 * @return the version a delta is based on
+	 */
+	public static int baseVersion(Message message) {
+		return message.intAt(2);
+	}
+}
@@ -1,7 +1,6 @@
 package net.tomp2p.relay;
 
-import java.util.List;
-import java.util.Map;
+import java.util.Collection;
 import java.util.TimerTask;
 
 import net.tomp2p.futures.BaseFutureAdapter;
@@ -11,8 +10,7 @@ import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.message.NeighborSet;
 import net.tomp2p.p2p.builder.BootstrapBuilder;
-import net.tomp2p.peers.Number160;
-import net.tomp2p.peers.PeerStatistic;
+import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.relay.buffer.BufferedRelayClient;
 import net.tomp2p.rpc.RPC;
 
@@ -62,12 +60,16 @@ public class PeerMapUpdateTask extends TimerTask {
 		// bootstrap to get updated peer map and then push it to the relay peers
 		bootstrapBuilder.start().awaitUninterruptibly(BOOTSTRAP_TIMEOUT_MS);
 
-		// send the peer map to the relays
-		List<Map<Number160, PeerStatistic>> peerMapVerified = relayRPC.peer().peerBean().peerMap().peerMapVerified();
+		// send the changes of the peer map to the relays
+		Collection<PeerAddress> peerMap = relayRPC.peer().peerBean().peerMap().all();
 		for (final BaseRelayClient relay : distributedRelay.relayClients()) {
-			sendPeerMap(relay, peerMapVerified);
+			sendPeerMap(relay, peerMap, false);
 		}
 
+		// learn the load of another candidate and move away from a relay that serves considerably more peers
+		distributedRelay.probeRelayLoad();
+		distributedRelay.migrateFromOverloadedRelay();
+
 		// try to add more relays
 		final FutureRelay futureRelay2 = new FutureRelay();
 		distributedRelay.setupRelays(futureRelay2);
@@ -77,30 +79,34 @@ public class PeerMapUpdateTask extends TimerTask {
 	/**
 	 * Send the peer map of an unreachable peer to a relay peer, so that the
 	 * relay peer can reply to neighbor requests on behalf of the unreachable
-	 * peer.
+	 * peer. Only the changes since the map the relay acknowledged last are sent,
+	 * unless the relay does not hold that map anymore.
 	 * 
 	 * @param connection
 	 *            The connection to the relay peer
 	 * @param map
 	 *            The unreachable peer's peer map.
+	 * @param full
+	 *            True to send the full map instead of the changes
 	 */
-	private void sendPeerMap(final BaseRelayClient connection, List<Map<Number160, PeerStatistic>> map) {
-		LOG.debug("Sending current routing table to relay {}", connection.relayAddress());
-
+	private void sendPeerMap(final BaseRelayClient connection, final Collection<PeerAddress> map, final boolean full) {
 		final Message message = relayRPC
 				.createMessage(connection.relayAddress(), RPC.Commands.RELAY.getNr(), Type.REQUEST_3);
-		// TODO: neighbor size limit is 256, we might have more here
-		message.neighborsSet(new NeighborSet(-1, RelayUtils.flatten(map)));
-		
+		final boolean delta = connection.peerMapDelta().prepare(message, map, full);
+		LOG.debug("Sending current routing table to relay {}, delta: {}", connection.relayAddress(), delta);
+
 		// append relay-type specific data (if necessary)
 		distributedRelay.relayConfig().prepareMapUpdateMessage(message);
 		
 		final FutureResponse fr = connection.sendToRelay(message);
 		fr.addListener(new BaseFutureAdapter<FutureResponse>() {
 			public void operationComplete(FutureResponse future) throws Exception {
+				distributedRelay.loadBalancer().loadReported(connection.relayAddress(), future.responseMessage());
 				if (future.isFailed()) {
 					LOG.warn("Failed to update routing table on relay peer {}. Reason: {}", connection.relayAddress(),
 							future.failedReason());
+					// it is unknown whether the relay applied the update
+					connection.peerMapDelta().reset();
 					connection.onMapUpdateFailed();
 				} else {
 					LOG.trace("Updated routing table on relay {}", connection.relayAddress());
@@ -111,6 +117,12 @@ public class PeerMapUpdateTask extends TimerTask {
 						BufferedRelayClient bufferedConn = (BufferedRelayClient) connection;
 						bufferedConn.onReceiveMessageBuffer(future.responseMessage(), new FutureDone<Void>());
 					}
+
+					if (!connection.peerMapDelta().acknowledged(message, future.responseMessage()) && delta) {
+						LOG.debug("Relay {} could not apply the changes, sending the full routing table",
+								connection.relayAddress());
+						sendPeerMap(connection, map, true);
+					}
 				}
 			}
 		});
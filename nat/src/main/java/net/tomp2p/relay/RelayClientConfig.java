@@ -16,6 +16,8 @@ import net.tomp2p.peers.PeerAddress;
  */
 public abstract class RelayClientConfig {
 
+	public static final double DEFAULT_LOAD_IMBALANCE_FACTOR = 2.0;
+
 	private final RelayType type;
 
 	// configurable
@@ -23,6 +25,7 @@ public abstract class RelayClientConfig {
 	private Collection<PeerAddress> manualRelays;
 	private int failedRelayWaitTime;
 	private int maxFail;
+	private double loadImbalanceFactor = DEFAULT_LOAD_IMBALANCE_FACTOR;
 
 	protected RelayClientConfig(RelayType type, int peerMapUpdateInterval, int failedRelayWaitTime, int maxFail) {
 		this.type = type;
@@ -144,6 +147,29 @@ public abstract class RelayClientConfig {
 	public int maxFail() {
 		return maxFail;
 	}
+
+	/**
+	 * Defines when a relay is considered overloaded. If a relay serves more than this factor times the unreachable
+	 * peers of a less loaded relay, the unreachable peer moves to the less loaded relay. The relays report their load
+	 * in the replies to the setup and peer map update requests.
+	 * 
+	 * @param loadImbalanceFactor the factor, at least 1
+	 * @return this instance
+	 */
+	public RelayClientConfig loadImbalanceFactor(double loadImbalanceFactor) {
+		if (loadImbalanceFactor < 1) {
+			throw new IllegalArgumentException("The load imbalance factor must be at least 1");
+		}
+		this.loadImbalanceFactor = loadImbalanceFactor;
+		return this;
+	}
+
+	/**
+	 * @return the factor by which a relay can be more loaded than another before the unreachable peer moves
+	 */
+	public double loadImbalanceFactor() {
+		return loadImbalanceFactor;
+	}
 	
 	/**
 	 * Creates a client object
@@ -0,0 +1,125 @@
+package net.tomp2p.relay;
+
+import net.tomp2p.message.Message;
+
+/**
+ * The load of a relay peer. The relay peer attaches its current load to the replies of relay setup, peer map
+ * update and load requests, thus the unreachable peers learn which relays are busy.
+ * <p>
+ * The load is packed into the first long value of the reply: 20 bits for the relayed peers, 20 bits for the
+ * maximum and 24 bits for the traffic in KiB/s. Larger values are capped, a capped maximum means unlimited.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public final class RelayLoad implements Comparable<RelayLoad> {
+
+	private static final int PEERS_BITS = 20;
+	private static final int TRAFFIC_BITS = 24;
+	private static final long MAX_PEERS = (1L << PEERS_BITS) - 1;
+	private static final long MAX_TRAFFIC = (1L << TRAFFIC_BITS) - 1;
+
+	private final int relayedPeers;
+	private final int maxRelayedPeers;
+	private final long bytesPerSecond;
+
+	/**
+	 * @param relayedPeers
+	 *            the number of unreachable peers that are currently served by the relay
+	 * @param maxRelayedPeers
+	 *            the number of unreachable peers the relay serves at most
+	 * @param bytesPerSecond
+	 *            the traffic of the relay peer
+	 */
+	public RelayLoad(int relayedPeers, int maxRelayedPeers, long bytesPerSecond) {
+		this.relayedPeers = relayedPeers;
+		this.maxRelayedPeers = maxRelayedPeers;
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public int relayedPeers() {
+		return relayedPeers;
+	}
+
+	public int maxRelayedPeers() {
+		return maxRelayedPeers;
+	}
+
+	public long bytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return true if the relay does not accept further unreachable peers
+	 */
+	public boolean isFull() {
+		return relayedPeers >= maxRelayedPeers;
+	}
+
+	/**
+	 * Attaches the load to a reply of the relay peer. The reply must not carry any other long value.
+	 *
+	 * @param message the reply
+	 * @return the same message
+	 */
+	public Message attach(Message message) {
+		final long packed = (Math.min(relayedPeers, MAX_PEERS) << (PEERS_BITS + TRAFFIC_BITS))
+				| (Math.min(maxRelayedPeers, MAX_PEERS) << TRAFFIC_BITS)
+				| Math.min(bytesPerSecond >>> 10, MAX_TRAFFIC);
+		message.longValue(packed);
+		return message;
+	}
+
+	/**
+	 * Reads the load from a reply of a relay peer
+	 *
+	 * @param message the reply
+	 * @return the load or <code>null</code> if the relay did not report its load
+	 */
+	public static RelayLoad extract(Message message) {
+		if (message == null || message.longList().isEmpty()) {
+			return null;
+		}
+		final long packed = message.longAt(0);
+		final int relayedPeers = (int) (packed >>> (PEERS_BITS + TRAFFIC_BITS));
+		final long maxRelayedPeers = (packed >>> TRAFFIC_BITS) & MAX_PEERS;
+		final long bytesPerSecond = (packed & MAX_TRAFFIC) << 10;
+		return new RelayLoad(relayedPeers, maxRelayedPeers == MAX_PEERS ? Integer.MAX_VALUE
+				: (int) maxRelayedPeers, bytesPerSecond);
+	}
+
+	/**
+	 * The relay with less unreachable peers is the less loaded one. If both serve the same number of peers, the
+	 * traffic decides.
+	 */
+	@Override
+	public int compareTo(RelayLoad o) {
+		if (relayedPeers != o.relayedPeers) {
+			return relayedPeers < o.relayedPeers ? -1 : 1;
+		}
+		return bytesPerSecond < o.bytesPerSecond ? -1 : (bytesPerSecond == o.bytesPerSecond ? 0 : 1);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof RelayLoad)) {
+			return false;
+		}
+		RelayLoad o = (RelayLoad) obj;
+		return relayedPeers == o.relayedPeers && maxRelayedPeers == o.maxRelayedPeers
+				&& bytesPerSecond == o.bytesPerSecond;
+	}
+
+	@Override
+	public int hashCode() {
+		return relayedPeers ^ (maxRelayedPeers * 31) ^ (int) (bytesPerSecond ^ (bytesPerSecond >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("RelayLoad[");
+		sb.append(relayedPeers).append("/").append(maxRelayedPeers).append(" peers, ");
+		sb.append(bytesPerSecond).append(" bytes/s]");
+		return sb.toString();
+	}
+}
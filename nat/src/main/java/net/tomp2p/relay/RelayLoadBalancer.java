@@ -0,0 +1,184 @@
+package net.tomp2p.relay;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.tomp2p.message.Message;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the loads that the relay peers reported to an unreachable peer and decides which relays to use.
+ * Candidates are tried from the least to the most loaded one, relays that never reported their load are
+ * treated as idle, such that new relays get a chance. A relay is left if it serves considerably more unreachable
+ * peers than a known alternative.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class RelayLoadBalancer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RelayLoadBalancer.class);
+
+	private static final RelayLoad IDLE = new RelayLoad(0, Integer.MAX_VALUE, 0);
+
+	private final Map<Number160, RelayLoad> loads;
+	private final double loadImbalanceFactor;
+	private final Random random;
+
+	/**
+	 * @param timeToLiveSeconds
+	 *            how long a reported load is considered
+	 * @param loadImbalanceFactor
+	 *            how many times more unreachable peers a relay must serve than an alternative to be left
+	 * @param random
+	 *            the random source to spread the unreachable peers
+	 */
+	public RelayLoadBalancer(int timeToLiveSeconds, double loadImbalanceFactor, Random random) {
+		if (loadImbalanceFactor < 1) {
+			throw new IllegalArgumentException("The load imbalance factor must be at least 1");
+		}
+		this.loads = new ConcurrentCacheMap<Number160, RelayLoad>(timeToLiveSeconds, ConcurrentCacheMap.MAX_ENTRIES);
+		this.loadImbalanceFactor = loadImbalanceFactor;
+		this.random = random;
+	}
+
+	/**
+	 * Stores the load that a relay attached to its reply, if any.
+	 *
+	 * @param relay
+	 *            the relay peer
+	 * @param reply
+	 *            the reply of the relay peer, can be <code>null</code>
+	 */
+	public void loadReported(PeerAddress relay, Message reply) {
+		RelayLoad load = RelayLoad.extract(reply);
+		if (load != null) {
+			loadReported(relay, load);
+		}
+	}
+
+	public void loadReported(PeerAddress relay, RelayLoad load) {
+		LOG.trace("Relay {} reported {}", relay, load);
+		loads.put(relay.peerId(), load);
+	}
+
+	/**
+	 * @return the last reported load of the relay or <code>null</code> if it is not known
+	 */
+	public RelayLoad load(PeerAddress relay) {
+		return loads.get(relay.peerId());
+	}
+
+	/**
+	 * Picks a relay candidate whose load is not known, such that it can be asked for it. Otherwise, an idle
+	 * alternative would never be found, because the loads are only reported by the relays that are used.
+	 * 
+	 * @param alternatives
+	 *            the relay candidates this peer is not connected to
+	 * @return a random candidate with an unknown load or <code>null</code> if all loads are known
+	 */
+	public PeerAddress probeCandidate(Collection<PeerAddress> alternatives) {
+		List<PeerAddress> unknown = new ArrayList<PeerAddress>();
+		for (PeerAddress alternative : alternatives) {
+			if (load(alternative) == null) {
+				unknown.add(alternative);
+			}
+		}
+		return unknown.isEmpty() ? null : unknown.get(random.nextInt(unknown.size()));
+	}
+
+	/**
+	 * Orders the candidates such that the least loaded relays come first. Relays that are known to be full
+	 * come last. Candidates with the same load are shuffled, thus unreachable peers that know the same
+	 * candidates do not all pick the same relay.
+	 *
+	 * @param candidates
+	 *            the relay candidates, sorted in place
+	 */
+	public void sortCandidates(List<PeerAddress> candidates) {
+		Collections.shuffle(candidates, random);
+		// the sort is stable, thus keeps the shuffled order for equal loads
+		Collections.sort(candidates, new Comparator<PeerAddress>() {
+			@Override
+			public int compare(PeerAddress o1, PeerAddress o2) {
+				RelayLoad load1 = loadOrIdle(o1);
+				RelayLoad load2 = loadOrIdle(o2);
+				if (load1.isFull() != load2.isFull()) {
+					return load1.isFull() ? 1 : -1;
+				}
+				return load1.compareTo(load2);
+			}
+		});
+	}
+
+	/**
+	 * Looks for a relay that should be left, because a known alternative serves considerably less unreachable
+	 * peers, or because the relay serves more peers than it accepts. If all clients of an overloaded relay
+	 * would leave at the same time, the alternative would be overloaded next. Thus, every client leaves with a
+	 * probability such that half of the difference moves.
+	 *
+	 * @param relays
+	 *            the current relays of this peer
+	 * @param alternatives
+	 *            the relay candidates this peer is not connected to
+	 * @return the relay to leave or <code>null</code> if the load is balanced
+	 */
+	public PeerAddress overloadedRelay(Collection<PeerAddress> relays, Collection<PeerAddress> alternatives) {
+		RelayLoad leastLoaded = null;
+		for (PeerAddress alternative : alternatives) {
+			RelayLoad load = load(alternative);
+			if (load != null && !load.isFull() && (leastLoaded == null || load.compareTo(leastLoaded) < 0)) {
+				leastLoaded = load;
+			}
+		}
+
+		PeerAddress overloaded = null;
+		RelayLoad overloadedLoad = null;
+		for (PeerAddress relay : relays) {
+			RelayLoad load = load(relay);
+			if (load == null || (overloadedLoad != null && load.compareTo(overloadedLoad) <= 0)) {
+				continue;
+			}
+			if (load.relayedPeers() > load.maxRelayedPeers() || isImbalanced(load, leastLoaded)) {
+				overloaded = relay;
+				overloadedLoad = load;
+			}
+		}
+
+		if (overloaded == null) {
+			return null;
+		}
+		final int target = leastLoaded == null ? overloadedLoad.maxRelayedPeers() : leastLoaded.relayedPeers();
+		final int excess = overloadedLoad.relayedPeers() - target;
+		if (random.nextInt(overloadedLoad.relayedPeers()) < Math.max((excess + 1) / 2, 1)) {
+			LOG.debug("Relay {} is overloaded with {}, the least loaded alternative has {}", overloaded,
+					overloadedLoad, leastLoaded);
+			return overloaded;
+		}
+		return null;
+	}
+
+	/**
+	 * The relay must stay more loaded than the alternative even after this peer moved, otherwise the peers
+	 * would move back and forth.
+	 */
+	private boolean isImbalanced(RelayLoad load, RelayLoad alternative) {
+		return alternative != null
+				&& load.relayedPeers() - 1 > loadImbalanceFactor * (alternative.relayedPeers() + 1);
+	}
+
+	private RelayLoad loadOrIdle(PeerAddress relay) {
+		RelayLoad load = load(relay);
+		return load == null ? IDLE : load;
+	}
+}
@@ -6,9 +6,13 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.Dispatcher;
+import net.tomp2p.connection.Metrics;
 import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.connection.RequestHandler;
 import net.tomp2p.connection.Responder;
 import net.tomp2p.connection.SignatureFactory;
 import net.tomp2p.futures.BaseFutureAdapter;
@@ -35,14 +39,30 @@ public class RelayRPC extends DispatchHandler implements OfflineListener {
 
 	private static final Logger LOG = LoggerFactory.getLogger(RelayRPC.class);
 
+	public static final int DEFAULT_MAX_RELAYED_PEERS = Integer.MAX_VALUE;
+	// the traffic is averaged over at least this time
+	private static final long TRAFFIC_SAMPLE_NANOS = 1000L * 1000L * 1000L;
+
 	private final Peer peer;
 
+	// the number of unreachable peers this peer serves at most
+	private final int maxRelayedPeers;
+
+	// the transport counters of this peer, to report the traffic
+	private final AtomicLong[] trafficCounters;
+	private long lastTrafficBytes;
+	private long lastTrafficNanos;
+	private long bytesPerSecond;
+
 	// Holds a map of server configuations for multiple relay types
 	private final Map<RelayType, RelayServerConfig> serverConfigs;
 
 	// holds the server for each client
 	private final Map<Number160, BaseRelayServer> servers;
 
+	// the unreachable peers that are being set up, they count against maxRelayedPeers
+	private final Set<Number160> pendingSetups;
+
 	// holds the client for each server
 	private ConcurrentHashMap<Number160, BaseRelayClient> clients;
 
@@ -78,16 +98,39 @@ public class RelayRPC extends DispatchHandler implements OfflineListener {
 	 * @return
 	 */
 	public RelayRPC(Peer peer, RconRPC rconRPC, HolePRPC holePRPC, Map<RelayType, RelayServerConfig> serverConfigs) {
+		this(peer, rconRPC, holePRPC, serverConfigs, DEFAULT_MAX_RELAYED_PEERS);
+	}
+
+	/**
+	 * Register the RelayRPC with a limited number of unreachable peers to serve. Further setup requests are
+	 * denied.
+	 * 
+	 * @param maxRelayedPeers the number of unreachable peers this peer serves at most
+	 */
+	public RelayRPC(Peer peer, RconRPC rconRPC, HolePRPC holePRPC, Map<RelayType, RelayServerConfig> serverConfigs,
+			int maxRelayedPeers) {
 		super(peer.peerBean(), peer.connectionBean());
+		if (maxRelayedPeers < 0) {
+			throw new IllegalArgumentException("The number of relayed peers cannot be negative");
+		}
 		this.peer = peer;
+		this.maxRelayedPeers = maxRelayedPeers;
 		this.serverConfigs = serverConfigs;
 		this.servers = new ConcurrentHashMap<Number160, BaseRelayServer>();
+		this.pendingSetups = new HashSet<Number160>();
 		this.clients = new ConcurrentHashMap<Number160, BaseRelayClient>();
 		this.rconRPC = rconRPC;
 		this.holePunchRPC = holePRPC;
 
+		final Metrics metrics = peer.connectionBean().metrics();
+		this.trafficCounters = new AtomicLong[] { metrics.counter("transport.tcp.in"),
+				metrics.counter("transport.tcp.out"), metrics.counter("transport.udp.in"),
+				metrics.counter("transport.udp.out") };
+		this.lastTrafficNanos = System.nanoTime();
+		this.lastTrafficBytes = trafficBytes();
+
 		// register this handler
-		register(RPC.Commands.RELAY.getNr());
+		register(RPC.Commands.RELAY.getNr(), RPC.Commands.RELAY_LOAD.getNr());
 	}
 
 	/**
@@ -113,6 +156,9 @@ public class RelayRPC extends DispatchHandler implements OfflineListener {
 		} else if (message.type() == Type.REQUEST_5 && message.command() == RPC.Commands.RELAY.getNr()) {
 			// A late response
 			handleLateResponse(message, peerConnection, sign, responder);
+		} else if (message.type() == Type.REQUEST_1 && message.command() == RPC.Commands.RELAY_LOAD.getNr()) {
+			// A relay candidate is asked for its load
+			responder.response(currentLoad().attach(createResponseMessage(message, Type.OK)));
 		} else {
 			throw new IllegalArgumentException("Message content is wrong");
 		}
@@ -151,6 +197,47 @@ public class RelayRPC extends DispatchHandler implements OfflineListener {
 		return unreachablePeers;
 	}
 
+	/**
+	 * @return the current load of this relay peer, which is attached to the replies to unreachable peers
+	 */
+	public RelayLoad currentLoad() {
+		final long now = System.nanoTime();
+		synchronized (trafficCounters) {
+			if (now - lastTrafficNanos >= TRAFFIC_SAMPLE_NANOS) {
+				final long bytes = trafficBytes();
+				bytesPerSecond = (bytes - lastTrafficBytes) * TRAFFIC_SAMPLE_NANOS / (now - lastTrafficNanos);
+				lastTrafficBytes = bytes;
+				lastTrafficNanos = now;
+			}
+			return new RelayLoad(servers.size(), maxRelayedPeers, bytesPerSecond);
+		}
+	}
+
+	/**
+	 * Asks a relay candidate for its load without setting up a relay. Peers that do not know the request answer
+	 * with {@link Type#UNKNOWN_ID} and without a load.
+	 * 
+	 * @param candidate
+	 *            the relay candidate
+	 * @param channelCreator
+	 *            the channel creator to open the TCP channel
+	 * @return the future with the reply of the candidate
+	 */
+	public FutureResponse sendLoadRequest(PeerAddress candidate, ChannelCreator channelCreator) {
+		final Message message = createMessage(candidate, RPC.Commands.RELAY_LOAD.getNr(), Type.REQUEST_1);
+		final FutureResponse futureResponse = new FutureResponse(message);
+		return new RequestHandler<FutureResponse>(futureResponse, peerBean(), connectionBean(), connectionBean()
+				.channelServer().channelServerConfiguration()).sendTCP(channelCreator);
+	}
+
+	private long trafficBytes() {
+		long bytes = 0;
+		for (AtomicLong counter : trafficCounters) {
+			bytes += counter.get();
+		}
+		return bytes;
+	}
+
 	/**
 	 * Add a client to the list
 	 */
@@ -168,7 +255,7 @@ public class RelayRPC extends DispatchHandler implements OfflineListener {
 	/**
 	 * Handle the setup where an unreachable peer connects to this one
 	 */
-	private void handleSetup(Message message, final PeerConnection peerConnection, Responder responder) {
+	private void handleSetup(Message message, final PeerConnection peerConnection, final Responder responder) {
 		// The relay peer receives the setup message from the unreachable peer
 		if (message.intList().isEmpty()) {
 			throw new IllegalArgumentException("Setup message should contain an integer value specifying the type");
@@ -177,23 +264,77 @@ public class RelayRPC extends DispatchHandler implements OfflineListener {
 		// get the relayType the client requests
 		RelayType relayType = RelayType.values()[message.intAt(0)];
 
-		if (serverConfigs.containsKey(relayType)) {
-			BaseRelayServer server = serverConfigs.get(relayType).createServer(message, peerConnection, responder, peer);
-			if (server != null) {
-				server.addOfflineListener(this);
-				registerRelayServer(server);
+		// the reply tells the unreachable peer how busy we are
+		final RelayLoad load = currentLoad();
+		final Responder loadResponder = new Responder() {
+			@Override
+			public FutureDone<Void> response(Message responseMessage) {
+				return responder.response(load.attach(responseMessage));
+			}
+
+			@Override
+			public void failed(Type type, String reason) {
+				responder.failed(type, reason);
+			}
+
+			@Override
+			public void responseFireAndForget() {
+				responder.responseFireAndForget();
+			}
+		};
+
+		final Number160 unreachablePeerId = message.sender().peerId();
+		if (!reserve(unreachablePeerId)) {
+			LOG.debug("Relay client {} denied, already serving {} peers", message.sender(), load.relayedPeers());
+			loadResponder.response(createResponseMessage(message, Type.DENIED));
+		} else if (serverConfigs.containsKey(relayType)) {
+			try {
+				BaseRelayServer server = serverConfigs.get(relayType).createServer(message, peerConnection,
+						loadResponder, peer);
+				if (server != null) {
+					server.addOfflineListener(this);
+					registerRelayServer(server);
+				}
+			} finally {
+				release(unreachablePeerId);
 			}
 		} else {
+			release(unreachablePeerId);
 			LOG.warn("Relay client {} requested to serve as relay with type {}. This peer does not support this type.",
 					message.sender(), relayType);
-			responder.response(createResponseMessage(message, Type.DENIED));
+			loadResponder.response(createResponseMessage(message, Type.DENIED));
+		}
+	}
+
+	/**
+	 * Reserves a place for an unreachable peer that is set up. The check and the reservation are atomic, such
+	 * that concurrent setup requests cannot exceed maxRelayedPeers.
+	 * 
+	 * @return true if the peer is already served or a place was reserved, false if this relay is full
+	 */
+	private boolean reserve(Number160 unreachablePeerId) {
+		synchronized (pendingSetups) {
+			if (servers.containsKey(unreachablePeerId) || pendingSetups.contains(unreachablePeerId)) {
+				return true;
+			}
+			if (servers.size() + pendingSetups.size() >= maxRelayedPeers) {
+				return false;
+			}
+			pendingSetups.add(unreachablePeerId);
+			return true;
+		}
+	}
+
+	private void release(Number160 unreachablePeerId) {
+		synchronized (pendingSetups) {
+			pendingSetups.remove(unreachablePeerId);
 		}
 	}
 
 	@Override
 	public void onUnreachableOffline(PeerAddress unreachablePeer, BaseRelayServer server) {
 		// clean up
-		servers.remove(unreachablePeer);
+		servers.remove(unreachablePeer.peerId());
 		peerBean().removePeerStatusListener(server);
 		connectionBean().dispatcher().removeIoHandler(peer.peerID(), unreachablePeer.peerId());
 		LOG.info("Removed {} from relay because it is offline", unreachablePeer);
@@ -300,13 +441,12 @@ public class RelayRPC extends DispatchHandler implements OfflineListener {
 		LOG.debug("Handle foreign map update {}", message);
 		BaseRelayServer server = servers.get(message.sender().peerId());
 		if (server != null) {
-			Collection<PeerAddress> map = message.neighborsSet(0).neighbors();
 			Message response = createResponseMessage(message, Type.OK);
-			server.setPeerMap(RelayUtils.unflatten(map, message.sender()), message, response);
-			responder.response(response);
+			server.updatePeerMap(message, response);
+			responder.response(currentLoad().attach(response));
 		} else {
-			LOG.error("No forwarder for peer {} found. Need to setup relay first");
-			responder.response(createResponseMessage(message, Type.NOT_FOUND));
+			LOG.debug("No forwarder for peer {} found. Need to setup relay first", message.sender());
+			responder.response(currentLoad().attach(createResponseMessage(message, Type.NOT_FOUND)));
 		}
 	}
 
@@ -17,6 +17,8 @@ import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,11 +35,13 @@ import net.tomp2p.message.Buffer;
 import net.tomp2p.message.Decoder;
 import net.tomp2p.message.Encoder;
 import net.tomp2p.message.Message;
+import net.tomp2p.message.MessageHeaderCodec;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerMap;
 import net.tomp2p.peers.PeerMapConfiguration;
+import net.tomp2p.peers.PeerMapView;
 import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.relay.buffer.MessageBuffer;
 import net.tomp2p.storage.AlternativeCompositeByteBuf;
@@ -62,7 +66,17 @@ public class RelayUtils {
 		for (PeerAddress peerAddress : map) {
 			peerMap.peerFound(peerAddress, null, null, null);
 		}
-		return peerMap.peerMapVerified();
+		final PeerMapView view = peerMap.view();
+		final List<Map<Number160, PeerStatistic>> result = new ArrayList<Map<Number160, PeerStatistic>>(
+				Number160.BITS);
+		for (int i = 0; i < Number160.BITS; i++) {
+			final Map<Number160, PeerStatistic> bag = new LinkedHashMap<Number160, PeerStatistic>();
+			for (PeerStatistic peerStatistic : view.bag(i)) {
+				bag.put(peerStatistic.peerAddress().peerId(), peerStatistic);
+			}
+			result.add(Collections.unmodifiableMap(bag));
+		}
+		return result;
 	}
 
 	public static Collection<PeerAddress> flatten(List<Map<Number160, PeerStatistic>> maps) {
@@ -101,6 +115,28 @@ public class RelayUtils {
 		return buffer;
 	}
 
+	/**
+	 * Composes already encoded messages (see {@link #encodeMessageDirect(Message, SignatureFactory)}) into one buffer
+	 * with the same format as {@link #composeMessageBuffer(List, SignatureFactory)}. The encoded messages are
+	 * released.
+	 * 
+	 * @param encodedMessages the encoded messages in the order to send them
+	 * @return a buffer containing all messages
+	 */
+	public static ByteBuf composeEncodedMessages(List<ByteBuf> encodedMessages) {
+		int size = 0;
+		for (ByteBuf encoded : encodedMessages) {
+			size += 4 + encoded.readableBytes();
+		}
+		ByteBuf buffer = Unpooled.buffer(size);
+		for (ByteBuf encoded : encodedMessages) {
+			buffer.writeInt(encoded.readableBytes());
+			buffer.writeBytes(encoded);
+			encoded.release();
+		}
+		return buffer;
+	}
+
 	/**
 	 * Decomposes a buffer containing multiple buffers into an (ordered) list of small buffers. Alternating,
 	 * the size of the message and the message itself are encoded in the message buffer. First, the size is
@@ -138,6 +174,24 @@ public class RelayUtils {
 		return new Buffer(buf);
 	}
 
+	/**
+	 * Encodes the message into a single pooled direct buffer, which is not on the heap and has exactly the size of
+	 * the encoded message. The caller needs to release the buffer.
+	 */
+	public static ByteBuf encodeMessageDirect(Message message, SignatureFactory signatureFactory) throws InvalidKeyException, SignatureException, IOException {
+		Encoder e = new Encoder(signatureFactory);
+		AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.POOLED_DIRECT);
+		try {
+			e.write(buf, message, message.receivedSignature());
+			// copy, such that no slices of received buffers are kept alive
+			ByteBuf direct = AlternativeCompositeByteBuf.POOLED_DIRECT.directBuffer(buf.readableBytes());
+			direct.writeBytes(buf);
+			return direct;
+		} finally {
+			buf.release();
+		}
+	}
+
 	/**
 	 * Decodes a message which was encoded using {{@link #encodeMessage(Message, SignatureFactory)}}.
 	 */
@@ -151,6 +205,19 @@ public class RelayUtils {
 		return d.message();
 	}
 	
+	/**
+	 * Decodes only the header of a message which was encoded using
+	 * {@link #encodeMessage(Message, SignatureFactory)}. The message keeps the encoded bytes as its frame (see
+	 * {@link Message#encodedFrame()}), such that it can be forwarded to the requester without decoding the payload
+	 * and encoding it again. The message takes over the buffer.
+	 */
+	public static Message decodeHeader(ByteBuf buf, InetSocketAddress recipient, InetSocketAddress sender) {
+		Message message = MessageHeaderCodec.decodeHeader(buf.duplicate(), recipient, sender);
+		message.encodedFrame(buf);
+		message.setDone();
+		return message;
+	}
+
 	/**
 	 * Basically does the same as
 	 * {@link MessageUtils#decodeMessage(Buffer, InetSocketAddress, InetSocketAddress, SignatureFactory)}, but
@@ -3,9 +3,9 @@ package net.tomp2p.relay.buffer;
 import io.netty.buffer.ByteBuf;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+import net.tomp2p.connection.Metrics;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.message.Buffer;
 import net.tomp2p.message.Message;
@@ -19,25 +19,70 @@ import net.tomp2p.relay.RelayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class BufferedRelayServer extends BaseRelayServer implements MessageBufferListener<Message> {
+/**
+ * A relay server that buffers the messages for the unreachable peer until it collects them. The messages are
+ * encoded once when they arrive and are kept in pooled direct buffers. The bytes count against the
+ * {@link MessageBufferBudget} of the {@link MessageBufferConfiguration}, which is shared with the other
+ * unreachable peers.
+ */
+public abstract class BufferedRelayServer extends BaseRelayServer implements MessageBufferListener<ByteBuf> {
 
 	private static final Logger LOG = LoggerFactory.getLogger(BufferedRelayServer.class);
 
-	private final MessageBuffer<Message> buffer;
+	private final MessageBuffer<ByteBuf> buffer;
 	private final MessageBufferConfiguration bufferConfig;
+	private final MessageBufferBudget budget;
+	private final MessageBufferBudget.Evictable evictable;
 
 	// holds the messages that have already been released from the buffer (because any limit has been
 	// triggered or the buffer has been flushed)
-	private final List<Message> bufferedMessages;
+	private final List<ByteBuf> bufferedMessages;
+	// guarded by bufferedMessages
+	private long bufferedBytes;
 
 	protected BufferedRelayServer(Peer peer, PeerAddress unreachablePeer, RelayType relayType,
 			MessageBufferConfiguration bufferConfig) {
 		super(peer, unreachablePeer, relayType);
 		this.bufferConfig = bufferConfig;
-		this.buffer = new MessageBuffer<Message>(bufferConfig);
-		this.bufferedMessages = Collections.synchronizedList(new ArrayList<Message>());
+		this.buffer = new MessageBuffer<ByteBuf>(bufferConfig);
+		this.budget = bufferConfig.budget();
+		this.bufferedMessages = new ArrayList<ByteBuf>();
+		this.evictable = new MessageBufferBudget.Evictable() {
+			@Override
+			public long backlogBytes() {
+				return BufferedRelayServer.this.backlogBytes();
+			}
+
+			@Override
+			public long evictOldest() {
+				return BufferedRelayServer.this.evictOldest();
+			}
+		};
 
 		buffer.addListener(this);
+		budget.register(evictable);
+		registerGauges(peer.connectionBean().metrics(), budget);
+	}
+
+	private static void registerGauges(Metrics metrics, final MessageBufferBudget budget) {
+		metrics.gauge("relay.buffer.used", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				return budget.usedBytes();
+			}
+		});
+		metrics.gauge("relay.buffer.evicted.messages", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				return budget.evictedMessages();
+			}
+		});
+		metrics.gauge("relay.buffer.evicted.bytes", new Metrics.Gauge() {
+			@Override
+			public long value() {
+				return budget.evictedBytes();
+			}
+		});
 	}
 
 	@Override
@@ -48,25 +93,25 @@ public abstract class BufferedRelayServer extends BaseRelayServer implements Mes
 		response.recipient(message.sender());
 		response.sender(unreachablePeerAddress());
 
+		final ByteBuf encoded;
 		try {
-			int messageSize = RelayUtils.getMessageSize(message, connectionBean().channelServer().channelServerConfiguration()
-					.signatureFactory());
-			buffer.addMessage(message, messageSize);
+			encoded = RelayUtils.encodeMessageDirect(message, connectionBean().channelServer()
+					.channelServerConfiguration().signatureFactory());
 		} catch (Exception e) {
 			LOG.error("Cannot encode the message", e);
 			return futureDone.done(createResponseMessage(message, Type.EXCEPTION));
 		}
+		final int messageSize = encoded.readableBytes();
+		buffer.addMessage(encoded, messageSize);
+		budget.acquire(messageSize);
 
 		LOG.debug("Added message {} to buffer and returning a partially ok", message);
 		return futureDone.done(response);
 	}
 	
 	@Override
-	public void bufferFull(List<Message> messages) {
-		synchronized (bufferedMessages) {
-			bufferedMessages.addAll(messages);
-		}
-
+	public void bufferFull(List<ByteBuf> messages) {
+		addBufferedMessages(messages);
 		onBufferFull();
 	}
 
@@ -77,9 +122,16 @@ public abstract class BufferedRelayServer extends BaseRelayServer implements Mes
 	public abstract void onBufferFull();
 
 	@Override
-	public void bufferFlushed(List<Message> messages) {
+	public void bufferFlushed(List<ByteBuf> messages) {
+		addBufferedMessages(messages);
+	}
+
+	private void addBufferedMessages(List<ByteBuf> messages) {
 		synchronized (bufferedMessages) {
-			bufferedMessages.addAll(messages);
+			for (ByteBuf message : messages) {
+				bufferedMessages.add(message);
+				bufferedBytes += message.readableBytes();
+			}
 		}
 	}
 
@@ -94,15 +146,16 @@ public abstract class BufferedRelayServer extends BaseRelayServer implements Mes
 		// flush the current buffer to get all messages
 		buffer.flushNow();
 
-		Buffer buffer = null;;
+		Buffer buffer = null;
 		synchronized (bufferedMessages) {
 			if (bufferedMessages.isEmpty()) {
 				LOG.trace("Currently there are no buffered messages");
 			} else {
-				ByteBuf byteBuffer = RelayUtils.composeMessageBuffer(bufferedMessages, connectionBean().channelServer()
-						.channelServerConfiguration().signatureFactory());
+				ByteBuf byteBuffer = RelayUtils.composeEncodedMessages(bufferedMessages);
 				LOG.debug("Buffer of {} messages collected", bufferedMessages.size());
 				bufferedMessages.clear();
+				budget.release(bufferedBytes);
+				bufferedBytes = 0;
 				buffer = new Buffer(byteBuffer);
 			}
 		}
@@ -111,6 +164,52 @@ public abstract class BufferedRelayServer extends BaseRelayServer implements Mes
 		return buffer;
 	}
 
+	/**
+	 * @return the number of messages buffered for the unreachable peer, which have not been collected yet
+	 */
+	public int backlogMessages() {
+		synchronized (bufferedMessages) {
+			return bufferedMessages.size() + buffer.messageCount();
+		}
+	}
+
+	/**
+	 * @return the size of the messages buffered for the unreachable peer in bytes, which have not been collected yet
+	 */
+	public long backlogBytes() {
+		synchronized (bufferedMessages) {
+			return bufferedBytes + buffer.bufferSize();
+		}
+	}
+
+	/**
+	 * Drops the oldest message that has not been collected yet. Called by the budget only.
+	 */
+	private long evictOldest() {
+		synchronized (bufferedMessages) {
+			if (!bufferedMessages.isEmpty()) {
+				final ByteBuf oldest = bufferedMessages.remove(0);
+				final int size = oldest.readableBytes();
+				bufferedBytes -= size;
+				oldest.release();
+				LOG.debug("Dropped a buffered message of {} bytes for {}", size, unreachablePeerAddress());
+				return size;
+			}
+		}
+		return buffer.evictOldest();
+	}
+
+	@Override
+	protected void notifyOfflineListeners() {
+		super.notifyOfflineListeners();
+		// the peer will not collect the messages anymore
+		budget.unregister(evictable);
+		long freed;
+		while ((freed = evictOldest()) >= 0) {
+			budget.release(freed);
+		}
+	}
+
 	/**
 	 * Called when the buffer has been collected by the unreachable peer
 	 */
@@ -1,16 +1,19 @@
 package net.tomp2p.relay.buffer;
 
-import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.SignatureException;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.connection.ConnectionBean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,29 +22,35 @@ import org.slf4j.LoggerFactory;
  * Buffers messages for the unreachable peers. This class is thread-safe.
  * If the buffer is full, the {@link MessageBufferListener}s are triggered. In the mean time, another list
  * holds the previously buffered messages, until the buffer is collected.
- * 
+ * <p>
+ * The age limit of all buffers is checked by one shared timer wheel, so a relay peer serving many unreachable peers
+ * does not need a scheduled task per buffer. Reference counted messages (e.g., encoded messages in pooled buffers)
+ * are released when they are evicted with {@link #evictOldest()}.
+ *
  * @author Nico Rutishauser
  *
  */
 public class MessageBuffer<T> {
 
 	private static final Logger LOG = LoggerFactory.getLogger(MessageBuffer.class);
-	private static final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+	// the age limits are in the range of seconds to minutes, a tick of 100ms is precise enough
+	private static final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory(ConnectionBean.THREAD_NAME
+			+ "buffer - ", true), 100, TimeUnit.MILLISECONDS);
 
 	private final int messageCountLimit;
 	private final long bufferSizeLimit;
 	private final long bufferAgeLimitMS;
 
-	private final AtomicLong bufferSize;
 	private final List<MessageBufferListener<T>> listeners;
 
-	private final List<T> buffer;
-
-	private BufferAgeRunnable task;
+	// guarded by buffer
+	private final ArrayDeque<Entry<T>> buffer;
+	private long bufferSize;
+	private Timeout timeout;
 
 	/**
 	 * Create a new buffer using the configuration
-	 * 
+	 *
 	 * @param config the buffer limit configuration
 	 */
 	public MessageBuffer(MessageBufferConfiguration config) {
@@ -50,7 +59,7 @@ public class MessageBuffer<T> {
 
 	/**
 	 * Create a new buffer with given limits
-	 * 
+	 *
 	 * @param bufferCountLimit the number of messages
 	 * @param bufferSizeLimit the size of all messages (in bytes)
 	 * @param bufferAgeLimitMS the maximum age of the oldest message
@@ -59,9 +68,8 @@ public class MessageBuffer<T> {
 		this.messageCountLimit = bufferCountLimit;
 		this.bufferSizeLimit = bufferSizeLimit;
 		this.bufferAgeLimitMS = bufferAgeLimitMS;
-		this.listeners = new ArrayList<MessageBufferListener<T>>();
-		this.buffer = Collections.synchronizedList(new ArrayList<T>());
-		this.bufferSize = new AtomicLong();
+		this.listeners = new CopyOnWriteArrayList<MessageBufferListener<T>>();
+		this.buffer = new ArrayDeque<Entry<T>>();
 	}
 
 	public void addListener(MessageBufferListener<T> listener) {
@@ -69,49 +77,34 @@ public class MessageBuffer<T> {
 	}
 
 	/**
-	 * Add an encoded message to the buffer
-	 * 
-	 * @throws IOException
-	 * @throws SignatureException
-	 * @throws InvalidKeyException
+	 * Add a message to the buffer
+	 *
+	 * @param message the message, typically already encoded
+	 * @param messageSize the size of the message in bytes
 	 */
 	public void addMessage(T message, long messageSize) {
+		boolean full = false;
 		synchronized (buffer) {
-			if (buffer.isEmpty()) {
-				task = new BufferAgeRunnable();
-				// schedule the task
-				worker.schedule(task, bufferAgeLimitMS, TimeUnit.MILLISECONDS);
+			if (buffer.isEmpty() && bufferAgeLimitMS != Long.MAX_VALUE) {
+				timeout = TIMER.newTimeout(new BufferAgeTask(), bufferAgeLimitMS, TimeUnit.MILLISECONDS);
 			}
 
-			buffer.add(message);
-		}
-
-		bufferSize.addAndGet(messageSize);
-
-		LOG.debug("Added to the buffer: {}", message);
-		checkFull();
-	}
-
-	private void checkFull() {
-		boolean notify = false;
-		if (bufferSize.get() >= bufferSizeLimit) {
-			LOG.debug("The size of the buffer exceeds the limit of {} bytes", bufferSizeLimit);
-			notify = true;
-		}
+			buffer.addLast(new Entry<T>(message, messageSize));
+			bufferSize += messageSize;
 
-		synchronized (buffer) {
+			if (bufferSize >= bufferSizeLimit) {
+				LOG.debug("The size of the buffer exceeds the limit of {} bytes", bufferSizeLimit);
+				full = true;
+			}
 			if (buffer.size() >= messageCountLimit) {
 				LOG.debug("The number of messages exceeds the maximum message count of {}", messageCountLimit);
-				notify = true;
+				full = true;
 			}
 		}
 
-		if (notify) {
-			if (task != null) {
-				// cancel such that it does not notify the listener twice
-				task.cancel();
-			}
-			notifyAndClear(true);
+		LOG.debug("Added to the buffer: {}", message);
+		if (full) {
+			notifyAndClear(true, null);
 		}
 	}
 
@@ -119,40 +112,79 @@ public class MessageBuffer<T> {
 	 * Flush the buffer and notify the listeners
 	 */
 	public void flushNow() {
-		// no need to flush the buffer because it's empty
+		LOG.trace("Flushing buffer...");
+		notifyAndClear(false, null);
+	}
+
+	/**
+	 * Removes the oldest message from the buffer without notifying the listeners. The message is released if it is
+	 * reference counted.
+	 *
+	 * @return the size of the removed message or -1 if the buffer is empty
+	 */
+	public long evictOldest() {
+		final Entry<T> entry;
 		synchronized (buffer) {
-			if(buffer.isEmpty()) {
-				return;
+			entry = buffer.pollFirst();
+			if (entry == null) {
+				return -1;
+			}
+			bufferSize -= entry.size;
+			if (buffer.isEmpty()) {
+				cancelTimeout();
 			}
 		}
-		
-		LOG.trace("Flushing buffer...");
-		if (task != null) {
-			// cancel such that it does not notify the listener twice
-			task.cancel();
+		ReferenceCountUtil.release(entry.message);
+		return entry.size;
+	}
+
+	/**
+	 * @return the number of messages currently in the buffer
+	 */
+	public int messageCount() {
+		synchronized (buffer) {
+			return buffer.size();
+		}
+	}
+
+	/**
+	 * @return the size of all messages currently in the buffer (in bytes)
+	 */
+	public long bufferSize() {
+		synchronized (buffer) {
+			return bufferSize;
 		}
-		notifyAndClear(false);
 	}
 
 	/**
 	 * Called when the buffer exceeds either the message count limit. the maximally
 	 * allowed buffer size or the maximally allowed age of the first buffer entry. Otherwise
 	 * <code>false</code>.
-	 * 
+	 *
 	 * @param wasFull <code>true</code> if this method was triggered because of buffer overflow.
 	 *            <code>False</code> if this method was triggered manually (because messages need to be ready now.
+	 * @param expired the timeout if triggered by the age limit, the listeners are only notified if this is still
+	 *            the timeout of the current buffer content
 	 */
-	private void notifyAndClear(boolean wasFull) {
-		List<T> copy;
+	private void notifyAndClear(boolean wasFull, Timeout expired) {
+		final List<T> copy;
 		synchronized (buffer) {
+			if (expired != null && expired != timeout) {
+				// the buffer has been cleared in the mean time, don't notify the listener twice
+				return;
+			}
 			if (buffer.isEmpty()) {
-				LOG.warn("Buffer is empty. Listener won't be notified.");
+				LOG.trace("Buffer is empty. Listener won't be notified.");
 				return;
 			}
+			cancelTimeout();
 
-			copy = new ArrayList<T>(buffer);
+			copy = new ArrayList<T>(buffer.size());
+			for (Entry<T> entry : buffer) {
+				copy.add(entry.message);
+			}
 			buffer.clear();
-			bufferSize.set(0);
+			bufferSize = 0;
 		}
 
 		// notify the listeners with a copy of the buffer and the segmentation indices
@@ -165,24 +197,29 @@ public class MessageBuffer<T> {
 		}
 	}
 
-	private class BufferAgeRunnable implements Runnable {
-
-		private final AtomicBoolean cancelled;
-
-		public BufferAgeRunnable() {
-			this.cancelled = new AtomicBoolean(false);
+	// guarded by buffer
+	private void cancelTimeout() {
+		if (timeout != null) {
+			timeout.cancel();
+			timeout = null;
 		}
+	}
 
+	private class BufferAgeTask implements TimerTask {
 		@Override
-		public void run() {
-			if (!cancelled.get()) {
-				LOG.debug("Buffer age exceeds the limit of {}ms", bufferAgeLimitMS);
-				notifyAndClear(true);
-			}
+		public void run(Timeout expired) {
+			LOG.debug("Buffer age exceeds the limit of {}ms", bufferAgeLimitMS);
+			notifyAndClear(true, expired);
 		}
+	}
+
+	private static class Entry<T> {
+		private final T message;
+		private final long size;
 
-		public void cancel() {
-			cancelled.set(true);
+		private Entry(T message, long size) {
+			this.message = message;
+			this.size = size;
 		}
 	}
 }
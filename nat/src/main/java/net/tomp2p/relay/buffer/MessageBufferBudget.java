@@ -0,0 +1,140 @@
+package net.tomp2p.relay.buffer;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The memory budget shared by the buffers of all unreachable peers of a relay peer. Each buffer reports the bytes
+ * it holds with {@link #acquire(long)} and {@link #release(long)}. If the budget is exceeded, the oldest messages of
+ * the buffer with the largest backlog are evicted, until the budget is met again. Like this, a single peer that does
+ * not collect its messages cannot push out the messages of the other peers.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class MessageBufferBudget {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MessageBufferBudget.class);
+
+	private final long sizeLimit;
+	private final AtomicLong usedBytes = new AtomicLong();
+	private final AtomicLong evictedMessages = new AtomicLong();
+	private final AtomicLong evictedBytes = new AtomicLong();
+	private final Set<Evictable> owners = Collections.newSetFromMap(new ConcurrentHashMap<Evictable, Boolean>());
+
+	/**
+	 * A buffer whose messages count against the budget.
+	 */
+	public interface Evictable {
+		/**
+		 * @return the number of bytes currently held
+		 */
+		long backlogBytes();
+
+		/**
+		 * Drops the oldest message. The budget accounts the returned bytes, the evictable must not call
+		 * {@link MessageBufferBudget#release(long)} for it.
+		 *
+		 * @return the size of the dropped message or -1 if there was no message
+		 */
+		long evictOldest();
+	}
+
+	/**
+	 * @param sizeLimit the maximum number of bytes of all buffers together
+	 */
+	public MessageBufferBudget(long sizeLimit) {
+		if (sizeLimit <= 0) {
+			throw new IllegalArgumentException("The size limit must be positive");
+		}
+		this.sizeLimit = sizeLimit;
+	}
+
+	public void register(Evictable evictable) {
+		owners.add(evictable);
+	}
+
+	/**
+	 * Removes the evictable from the budget. The bytes still held need to be released by the caller.
+	 */
+	public void unregister(Evictable evictable) {
+		owners.remove(evictable);
+	}
+
+	/**
+	 * Accounts the bytes of a newly buffered message. If the limit is exceeded, messages are evicted, which may
+	 * include the new message.
+	 *
+	 * @param bytes the size of the message
+	 */
+	public void acquire(long bytes) {
+		long used = usedBytes.addAndGet(bytes);
+		while (used > sizeLimit) {
+			final Evictable victim = largest();
+			if (victim == null) {
+				break;
+			}
+			final long freed = victim.evictOldest();
+			if (freed < 0) {
+				// emptied concurrently, the bytes are released by the collector
+				break;
+			}
+			evictedMessages.incrementAndGet();
+			evictedBytes.addAndGet(freed);
+			used = usedBytes.addAndGet(-freed);
+			LOG.debug("Evicted a message of {} bytes, {} of {} bytes used", freed, used, sizeLimit);
+		}
+	}
+
+	/**
+	 * Accounts bytes that are not held anymore, e.g., because the messages have been collected.
+	 *
+	 * @param bytes the size of the released messages
+	 */
+	public void release(long bytes) {
+		usedBytes.addAndGet(-bytes);
+	}
+
+	private Evictable largest() {
+		Evictable largest = null;
+		long largestBytes = 0;
+		for (Evictable evictable : owners) {
+			final long bytes = evictable.backlogBytes();
+			if (bytes > largestBytes) {
+				largest = evictable;
+				largestBytes = bytes;
+			}
+		}
+		return largest;
+	}
+
+	public long sizeLimit() {
+		return sizeLimit;
+	}
+
+	/**
+	 * @return the number of bytes currently held by all buffers
+	 */
+	public long usedBytes() {
+		return usedBytes.get();
+	}
+
+	/**
+	 * @return the number of messages that have been dropped to stay within the limit
+	 */
+	public long evictedMessages() {
+		return evictedMessages.get();
+	}
+
+	/**
+	 * @return the number of bytes that have been dropped to stay within the limit
+	 */
+	public long evictedBytes() {
+		return evictedBytes.get();
+	}
+}
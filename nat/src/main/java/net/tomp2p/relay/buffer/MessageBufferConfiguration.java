@@ -13,6 +13,7 @@ public class MessageBufferConfiguration {
 	private long bufferSizeLimit = Long.MAX_VALUE;
 	private long bufferAgeLimit = 5 * 60 * 1000; // 5 minutes
 	private int gcmSendRetries = 5;
+	private MessageBufferBudget budget = new MessageBufferBudget(64L * 1024 * 1024); // 64 MB
 
 	/**
 	 * The maximum number of messages in the buffer.
@@ -89,6 +90,26 @@ public class MessageBufferConfiguration {
 		return this;
 	}
 	
+	/**
+	 * The budget that is shared by the buffers of all unreachable peers using this configuration.
+	 * @return
+	 */
+	public MessageBufferBudget budget() {
+		return budget;
+	}
+
+	/**
+	 * Configures the maximum size of the buffers of all unreachable peers together in bytes. If the limit is
+	 * exceeded, the oldest messages of the peer with the largest backlog are dropped. This needs to be set before
+	 * the relay peer is started.
+	 * 
+	 * @param globalBufferSizeLimit the maximal size of all buffers in bytes
+	 */
+	public MessageBufferConfiguration globalBufferSizeLimit(long globalBufferSizeLimit) {
+		this.budget = new MessageBufferBudget(globalBufferSizeLimit);
+		return this;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder("MessageBuffer");
@@ -109,10 +130,11 @@ public class MessageBufferConfiguration {
 		
 		sb.append(", age=");
 		if(bufferAgeLimit == Long.MAX_VALUE) {
-			sb.append("inf]");
+			sb.append("inf");
 		} else {
-			sb.append(bufferAgeLimit).append("ms]");
+			sb.append(bufferAgeLimit).append("ms");
 		}
+		sb.append(", global=").append(budget.sizeLimit()).append("b]");
 		return sb.toString();
 	}
 }
@@ -0,0 +1,222 @@
+package net.tomp2p.relay.tcp;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.Metrics;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests over the permanent connection to an unreachable peer without waiting for the previous response.
+ * Sending over a {@link PeerConnection} allows only one outstanding request at a time, this handler allows up to
+ * <code>window</code> outstanding requests. The responses are correlated with the requests by their message ID, so
+ * the unreachable peer can answer in any order. Further requests are queued until a response arrives (flow control).
+ * <p>
+ * The handler is placed in front of the request handler and the dispatcher of the channel. Messages that do not
+ * belong to a pending request are passed on, thus the connection can still be used for other requests.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class RelayMultiplexer extends ChannelInboundHandlerAdapter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RelayMultiplexer.class);
+	public static final String HANDLER_NAME = "multiplexer";
+
+	private final Channel channel;
+	private final Semaphore window;
+	private final int timeoutSeconds;
+	private final Metrics metrics;
+
+	private final ConcurrentMap<Integer, Pending> pending = new ConcurrentHashMap<Integer, Pending>();
+	private final Queue<FutureResponse> waiting = new ConcurrentLinkedQueue<FutureResponse>();
+
+	/**
+	 * Installs the multiplexer in the pipeline of the connection.
+	 *
+	 * @param peerConnection the open connection to the unreachable peer
+	 * @param window the maximum number of outstanding requests
+	 * @param timeoutSeconds the time to wait for a response
+	 * @param metrics the metrics of the relay peer, or null
+	 * @return the installed multiplexer
+	 */
+	public static RelayMultiplexer install(PeerConnection peerConnection, int window, int timeoutSeconds,
+			Metrics metrics) {
+		final Channel channel = peerConnection.channelFuture().channel();
+		final RelayMultiplexer multiplexer = new RelayMultiplexer(channel, window, timeoutSeconds, metrics);
+		final ChannelPipeline pipeline = channel.pipeline();
+		// the request handler is (re)placed in front of the dispatcher, stay in front of both
+		if (pipeline.get("handler") != null) {
+			pipeline.addBefore("handler", HANDLER_NAME, multiplexer);
+		} else {
+			pipeline.addBefore("dispatcher", HANDLER_NAME, multiplexer);
+		}
+		return multiplexer;
+	}
+
+	private RelayMultiplexer(Channel channel, int window, int timeoutSeconds, Metrics metrics) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("The window must be positive");
+		}
+		this.channel = channel;
+		this.window = new Semaphore(window);
+		this.timeoutSeconds = timeoutSeconds;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sends the request as soon as the window allows it.
+	 *
+	 * @param message the request
+	 * @return the future that is notified when the response arrives
+	 */
+	public FutureResponse send(Message message) {
+		final FutureResponse futureResponse = new FutureResponse(message);
+		recordRequest(futureResponse, message);
+		waiting.offer(futureResponse);
+		drain();
+		return futureResponse;
+	}
+
+	/**
+	 * @return the number of requests that have been sent and wait for their response
+	 */
+	public int pendingRequests() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the number of requests that wait for the window
+	 */
+	public int waitingRequests() {
+		return waiting.size();
+	}
+
+	private void drain() {
+		while (!waiting.isEmpty() && window.tryAcquire()) {
+			final FutureResponse futureResponse = waiting.poll();
+			if (futureResponse == null) {
+				// taken by a concurrent drain
+				window.release();
+				return;
+			}
+			write(futureResponse);
+		}
+	}
+
+	private void write(final FutureResponse futureResponse) {
+		final Message message = futureResponse.request();
+		final int messageId = message.messageId();
+		final ScheduledFuture<?> timeout = channel.eventLoop().schedule(new Runnable() {
+			@Override
+			public void run() {
+				complete(messageId, null, "No response within " + timeoutSeconds + "s");
+			}
+		}, timeoutSeconds, TimeUnit.SECONDS);
+		pending.put(messageId, new Pending(futureResponse, timeout));
+
+		channel.writeAndFlush(message).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if (!future.isSuccess()) {
+					complete(messageId, null, "Could not write the message: " + future.cause());
+				}
+			}
+		});
+	}
+
+	private void complete(int messageId, Message responseMessage, String failedReason) {
+		final Pending entry = pending.remove(messageId);
+		if (entry == null) {
+			return;
+		}
+		entry.timeout.cancel(false);
+		window.release();
+		if (responseMessage != null) {
+			entry.futureResponse.response(responseMessage);
+		} else {
+			entry.futureResponse.failed(failedReason);
+		}
+		drain();
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof Message) {
+			final Message message = (Message) msg;
+			if (!message.isRequest() && message.isDone() && pending.containsKey(message.messageId())) {
+				LOG.debug("Received multiplexed response {}", message);
+				complete(message.messageId(), message, null);
+				return;
+			}
+		}
+		ctx.fireChannelRead(msg);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		failAll("Relay connection closed");
+		ctx.fireChannelInactive();
+	}
+
+	private void failAll(String reason) {
+		FutureResponse futureResponse;
+		while ((futureResponse = waiting.poll()) != null) {
+			futureResponse.failed(reason);
+		}
+		for (Iterator<Map.Entry<Integer, Pending>> iterator = pending.entrySet().iterator(); iterator.hasNext();) {
+			final Pending entry = iterator.next().getValue();
+			iterator.remove();
+			entry.timeout.cancel(false);
+			entry.futureResponse.failed(reason);
+		}
+	}
+
+	private void recordRequest(FutureResponse futureResponse, Message message) {
+		if (metrics == null) {
+			return;
+		}
+		final Metrics.RpcMetrics rpcMetrics = metrics.rpc(message.command());
+		if (rpcMetrics == null) {
+			return;
+		}
+		rpcMetrics.sent();
+		final long start = System.nanoTime();
+		futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+			@Override
+			public void operationComplete(FutureResponse future) throws Exception {
+				rpcMetrics.completed(start, future.isSuccess());
+			}
+		});
+	}
+
+	private static class Pending {
+		private final FutureResponse futureResponse;
+		private final ScheduledFuture<?> timeout;
+
+		private Pending(FutureResponse futureResponse, ScheduledFuture<?> timeout) {
+			this.futureResponse = futureResponse;
+			this.timeout = timeout;
+		}
+	}
+}
@@ -50,7 +50,8 @@ public class TCPRelayClient extends BaseRelayClient {
 
 	@Override
 	public FutureDone<Void> shutdown() {
-		return connection.closeFuture().done();
+		// close the connection, such that the relay peer stops serving this peer
+		return connection.close();
 	}
 
 	@Override
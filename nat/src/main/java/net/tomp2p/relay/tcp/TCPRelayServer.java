@@ -37,6 +37,8 @@ public class TCPRelayServer extends BaseRelayServer {
 
 	// connection to unreachable peer
 	private final PeerConnection peerConnection;
+	// sends the relayed messages without waiting for the previous response
+	private final RelayMultiplexer multiplexer;
 
 	/**
 	 * 
@@ -45,11 +47,28 @@ public class TCPRelayServer extends BaseRelayServer {
 	 *            open
 	 * @param peer
 	 *            The relay peer
-	 * @param config the connection configuration
 	 */
 	public TCPRelayServer(final PeerConnection peerConnection, final Peer peer) {
+		this(peerConnection, peer, TCPRelayServerConfig.DEFAULT_MAX_PENDING_REQUESTS);
+	}
+
+	/**
+	 * 
+	 * @param peerConnection
+	 *            A peer connection to an unreachable peer that is permanently
+	 *            open
+	 * @param peer
+	 *            The relay peer
+	 * @param maxPendingRequests
+	 *            The maximum number of forwarded messages that wait for a
+	 *            response of the unreachable peer at the same time
+	 */
+	public TCPRelayServer(final PeerConnection peerConnection, final Peer peer, final int maxPendingRequests) {
 		super(peer, peerConnection.remotePeer(), RelayType.OPENTCP);
 		this.peerConnection = peerConnection.changeRemotePeer(unreachablePeerAddress());
+		this.multiplexer = RelayMultiplexer.install(peerConnection, maxPendingRequests, peer.connectionBean()
+				.channelServer().channelServerConfiguration().slowResponseTimeoutSeconds(), peer.connectionBean()
+				.metrics());
 
 		// add a listener when the connection is closed
 		peerConnection.closeFuture().addListener(new BaseFutureAdapter<FutureDone<Void>>() {
@@ -69,7 +88,7 @@ public class TCPRelayServer extends BaseRelayServer {
 		final Message envelope = createMessage(peerConnection.remotePeer(), RPC.Commands.RELAY.getNr(), Type.REQUEST_2);
 		try {
 			message.restoreContentReferences();
-			// add the message into the payload
+			// add the message into the payload, the frame as we got it is used if the dispatcher kept it
 			envelope.buffer(RelayUtils.encodeMessage(message, connectionBean().channelServer().channelServerConfiguration()
 					.signatureFactory()));
 		} catch (Exception e) {
@@ -88,8 +107,9 @@ public class TCPRelayServer extends BaseRelayServer {
 		// holds the message that will be returned to he requester
 		final FutureDone<Message> futureDone = new FutureDone<Message>();
 
-		// Forward a message through the open peer connection to the unreachable peer.
-		FutureResponse fr = RelayUtils.send(peerConnection, peerBean(), connectionBean(), envelope);
+		// Forward a message through the open peer connection to the unreachable peer. Other messages can be
+		// forwarded before the response arrives.
+		FutureResponse fr = multiplexer.send(envelope);
 		fr.addListener(new BaseFutureAdapter<FutureResponse>() {
 			public void operationComplete(FutureResponse future) throws Exception {
 				if (future.isSuccess()) {
@@ -102,10 +122,10 @@ public class TCPRelayServer extends BaseRelayServer {
 						recipientSocket = message.sender().createSocketTCP();
 					}
 
+					// the response is passed on as it is, only the header is needed to reply
 					Buffer buffer = future.responseMessage().buffer(0);
-					Message responseFromUnreachablePeer = RelayUtils.decodeMessage(buffer.buffer(), recipientSocket,
-							senderSocket, connectionBean().channelServer().channelServerConfiguration().signatureFactory());
-					responseFromUnreachablePeer.restoreContentReferences();
+					Message responseFromUnreachablePeer = RelayUtils.decodeHeader(buffer.buffer(), recipientSocket,
+							senderSocket);
 					futureDone.done(responseFromUnreachablePeer);
 				} else {
 					futureDone.failed("Could not forward message over TCP channel");
@@ -116,6 +136,13 @@ public class TCPRelayServer extends BaseRelayServer {
 		return futureDone;
 	}
 	
+	/**
+	 * @return the multiplexer that forwards the messages to the unreachable peer
+	 */
+	public RelayMultiplexer multiplexer() {
+		return multiplexer;
+	}
+
 	@Override
 	protected void peerMapUpdated(Message originalMessage, Message preparedResponse) {
 		// ignore
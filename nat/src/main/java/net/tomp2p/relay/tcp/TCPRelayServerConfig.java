@@ -15,6 +15,32 @@ public class TCPRelayServerConfig extends RelayServerConfig {
 
 	private final static Logger LOG = LoggerFactory.getLogger(TCPRelayServerConfig.class);
 
+	public static final int DEFAULT_MAX_PENDING_REQUESTS = 64;
+
+	private int maxPendingRequests = DEFAULT_MAX_PENDING_REQUESTS;
+
+	/**
+	 * The maximum number of forwarded messages that wait for a response of the unreachable peer at the same
+	 * time.
+	 */
+	public int maxPendingRequests() {
+		return maxPendingRequests;
+	}
+
+	/**
+	 * Configures how many forwarded messages can wait for a response of the unreachable peer at the same time.
+	 * Further messages are queued until a response arrives.
+	 * 
+	 * @param maxPendingRequests the maximum number of outstanding requests per unreachable peer
+	 */
+	public TCPRelayServerConfig maxPendingRequests(int maxPendingRequests) {
+		if (maxPendingRequests <= 0) {
+			throw new IllegalArgumentException("At least one pending request must be allowed");
+		}
+		this.maxPendingRequests = maxPendingRequests;
+		return this;
+	}
+
 	@Override
 	public void start(Peer peer) {
 		// nothing to do
@@ -30,7 +56,7 @@ public class TCPRelayServerConfig extends RelayServerConfig {
 		}
 
 		LOG.debug("Hello unreachable peer! You'll be relayed over an open TCP connection.");
-		TCPRelayServer tcpForwarder = new TCPRelayServer(peerConnection, peer);
+		TCPRelayServer tcpForwarder = new TCPRelayServer(peerConnection, peer, maxPendingRequests);
 		responder.response(createResponse(message, Type.OK, peer.peerBean().serverPeerAddress()));
 		return tcpForwarder;
 	}
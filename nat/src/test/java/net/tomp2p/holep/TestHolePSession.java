@@ -0,0 +1,113 @@
+package net.tomp2p.holep;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.nat.PeerBuilderNAT;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.rpc.RPC;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHolePSession {
+
+	private Peer sender;
+	private Peer receiver;
+	private HolePInitiatorImpl initiator;
+
+	@Before
+	public void setup() throws Exception {
+		sender = new PeerBuilder(new Number160(1)).ports(6001).start();
+		receiver = new PeerBuilder(new Number160(2)).ports(6002).start();
+		new PeerBuilderNAT(sender).holePSessionKeepAliveSeconds(1).holePSessionTimeoutSeconds(3).start();
+		new PeerBuilderNAT(receiver).start();
+		initiator = (HolePInitiatorImpl) sender.peerBean().holePunchInitiator();
+	}
+
+	@After
+	public void shutdown() {
+		sender.shutdown().awaitUninterruptibly();
+		receiver.shutdown().awaitUninterruptibly();
+	}
+
+	@Test
+	public void testNoSession() {
+		final Message message = createPing();
+		final FutureDone<Message> futureDone = initiator.handleHolePunch(3000, new FutureResponse(message), message);
+		// the sender falls back to relaying
+		Assert.assertTrue(futureDone.isFailed());
+		Assert.assertEquals(1, initiator.sessionCache().misses());
+	}
+
+	@Test
+	public void testReuseSession() throws Exception {
+		final HolePSession session = createSession();
+		Assert.assertTrue(initiator.sessionCache().add(session));
+
+		for (int i = 0; i < 3; i++) {
+			final Message message = createPing();
+			final FutureDone<Message> futureDone = initiator.handleHolePunch(3000, new FutureResponse(message), message);
+			futureDone.awaitUninterruptibly();
+			Assert.assertTrue(futureDone.isSuccess());
+			Assert.assertEquals(Type.OK, futureDone.object().type());
+			Assert.assertEquals(message.messageId(), futureDone.object().messageId());
+		}
+		Assert.assertEquals(3, initiator.sessionCache().hits());
+		Assert.assertEquals(0, session.pendingRequests());
+	}
+
+	@Test
+	public void testKeepAliveAndTimeout() throws Exception {
+		final HolePSession session = createSession();
+		Assert.assertTrue(initiator.sessionCache().add(session));
+
+		// keep-alives are sent while the session is idle
+		Thread.sleep(2000);
+		Assert.assertTrue(initiator.sessionCache().keepAlives() > 0);
+		Assert.assertTrue(session.isOpen());
+
+		// keep-alives do not extend the session
+		Thread.sleep(2500);
+		Assert.assertEquals(0, initiator.sessionCache().size());
+		Assert.assertFalse(session.isOpen());
+	}
+
+	/**
+	 * The receiver is reachable, thus any UDP channel acts like a punched hole.
+	 */
+	private HolePSession createSession() {
+		final FutureChannelCreator fcc = sender.connectionBean().reservation().create(1, 0).awaitUninterruptibly();
+		final ChannelCreator channelCreator = fcc.channelCreator();
+		final FutureResponse futureResponse = new FutureResponse(createPing());
+		final ChannelFuture channelFuture = channelCreator.createUDP(false, sender.connectionBean().sender()
+				.configureHandlers(new SimpleChannelInboundHandler<Message>() {
+					@Override
+					protected void channelRead0(ChannelHandlerContext ctx, Message msg) throws Exception {
+						Assert.fail("The session should handle the messages");
+					}
+				}, futureResponse, 3000, false), futureResponse).awaitUninterruptibly();
+		Assert.assertTrue(channelFuture.isSuccess());
+		return new HolePSession(sender, channelFuture.channel(), channelCreator, receiver.peerAddress());
+	}
+
+	private Message createPing() {
+		final Message message = new Message();
+		message.recipient(receiver.peerAddress());
+		message.sender(sender.peerAddress());
+		message.command(RPC.Commands.PING.getNr());
+		message.type(Type.REQUEST_1);
+		message.version(sender.connectionBean().p2pId());
+		return message;
+	}
+}
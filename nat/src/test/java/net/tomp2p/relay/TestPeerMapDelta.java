@@ -0,0 +1,202 @@
+package net.tomp2p.relay;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.message.Buffer;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.RPC;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPeerMapDelta {
+
+	private static final int NR_OF_PEERS = 200;
+	private static final int CHURN = 5;
+
+	private final SignatureFactory signature = new DSASignatureFactory();
+	private final Random rnd = new Random(42);
+	private Peer relay;
+	private PeerAddress unreachable;
+	private int encodedSize;
+
+	@Before
+	public void setup() throws Exception {
+		relay = new PeerBuilder(new Number160(1)).ports(5111).start();
+		unreachable = new PeerAddress(new Number160(2));
+	}
+
+	@After
+	public void shutdown() {
+		relay.shutdown().awaitUninterruptibly();
+	}
+
+	@Test
+	public void testDelta() throws Exception {
+		PeerMapDelta peerMapDelta = new PeerMapDelta();
+		BaseRelayServer server = createServer();
+		List<PeerAddress> peerMap = createPeers(NR_OF_PEERS);
+
+		// the first update is the full peer map
+		Message full = createMessage();
+		Assert.assertFalse(peerMapDelta.prepare(full, peerMap, false));
+		Assert.assertTrue(peerMapDelta.acknowledged(full, update(server, full)));
+		int fullSize = encodedSize;
+		Assert.assertEquals(new HashSet<PeerAddress>(peerMap), new HashSet<PeerAddress>(server.getPeerMap()));
+
+		// some peers leave, some join, one changes its address
+		for (int i = 0; i < CHURN; i++) {
+			peerMap.remove(rnd.nextInt(peerMap.size()));
+		}
+		peerMap.addAll(createPeers(CHURN));
+		peerMap.set(0, peerMap.get(0).changePorts(4000, 4000));
+
+		Message delta = createMessage();
+		Assert.assertTrue(peerMapDelta.prepare(delta, peerMap, false));
+		Assert.assertTrue(peerMapDelta.acknowledged(delta, update(server, delta)));
+		int deltaSize = encodedSize;
+		System.err.println("full update: " + fullSize + " bytes, delta: " + deltaSize + " bytes");
+		Assert.assertTrue(deltaSize * 10 < fullSize);
+		Assert.assertEquals(new HashSet<PeerAddress>(peerMap), new HashSet<PeerAddress>(server.getPeerMap()));
+		for (PeerAddress peerAddress : server.getPeerMap()) {
+			if (peerAddress.equals(peerMap.get(0))) {
+				Assert.assertEquals(4000, peerAddress.tcpPort());
+			}
+		}
+
+		// nothing changed
+		Message empty = createMessage();
+		Assert.assertTrue(peerMapDelta.prepare(empty, peerMap, false));
+		Assert.assertTrue(peerMapDelta.acknowledged(empty, update(server, empty)));
+		Assert.assertEquals(NR_OF_PEERS, server.getPeerMap().size());
+	}
+
+	@Test
+	public void testFallbackToFull() throws Exception {
+		PeerMapDelta peerMapDelta = new PeerMapDelta();
+		BaseRelayServer server = createServer();
+		List<PeerAddress> peerMap = createPeers(NR_OF_PEERS);
+
+		Message full = createMessage();
+		peerMapDelta.prepare(full, peerMap, false);
+		Assert.assertTrue(peerMapDelta.acknowledged(full, update(server, full)));
+
+		// a lost update does not matter, the next delta is based on the acknowledged version
+		peerMap.addAll(createPeers(CHURN));
+		peerMapDelta.prepare(createMessage(), peerMap, false);
+		Message delta = createMessage();
+		Assert.assertTrue(peerMapDelta.prepare(delta, peerMap, false));
+		Assert.assertTrue(peerMapDelta.acknowledged(delta, update(server, delta)));
+		Assert.assertEquals(peerMap.size(), server.getPeerMap().size());
+
+		// a new relay server does not know the version the delta is based on
+		BaseRelayServer restarted = createServer();
+		peerMap.addAll(createPeers(CHURN));
+		delta = createMessage();
+		Assert.assertTrue(peerMapDelta.prepare(delta, peerMap, false));
+		Assert.assertFalse(peerMapDelta.acknowledged(delta, update(restarted, delta)));
+		Assert.assertEquals(PeerMapDelta.NO_VERSION, peerMapDelta.acknowledgedVersion());
+		Assert.assertTrue(restarted.getPeerMap().isEmpty());
+
+		// the next update is the full peer map again
+		Message fallback = createMessage();
+		Assert.assertFalse(peerMapDelta.prepare(fallback, peerMap, false));
+		Assert.assertTrue(peerMapDelta.acknowledged(fallback, update(restarted, fallback)));
+		Assert.assertEquals(peerMap.size(), restarted.getPeerMap().size());
+	}
+
+	@Test
+	public void testCompactIfAnnounced() throws Exception {
+		PeerMapDelta peerMapDelta = new PeerMapDelta();
+		BaseRelayServer server = createServer();
+		// more peers than fit into one set
+		List<PeerAddress> peerMap = createPeers(PeerMapDelta.MAX_SET_SIZE * 2);
+
+		// the relay did not announce anything yet, the first update uses full neighbor sets
+		Message full = createMessage();
+		Assert.assertFalse(peerMapDelta.prepare(full, peerMap, false));
+		Assert.assertEquals(2, full.neighborsSetList().size());
+		Assert.assertTrue(full.bufferList().isEmpty());
+		Assert.assertEquals(2, PeerMapDelta.nrOfNeighborSets(full));
+
+		// a relay that does not announce compact sets gets full neighbor sets
+		Message reply = UtilsNAT.createRandomMessage().type(Type.OK);
+		reply.intValue(PeerMapDelta.version(full));
+		Assert.assertTrue(peerMapDelta.acknowledged(full, reply));
+		Assert.assertFalse(peerMapDelta.isCompact());
+		Message again = createMessage();
+		peerMapDelta.prepare(again, peerMap, true);
+		Assert.assertTrue(again.bufferList().isEmpty());
+
+		// this relay announces compact sets
+		Assert.assertTrue(peerMapDelta.acknowledged(again, update(server, again)));
+		Assert.assertTrue(peerMapDelta.isCompact());
+		Assert.assertEquals(peerMap.size(), server.getPeerMap().size());
+
+		Message compact = createMessage();
+		Assert.assertFalse(peerMapDelta.prepare(compact, peerMap, true));
+		Assert.assertTrue(compact.neighborsSetList().isEmpty());
+		Assert.assertEquals(2, compact.bufferList().size());
+		Assert.assertEquals(0, PeerMapDelta.nrOfNeighborSets(compact));
+		Assert.assertTrue(peerMapDelta.acknowledged(compact, update(server, compact)));
+		Assert.assertEquals(new HashSet<PeerAddress>(peerMap), new HashSet<PeerAddress>(server.getPeerMap()));
+	}
+
+	private Message update(BaseRelayServer server, Message request) throws Exception {
+		// the relay receives the decoded message
+		Buffer encoded = RelayUtils.encodeMessage(request, signature);
+		encodedSize = encoded.length();
+		Message decoded = RelayUtils.decodeMessage(encoded.buffer(), request.recipientSocket(),
+				request.senderSocket(), signature);
+		Message response = UtilsNAT.createRandomMessage().type(Type.OK);
+		server.updatePeerMap(decoded, response);
+		return response;
+	}
+
+	private Message createMessage() {
+		Message message = UtilsNAT.createRandomMessage();
+		message.command(RPC.Commands.RELAY.getNr());
+		message.type(Type.REQUEST_3);
+		return message;
+	}
+
+	private List<PeerAddress> createPeers(int nrOfPeers) throws Exception {
+		List<PeerAddress> peers = new ArrayList<PeerAddress>(nrOfPeers);
+		for (int i = 0; i < nrOfPeers; i++) {
+			peers.add(UtilsNAT.createRandomAddress());
+		}
+		return peers;
+	}
+
+	private BaseRelayServer createServer() {
+		return new BaseRelayServer(relay, unreachable, RelayType.OPENTCP) {
+			@Override
+			public FutureDone<Message> forwardToUnreachable(Message message) {
+				return new FutureDone<Message>().failed("not connected");
+			}
+
+			@Override
+			protected boolean isAlive() {
+				return true;
+			}
+
+			@Override
+			protected void peerMapUpdated(Message originalMessage, Message preparedResponse) {
+				// nothing to do
+			}
+		};
+	}
+}
@@ -0,0 +1,372 @@
+package net.tomp2p.relay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message;
+import net.tomp2p.nat.FutureRelayNAT;
+import net.tomp2p.nat.PeerBuilderNAT;
+import net.tomp2p.nat.PeerNAT;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.relay.tcp.TCPRelayClientConfig;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRelayLoadBalancer {
+
+	private static final int NR_OF_RELAYS = 10;
+	private static final int NR_OF_WELL_CONNECTED = 3;
+	private static final int NR_OF_UNREACHABLE = 400;
+	private static final int RELAYS_PER_PEER = 2;
+
+	@Test
+	public void testAttachExtract() {
+		Message message = UtilsNAT.createRandomMessage();
+		Assert.assertNull(RelayLoad.extract(message));
+
+		RelayLoad load = new RelayLoad(12, 100, 4096);
+		load.attach(message);
+		Assert.assertEquals(load, RelayLoad.extract(message));
+		Assert.assertFalse(load.isFull());
+		Assert.assertTrue(new RelayLoad(100, 100, 0).isFull());
+
+		// the load is a single long value, capped values are unlimited
+		message = UtilsNAT.createRandomMessage();
+		new RelayLoad(3, Integer.MAX_VALUE, 1L << 40).attach(message);
+		Assert.assertEquals(1, message.longList().size());
+		RelayLoad capped = RelayLoad.extract(message);
+		Assert.assertEquals(3, capped.relayedPeers());
+		Assert.assertEquals(Integer.MAX_VALUE, capped.maxRelayedPeers());
+		Assert.assertEquals(((1L << 24) - 1) << 10, capped.bytesPerSecond());
+	}
+
+	@Test
+	public void testSortCandidates() {
+		RelayLoadBalancer balancer = new RelayLoadBalancer(60, 2, new Random(42));
+		PeerAddress busy = new PeerAddress(new Number160(1));
+		PeerAddress full = new PeerAddress(new Number160(2));
+		PeerAddress quiet = new PeerAddress(new Number160(3));
+		PeerAddress unknown = new PeerAddress(new Number160(4));
+		balancer.loadReported(busy, new RelayLoad(50, 100, 0));
+		balancer.loadReported(full, new RelayLoad(10, 10, 0));
+		balancer.loadReported(quiet, new RelayLoad(5, 100, 0));
+
+		List<PeerAddress> candidates = new ArrayList<PeerAddress>(Arrays.asList(full, busy, quiet, unknown));
+		balancer.sortCandidates(candidates);
+		// unknown relays are tried as if they were idle
+		Assert.assertEquals(Arrays.asList(unknown, quiet, busy, full), candidates);
+	}
+
+	@Test
+	public void testOverloadedRelay() {
+		PeerAddress relay = new PeerAddress(new Number160(1));
+		PeerAddress alternative = new PeerAddress(new Number160(2));
+		List<PeerAddress> relays = Arrays.asList(relay);
+		List<PeerAddress> alternatives = Arrays.asList(alternative);
+
+		RelayLoadBalancer balancer = new RelayLoadBalancer(60, 2, new Random(42));
+		balancer.loadReported(relay, new RelayLoad(100, 1000, 0));
+		// no known alternative
+		Assert.assertNull(balancer.overloadedRelay(relays, alternatives));
+		// balanced enough
+		balancer.loadReported(alternative, new RelayLoad(60, 1000, 0));
+		Assert.assertNull(balancer.overloadedRelay(relays, alternatives));
+
+		// the clients leave with a probability such that about half of the difference moves
+		balancer.loadReported(alternative, new RelayLoad(0, 1000, 0));
+		int leaving = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (relay.equals(balancer.overloadedRelay(relays, alternatives))) {
+				leaving++;
+			}
+		}
+		Assert.assertTrue("leaving " + leaving, leaving > 400 && leaving < 600);
+
+		// the relay serves more peers than it accepts, half of the excess leaves
+		balancer.loadReported(alternative, new RelayLoad(100, 100, 0));
+		balancer.loadReported(relay, new RelayLoad(20, 10, 0));
+		leaving = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (relay.equals(balancer.overloadedRelay(relays, alternatives))) {
+				leaving++;
+			}
+		}
+		Assert.assertTrue("leaving " + leaving, leaving > 150 && leaving < 350);
+	}
+
+	/**
+	 * Hundreds of unreachable peers choose their relays. A few relays are well connected and are known by every
+	 * unreachable peer, the others are only known by some. Without the loads, every peer picks the first
+	 * candidates of its peer map.
+	 */
+	@Test
+	public void testSimulation() {
+		final Random rnd = new Random(42);
+		final Simulation unaware = new Simulation(rnd, Integer.MAX_VALUE);
+		unaware.setupAllInOrder();
+		Assert.assertEquals(NR_OF_UNREACHABLE, unaware.maxLoad());
+
+		final Simulation aware = new Simulation(rnd, Integer.MAX_VALUE);
+		aware.setupAll();
+		final int maxLoadAfterSetup = aware.maxLoad();
+		Assert.assertTrue("max load " + maxLoadAfterSetup, maxLoadAfterSetup < NR_OF_UNREACHABLE / 2);
+
+		// the peer map updates report the loads, the peers move to less loaded relays
+		for (int round = 0; round < 20; round++) {
+			aware.maintenance();
+		}
+		System.err.println("max load: " + unaware.maxLoad() + " unaware, " + maxLoadAfterSetup + " after setup, "
+				+ aware.maxLoad() + " after migration, min load " + aware.minLoad());
+		Assert.assertTrue(aware.maxLoad() < maxLoadAfterSetup);
+		Assert.assertTrue(aware.maxLoad() - 1 <= RelayClientConfig.DEFAULT_LOAD_IMBALANCE_FACTOR
+				* (aware.minLoad() + 1));
+		aware.assertAllRelayed();
+	}
+
+	/**
+	 * The relays only accept twice the average number of unreachable peers, which is less than the well connected
+	 * relays would get. The others are denied and ask the next candidate.
+	 */
+	@Test
+	public void testSimulationCapacity() {
+		final int capacity = 2 * NR_OF_UNREACHABLE * RELAYS_PER_PEER / NR_OF_RELAYS;
+		final Simulation simulation = new Simulation(new Random(42), capacity);
+		simulation.setupAll();
+		for (int round = 0; round < 5; round++) {
+			simulation.maintenance();
+		}
+		Assert.assertTrue(simulation.maxLoad() <= capacity);
+		simulation.assertAllRelayed();
+	}
+
+	@Test
+	public void testDeniedWhenFull() throws Exception {
+		Peer relay = null;
+		Peer unreachable1 = null;
+		Peer unreachable2 = null;
+		try {
+			relay = new PeerBuilder(new Number160(1)).ports(5101).start();
+			new PeerBuilderNAT(relay).maxRelayedPeers(1).start();
+			unreachable1 = new PeerBuilder(new Number160(2)).ports(5102).start();
+			unreachable2 = new PeerBuilder(new Number160(3)).ports(5103).start();
+
+			PeerNAT peerNAT1 = new PeerBuilderNAT(unreachable1).start();
+			FutureRelayNAT futureRelayNAT1 = peerNAT1.startRelay(new TCPRelayClientConfig(), relay.peerAddress())
+					.awaitUninterruptibly();
+			Assert.assertTrue(futureRelayNAT1.isSuccess());
+			// the relay reported that it did not serve anybody before
+			// the distributed relay is the buffer request listener
+			DistributedRelay distributedRelay1 = (DistributedRelay) futureRelayNAT1.bufferRequestListener();
+			RelayLoad load = distributedRelay1.loadBalancer().load(relay.peerAddress());
+			Assert.assertEquals(0, load.relayedPeers());
+			Assert.assertEquals(1, load.maxRelayedPeers());
+
+			PeerNAT peerNAT2 = new PeerBuilderNAT(unreachable2).start();
+			FutureRelayNAT futureRelayNAT2 = peerNAT2.startRelay(new TCPRelayClientConfig(), relay.peerAddress())
+					.awaitUninterruptibly();
+			// the second peer may use the first one as its relay, but not the full relay
+			DistributedRelay distributedRelay2 = (DistributedRelay) futureRelayNAT2.bufferRequestListener();
+			for (BaseRelayClient client : distributedRelay2.relayClients()) {
+				Assert.assertNotEquals(relay.peerAddress(), client.relayAddress());
+			}
+			Assert.assertTrue(distributedRelay2.loadBalancer().load(relay.peerAddress()).isFull());
+		} finally {
+			if (unreachable1 != null) {
+				unreachable1.shutdown().awaitUninterruptibly();
+			}
+			if (unreachable2 != null) {
+				unreachable2.shutdown().awaitUninterruptibly();
+			}
+			if (relay != null) {
+				relay.shutdown().awaitUninterruptibly();
+			}
+		}
+	}
+
+	@Test
+	public void testLoadRequest() throws Exception {
+		Peer relay = null;
+		Peer unreachable = null;
+		try {
+			relay = new PeerBuilder(new Number160(1)).ports(5104).start();
+			new PeerBuilderNAT(relay).maxRelayedPeers(5).start();
+			unreachable = new PeerBuilder(new Number160(2)).ports(5105).start();
+			PeerNAT peerNAT = new PeerBuilderNAT(unreachable).start();
+
+			FutureChannelCreator fcc = unreachable.connectionBean().reservation().create(0, 1)
+					.awaitUninterruptibly();
+			FutureResponse response = peerNAT.relayRPC().sendLoadRequest(relay.peerAddress(), fcc.channelCreator())
+					.awaitUninterruptibly();
+			fcc.channelCreator().shutdown().awaitUninterruptibly();
+			Assert.assertTrue(response.isSuccess());
+			Assert.assertEquals(Message.Type.OK, response.responseMessage().type());
+			RelayLoad load = RelayLoad.extract(response.responseMessage());
+			Assert.assertEquals(0, load.relayedPeers());
+			Assert.assertEquals(5, load.maxRelayedPeers());
+		} finally {
+			if (unreachable != null) {
+				unreachable.shutdown().awaitUninterruptibly();
+			}
+			if (relay != null) {
+				relay.shutdown().awaitUninterruptibly();
+			}
+		}
+	}
+
+	private static class Simulation {
+		private final List<SimulatedRelay> relays = new ArrayList<SimulatedRelay>();
+		private final List<SimulatedPeer> peers = new ArrayList<SimulatedPeer>();
+
+		private Simulation(Random rnd, int capacity) {
+			for (int i = 0; i < NR_OF_RELAYS; i++) {
+				relays.add(new SimulatedRelay(new PeerAddress(new Number160(i + 1)), capacity));
+			}
+			for (int i = 0; i < NR_OF_UNREACHABLE; i++) {
+				SimulatedPeer peer = new SimulatedPeer(new Random(rnd.nextLong()));
+				for (int j = 0; j < NR_OF_RELAYS; j++) {
+					if (j < NR_OF_WELL_CONNECTED || rnd.nextInt(10) < 3) {
+						peer.candidates.add(relays.get(j));
+					}
+				}
+				peers.add(peer);
+			}
+		}
+
+		private void setupAllInOrder() {
+			for (SimulatedPeer peer : peers) {
+				for (SimulatedRelay relay : peer.candidates) {
+					if (peer.relays.size() < RELAYS_PER_PEER) {
+						relay.setup(peer);
+					}
+				}
+			}
+		}
+
+		private void setupAll() {
+			for (SimulatedPeer peer : peers) {
+				peer.setupRelays(null);
+			}
+		}
+
+		private void maintenance() {
+			for (SimulatedPeer peer : peers) {
+				// the replies of the peer map updates
+				for (SimulatedRelay relay : peer.relays) {
+					peer.balancer.loadReported(relay.address, relay.load());
+				}
+				List<PeerAddress> relayAddresses = new ArrayList<PeerAddress>();
+				List<PeerAddress> alternatives = new ArrayList<PeerAddress>();
+				for (SimulatedRelay relay : peer.candidates) {
+					(peer.relays.contains(relay) ? relayAddresses : alternatives).add(relay.address);
+				}
+				// the load request to another candidate
+				PeerAddress probe = peer.balancer.probeCandidate(alternatives);
+				if (probe != null) {
+					peer.balancer.loadReported(probe, relay(probe).load());
+				}
+				PeerAddress overloaded = peer.balancer.overloadedRelay(relayAddresses, alternatives);
+				SimulatedRelay left = null;
+				if (overloaded != null) {
+					left = relay(overloaded);
+					left.leave(peer);
+				}
+				// replaces the left relay or the relays that denied the setup before
+				peer.setupRelays(left);
+			}
+		}
+
+		private SimulatedRelay relay(PeerAddress address) {
+			for (SimulatedRelay relay : relays) {
+				if (relay.address.equals(address)) {
+					return relay;
+				}
+			}
+			throw new IllegalArgumentException();
+		}
+
+		private int maxLoad() {
+			int max = 0;
+			for (SimulatedRelay relay : relays) {
+				max = Math.max(max, relay.relayed.size());
+			}
+			return max;
+		}
+
+		private int minLoad() {
+			int min = Integer.MAX_VALUE;
+			for (SimulatedRelay relay : relays) {
+				min = Math.min(min, relay.relayed.size());
+			}
+			return min;
+		}
+
+		private void assertAllRelayed() {
+			for (SimulatedPeer peer : peers) {
+				Assert.assertEquals(RELAYS_PER_PEER, peer.relays.size());
+			}
+		}
+
+		private class SimulatedPeer {
+			private final List<SimulatedRelay> candidates = new ArrayList<SimulatedRelay>();
+			private final List<SimulatedRelay> relays = new ArrayList<SimulatedRelay>();
+			private final RelayLoadBalancer balancer;
+
+			private SimulatedPeer(Random rnd) {
+				this.balancer = new RelayLoadBalancer(3600, RelayClientConfig.DEFAULT_LOAD_IMBALANCE_FACTOR, rnd);
+			}
+
+			private void setupRelays(SimulatedRelay failed) {
+				List<PeerAddress> addresses = new ArrayList<PeerAddress>();
+				for (SimulatedRelay candidate : candidates) {
+					if (!relays.contains(candidate) && candidate != failed) {
+						addresses.add(candidate.address);
+					}
+				}
+				balancer.sortCandidates(addresses);
+				for (PeerAddress address : addresses) {
+					if (relays.size() >= RELAYS_PER_PEER) {
+						break;
+					}
+					SimulatedRelay relay = relay(address);
+					balancer.loadReported(address, relay.load());
+					relay.setup(this);
+				}
+			}
+		}
+
+		private class SimulatedRelay {
+			private final PeerAddress address;
+			private final int capacity;
+			private final List<SimulatedPeer> relayed = new ArrayList<SimulatedPeer>();
+
+			private SimulatedRelay(PeerAddress address, int capacity) {
+				this.address = address;
+				this.capacity = capacity;
+			}
+
+			private RelayLoad load() {
+				return new RelayLoad(relayed.size(), capacity, 0);
+			}
+
+			private void setup(SimulatedPeer peer) {
+				if (!load().isFull()) {
+					relayed.add(peer);
+					peer.relays.add(this);
+				}
+			}
+
+			private void leave(SimulatedPeer peer) {
+				relayed.remove(peer);
+				peer.relays.remove(this);
+			}
+		}
+	}
+}
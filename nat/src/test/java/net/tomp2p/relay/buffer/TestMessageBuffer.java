@@ -1,6 +1,8 @@
 package net.tomp2p.relay.buffer;
 
 import static org.junit.Assert.assertEquals;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
 import java.security.InvalidKeyException;
@@ -172,6 +174,72 @@ public class TestMessageBuffer {
 		assertEquals(2, listener.getBuffer().size());
 	}
 	
+	@Test
+	public void testEvictOldest() {
+		MessageBuffer<ByteBuf> buffer = new MessageBuffer<ByteBuf>(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+		ByteBuf first = Unpooled.buffer(10).writeZero(10);
+		ByteBuf second = Unpooled.buffer(20).writeZero(20);
+		buffer.addMessage(first, first.readableBytes());
+		buffer.addMessage(second, second.readableBytes());
+		assertEquals(2, buffer.messageCount());
+		assertEquals(30, buffer.bufferSize());
+
+		// the oldest message is dropped and released
+		assertEquals(10, buffer.evictOldest());
+		assertEquals(0, first.refCnt());
+		assertEquals(1, buffer.messageCount());
+		assertEquals(20, buffer.bufferSize());
+
+		assertEquals(20, buffer.evictOldest());
+		assertEquals(-1, buffer.evictOldest());
+		assertEquals(0, buffer.bufferSize());
+	}
+
+	@Test
+	public void testBudgetEvictsLargestBacklog() {
+		MessageBufferBudget budget = new MessageBufferBudget(100);
+		final MessageBuffer<ByteBuf> small = new MessageBuffer<ByteBuf>(Integer.MAX_VALUE, Long.MAX_VALUE,
+				Long.MAX_VALUE);
+		final MessageBuffer<ByteBuf> large = new MessageBuffer<ByteBuf>(Integer.MAX_VALUE, Long.MAX_VALUE,
+				Long.MAX_VALUE);
+		budget.register(evictable(small));
+		budget.register(evictable(large));
+
+		add(small, budget, 20);
+		for (int i = 0; i < 4; i++) {
+			add(large, budget, 20);
+		}
+		assertEquals(100, budget.usedBytes());
+		assertEquals(0, budget.evictedMessages());
+
+		// exceeds the budget, the peer with the largest backlog loses its oldest message
+		add(small, budget, 20);
+		assertEquals(100, budget.usedBytes());
+		assertEquals(1, budget.evictedMessages());
+		assertEquals(20, budget.evictedBytes());
+		assertEquals(2, small.messageCount());
+		assertEquals(3, large.messageCount());
+	}
+
+	private static void add(MessageBuffer<ByteBuf> buffer, MessageBufferBudget budget, int size) {
+		buffer.addMessage(Unpooled.buffer(size).writeZero(size), size);
+		budget.acquire(size);
+	}
+
+	private static MessageBufferBudget.Evictable evictable(final MessageBuffer<ByteBuf> buffer) {
+		return new MessageBufferBudget.Evictable() {
+			@Override
+			public long backlogBytes() {
+				return buffer.bufferSize();
+			}
+
+			@Override
+			public long evictOldest() {
+				return buffer.evictOldest();
+			}
+		};
+	}
+
 	private class CountingBufferListener implements MessageBufferListener<Message> {
 
 		private final List<Message> buffer;
@@ -0,0 +1,108 @@
+package net.tomp2p.relay.tcp;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.relay.UtilsNAT;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRelayMultiplexer {
+
+	@Test
+	public void testOutOfOrderResponses() {
+		EmbeddedChannel channel = channel();
+		RelayMultiplexer multiplexer = install(channel, 10);
+
+		FutureResponse first = multiplexer.send(request());
+		FutureResponse second = multiplexer.send(request());
+		// both are sent without waiting for a response
+		Assert.assertEquals(2, multiplexer.pendingRequests());
+		Assert.assertSame(first.request(), channel.readOutbound());
+		Assert.assertSame(second.request(), channel.readOutbound());
+
+		// the responses are correlated by the message id
+		channel.writeInbound(response(second.request()));
+		Assert.assertTrue(second.isSuccess());
+		Assert.assertFalse(first.isCompleted());
+		channel.writeInbound(response(first.request()));
+		Assert.assertTrue(first.isSuccess());
+		Assert.assertEquals(first.request().messageId(), first.responseMessage().messageId());
+		Assert.assertEquals(0, multiplexer.pendingRequests());
+	}
+
+	@Test
+	public void testWindow() {
+		EmbeddedChannel channel = channel();
+		RelayMultiplexer multiplexer = install(channel, 1);
+
+		FutureResponse first = multiplexer.send(request());
+		FutureResponse second = multiplexer.send(request());
+		Assert.assertEquals(1, multiplexer.pendingRequests());
+		Assert.assertEquals(1, multiplexer.waitingRequests());
+		Assert.assertSame(first.request(), channel.readOutbound());
+		Assert.assertNull(channel.readOutbound());
+
+		// the response opens the window for the next request
+		channel.writeInbound(response(first.request()));
+		Assert.assertSame(second.request(), channel.readOutbound());
+		channel.writeInbound(response(second.request()));
+		Assert.assertTrue(second.isSuccess());
+	}
+
+	@Test
+	public void testClose() {
+		EmbeddedChannel channel = channel();
+		RelayMultiplexer multiplexer = install(channel, 1);
+
+		FutureResponse first = multiplexer.send(request());
+		FutureResponse second = multiplexer.send(request());
+		channel.close();
+		channel.runPendingTasks();
+		Assert.assertTrue(first.isFailed());
+		Assert.assertTrue(second.isFailed());
+	}
+
+	@Test
+	public void testPassOn() {
+		EmbeddedChannel channel = channel();
+		install(channel, 1);
+
+		// requests and unknown responses are handled by the dispatcher
+		Message request = request();
+		channel.writeInbound(request);
+		Assert.assertSame(request, channel.readInbound());
+		Message unknown = response(request());
+		channel.writeInbound(unknown);
+		Assert.assertSame(unknown, channel.readInbound());
+	}
+
+	private static EmbeddedChannel channel() {
+		EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+		// the embedded channel collects the inbound messages at the end of the pipeline
+		channel.pipeline().addFirst("dispatcher", new ChannelInboundHandlerAdapter());
+		return channel;
+	}
+
+	private static RelayMultiplexer install(EmbeddedChannel channel, int window) {
+		PeerConnection peerConnection = new PeerConnection(new PeerAddress(Number160.ONE),
+				channel.newSucceededFuture(), PeerConnection.HEART_BEAT_MILLIS);
+		return RelayMultiplexer.install(peerConnection, window, 10, null);
+	}
+
+	private static Message request() {
+		return UtilsNAT.createRandomMessage().type(Type.REQUEST_2);
+	}
+
+	private static Message response(Message request) {
+		Message response = UtilsNAT.createRandomMessage().type(Type.OK).messageId(request.messageId());
+		response.setDone(true);
+		return response;
+	}
+}
@@ -1,30 +1,33 @@
 package net.tomp2p.replication;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 
+import net.tomp2p.connection.Metrics;
+import net.tomp2p.p2p.NetworkEstimator;
 import net.tomp2p.p2p.Peer;
-import net.tomp2p.peers.Number160;
-import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerMap;
-import net.tomp2p.peers.PeerMapChangeListener;
-import net.tomp2p.peers.PeerStatistic;
 
 /**
  * AutomaticReplication class observes the local network conditions and predicts
  * the next departure count based on previous and current peer churn behaviors.
  * This predicted value and given reliability are used to calculate the
- * replication factor
+ * replication factor. The departures are counted by the {@link NetworkEstimator} of the peer, which counts a peer
+ * that leaves several times within one of its intervals once, see {@link NetworkEstimator#departures()}. If the
+ * estimator of the peer is disabled, this class uses its own estimator, with one interval between two calls of
+ * {@link #replicationFactor()}.
  * 
  * @author Maxat Pernebayev
  * @author Thomas Bocek
  * 
  */
-public class AutoReplication implements PeerMapChangeListener, ReplicationFactor {
-	private final HashSet<Number160> removedPeers = new HashSet<Number160>();
+public class AutoReplication implements ReplicationFactor {
 	private final ArrayList<Integer> observations = new ArrayList<Integer>();
 	private final ArrayList<Double> emas = new ArrayList<Double>();
 	private final PeerMap peerMap;
+	private final NetworkEstimator networkEstimator;
+	// true if the estimator is not shared with the peer and is updated here
+	private final boolean ownEstimator;
+	private long lastDepartures;
 
 	private double reliability;
 	private int minReplicationFactor = 2;
@@ -42,30 +45,29 @@ public class AutoReplication implements PeerMapChangeListener, ReplicationFactor
 	public AutoReplication(Peer peer) {
 		this.emas.add(0.0);
 		this.peerMap = peer.peerBean().peerMap();
-		
+		final NetworkEstimator networkEstimator = peer.peerBean().networkEstimator();
+		if (networkEstimator != null) {
+			this.networkEstimator = networkEstimator;
+			this.ownEstimator = false;
+		} else {
+			this.networkEstimator = new NetworkEstimator(peerMap, new Metrics());
+			this.ownEstimator = true;
+		}
+		this.lastDepartures = this.networkEstimator.departures();
 	}
 	
 	public AutoReplication start() {
-		peerMap.addPeerMapChangeListener(this);
+		if (ownEstimator) {
+			peerMap.addPeerMapChangeListener(networkEstimator);
+		}
 		return this;
 	}
 	
 	public AutoReplication shutdown() {
-		peerMap.removePeerMapChangeListener(this);
-		return this;
-	}
-	
-	@Override
-	public void peerInserted(PeerAddress peerAddress, boolean verified) {}
-	
-	@Override
-	public void peerUpdated(PeerAddress peerAddress, PeerStatistic storedPeerAddress) {}
-
-	@Override
-	public void peerRemoved(PeerAddress peerAddress, PeerStatistic storedPeerAddress) {
-		synchronized (removedPeers) {
-			removedPeers.add(peerAddress.peerId());
+		if (ownEstimator) {
+			peerMap.removePeerMapChangeListener(networkEstimator);
 		}
+		return this;
 	}
 
 	public AutoReplication reliability(double reliability) {
@@ -119,9 +121,13 @@ public class AutoReplication implements PeerMapChangeListener, ReplicationFactor
 	 */
 	public int replicationFactor() {
 		final int removedPeerSize;
-		synchronized (removedPeers) {
-			removedPeerSize = removedPeers.size();
-			removedPeers.clear();
+		synchronized (observations) {
+			if (ownEstimator) {
+				networkEstimator.run();
+			}
+			final long departures = networkEstimator.departures();
+			removedPeerSize = (int) (departures - lastDepartures);
+			lastDepartures = departures;
 		}
 
 		observations.add(removedPeerSize);
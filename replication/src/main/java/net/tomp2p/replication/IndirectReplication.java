@@ -34,13 +34,17 @@ import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.futures.Trace;
+import net.tomp2p.futures.TraceSink;
 import net.tomp2p.p2p.Shutdown;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerStatistic;
+import net.tomp2p.rpc.RPC;
 import net.tomp2p.storage.Data;
 import net.tomp2p.synchronization.PeerSync;
+import net.tomp2p.synchronization.RSync;
 import net.tomp2p.utils.Utils;
 
 import org.slf4j.Logger;
@@ -64,8 +68,9 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     private int delayMillis = -1;
     private int intervalMillis = -1;
     private boolean rsync = false;
-    private int blockSize = -1;
+    private int blockSize = RSync.ADAPTIVE_BLOCK_SIZE;
     private ReplicationSender replicationSender;
+    private TraceSink traceSink = null;
     private boolean nRoot = false;
     private boolean keepData = false;
     private Replication replication;
@@ -115,6 +120,21 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     	return this;
     }
     
+    public TraceSink traceSink() {
+    	return traceSink;
+    }
+    
+    /**
+     * @param traceSink
+     *            If set, each replication that is sent to an other peer is traced and exported to this sink. Only
+     *            used by the default replication sender, not with rsync
+     * @return This class
+     */
+    public IndirectReplication traceSink(TraceSink traceSink) {
+    	this.traceSink = traceSink;
+    	return this;
+    }
+    
     public boolean isNRoot() {
     	return nRoot;
     }
@@ -216,9 +236,6 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
 		if (delayMillis == -1) {
 			delayMillis = 30 * 1000;
 		}
-		if (blockSize == -1) {
-			blockSize = 700;
-		}
     	
     	if(autoReplication) {
     		replicationFactor = new AutoReplication(peer.peer()); 
@@ -248,7 +265,7 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
 		if(rsync) {
 			replicationSender = new PeerSync(peer, replication, blockSize);
 		} else if (replicationSender == null) {
-			replicationSender = new DefaultReplicationSender(peer);
+			replicationSender = new DefaultReplicationSender(peer, traceSink);
 		}
     	
     	scheduledFuture = peer.peer().connectionBean().timer().scheduleAtFixedRate(
@@ -398,10 +415,12 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     private static class DefaultReplicationSender implements ReplicationSender {
         private StorageRPC storageRPC;
         private PeerDHT peer;
+        private TraceSink traceSink;
  
-        private DefaultReplicationSender(PeerDHT peer) {
+        private DefaultReplicationSender(PeerDHT peer, TraceSink traceSink) {
             this.peer = peer;
             this.storageRPC = peer.storeRPC();
+            this.traceSink = traceSink;
         }
 
         /**
@@ -420,6 +439,20 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
             final FutureDone<Void> futureDone = new FutureDone<Void>();
         	FutureChannelCreator futureChannelCreator = peer.peer().connectionBean().reservation().create(0, 1);
         	Utils.addReleaseListener(futureChannelCreator, futureDone);
+        	final Trace trace;
+        	if (traceSink != null) {
+        		trace = new Trace("replication");
+        		trace.span("reservation", null, futureChannelCreator);
+        		futureDone.trace(trace);
+        		futureDone.addListener(new BaseFutureAdapter<FutureDone<Void>>() {
+        			@Override
+        			public void operationComplete(FutureDone<Void> future) throws Exception {
+        				trace.export(traceSink);
+        			}
+        		});
+        	} else {
+        		trace = null;
+        	}
             futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
                 @Override
                 public void operationComplete(final FutureChannelCreator future) throws Exception {
@@ -428,6 +461,10 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
                         putBuilder.dataMap(dataMap);
                         FutureResponse futureResponse = storageRPC.putReplica(other, putBuilder,
                                 future.channelCreator());
+                        if (trace != null) {
+                        	trace.span(RPC.Commands.find(futureResponse.request().command()).name(), other,
+                        			futureResponse);
+                        }
                         futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
 							@Override
 							public void operationComplete(FutureResponse future)
@@ -35,7 +35,7 @@ public class PeerSync implements ReplicationSender {
 	private final int blockSize;
 	
 	public PeerSync(final PeerDHT peer) {
-		this(peer, null, 700);
+		this(peer, null, RSync.ADAPTIVE_BLOCK_SIZE);
 	}
 	
 	public PeerSync(final PeerDHT peer, final int blockSize) {
@@ -52,7 +52,8 @@ public class PeerSync implements ReplicationSender {
 	 *            The peer
 	 * @param blockSize
 	 *            The block size as the basis for the checksums, RSync uses a
-	 *            default of 700
+	 *            default of 700. With {@link RSync#ADAPTIVE_BLOCK_SIZE}, the
+	 *            block size grows with the length of the values
 	 */
 	public PeerSync(final PeerDHT peer, final ReplicationListener replicationListener, final int blockSize) {
 		this.peer = peer;
@@ -64,6 +65,10 @@ public class PeerSync implements ReplicationSender {
 		return peer;
 	}
 
+	public int blockSize() {
+		return blockSize;
+	}
+
 	public SyncRPC syncRPC() {
 		return syncRPC;
 	}
@@ -22,7 +22,7 @@ public class RArray {
 	public RArray(DataBuffer dataBuffer) {
 		this.array = null;
 		this.offset = -1;
-		this.length = -1;
+		this.length = dataBuffer.length();
 		this.dataBuffer = dataBuffer;
 	}
 
@@ -16,9 +16,12 @@
 
 package net.tomp2p.synchronization;
 
-import java.security.NoSuchAlgorithmException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import net.tomp2p.storage.DataBuffer;
@@ -38,27 +41,98 @@ import net.tomp2p.utils.Utils;
  */
 final public class RSync {
 
+	/**
+	 * The block size that is used for values up to 490KB, if the block size is chosen adaptively.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 700;
+
+	/**
+	 * A block size of 0 or less lets the peer that calculates the checksums choose the block size from the length of
+	 * the value, see {@link #blockSize(int)}. This block size is then sent along with the checksums.
+	 */
+	public static final int ADAPTIVE_BLOCK_SIZE = -1;
+
+	/**
+	 * The strong checksum of older peers, MD5. It is used if the other peer does not announce
+	 * {@link #STRONG_CHECKSUM_MURMUR3}.
+	 */
+	public static final int STRONG_CHECKSUM_MD5 = 0;
+
+	/**
+	 * The strong checksum of this version, the 128 bit MurmurHash3, see {@link #strongChecksum(byte[], int, int)}.
+	 */
+	public static final int STRONG_CHECKSUM_MURMUR3 = 1;
+
+	private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+	/**
+	 * Chooses the block size from the length of the value as rsync does. The square root of the length balances the
+	 * size of the checksums against the size of the literals, so that the checksums of a 100MB value are about 200KB.
+	 * 
+	 * @param length
+	 *            The length of the value for which the checksums are calculated
+	 * @return The block size, a multiple of 8 between 700 bytes and 128KB
+	 */
+	public static int blockSize(final int length) {
+		final int blockSize = ((int) Math.sqrt(length)) & ~7;
+		return Math.min(MAX_BLOCK_SIZE, Math.max(DEFAULT_BLOCK_SIZE, blockSize));
+	}
+
 	/**
 	 * It returns an array of weak and strong checksums for the value.
 	 * 
 	 * @param value
 	 *            The value
-	 * @param size
+	 * @param blockSize
 	 *            The offset size
 	 * @return The array of checksums
-	 * @throws NoSuchAlgorithmException
 	 */
 	public static List<Checksum> checksums(final byte[] value, final int blockSize) {
-		final int numberOfBlocks = (value.length + blockSize - 1) / blockSize;
+		return checksums(new DataBuffer(value), blockSize);
+	}
+
+	/**
+	 * It returns an array of weak and strong checksums for the value. The value is read block by block from its
+	 * buffers, it is not copied into a single array.
+	 * 
+	 * @param value
+	 *            The value
+	 * @param blockSize
+	 *            The offset size
+	 * @return The array of checksums
+	 */
+	public static List<Checksum> checksums(final DataBuffer value, final int blockSize) {
+		return checksums(value, blockSize, STRONG_CHECKSUM_MURMUR3);
+	}
+
+	/**
+	 * It returns an array of weak and strong checksums for the value, with the given strong checksum.
+	 * 
+	 * @param value
+	 *            The value
+	 * @param blockSize
+	 *            The offset size
+	 * @param strongChecksumType
+	 *            Either {@link #STRONG_CHECKSUM_MURMUR3} or {@link #STRONG_CHECKSUM_MD5}
+	 * @return The array of checksums
+	 */
+	public static List<Checksum> checksums(final DataBuffer value, final int blockSize,
+	        final int strongChecksumType) {
+		final Bytes bytes = new Bytes(value);
+		final int length = bytes.length();
+		final int numberOfBlocks = (length + blockSize - 1) / blockSize;
 		final ArrayList<Checksum> checksums = new ArrayList<Checksum>(numberOfBlocks);
 		final RollingChecksum adler = new RollingChecksum();
+		final byte[] block = new byte[Math.min(blockSize, length)];
 
 		for (int i = 0; i < numberOfBlocks; i++) {
-			int remaining = Math.min(blockSize, value.length - (i * blockSize));
-			adler.reset().update(value, i * blockSize, remaining);
+			final int offset = i * blockSize;
+			final int remaining = Math.min(blockSize, length - offset);
+			bytes.copy(offset, block, remaining);
+			adler.reset().update(block, 0, remaining);
 
 			final int weakChecksum = adler.value();
-			final byte[] strongChecksum = Utils.makeMD5Hash(value, i * blockSize, remaining);
+			final byte[] strongChecksum = strongChecksum(strongChecksumType, block, 0, remaining);
 			checksums.add(new Checksum(weakChecksum, strongChecksum));
 		}
 		return checksums;
@@ -66,25 +140,36 @@ final public class RSync {
 
 	/**
 	 * It checks whether a match is found or not. If it is found returns
-	 * reference otherwise -1.
+	 * reference otherwise -1. The strong checksum of the window is only
+	 * calculated if the weak checksum matches, and only once for all blocks
+	 * with the same weak checksum.
 	 * 
 	 * @param wcs
 	 *            The weak checksum of offset
+	 * @param bytes
+	 *            The value
 	 * @param offset
 	 *            The offset
-	 * @param checksums
+	 * @param length
+	 *            The length of the window
+	 * @param window
+	 *            The array where the window is copied to
+	 * @param index
 	 *            The checksums
+	 * @param strongChecksumType
+	 *            The strong checksum of the checksums
 	 * @return either the reference or -1
 	 */
-	private static int matches(int wcs, byte[] buffer, int offset, int length, List<Checksum> checksums) {
-		int checksumSize = checksums.size();
-		//TODO: hashing might be a better idea, for now it works
-		for (int i = 0; i < checksumSize; i++) {
-			int weakChecksum = checksums.get(i).weakChecksum();
-			if (weakChecksum == wcs) {
-				byte[] md5 = Utils.makeMD5Hash(buffer, offset, length);
-				byte[] strongChecksum = checksums.get(i).strongChecksum();
-				if (Arrays.equals(strongChecksum, md5)) {
+	private static int matches(final int wcs, final Bytes bytes, final int offset, final int length,
+	        final byte[] window, final ChecksumIndex index, final int strongChecksumType) {
+		byte[] strongChecksum = null;
+		for (int i = index.first(wcs); i != -1; i = index.next(i)) {
+			if (index.weakChecksum(i) == wcs) {
+				if (strongChecksum == null) {
+					bytes.copy(offset, window, length);
+					strongChecksum = strongChecksum(strongChecksumType, window, 0, length);
+				}
+				if (Arrays.equals(index.strongChecksum(i), strongChecksum)) {
 					return i;
 				}
 			}
@@ -105,24 +190,71 @@ final public class RSync {
 	 *            The block size
 	 * @return The sequence of instructions
 	 */
-	public static List<Instruction> instructions(byte[] array, List<Checksum> checksums, int blockSize) {
+	public static List<Instruction> instructions(final byte[] array, final List<Checksum> checksums,
+	        final int blockSize) {
+		return instructions(new DataBuffer(array), checksums, blockSize);
+	}
+
+	/**
+	 * It returns the sequence of instructions each of which contains either
+	 * reference to a block or literal data. The window slides over the buffers
+	 * of the value, the literals are slices of these buffers.
+	 * 
+	 * @param value
+	 *            The value at responsible peer
+	 * @param checksums
+	 *            The array of checksums
+	 * @param blockSize
+	 *            The block size
+	 * @return The sequence of instructions
+	 */
+	public static List<Instruction> instructions(final DataBuffer value, final List<Checksum> checksums,
+	        final int blockSize) {
+		return instructions(value, checksums, blockSize, STRONG_CHECKSUM_MURMUR3);
+	}
+
+	/**
+	 * It returns the sequence of instructions for checksums that were calculated with the given strong checksum.
+	 * 
+	 * @param value
+	 *            The value at responsible peer
+	 * @param checksums
+	 *            The array of checksums
+	 * @param blockSize
+	 *            The block size
+	 * @param strongChecksumType
+	 *            Either {@link #STRONG_CHECKSUM_MURMUR3} or {@link #STRONG_CHECKSUM_MD5}
+	 * @return The sequence of instructions
+	 */
+	public static List<Instruction> instructions(final DataBuffer value, final List<Checksum> checksums,
+	        final int blockSize, final int strongChecksumType) {
 
 		final List<Instruction> result = new ArrayList<Instruction>(checksums.size());
+		final Bytes bytes = new Bytes(value);
+		final int length = bytes.length();
+		if (length == 0) {
+			return result;
+		}
+		final ChecksumIndex index = new ChecksumIndex(checksums);
 		final RollingChecksum adler = new RollingChecksum();
-		final int length = array.length;
+		final byte[] window = new byte[Math.min(blockSize, length)];
 
 		int offset = 0;
 		int lastRefFound = 0;
 		int remaining = Math.min(blockSize, length - offset);
 
-		adler.update(array, offset, remaining);
+		bytes.copy(offset, window, remaining);
+		adler.update(window, 0, remaining);
+		final Cursor removed = bytes.cursor(offset);
+		final Cursor added = bytes.cursor(offset + remaining);
 
 		for (;;) {
 			final int wcs = adler.value();
-			final int reference = matches(wcs, array, offset, remaining, checksums);
+			final int reference = matches(wcs, bytes, offset, remaining, window, index,
+			        strongChecksumType);
 			if (reference != -1) {
 				if (offset > lastRefFound) {
-					result.add(new Instruction(new RArray(array, lastRefFound, offset - lastRefFound)));
+					result.add(new Instruction(new RArray(bytes.slice(lastRefFound, offset - lastRefFound))));
 				}
 				result.add(new Instruction(reference));
 
@@ -132,18 +264,21 @@ final public class RSync {
 				if (remaining == 0) {
 					break;
 				}
-				adler.reset().update(array, offset, remaining);
+				bytes.copy(offset, window, remaining);
+				adler.reset().update(window, 0, remaining);
+				removed.seek(offset);
+				added.seek(offset + remaining);
 			} else {
 				offset++;
 				if (blockSize > length - offset) {
 					break;
 				}
-				adler.updateRolling(array);
+				adler.updateRolling(removed.next(), added.next());
 			}
 		}
 
 		if (length > lastRefFound) {
-			result.add(new Instruction(new RArray(array, lastRefFound, length - lastRefFound)));
+			result.add(new Instruction(new RArray(bytes.slice(lastRefFound, length - lastRefFound))));
 		}
 
 		return result;
@@ -161,14 +296,37 @@ final public class RSync {
 	 *            The offset size
 	 * @return The value which is identical to the responsible peer's value
 	 */
-	public static DataBuffer reconstruct(byte[] value, List<Instruction> instructions, int blockSize) {
-		DataBuffer result = new DataBuffer();
+	public static DataBuffer reconstruct(final byte[] value, final List<Instruction> instructions,
+	        final int blockSize) {
+		return reconstruct(new DataBuffer(value), instructions, blockSize);
+	}
+
+	/**
+	 * It reconstructs the copy of responsible peer's value using instructions
+	 * and the replica's value. The referenced blocks are slices of the buffers
+	 * of the replica's value, nothing is copied.
+	 * 
+	 * @param value
+	 *            The value at replica
+	 * @param instructions
+	 *            The sequence of instructions
+	 * @param blockSize
+	 *            The offset size
+	 * @return The value which is identical to the responsible peer's value
+	 */
+	public static DataBuffer reconstruct(final DataBuffer value, final List<Instruction> instructions,
+	        final int blockSize) {
+		final Bytes bytes = new Bytes(value);
+		final DataBuffer result = new DataBuffer(instructions.size());
 		for (Instruction instruction : instructions) {
-			int ref = instruction.reference();
+			final int ref = instruction.reference();
 			if (ref != -1) {
-				int offset = blockSize * ref;
-				int remaining = Math.min(blockSize, value.length - offset);
-				result.append(value, offset, remaining);
+				final long offset = (long) blockSize * ref;
+				if (offset >= bytes.length()) {
+					throw new IllegalArgumentException("The block " + ref + " is not part of the value.");
+				}
+				final int remaining = (int) Math.min(blockSize, bytes.length() - offset);
+				result.append(bytes.slice((int) offset, remaining).bufListIntern());
 			} else if (instruction.literal().hasDataBuffer()) {
 				result.append(instruction.literal().dataBuffer().bufListIntern());
 			} else {
@@ -177,7 +335,282 @@ final public class RSync {
 		}
 		return result;
 	}
-	
+
+	private static byte[] strongChecksum(final int strongChecksumType, final byte[] array, final int offset,
+	        final int length) {
+		switch (strongChecksumType) {
+		case STRONG_CHECKSUM_MURMUR3:
+			return strongChecksum(array, offset, length);
+		case STRONG_CHECKSUM_MD5:
+			return Utils.makeMD5Hash(array, offset, length);
+		default:
+			throw new IllegalArgumentException("Unknown strong checksum " + strongChecksumType);
+		}
+	}
+
+	/**
+	 * Calculates the strong checksum of a block with the 128 bit variant of MurmurHash3 for x64. The hash is not
+	 * cryptographic, but it is several times faster than MD5 and the weak checksum has to match as well.
+	 * 
+	 * @param array
+	 *            The array with the block
+	 * @param offset
+	 *            The offset of the block
+	 * @param length
+	 *            The length of the block
+	 * @return The 16 bytes of the checksum
+	 */
+	public static byte[] strongChecksum(final byte[] array, final int offset, final int length) {
+		final long c1 = 0x87c37b91114253d5L;
+		final long c2 = 0x4cf5ad432745937fL;
+		long h1 = 0;
+		long h2 = 0;
+		final int nrBlocks = length >>> 4;
+		for (int i = 0; i < nrBlocks; i++) {
+			final int index = offset + (i << 4);
+			long k1 = littleEndian(array, index);
+			long k2 = littleEndian(array, index + 8);
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+		final int tail = offset + (nrBlocks << 4);
+		final int tailLength = length & 15;
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = tailLength - 1; i >= 8; i--) {
+			k2 ^= ((long) array[tail + i] & 0xff) << ((i - 8) << 3);
+		}
+		if (tailLength > 8) {
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+		}
+		for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+			k1 ^= ((long) array[tail + i] & 0xff) << (i << 3);
+		}
+		if (tailLength > 0) {
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+		}
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		final byte[] result = new byte[16];
+		for (int i = 0; i < 8; i++) {
+			result[i] = (byte) (h1 >>> (i << 3));
+			result[i + 8] = (byte) (h2 >>> (i << 3));
+		}
+		return result;
+	}
+
+	private static long littleEndian(final byte[] array, final int index) {
+		return ((long) array[index] & 0xff) | (((long) array[index + 1] & 0xff) << 8)
+		        | (((long) array[index + 2] & 0xff) << 16) | (((long) array[index + 3] & 0xff) << 24)
+		        | (((long) array[index + 4] & 0xff) << 32) | (((long) array[index + 5] & 0xff) << 40)
+		        | (((long) array[index + 6] & 0xff) << 48) | (((long) array[index + 7] & 0xff) << 56);
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	/**
+	 * A hash table from the weak checksums to the blocks. The first level are the buckets, the second level compares
+	 * the whole weak checksum, and only then the strong checksum is compared. The blocks of a bucket are chained in
+	 * ascending order, thus the first matching block is found as with a linear scan.
+	 */
+	private static final class ChecksumIndex {
+
+		private final List<Checksum> checksums;
+		private final int[] buckets;
+		private final int[] next;
+		private final int[] weakChecksums;
+		private final int shift;
+
+		private ChecksumIndex(final List<Checksum> checksums) {
+			final int size = checksums.size();
+			int capacity = 2;
+			while (capacity < size * 2) {
+				capacity <<= 1;
+			}
+			this.checksums = checksums;
+			this.buckets = new int[capacity];
+			this.next = new int[size];
+			this.weakChecksums = new int[size];
+			this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+			Arrays.fill(buckets, -1);
+			for (int i = size - 1; i >= 0; i--) {
+				final int weakChecksum = checksums.get(i).weakChecksum();
+				final int bucket = bucket(weakChecksum);
+				weakChecksums[i] = weakChecksum;
+				next[i] = buckets[bucket];
+				buckets[bucket] = i;
+			}
+		}
+
+		private int bucket(final int weakChecksum) {
+			// the low bits of the weak checksum are not well distributed for small blocks
+			return (weakChecksum * 0x9E3779B9) >>> shift;
+		}
+
+		private int first(final int weakChecksum) {
+			return buckets[bucket(weakChecksum)];
+		}
+
+		private int next(final int block) {
+			return next[block];
+		}
+
+		private int weakChecksum(final int block) {
+			return weakChecksums[block];
+		}
+
+		private byte[] strongChecksum(final int block) {
+			return checksums.get(block).strongChecksum();
+		}
+	}
+
+	/**
+	 * The bytes of a value, read directly from the buffers of a {@link DataBuffer}.
+	 */
+	private static final class Bytes {
+
+		private final ByteBuf[] buffers;
+		// the offset of each buffer in the value, the last entry is the length of the value
+		private final int[] offsets;
+
+		private Bytes(final DataBuffer value) {
+			if (value.isHeapBuffer()) {
+				buffers = new ByteBuf[] { Unpooled.wrappedBuffer(value.heapBuffer()) };
+			} else {
+				buffers = value.bufListIntern().toArray(new ByteBuf[0]);
+			}
+			offsets = new int[buffers.length + 1];
+			for (int i = 0; i < buffers.length; i++) {
+				offsets[i + 1] = offsets[i] + buffers[i].readableBytes();
+			}
+		}
+
+		private int length() {
+			return offsets[buffers.length];
+		}
+
+		/**
+		 * @return The buffer that contains the offset, or the last buffer if the offset is the length
+		 */
+		private int buffer(final int offset) {
+			final int index = Arrays.binarySearch(offsets, offset);
+			// the offset may be at the start of several empty buffers or at the end of the value
+			final int buffer = index >= 0 ? index : -index - 2;
+			return Math.max(0, Math.min(buffer, buffers.length - 1));
+		}
+
+		private void copy(int offset, final byte[] array, final int length) {
+			int copied = 0;
+			for (int i = buffer(offset); copied < length; i++) {
+				final int start = offset - offsets[i];
+				final int len = Math.min(length - copied, offsets[i + 1] - offset);
+				if (len > 0) {
+					buffers[i].getBytes(buffers[i].readerIndex() + start, array, copied, len);
+					copied += len;
+					offset += len;
+				}
+			}
+		}
+
+		private DataBuffer slice(int offset, final int length) {
+			final DataBuffer result = new DataBuffer(1);
+			int sliced = 0;
+			for (int i = buffer(offset); sliced < length; i++) {
+				final int start = offset - offsets[i];
+				final int len = Math.min(length - sliced, offsets[i + 1] - offset);
+				if (len > 0) {
+					result.append(Collections.singletonList(buffers[i].slice(buffers[i].readerIndex() + start, len)));
+					sliced += len;
+					offset += len;
+				}
+			}
+			return result;
+		}
+
+		private Cursor cursor(final int offset) {
+			final Cursor cursor = new Cursor(this);
+			cursor.seek(offset);
+			return cursor;
+		}
+	}
+
+	/**
+	 * Reads the bytes of a value one after the other.
+	 */
+	private static final class Cursor {
+
+		private final Bytes bytes;
+		private int buffer;
+		private ByteBuf buf;
+		private byte[] array;
+		private int position;
+		private int end;
+
+		private Cursor(final Bytes bytes) {
+			this.bytes = bytes;
+		}
+
+		private void seek(final int offset) {
+			load(bytes.buffer(offset), offset);
+		}
+
+		private void load(final int buffer, final int offset) {
+			this.buffer = buffer;
+			final ByteBuf buf = bytes.buffers[buffer];
+			final int start = offset - bytes.offsets[buffer];
+			if (buf.hasArray()) {
+				this.array = buf.array();
+				this.buf = null;
+				final int base = buf.arrayOffset() + buf.readerIndex();
+				this.position = base + start;
+				this.end = base + buf.readableBytes();
+			} else {
+				this.array = null;
+				this.buf = buf;
+				this.position = buf.readerIndex() + start;
+				this.end = buf.readerIndex() + buf.readableBytes();
+			}
+		}
+
+		private int next() {
+			while (position == end) {
+				load(buffer + 1, bytes.offsets[buffer + 1]);
+			}
+			return (array != null ? array[position++] : buf.getByte(position++)) & 0xff;
+		}
+	}
+
 	/**
 	 * Variation of Adler as used in Rsync. Inspired by:
 	 * 
@@ -265,8 +698,23 @@ final public class RSync {
 			final int removeIndex = offset;
 			final int addIndex = offset + length;
 			offset++;
-			a = (a - (array[removeIndex] & 0xff) + (array[addIndex] & 0xff)) & 0xffff;
-			b = (b - (length * (array[removeIndex] & 0xff)) + a - 1) & 0xffff;
+			return updateRolling(array[removeIndex] & 0xff, array[addIndex] & 0xff);
+		}
+
+		/**
+		 * Slide the window by 1, where the bytes are provided by the caller.
+		 * The length of the window is the length of the last
+		 * {@link #update(byte[], int, int)}.
+		 * 
+		 * @param removed
+		 *            The unsigned byte that leaves the window
+		 * @param added
+		 *            The unsigned byte that enters the window
+		 * @return this class
+		 */
+		public RollingChecksum updateRolling(final int removed, final int added) {
+			a = (a - removed + added) & 0xffff;
+			b = (b - (length * removed) + a - 1) & 0xffff;
 			return this;
 		}
 	}
@@ -58,8 +58,6 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
     private static final Logger LOG = LoggerFactory.getLogger(SyncBuilder.class);
     private static final FutureDone<SyncStat> FUTURE_SHUTDOWN = new FutureDone<SyncStat>()
             .failed("sync builder - peer is shutting down");
-    static final int DEFAULT_BLOCK_SIZE = 700;
-    
     private final PeerAddress other;
     private final PeerSync peerSync;
     private final int blockSize;
@@ -72,7 +70,7 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
     private boolean syncFromOldVersion = false;
     
     public SyncBuilder(final PeerSync peerSync, final PeerAddress other) {
-    	this(peerSync, other, DEFAULT_BLOCK_SIZE);
+    	this(peerSync, other, peerSync.blockSize());
     }
 
     /**
@@ -221,6 +219,7 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
                             return;
                         }
 
+                        final boolean checksumFormat = SyncRPC.isChecksumFormat(responseMessage);
                         NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
                         boolean syncMessageRequired = false;
                         int dataCopy = 0;
@@ -254,11 +253,20 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
                         		Number160 versionKey = SyncUtils.decodeHeader(buffer);
                         		Number160 hash = SyncUtils.decodeHeader(buffer);
              
+                        		// older peers send neither the strong checksum nor the block size
+                        		final int strongChecksumType;
+                        		final int remoteBlockSize;
+                        		if (checksumFormat) {
+                        			strongChecksumType = SyncUtils.decodeStrongChecksumType(buffer);
+                        			remoteBlockSize = SyncUtils.decodeBlockSize(buffer);
+                        		} else {
+                        			strongChecksumType = RSync.STRONG_CHECKSUM_MD5;
+                        			remoteBlockSize = blockSize > 0 ? blockSize : RSync.DEFAULT_BLOCK_SIZE;
+                        		}
                         		List<Checksum> checksums = SyncUtils.decodeChecksums(buffer);
                         		buffer.release();
-                        		// TODO: don't copy data, toBytes does a copy!
                         		List<Instruction> instructions = RSync.instructions(
-                                         data2.toBytes(), checksums, blockSize);
+                                         data2.toDataBuffer(), checksums, remoteBlockSize, strongChecksumType);
                         		
                         		AlternativeCompositeByteBuf abuf = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
                         		
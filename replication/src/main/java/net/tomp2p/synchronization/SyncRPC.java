@@ -70,6 +70,12 @@ public class SyncRPC extends DispatchHandler {
 
     public static final byte INFO_COMMAND = RPC.Commands.SYNC_INFO.getNr();
     public static final byte SYNC_COMMAND = RPC.Commands.SYNC.getNr();
+    /**
+     * Sent as integer in the info and sync requests and in the info reply to announce that the checksums start with
+     * the strong checksum and the block size. Older peers ignore this integer, for them MD5 and the configured block
+     * size are used.
+     */
+    public static final int CHECKSUM_FORMAT = 1;
     
     private final int blockSize;
     private final StorageLayer storageLayer;
@@ -115,6 +121,7 @@ public class SyncRPC extends DispatchHandler {
 
 		KeyMap640Keys keyMap = new KeyMap640Keys(synchronizationBuilder.dataMapHash());
 		message.keyMap640Keys(keyMap);
+		message.intValue(CHECKSUM_FORMAT);
 
 		FutureResponse futureResponse = new FutureResponse(message);
 		final RequestHandler<FutureResponse> requestHandler = new RequestHandler<FutureResponse>(futureResponse,
@@ -146,6 +153,7 @@ public class SyncRPC extends DispatchHandler {
 
         DataMap dataMap = synchronizationBuilder.dataMap();
         message.setDataMap(dataMap);
+        message.intValue(CHECKSUM_FORMAT);
 
         FutureResponse futureResponse = new FutureResponse(message);
         final RequestHandler<FutureResponse> requestHandler = new RequestHandler<FutureResponse>(
@@ -186,6 +194,7 @@ public class SyncRPC extends DispatchHandler {
                 .peerId());
         
         final boolean isSyncFromOldVersion = message.type() == Type.REQUEST_2;
+        final boolean checksumFormat = isChecksumFormat(message);
         final KeyMap640Keys keysMap = message.keyMap640Keys(0);
         final NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
         
@@ -201,13 +210,7 @@ public class SyncRPC extends DispatchHandler {
                     LOG.debug("no sync required");
                 } else {
                     // get the checksums
-                	// TODO: don't copy data, toBytes does a copy!
-                    List<Checksum> checksums = RSync.checksums(data.toBytes(), blockSize);
-                    AlternativeCompositeByteBuf abuf = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
-                    DataBuffer dataBuffer = SyncUtils.encodeChecksum(checksums, entry.getKey().versionKey(), data.hash(), abuf);
-                    //here we can release this buffer as encodeChecksum calls retain
-                    abuf.release();
-                    retVal.put(entry.getKey(), new Data(dataBuffer));
+                    retVal.put(entry.getKey(), checksums(entry.getKey().versionKey(), data, checksumFormat));
                     LOG.debug("sync required hash = {}", data.hash());
                 }
             } else {
@@ -215,14 +218,7 @@ public class SyncRPC extends DispatchHandler {
             		//TODO: the client could send us his history to figure out what the latest version in this history is
             		Entry<Number640, Data> latest = storageLayer.
             				get(entry.getKey().minVersionKey(), entry.getKey().maxVersionKey(), 1, false).lastEntry();
-            		// TODO: don't copy data, toBytes does a copy!
-            		List<Checksum> checksums = RSync.checksums(latest.getValue().toBytes(), blockSize);
-            		AlternativeCompositeByteBuf abuf = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
-                    DataBuffer dataBuffer = SyncUtils.encodeChecksum(checksums, latest.getKey().versionKey(), 
-                    		latest.getValue().hash(), abuf);
-                    //here we can release this buffer as encodeChecksum calls retain
-                    abuf.release();
-                    retVal.put(entry.getKey(), new Data(dataBuffer));
+            		retVal.put(entry.getKey(), checksums(latest.getKey().versionKey(), latest.getValue(), checksumFormat));
                     LOG.debug("sync required for version");
             	} else {
             		// not found
@@ -232,6 +228,9 @@ public class SyncRPC extends DispatchHandler {
             }
         }
         responseMessage.setDataMap(new DataMap(retVal));
+        if (checksumFormat) {
+            responseMessage.intValue(CHECKSUM_FORMAT);
+        }
         responder.response(responseMessage);
     }
 
@@ -250,6 +249,7 @@ public class SyncRPC extends DispatchHandler {
         LOG.debug("Sync received: got from {} -> I'm {}", message.sender().peerId(), message.recipient()
                 .peerId());
 
+        final boolean checksumFormat = isChecksumFormat(message);
         final DataMap dataMap = message.dataMap(0);
         final PublicKey publicKey = message.publicKey(0);
         final List<Number640> retVal = new ArrayList<Number640>(dataMap.size());
@@ -275,8 +275,9 @@ public class SyncRPC extends DispatchHandler {
                     if (dataOld == null || !dataOld.hash().equals(hash)) {
                         continue;
                     }
-                    // TODO: don't copy data, toBytes does a copy!
-                    DataBuffer reconstructedValue = RSync.reconstruct(dataOld.toBytes(), instructions, blockSize);
+                    final DataBuffer value = dataOld.toDataBuffer();
+                    DataBuffer reconstructedValue = RSync.reconstruct(value, instructions,
+                    		checksumFormat ? blockSize(value) : legacyBlockSize());
                     //TODO: domain protection?, make the flags configurable
                     Enum<?> status = storageLayer.put(entry.getKey(), new Data(reconstructedValue), publicKey, false, false, false);
                     if (status == PutStatus.OK) {
@@ -306,4 +307,60 @@ public class SyncRPC extends DispatchHandler {
         responseMessage.keyCollection(new KeyCollection(retVal));
         responder.response(responseMessage);
     }
-}
\ No newline at end of file
+
+    /**
+     * @param value
+     *            The value for which the checksums are calculated or that is reconstructed
+     * @return The configured block size or, if it is adaptive, the block size for the length of the value
+     */
+    private int blockSize(final DataBuffer value) {
+        return blockSize > 0 ? blockSize : RSync.blockSize(value.length());
+    }
+
+    /**
+     * @return The block size of older peers, they do not send the block size and use 700 by default
+     */
+    private int legacyBlockSize() {
+        return blockSize > 0 ? blockSize : RSync.DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * Calculates and encodes the checksums of a value for the info reply.
+     * 
+     * @param versionKey
+     *            The version key of the value
+     * @param data
+     *            The value
+     * @param checksumFormat
+     *            True if the requester announced {@link #CHECKSUM_FORMAT}, otherwise the checksums are encoded as
+     *            older peers expect them
+     * @return The encoded checksums
+     */
+    private Data checksums(final Number160 versionKey, final Data data, final boolean checksumFormat) {
+        final DataBuffer value = data.toDataBuffer();
+        final AlternativeCompositeByteBuf abuf = AlternativeCompositeByteBuf.compBuffer(AlternativeCompositeByteBuf.UNPOOLED_HEAP);
+        final DataBuffer dataBuffer;
+        if (checksumFormat) {
+            final int valueBlockSize = blockSize(value);
+            final List<Checksum> checksums = RSync.checksums(value, valueBlockSize, RSync.STRONG_CHECKSUM_MURMUR3);
+            dataBuffer = SyncUtils.encodeChecksum(checksums, versionKey, data.hash(), RSync.STRONG_CHECKSUM_MURMUR3,
+                    valueBlockSize, abuf);
+        } else {
+            final List<Checksum> checksums = RSync.checksums(value, legacyBlockSize(), RSync.STRONG_CHECKSUM_MD5);
+            dataBuffer = SyncUtils.encodeChecksum(checksums, versionKey, data.hash(), abuf);
+        }
+        //here we can release this buffer as encodeChecksum calls retain
+        abuf.release();
+        return new Data(dataBuffer);
+    }
+
+    /**
+     * @param message
+     *            The info or sync request, or the info reply
+     * @return True if the other peer announced {@link #CHECKSUM_FORMAT}
+     */
+    static boolean isChecksumFormat(final Message message) {
+        final Integer capabilities = message.intAt(0);
+        return capabilities != null && (capabilities.intValue() & CHECKSUM_FORMAT) != 0;
+    }
+}
@@ -76,20 +76,57 @@ public class SyncUtils {
 		return size;
     }
 	
+	/**
+	 * Encodes the checksums in the format of older peers, without the strong checksum and the block size. Both peers
+	 * need to use MD5 and the same configured block size.
+	 */
 	public static DataBuffer encodeChecksum(List<Checksum> checksums, Number160 versionKey, Number160 hash, ByteBuf buf) {
 		buf.writeBytes(versionKey.toByteArray());
 		buf.writeBytes(hash.toByteArray());
+		return encodeChecksums(checksums, buf);
+	}
+
+	/**
+	 * Encodes the checksums, the strong checksum as one byte and the block size are always written after the header,
+	 * so that the other peer does not depend on its own configuration to decode them.
+	 */
+	public static DataBuffer encodeChecksum(List<Checksum> checksums, Number160 versionKey, Number160 hash,
+			int strongChecksumType, int blockSize, ByteBuf buf) {
+		buf.writeBytes(versionKey.toByteArray());
+		buf.writeBytes(hash.toByteArray());
+		buf.writeByte(strongChecksumType);
+		buf.writeInt(blockSize);
+		return encodeChecksums(checksums, buf);
+	}
+
+	private static DataBuffer encodeChecksums(List<Checksum> checksums, ByteBuf buf) {
         for(Checksum checksum:checksums) {
         	buf.writeInt(checksum.weakChecksum());
         	buf.writeBytes(checksum.strongChecksum());
         }
         return new DataBuffer(buf);
 	}
-	
+
+	public static int decodeStrongChecksumType(ByteBuf buf) {
+		final int strongChecksumType = buf.readUnsignedByte();
+		if (strongChecksumType != RSync.STRONG_CHECKSUM_MD5 && strongChecksumType != RSync.STRONG_CHECKSUM_MURMUR3) {
+			throw new IllegalArgumentException("Unknown strong checksum " + strongChecksumType);
+		}
+		return strongChecksumType;
+	}
+
+	public static int decodeBlockSize(ByteBuf buf) {
+		final int blockSize = buf.readInt();
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Invalid block size " + blockSize);
+		}
+		return blockSize;
+	}
+
 	public static List<Checksum> decodeChecksums(ByteBuf buf) {
 		final List<Checksum> result = new ArrayList<Checksum>();
 		while(buf.isReadable()) {
-			//16 bytes as its a MD5
+			//16 bytes for both MD5 and the 128 bit MurmurHash3
 			final byte[] me = new byte[16];
 			final int weak = buf.readInt();
 			buf.readBytes(me);
@@ -2,10 +2,12 @@ package net.tomp2p.replication;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.Random;
@@ -32,6 +34,7 @@ import net.tomp2p.synchronization.Instruction;
 import net.tomp2p.synchronization.PeerSync;
 import net.tomp2p.synchronization.RSync;
 import net.tomp2p.synchronization.SyncBuilder;
+import net.tomp2p.synchronization.SyncRPC;
 import net.tomp2p.synchronization.SyncStat;
 import net.tomp2p.utils.Utils;
 
@@ -135,6 +138,24 @@ public class SynchronizationTest {
 		Assert.assertArrayEquals(newValue, reconstructedValue.convertToHeapBuffer());
 	}
 
+	@Test
+	public void testGetReconstructedValueMD5() throws IOException {
+		// older peers send MD5 checksums
+		int size = 5;
+		byte[] newValue = "Test1Test2Test3Test4".getBytes();
+		byte[] oldValue = "test0Test2test0Test4".getBytes();
+		List<Checksum> checksums = RSync.checksums(new DataBuffer(oldValue), size, RSync.STRONG_CHECKSUM_MD5);
+		Assert.assertArrayEquals(Utils.makeMD5Hash(oldValue, 5, 5), checksums.get(1).strongChecksum());
+		List<Instruction> instructions = RSync.instructions(new DataBuffer(newValue), checksums, size,
+		        RSync.STRONG_CHECKSUM_MD5);
+
+		Assert.assertEquals(4, instructions.size());
+		DataBuffer reconstructedValue = RSync.reconstruct(oldValue, instructions, size);
+		Assert.assertArrayEquals(newValue, reconstructedValue.convertToHeapBuffer());
+		// the MurmurHash3 of a window never matches a MD5 checksum
+		Assert.assertEquals(1, RSync.instructions(new DataBuffer(newValue), checksums, size).size());
+	}
+
 	@Test
 	public void testGetReconstructedValueDynamic() throws IOException {
 		for (int i = 0; i < 1000; i++) {
@@ -189,6 +210,78 @@ public class SynchronizationTest {
 		Assert.assertArrayEquals(newValue.getBytes(), reconstructedValue.convertToHeapBuffer());
 	}
 
+	@Test
+	public void testStrongChecksum() {
+		String block = "The quick brown fox jumps over the lazy dog";
+		String expected = "6c1b07bc7bbc4be347939ac4a93c437a";
+		byte[] checksum = RSync.strongChecksum(block.getBytes(), 0, block.length());
+		StringBuilder sb = new StringBuilder();
+		for (byte b : checksum) {
+			sb.append(String.format("%02x", b));
+		}
+		Assert.assertEquals(expected, sb.toString());
+		// the same block at an offset
+		byte[] shifted = ("xx" + block).getBytes();
+		Assert.assertArrayEquals(checksum, RSync.strongChecksum(shifted, 2, block.length()));
+	}
+
+	@Test
+	public void testChecksumCollisions() {
+		int size = 10;
+		byte[] oldValue = new byte[10 * size];
+		random.nextBytes(oldValue);
+		List<Checksum> checksums = RSync.checksums(oldValue, size);
+		// all blocks have the same weak checksum, only the strong checksum tells them apart
+		List<Checksum> collisions = new ArrayList<Checksum>();
+		for (Checksum checksum : checksums) {
+			collisions.add(new Checksum(checksums.get(9).weakChecksum(), checksum.strongChecksum()));
+		}
+		byte[] newValue = new byte[2 * size];
+		System.arraycopy(oldValue, 9 * size, newValue, 0, size);
+		System.arraycopy(oldValue, 3 * size, newValue, size, size);
+		List<Instruction> instructions = RSync.instructions(newValue, collisions, size);
+		Assert.assertEquals(2, instructions.size());
+		Assert.assertEquals(9, instructions.get(0).reference());
+		Assert.assertEquals(-1, instructions.get(1).reference());
+		Assert.assertEquals(size, instructions.get(1).length());
+		DataBuffer reconstructedValue = RSync.reconstruct(oldValue, instructions, size);
+		Assert.assertArrayEquals(newValue, reconstructedValue.convertToHeapBuffer());
+	}
+
+	@Test
+	public void testGetReconstructedValueBuffers() {
+		byte[] oldValue = new byte[1024 * 1024];
+		random.nextBytes(oldValue);
+		byte[] newValue = new byte[oldValue.length + 100];
+		System.arraycopy(oldValue, 0, newValue, 100, oldValue.length);
+		for (int i = 0; i < 20; i++) {
+			newValue[random.nextInt(newValue.length)] = (byte) random.nextInt();
+		}
+		int size = RSync.blockSize(oldValue.length);
+		Assert.assertEquals(1024, size);
+		// the values are split into buffers that do not align with the blocks
+		List<Checksum> checksums = RSync.checksums(split(oldValue, 777), size);
+		Assert.assertEquals(RSync.checksums(oldValue, size), checksums);
+		List<Instruction> instructions = RSync.instructions(split(newValue, 1001), checksums, size);
+		int literals = 0;
+		for (Instruction instruction : instructions) {
+			if (instruction.reference() == -1) {
+				literals += instruction.length();
+			}
+		}
+		Assert.assertTrue(literals < 25 * size);
+		DataBuffer reconstructedValue = RSync.reconstruct(split(oldValue, 333), instructions, size);
+		Assert.assertArrayEquals(newValue, reconstructedValue.convertToHeapBuffer());
+	}
+
+	private static DataBuffer split(byte[] value, int length) {
+		DataBuffer dataBuffer = new DataBuffer();
+		for (int i = 0; i < value.length; i += length) {
+			dataBuffer.append(value, i, Math.min(length, value.length - i));
+		}
+		return dataBuffer;
+	}
+
 	@Test
 	public void testInfoMessageSAME() throws IOException, InterruptedException {
 
@@ -336,6 +429,7 @@ public class SynchronizationTest {
 		PeerDHT receiver = null;
 		try {
 			final AtomicReference<DataMap> ref = new AtomicReference<DataMap>();
+			final AtomicReference<Integer> format = new AtomicReference<Integer>();
 
 			sender = new PeerBuilderDHT(new PeerBuilder(new Number160(3)).ports(4003).start()).start();
 
@@ -376,6 +470,7 @@ public class SynchronizationTest {
 							@Override
 							public void operationComplete(FutureResponse future) throws Exception {
 								ref.set(future.responseMessage().dataMap(0));
+								format.set(future.responseMessage().intAt(0));
 								Utils.addReleaseListener(future2.channelCreator(), futureResponse);
 								latch.countDown();
 							}
@@ -386,7 +481,12 @@ public class SynchronizationTest {
 
 			latch.await();
 			assertEquals(1, ref.get().size());
-			assertEquals(100, ref.get().dataMap().values().iterator().next().toBytes().length);
+			assertEquals(SyncRPC.CHECKSUM_FORMAT, format.get().intValue());
+			// header, strong checksum, block size and one checksum
+			final byte[] checksums = ref.get().dataMap().values().iterator().next().toBytes();
+			assertEquals(105, checksums.length);
+			assertEquals(RSync.STRONG_CHECKSUM_MURMUR3, checksums[40]);
+			assertEquals(5, Unpooled.wrappedBuffer(checksums, 41, 4).readInt());
 			assertEquals(false, ref.get().dataMap().values().iterator().next().isFlag1());
 			assertEquals(false, ref.get().dataMap().values().iterator().next().isFlag2());
 
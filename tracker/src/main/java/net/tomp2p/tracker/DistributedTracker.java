@@ -35,6 +35,7 @@ import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureForkJoin;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.futures.ResultListener;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.message.TrackerData;
 import net.tomp2p.p2p.DistributedRouting;
@@ -43,9 +44,6 @@ import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerMap;
-import net.tomp2p.peers.PeerStatistic;
-import net.tomp2p.storage.Data;
-import net.tomp2p.utils.Pair;
 import net.tomp2p.utils.Utils;
 
 import org.slf4j.Logger;
@@ -79,9 +77,8 @@ public class DistributedTracker {
 			public void operationComplete(final FutureChannelCreator futureChannelCreator2) throws Exception {
 				if (futureChannelCreator2.isSuccess()) {
 		        	
-					Collection<Pair<PeerStatistic, Data>> value = trackerStorage.peers(new Number320(builder.locationKey(), builder
-					        .domainKey())).values(); 
-					TrackerData peers = new TrackerData(value);
+					TrackerData peers = trackerStorage.trackerData(new Number320(builder.locationKey(), builder
+					        .domainKey()));
 					NavigableSet<PeerAddress> queue = new TreeSet<PeerAddress>(PeerMap.createXORAddressComparator(stableRandom));
 					if(peers != null && peers.peerAddresses()!=null) {
 						queue.addAll(peers.peerAddresses().keySet());
@@ -125,7 +122,20 @@ public class DistributedTracker {
 			        @Override
 			        public FutureResponse create(PeerAddress remotePeer, boolean primary) {
 				        LOG.debug("tracker get: {} location= {}", remotePeer, builder.locationKey());
-				        return trackerRPC.getFromTracker(remotePeer, builder, cc);
+				        final FutureResponse futureResponse = trackerRPC.getFromTracker(remotePeer, builder, cc);
+				        final ResultListener<TrackerData> resultListener = builder.resultListener();
+				        if (resultListener != null) {
+					        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+						        @Override
+						        public void operationComplete(final FutureResponse future) throws Exception {
+							        if (future.isSuccess() && future.responseMessage().trackerData(0) != null) {
+								        resultListener.result(future.request().recipient(), future
+								                .responseMessage().trackerData(0));
+							        }
+						        }
+					        });
+				        }
+				        return futureResponse;
 			        }
 		        });
 	}
@@ -18,6 +18,8 @@ package net.tomp2p.tracker;
 
 import java.util.Set;
 
+import net.tomp2p.futures.ResultListener;
+import net.tomp2p.message.TrackerData;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.rpc.SimpleBloomFilter;
 
@@ -27,6 +29,8 @@ public class GetTrackerBuilder extends TrackerBuilder<GetTrackerBuilder> {
 
     private boolean expectAttachement = false;
 
+    private ResultListener<TrackerData> resultListener;
+
     public GetTrackerBuilder(PeerTracker peer, Number160 locationKey) {
         super(peer, locationKey);
         self(this);
@@ -46,6 +50,20 @@ public class GetTrackerBuilder extends TrackerBuilder<GetTrackerBuilder> {
         return this;
     }
 
+    public ResultListener<TrackerData> resultListener() {
+        return resultListener;
+    }
+
+    /**
+     * @param resultListener
+     *            Receives the tracker data of every tracker as soon as the tracker replied
+     * @return This class
+     */
+    public GetTrackerBuilder resultListener(ResultListener<TrackerData> resultListener) {
+        this.resultListener = resultListener;
+        return this;
+    }
+
     public FutureTracker start() {
         if (peer.peer().isShutdown()) {
             return FUTURE_TRACKER_SHUTDOWN;
@@ -15,9 +15,7 @@ import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.Shutdown;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.PeerAddress;
-import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.storage.Data;
-import net.tomp2p.utils.Pair;
 import net.tomp2p.utils.Utils;
 
 public class PeerBuilderTracker {
@@ -32,6 +30,8 @@ public class PeerBuilderTracker {
 	private int replicationFactor = -1;
 	private int[] maintenanceInterval = null;
 	private Boolean verifyPeersOnTracker;
+	private int maxSwarms = -1;
+	private int maxPeersPerSwarm = -1;
 
 	public PeerBuilderTracker(Peer peer) {
 		this.peer = peer;
@@ -57,10 +57,17 @@ public class PeerBuilderTracker {
 		if(verifyPeersOnTracker == null) {
 			verifyPeersOnTracker = Boolean.TRUE;
 		}
+		if (maxSwarms == -1) {
+			maxSwarms = TrackerStorage.DEFAULT_MAX_SWARMS;
+		}
+		if (maxPeersPerSwarm == -1) {
+			maxPeersPerSwarm = TrackerStorage.TRACKER_CACHE_SIZE;
+		}
 		
 		final TrackerStorage trackerStorage;
 		if (peerExchangeHandler == null) {
-			trackerStorage = new TrackerStorage(ttl, maintenanceInterval, replicationFactor, peer.peerBean().peerMap(), peer.peerAddress(), verifyPeersOnTracker.booleanValue());
+			trackerStorage = new TrackerStorage(ttl, maintenanceInterval, replicationFactor, peer.peerBean().peerMap(),
+			        peer.peerAddress(), verifyPeersOnTracker.booleanValue(), maxSwarms, maxPeersPerSwarm);
 			peerExchangeHandler = new DefaultPeerExchangeHandler(trackerStorage, peer.peerAddress(), rnd);
 		} else {
 			trackerStorage = peerExchangeHandler.trackerStorage();
@@ -150,6 +157,36 @@ public class PeerBuilderTracker {
 		return this;
 	}
 
+	public int maxSwarms() {
+		return maxSwarms;
+	}
+
+	/**
+	 * @param maxSwarms
+	 *            The maximum number of swarms a tracker stores. If more swarms are announced, the least recently used
+	 *            swarm is evicted. Default is {@link TrackerStorage#DEFAULT_MAX_SWARMS}.
+	 * @return This class
+	 */
+	public PeerBuilderTracker maxSwarms(int maxSwarms) {
+		this.maxSwarms = maxSwarms;
+		return this;
+	}
+
+	public int maxPeersPerSwarm() {
+		return maxPeersPerSwarm;
+	}
+
+	/**
+	 * @param maxPeersPerSwarm
+	 *            The maximum number of peers per swarm. If a swarm is full, new peers are rejected. Default is
+	 *            {@link TrackerStorage#TRACKER_CACHE_SIZE}.
+	 * @return This class
+	 */
+	public PeerBuilderTracker maxPeersPerSwarm(int maxPeersPerSwarm) {
+		this.maxPeersPerSwarm = maxPeersPerSwarm;
+		return this;
+	}
+
 	public static class DefaultPeerExchangeHandler implements PeerExchangeHandler {
 
 		private final TrackerStorage trackerStorage;
@@ -182,18 +219,7 @@ public class PeerBuilderTracker {
 				return null;
 			}
 			
-			Map<PeerAddress, Pair<PeerStatistic, Data>> map = trackerStorage.peers(key);
-			
-			if(map == null || map.size() == 0) {
-				return null;
-			}
-			
-			Collection<Pair<PeerStatistic, Data>> value = map.values();
-			
-			if (value.isEmpty()) {
-				return null;
-			}
-			TrackerData trackerData = new TrackerData(value);
+			TrackerData trackerData = trackerStorage.trackerData(key);
 			
 			Map<PeerAddress, Data> peerStatatisticsMap = trackerData.peerAddresses();
 			
@@ -205,7 +231,7 @@ public class PeerBuilderTracker {
 			if (peerStatatistics.isEmpty()) {
 				return null;
 			}
-			peerStatatistics.remove(new PeerStatistic(self));
+			peerStatatistics.remove(self);
 			if (peerStatatistics.size() == 0) {
 				return null;
 			}
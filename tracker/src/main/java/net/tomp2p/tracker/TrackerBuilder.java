@@ -23,6 +23,7 @@ import java.util.Set;
 
 import net.tomp2p.connection.DefaultConnectionConfiguration;
 import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.p2p.NetworkEstimator;
 import net.tomp2p.p2p.RoutingConfiguration;
 import net.tomp2p.p2p.builder.Builder;
 import net.tomp2p.p2p.builder.RoutingBuilder;
@@ -122,6 +123,10 @@ public abstract class TrackerBuilder<K extends TrackerBuilder<K>> extends Defaul
         }
         if (routingConfiguration == null) {
             routingConfiguration = new RoutingConfiguration(5, 10, 2);
+            final NetworkEstimator networkEstimator = peer.peer().peerBean().networkEstimator();
+            if (networkEstimator != null) {
+                routingConfiguration = networkEstimator.routingConfiguration(routingConfiguration);
+            }
         }
         if (trackerConfiguration == null) {
             int size = peer.peerMap().size() + 1;
@@ -16,7 +16,6 @@
 package net.tomp2p.tracker;
 
 import java.security.PublicKey;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,12 +33,10 @@ import net.tomp2p.message.TrackerData;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.PeerAddress;
-import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.rpc.DispatchHandler;
 import net.tomp2p.rpc.RPC;
 import net.tomp2p.rpc.SimpleBloomFilter;
 import net.tomp2p.storage.Data;
-import net.tomp2p.utils.Pair;
 import net.tomp2p.utils.Utils;
 
 import org.slf4j.Logger;
@@ -174,22 +171,20 @@ public class TrackerRPC extends DispatchHandler {
 
 		PublicKey publicKey = message.publicKey(0);
 		//
-		Collection<Pair<PeerStatistic, Data>> value = trackerStorage.peers(new Number320(locationKey, domainKey)).values(); 
-		TrackerData meshPeers = new TrackerData(value);
+		final Number320 key = new Number320(locationKey, domainKey);
+		final TrackerData meshPeers;
+		if (knownPeers == null) {
+			// sample directly from the swarm, no need to copy all peers
+			meshPeers = trackerStorage.trackerData(key, TrackerRPC.MAX_MSG_SIZE_UDP);
+		} else {
+			meshPeers = UtilsTracker.limit(UtilsTracker.disjunction(trackerStorage.trackerData(key), knownPeers),
+			        TrackerRPC.MAX_MSG_SIZE_UDP);
+		}
 		
-		LOG.debug("found peers on tracker: {}", meshPeers == null ? "null " : meshPeers.peerAddresses());
+		LOG.debug("found peers on tracker: {}", meshPeers.peerAddresses());
 
-		boolean couldProvideMoreData = false;
-		if (meshPeers != null) {
-			if (knownPeers != null) {
-				meshPeers = UtilsTracker.disjunction(meshPeers, knownPeers);
-			}
-			int size = meshPeers.size();
-
-			meshPeers = UtilsTracker.limit(meshPeers, TrackerRPC.MAX_MSG_SIZE_UDP);
-			couldProvideMoreData = size > meshPeers.size();
-			responseMessage.trackerData(meshPeers);
-		}
+		final boolean couldProvideMoreData = meshPeers.couldProvideMoreData();
+		responseMessage.trackerData(meshPeers);
 
 		if (couldProvideMoreData) {
 			responseMessage.type(Message.Type.PARTIALLY_OK);
@@ -201,7 +196,7 @@ public class TrackerRPC extends DispatchHandler {
 				responseMessage.type(Message.Type.EXCEPTION);
 			} else {
 				Map.Entry<PeerAddress, Data> entry = trackerData.peerAddresses().entrySet().iterator().next();
-				if (!trackerStorage.put(new Number320(locationKey, domainKey), entry.getKey(), publicKey,
+				if (!trackerStorage.put(key, entry.getKey(), publicKey,
 				        entry.getValue())) {
 					responseMessage.type(Message.Type.DENIED);
 					LOG.debug("tracker NOT put on({}) locationKey:{}, domainKey:{}, address:{}", peerBean()
@@ -214,8 +209,7 @@ public class TrackerRPC extends DispatchHandler {
 
 		} else {
 			LOG.debug("tracker get on({}) locationKey:{}, domainKey:{}, address:{}, returning: {}", peerBean()
-			        .serverPeerAddress(), locationKey, domainKey, message.sender(), (meshPeers == null ? "0"
-			        : meshPeers.size()));
+			        .serverPeerAddress(), locationKey, domainKey, message.sender(), meshPeers.size());
 		}
 		if (sign) {
 			responseMessage.publicKeyAndSign(peerBean().getKeyPair());
@@ -1,18 +1,21 @@
 package net.tomp2p.tracker;
 
 import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PeerException;
 import net.tomp2p.message.TrackerData;
-import net.tomp2p.peers.DefaultMaintenance;
-import net.tomp2p.peers.Maintainable;
+import net.tomp2p.peers.BatchMaintainable;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.PeerAddress;
@@ -25,19 +28,28 @@ import net.tomp2p.rpc.DigestInfo;
 import net.tomp2p.storage.Data;
 import net.tomp2p.storage.DigestTracker;
 import net.tomp2p.utils.ConcurrentCacheMap;
-import net.tomp2p.utils.Pair;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class TrackerStorage implements Maintainable, PeerMapChangeListener, PeerStatusListener, DigestTracker {
+/**
+ * Stores the peers of the swarms a tracker is responsible for. The number of swarms and the number of peers per swarm
+ * are bounded, so the memory a tracker uses is bounded as well. If there are too many swarms, the least recently used
+ * swarm is evicted. If a swarm is full, new peers are rejected.
+ * 
+ * @author Thomas Bocek
+ */
+public class TrackerStorage implements BatchMaintainable, PeerMapChangeListener, PeerStatusListener, DigestTracker {
     
     	private static final Logger LOG = LoggerFactory.getLogger(TrackerStorage.class);
 	// Core
 	public static final int TRACKER_CACHE_SIZE = 1000;
-	final private Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> dataMapUnverified;
-	final private Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> dataMap;
+	public static final int DEFAULT_MAX_SWARMS = 10000;
+	final private ConcurrentCacheMap<Number320, TrackerSwarm> dataMapUnverified;
+	final private ConcurrentCacheMap<Number320, TrackerSwarm> dataMap;
 	private final ConcurrentCacheMap<Number160, Boolean> peerOffline;
+	private final AtomicLong rejectedCounter = new AtomicLong();
+	private final Random rnd = new Random();
 	
 	final private boolean verifyPeersOnTracker;
 	private final int[] intervalSeconds;
@@ -45,14 +57,29 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 	private final int trackerTimoutSeconds;
 	private final PeerMap peerMap;
 	private final int replicationFactor;
+	private final int maxPeersPerSwarm;
 	//comes later
 	private PeerExchange peerExchange;
 
 	public TrackerStorage(int trackerTimoutSeconds, final int[] intervalSeconds,
 	        int replicationFactor, PeerMap peerMap, PeerAddress self, boolean verifyPeersOnTracker) {
-		dataMapUnverified = new ConcurrentCacheMap<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>>(trackerTimoutSeconds, TRACKER_CACHE_SIZE,
-		        true);
-		dataMap = new ConcurrentCacheMap<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>>(trackerTimoutSeconds, TRACKER_CACHE_SIZE, true);
+		this(trackerTimoutSeconds, intervalSeconds, replicationFactor, peerMap, self, verifyPeersOnTracker,
+		        DEFAULT_MAX_SWARMS, TRACKER_CACHE_SIZE);
+	}
+
+	/**
+	 * @param maxSwarms
+	 *            The maximum number of swarms, verified and unverified are counted separately
+	 * @param maxPeersPerSwarm
+	 *            The maximum number of peers in a swarm
+	 */
+	public TrackerStorage(int trackerTimoutSeconds, final int[] intervalSeconds, int replicationFactor,
+	        PeerMap peerMap, PeerAddress self, boolean verifyPeersOnTracker, int maxSwarms, int maxPeersPerSwarm) {
+		if (maxSwarms <= 0 || maxPeersPerSwarm <= 0) {
+			throw new IllegalArgumentException("The number of swarms and peers per swarm must be positive");
+		}
+		dataMapUnverified = new ConcurrentCacheMap<Number320, TrackerSwarm>(trackerTimoutSeconds, maxSwarms, true);
+		dataMap = new ConcurrentCacheMap<Number320, TrackerSwarm>(trackerTimoutSeconds, maxSwarms, true);
 		peerOffline = new ConcurrentCacheMap<Number160, Boolean>(trackerTimoutSeconds * 5, TRACKER_CACHE_SIZE, false);
 		this.trackerTimoutSeconds = trackerTimoutSeconds;
 		this.intervalSeconds = intervalSeconds;
@@ -60,6 +87,7 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		this.peerMap = peerMap;
 		this.replicationFactor = replicationFactor;
 		this.verifyPeersOnTracker = verifyPeersOnTracker;
+		this.maxPeersPerSwarm = maxPeersPerSwarm;
 	}
 
 	public boolean put(Number320 key, PeerAddress peerAddress, PublicKey publicKey, Data attachement) {
@@ -67,8 +95,7 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 			return false;
 		}
 		// security check
-		Pair<PeerStatistic, Data> pair = findOld(key, peerAddress, dataMapUnverified);
-		Data oldDataUnverified = pair != null ? pair.element1() : null;
+		Data oldDataUnverified = findOld(key, peerAddress, dataMapUnverified);
 		
 		boolean isUnverified = false;
 		boolean isVerified = false;
@@ -79,8 +106,7 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 			}
 			isUnverified = true;
 		} else {
-			Pair<PeerStatistic, Data> pair2 = findOld(key, peerAddress, dataMap);
-			Data oldData = pair2 != null? pair2.element1() : null;
+			Data oldData = findOld(key, peerAddress, dataMap);
 			if(oldData != null) {
 				//security check
 				if (oldData.publicKey()!=null && !oldData.publicKey().equals(publicKey)) {
@@ -95,7 +121,7 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		}
 		// now store
 		attachement.publicKey(publicKey);
-		final Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> dataMapToStore;
+		final ConcurrentCacheMap<Number320, TrackerSwarm> dataMapToStore;
 		if(isUnverified) {
 			dataMapToStore = dataMapUnverified;
 		} else if (isVerified) {
@@ -108,19 +134,19 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		return add(key, peerAddress, dataMapToStore, attachement);
 	}
 
-	private Pair<PeerStatistic, Data> findOld(Number320 key, PeerAddress peerAddress, Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> dataMap) {
+	private Data findOld(Number320 key, PeerAddress peerAddress, Map<Number320, TrackerSwarm> dataMap) {
 		
-		final Map<PeerAddress, Pair<PeerStatistic, Data>> map = dataMap.get(key);
-		if(map == null) {
+		final TrackerSwarm swarm = dataMap.get(key);
+		if(swarm == null) {
 			return null;
 		}
 		
-		final Pair<PeerStatistic, Data> pair = map.get(peerAddress);
-		if(pair == null) {
+		final TrackerSwarm.Entry entry = swarm.get(peerAddress.peerId());
+		if(entry == null) {
 			return null;
 		}
 		
-		return pair;
+		return entry.data();
 	}
 	
 	public PeerExchange peerExchange() {
@@ -134,25 +160,36 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 
 	@Override
 	public PeerStatistic nextForMaintenance(Collection<PeerAddress> notInterestedAddresses) {
-		for (Map<PeerAddress, Pair<PeerStatistic, Data>> map2 : dataMapUnverified.values()) {
-			for (Pair<PeerStatistic, Data> pair : map2.values()) {
-				if (DefaultMaintenance.needMaintenance(pair.element0(), intervalSeconds)) {
-					return pair.element0();
-				}
+		for (TrackerSwarm swarm : dataMapUnverified.values()) {
+			PeerStatistic peerStatistic = swarm.nextForMaintenance(intervalSeconds);
+			if (peerStatistic != null) {
+				return peerStatistic;
 			}
 		}
 		return null;
 	}
 
+	@Override
+	public List<PeerStatistic> nextForMaintenance(Set<PeerAddress> notInterestedAddresses, int max) {
+		final List<PeerStatistic> result = new ArrayList<PeerStatistic>();
+		for (TrackerSwarm swarm : dataMapUnverified.values()) {
+			if (result.size() >= max) {
+				break;
+			}
+			swarm.nextForMaintenance(intervalSeconds, notInterestedAddresses, max, result);
+		}
+		return result;
+	}
+
 	@Override
 	public void peerInserted(PeerAddress remotePeer, boolean verified) {
 		if (verified) {
-			for (Map.Entry<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> entry : dataMap.entrySet()) {
+			for (Map.Entry<Number320, TrackerSwarm> entry : dataMap.entrySet()) {
 				//if I have conetnt and I see a peer as a new responsible, push it.
 				if(isInReplicationRange(entry.getKey().locationKey(), remotePeer, replicationFactor)) {
 					//limit the pushing peer to those that are responsible
 					if(isInReplicationRange(entry.getKey().locationKey(), self, replicationFactor)) {
-						TrackerData trackerData = new TrackerData(entry.getValue().values());
+						TrackerData trackerData = entry.getValue().trackerData();
 						LOG.debug("other peer is closer, send data {} to peer {}", trackerData, remotePeer);
 						peerExchange.peerExchange(remotePeer, entry.getKey(), trackerData);
 					}
@@ -165,14 +202,14 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 	public void peerRemoved(PeerAddress remotePeer, PeerStatistic storedPeerAddress) {
 		// if a responsible peer is removed, and I see myself as a responsible, 
 		// I should push my content to a random responsible
-		for (Map.Entry<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> entry : dataMap.entrySet()) {
+		for (Map.Entry<Number320, TrackerSwarm> entry : dataMap.entrySet()) {
 			//if I have conetnt and I see the removed peer as a responsible, push it.
 			if(isInReplicationRange(entry.getKey().locationKey(), remotePeer, replicationFactor)) {
 				//limit the pushing peer to those that are responsible
 				if(isInReplicationRange(entry.getKey().locationKey(), self, replicationFactor)) {
 					NavigableSet<PeerStatistic> closePeers = peerMap.closePeers(entry.getKey().locationKey(), replicationFactor);
 					PeerAddress newResponsible = closePeers.headSet(new PeerStatistic(remotePeer)).last().peerAddress();
-					TrackerData trackerData = new TrackerData(entry.getValue().values());
+					TrackerData trackerData = entry.getValue().trackerData();
 					LOG.debug("other peer left, make sure we have enough copies {}, send to peer {}", trackerData, remotePeer);
 					peerExchange.peerExchange(newResponsible, entry.getKey(), trackerData);
 				}
@@ -192,25 +229,21 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		return tmp.headSet(new PeerStatistic(peerAddress)).size() < replicationFactor;
 	}
 
-	private boolean add(Number320 key, PeerAddress peerAddress, Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> map, Data attachement) {
-		
-		//check size
-		Map<PeerAddress, Pair<PeerStatistic, Data>> map2 = map.get(key);
-		if(map2!=null && map2.size() > TRACKER_CACHE_SIZE) {
-			return false;
-		}
-		
-		Pair<PeerStatistic, Data> trackerData = findOld(key, peerAddress, map);
-		if (trackerData == null) {
-			trackerData = new Pair<PeerStatistic, Data>(new PeerStatistic(peerAddress), attachement);
+	private boolean add(Number320 key, PeerAddress peerAddress, ConcurrentCacheMap<Number320, TrackerSwarm> map, Data attachement) {
+		TrackerSwarm swarm = map.get(key);
+		if(swarm == null) {
+			// only unverified peers need maintenance
+			swarm = new TrackerSwarm(maxPeersPerSwarm, trackerTimoutSeconds, map == dataMapUnverified);
+			TrackerSwarm old = map.putIfAbsent(key, swarm);
+			if(old != null) {
+				swarm = old;
+			}
 		}
-		
-		if(map2 == null) {
-			map2 = new ConcurrentCacheMap<PeerAddress, Pair<PeerStatistic, Data>>(trackerTimoutSeconds, TRACKER_CACHE_SIZE, true);
-			map.put(key, map2);
+		if(!swarm.put(peerAddress, attachement)) {
+			rejectedCounter.incrementAndGet();
+			LOG.debug("swarm {} is full, reject peer {}", key, peerAddress);
+			return false;
 		}
-		map2.put(peerAddress, trackerData);
-		
 		return true;
 	}
 
@@ -227,14 +260,12 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		return removed;
 	}
 
-	private Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> removeFromMap(PeerAddress remotePeer, Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> map) {
-		Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> removed = new HashMap<Number320, Map<PeerAddress,Pair<PeerStatistic,Data>>>();
-	    for (Map.Entry<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> entry : map.entrySet()) {
-	    	Pair<PeerStatistic, Data> oldPair = entry.getValue().remove(remotePeer);
-	    	if(oldPair != null) {
-	    		Map<PeerAddress, Pair<PeerStatistic, Data>> map2 = new ConcurrentCacheMap<PeerAddress, Pair<PeerStatistic, Data>>(trackerTimoutSeconds, TRACKER_CACHE_SIZE, true); 
-	    		map2.put(remotePeer, oldPair);
-	    		removed.put(entry.getKey(), map2);
+	private Map<Number320, TrackerSwarm.Entry> removeFromMap(PeerAddress remotePeer, Map<Number320, TrackerSwarm> map) {
+		Map<Number320, TrackerSwarm.Entry> removed = new HashMap<Number320, TrackerSwarm.Entry>();
+	    for (Map.Entry<Number320, TrackerSwarm> entry : map.entrySet()) {
+	    	TrackerSwarm.Entry oldEntry = entry.getValue().remove(remotePeer.peerId());
+	    	if(oldEntry != null) {
+	    		removed.put(entry.getKey(), oldEntry);
 	    	}
 	    	
 			if(entry.getValue().isEmpty()) {
@@ -251,11 +282,9 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		if (firsthand) {
 			peerOffline.remove(remotePeer.peerId());
 			
-			Map<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> removed = removeFromMap(remotePeer, dataMapUnverified);
-			for (Map.Entry<Number320, Map<PeerAddress, Pair<PeerStatistic, Data>>> entry:removed.entrySet()) {
-				for(Pair<PeerStatistic, Data> pair:entry.getValue().values()) {
-					add(entry.getKey(), pair.element0().peerAddress(), dataMap, pair.element1());
-				}
+			Map<Number320, TrackerSwarm.Entry> removed = removeFromMap(remotePeer, dataMapUnverified);
+			for (Map.Entry<Number320, TrackerSwarm.Entry> entry:removed.entrySet()) {
+				add(entry.getKey(), entry.getValue().peerAddress(), dataMap, entry.getValue().data());
 			}
 		}
 		return true;
@@ -269,22 +298,42 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		return dataMapUnverified.size();
     }
 
+	/**
+	 * @return The number of swarms that were evicted because the tracker reached the maximum number of swarms
+	 */
+	public int evictedSwarms() {
+		return dataMap.evictedCounter() + dataMapUnverified.evictedCounter();
+	}
+
+	/**
+	 * @return The number of swarms that expired because no peer announced itself within the time to live
+	 */
+	public int expiredSwarms() {
+		return dataMap.expiredCounter() + dataMapUnverified.expiredCounter();
+	}
+
+	/**
+	 * @return The number of peers that were rejected because their swarm was full
+	 */
+	public long rejectedPeers() {
+		return rejectedCounter.get();
+	}
+
 	@Override
     public DigestInfo digest(Number160 locationKey, Number160 domainKey, Number160 contentKey) {
 		Number160 contentDigest = Number160.ZERO;
 		int counter = 0;
-		Map<PeerAddress, Pair<PeerStatistic, Data>> trackerData = dataMap.get(new Number320(locationKey, domainKey));
-		if(trackerData!=null) {
+		TrackerSwarm swarm = dataMap.get(new Number320(locationKey, domainKey));
+		if(swarm!=null) {
 			if(contentKey!=null) {
-				PeerAddress tmpAddress = new PeerAddress(contentKey);
-				Pair<PeerStatistic, Data> pair = trackerData.get(tmpAddress);
-				if(pair != null) {
-					contentDigest = pair.element1().hash();
+				TrackerSwarm.Entry entry = swarm.get(contentKey);
+				if(entry != null) {
+					contentDigest = entry.data().hash();
 					counter = 1;
 				}
 			} else {
-				for(Map.Entry<PeerAddress, Pair<PeerStatistic, Data>> entry: trackerData.entrySet()) {
-					contentDigest = contentDigest.xor(entry.getValue().element1().hash());
+				for(Data data: swarm.trackerData().peerAddresses().values()) {
+					contentDigest = contentDigest.xor(data.hash());
 					counter++;
 				}
 			}
@@ -292,15 +341,30 @@ public class TrackerStorage implements Maintainable, PeerMapChangeListener, Peer
 		return new DigestInfo(Number160.ZERO, contentKey, counter);
     }
 
-	public Map<PeerAddress, Pair<PeerStatistic, Data>> peers(Number320 number320) {
-		Map<PeerAddress, Pair<PeerStatistic, Data>> retVal = dataMap.get(number320);
-		if(retVal == null) {
-			return Collections.emptyMap();
-		}
-		return retVal;
-    }
-	
+	/**
+	 * @return All verified peers of a swarm, the returned data can be modified
+	 */
 	public TrackerData trackerData(Number320 number320) {
-		return new TrackerData(peers(number320).values());
+		TrackerSwarm swarm = dataMap.get(number320);
+		if(swarm == null) {
+			return new TrackerData(new HashMap<PeerAddress, Data>());
+		}
+		return swarm.trackerData();
+	}
+
+	/**
+	 * Returns a random sample of the verified peers of a swarm. The sample is drawn in O(max) and does not depend on the
+	 * size of the swarm.
+	 * 
+	 * @param max
+	 *            The maximum number of peers to return
+	 * @return At most max peers, marked as incomplete if peers were left out
+	 */
+	public TrackerData trackerData(Number320 number320, int max) {
+		TrackerSwarm swarm = dataMap.get(number320);
+		if(swarm == null) {
+			return new TrackerData(new HashMap<PeerAddress, Data>());
+		}
+		return swarm.trackerData(max, rnd);
 	}
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.tracker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.message.TrackerData;
+import net.tomp2p.peers.DefaultMaintenance;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerStatistic;
+import net.tomp2p.storage.Data;
+import net.tomp2p.utils.CoarseClock;
+
+/**
+ * The peers of one swarm (location and domain key) on a tracker. The entries are stored in an array and indexed by
+ * peer ID. A lookup or a removal is O(1), a removed entry is replaced by the last entry of the array. A random sample
+ * of k peers is drawn with a partial Fisher-Yates shuffle in O(k).
+ * <p>
+ * Per peer, only the peer address, the attachement and the time of the last announce is stored. A
+ * {@link PeerStatistic} is only kept for peers that are not verified yet, as those need maintenance. A peer expires
+ * if it was not announced within the time to live. All methods are synchronized on the swarm.
+ *
+ * @author Thomas Bocek
+ */
+class TrackerSwarm {
+
+	// expired peers are removed at most once per second
+	private static final long EXPIRE_INTERVAL_MILLIS = 1000;
+
+	private final int capacity;
+	private final long timeToLiveMillis;
+	private final boolean maintenance;
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final Map<Number160, Entry> index = new HashMap<Number160, Entry>();
+	private long lastExpire = CoarseClock.currentTimeMillis();
+
+	/**
+	 * @param capacity
+	 *            The maximum number of peers in this swarm
+	 * @param timeToLiveSeconds
+	 *            The time a peer is stored without announcing itself again
+	 * @param maintenance
+	 *            True if a {@link PeerStatistic} is kept per peer for maintenance
+	 */
+	TrackerSwarm(final int capacity, final int timeToLiveSeconds, final boolean maintenance) {
+		this.capacity = capacity;
+		this.timeToLiveMillis = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+		this.maintenance = maintenance;
+	}
+
+	/**
+	 * Adds a peer to this swarm. If the peer is already in the swarm, only its timeout is refreshed and the
+	 * attachement is kept.
+	 *
+	 * @return False if the swarm is full
+	 */
+	synchronized boolean put(final PeerAddress peerAddress, final Data attachement) {
+		final long now = CoarseClock.currentTimeMillis();
+		expire(now);
+		final Entry entry = index.get(peerAddress.peerId());
+		if (entry != null) {
+			entry.lastUpdate = now;
+			return true;
+		}
+		if (entries.size() >= capacity) {
+			return false;
+		}
+		final Entry newEntry = new Entry(peerAddress, attachement, now, entries.size(),
+		        maintenance ? new PeerStatistic(peerAddress) : null);
+		entries.add(newEntry);
+		index.put(peerAddress.peerId(), newEntry);
+		return true;
+	}
+
+	synchronized Entry get(final Number160 peerId) {
+		return index.get(peerId);
+	}
+
+	synchronized Entry remove(final Number160 peerId) {
+		final Entry entry = index.remove(peerId);
+		if (entry != null) {
+			removeAt(entry.position);
+		}
+		return entry;
+	}
+
+	synchronized int size() {
+		expire(CoarseClock.currentTimeMillis());
+		return entries.size();
+	}
+
+	synchronized boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return All peers of this swarm
+	 */
+	synchronized TrackerData trackerData() {
+		expire(CoarseClock.currentTimeMillis());
+		final Map<PeerAddress, Data> peerAddresses = new HashMap<PeerAddress, Data>(entries.size() * 2);
+		for (Entry entry : entries) {
+			peerAddresses.put(entry.peerAddress, entry.data);
+		}
+		return new TrackerData(peerAddresses);
+	}
+
+	/**
+	 * Draws a random sample of this swarm. The order of the entries in the array is changed, but the order does not
+	 * matter.
+	 *
+	 * @param max
+	 *            The maximum number of peers to return
+	 * @param rnd
+	 *            The random generator
+	 * @return At most max peers, marked as incomplete if peers were left out
+	 */
+	synchronized TrackerData trackerData(final int max, final Random rnd) {
+		expire(CoarseClock.currentTimeMillis());
+		final int size = entries.size();
+		if (size <= max) {
+			return trackerData();
+		}
+		final Map<PeerAddress, Data> peerAddresses = new HashMap<PeerAddress, Data>(max * 2);
+		for (int i = 0; i < max; i++) {
+			swap(i, i + rnd.nextInt(size - i));
+			final Entry entry = entries.get(i);
+			peerAddresses.put(entry.peerAddress, entry.data);
+		}
+		return new TrackerData(peerAddresses, true);
+	}
+
+	/**
+	 * @return The statistic of the first peer that needs maintenance, or null if no peer needs maintenance
+	 */
+	synchronized PeerStatistic nextForMaintenance(final int[] intervalSeconds) {
+		if (!maintenance) {
+			return null;
+		}
+		for (Entry entry : entries) {
+			if (DefaultMaintenance.needMaintenance(entry.statistic, intervalSeconds)) {
+				return entry.statistic;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the statistics of the peers that need maintenance to the result until it contains max peers.
+	 * 
+	 * @param intervalSeconds
+	 *            The check intervals
+	 * @param notInterestedAddresses
+	 *            The peers that are not added, or null
+	 * @param max
+	 *            The maximum size of the result
+	 * @param result
+	 *            The statistics of the peers that need maintenance
+	 */
+	synchronized void nextForMaintenance(final int[] intervalSeconds,
+			final Collection<PeerAddress> notInterestedAddresses, final int max, final List<PeerStatistic> result) {
+		if (!maintenance) {
+			return;
+		}
+		for (Entry entry : entries) {
+			if (result.size() >= max) {
+				return;
+			}
+			if (DefaultMaintenance.needMaintenance(entry.statistic, intervalSeconds)
+					&& (notInterestedAddresses == null || !notInterestedAddresses.contains(entry.peerAddress))) {
+				result.add(entry.statistic);
+			}
+		}
+	}
+
+	private void expire(final long now) {
+		if (now - lastExpire < EXPIRE_INTERVAL_MILLIS) {
+			return;
+		}
+		lastExpire = now;
+		// iterate backwards, the last entry is moved into the gap of a removed entry
+		for (int i = entries.size() - 1; i >= 0; i--) {
+			final Entry entry = entries.get(i);
+			if (now - entry.lastUpdate > timeToLiveMillis) {
+				index.remove(entry.peerAddress.peerId());
+				removeAt(i);
+			}
+		}
+	}
+
+	private void removeAt(final int position) {
+		final int last = entries.size() - 1;
+		swap(position, last);
+		entries.remove(last);
+	}
+
+	private void swap(final int i, final int j) {
+		if (i == j) {
+			return;
+		}
+		final Entry a = entries.get(i);
+		final Entry b = entries.get(j);
+		entries.set(i, b);
+		b.position = i;
+		entries.set(j, a);
+		a.position = j;
+	}
+
+	/**
+	 * A peer in a swarm. The peer address and the attachement do not change.
+	 */
+	static class Entry {
+		private final PeerAddress peerAddress;
+		private final Data data;
+		private final PeerStatistic statistic;
+		// only accessed while holding the lock of the swarm
+		private long lastUpdate;
+		private int position;
+
+		private Entry(final PeerAddress peerAddress, final Data data, final long lastUpdate, final int position,
+		        final PeerStatistic statistic) {
+			this.peerAddress = peerAddress;
+			this.data = data;
+			this.lastUpdate = lastUpdate;
+			this.position = position;
+			this.statistic = statistic;
+		}
+
+		PeerAddress peerAddress() {
+			return peerAddress;
+		}
+
+		Data data() {
+			return data;
+		}
+	}
+}
@@ -1,10 +1,7 @@
 package net.tomp2p.tracker;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.futures.BaseFutureAdapter;
@@ -14,27 +11,11 @@ import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.rpc.SimpleBloomFilter;
 import net.tomp2p.storage.Data;
+import net.tomp2p.utils.Utils;
 
 public class UtilsTracker {
 	public static TrackerData limit(TrackerData peers, int size) {
-		Map<PeerAddress, Data> retVal = new HashMap<PeerAddress, Data>(size);
-		
-		Random random = new Random();
-		List<PeerAddress> keys = new ArrayList<PeerAddress>(peers.peerAddresses().keySet());
-		
-		for(int i=0; i<size && !keys.isEmpty(); i++) {
-			PeerAddress key = keys.get( random.nextInt(keys.size()) );
-			Data value = peers.peerAddresses().get(key);
-			if(value != null) {
-				retVal.put(key, value);
-			} else {
-				//not there anymore
-				i--;
-			}
-		}
-		
-		TrackerData data = new TrackerData(retVal, peers.peerAddresses().size() > size);
-		return data;
+		return Utils.limitRandom(peers, size);
 	}
 
 	public static TrackerData disjunction(TrackerData meshPeers, SimpleBloomFilter<Number160> knownPeers) {
@@ -156,4 +156,51 @@ public class TestTrackerStorage {
 		ps = trackerStorage.nextForMaintenance(null);
 		Assert.assertNull(ps);
 	}
+	
+	@Test
+	public void testTrackerSwarmCapacity() throws IOException {
+		Number160 self = Number160.ONE;
+		PeerAddress selfAddress = new PeerAddress(self);
+		PeerMapConfiguration pmc = new PeerMapConfiguration(self);
+		PeerMap pm = new PeerMap(pmc);
+		TrackerStorage trackerStorage = new TrackerStorage(10, new int[] { 10 }, 1, pm, selfAddress, false, 2, 10);
+
+		Number320 n320 = new Number320(Number160.ZERO, Number160.ZERO);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(trackerStorage.put(n320, new PeerAddress(new Number160(i + 1)), null, new Data("test")));
+		}
+		Assert.assertFalse(trackerStorage.put(n320, new PeerAddress(new Number160(11)), null, new Data("test")));
+		// a peer that is already stored can announce itself again
+		Assert.assertTrue(trackerStorage.put(n320, new PeerAddress(new Number160(1)), null, new Data("test")));
+		Assert.assertEquals(1, trackerStorage.rejectedPeers());
+		Assert.assertEquals(10, trackerStorage.trackerData(n320).size());
+
+		// only two swarms fit
+		trackerStorage.put(new Number320(Number160.ONE, Number160.ZERO), selfAddress, null, new Data("test"));
+		trackerStorage.put(new Number320(Number160.MAX_VALUE, Number160.ZERO), selfAddress, null, new Data("test"));
+		Assert.assertEquals(2, trackerStorage.size());
+		Assert.assertEquals(1, trackerStorage.evictedSwarms());
+	}
+	
+	@Test
+	public void testTrackerDataSample() throws IOException {
+		Number160 self = Number160.ONE;
+		PeerAddress selfAddress = new PeerAddress(self);
+		PeerMapConfiguration pmc = new PeerMapConfiguration(self);
+		PeerMap pm = new PeerMap(pmc);
+		TrackerStorage trackerStorage = new TrackerStorage(10, new int[] { 10 }, 1, pm, selfAddress, false);
+
+		Number320 n320 = new Number320(Number160.ZERO, Number160.ZERO);
+		for (int i = 0; i < 100; i++) {
+			trackerStorage.put(n320, new PeerAddress(new Number160(i + 1)), null, new Data("test"));
+		}
+		TrackerData td = trackerStorage.trackerData(n320, 10);
+		Assert.assertEquals(10, td.size());
+		Assert.assertTrue(td.couldProvideMoreData());
+		td = trackerStorage.trackerData(n320, 100);
+		Assert.assertEquals(100, td.size());
+		Assert.assertFalse(td.couldProvideMoreData());
+		// the sample does not remove peers
+		Assert.assertEquals(100, trackerStorage.trackerData(n320).size());
+	}
 }